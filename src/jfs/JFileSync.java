@@ -37,7 +37,9 @@ import jfs.conf.JFSText;
 import jfs.gui.JFSMainView;
 import jfs.server.JFSServerFactory;
 import jfs.shell.JFSShell;
+import jfs.sync.JFSHashCache;
 import jfs.sync.JFSTable;
+import jfs.sync.local.JFSScanCache;
 
 /**
  * JFileSync is an application for synchronizing pairs of directories. This
@@ -47,7 +49,7 @@ import jfs.sync.JFSTable;
  * 
  * @see JFSServerFactory#startCmdLineServer()
  * @see jfs.gui.JFSMainView
- * @see JFSShell#startShell(boolean)
+ * @see JFSShell#startShell(boolean, boolean, boolean)
  * @author Jens Heidrich
  * @version $Id: JFileSync.java,v 1.42 2009/10/08 08:02:08 heidrich Exp $
  */
@@ -104,6 +106,8 @@ public class JFileSync {
 		config.clean();
 
 		boolean quiet = false;
+		boolean pipeline = false;
+		boolean watch = false;
 		boolean launchServer = false;
 		boolean startService = false;
 		boolean stopService = false;
@@ -142,12 +146,40 @@ public class JFileSync {
 					i++;
 					config.setBufferSize(Integer.parseInt(args[i]));
 					loadDefaultFile = false;
+				} else if (args[i].equals("-threads")) {
+					i++;
+					config.setComparisonThreads(Integer.parseInt(args[i]));
+					loadDefaultFile = false;
+				} else if (args[i].equals("-copythreads")) {
+					i++;
+					String scheme = args[i];
+					i++;
+					config.setCopyThreads(scheme, Integer.parseInt(args[i]));
+					loadDefaultFile = false;
+				} else if (args[i].equals("-delta")) {
+					config.setDeltaTransfer(true);
+					loadDefaultFile = false;
+				} else if (args[i].equals("-serverdiff")) {
+					config.setServerDiff(true);
+					loadDefaultFile = false;
+				} else if (args[i].equals("-hash")) {
+					config.setHashComparison(true);
+					loadDefaultFile = false;
 				} else if (args[i].equals("-overwriteuseractions")) {
 					config.setKeepUserActions(false);
 					loadDefaultFile = false;
+				} else if (args[i].equals("-moves")) {
+					config.setMoveDetection(true);
+					loadDefaultFile = false;
 				} else if (args[i].equals("-nohistory")) {
 					config.setStoreHistory(false);
 					loadDefaultFile = false;
+				} else if (args[i].equals("-scancache")) {
+					config.setUseScanCache(true);
+					loadDefaultFile = false;
+				} else if (args[i].equals("-clearcache")) {
+					JFSScanCache.deleteAll();
+					JFSHashCache.getInstance().delete();
 				} else if (args[i].equals("-nowriteprotection")) {
 					config.setCanWrite(false);
 					loadDefaultFile = false;
@@ -213,6 +245,26 @@ public class JFileSync {
 					i++;
 					config.setServerTimeout(Integer.parseInt(args[i]));
 					loadDefaultFile = false;
+				} else if (args[i].equals("-sessions")) {
+					i++;
+					config.setServerSessions(Integer.parseInt(args[i]));
+					loadDefaultFile = false;
+				} else if (args[i].equals("-workers")) {
+					i++;
+					config.setServerWorkers(Integer.parseInt(args[i]));
+					loadDefaultFile = false;
+				} else if (args[i].equals("-cache")) {
+					i++;
+					config.setServerCache(Integer.parseInt(args[i]));
+					loadDefaultFile = false;
+				} else if (args[i].equals("-poolmin")) {
+					i++;
+					config.setServerPoolMin(Integer.parseInt(args[i]));
+					loadDefaultFile = false;
+				} else if (args[i].equals("-poolmax")) {
+					i++;
+					config.setServerPoolMax(Integer.parseInt(args[i]));
+					loadDefaultFile = false;
 				} else if (args[i].equals("-shutdown")) {
 					config.setServerShutDown(true);
 					loadDefaultFile = false;
@@ -220,6 +272,10 @@ public class JFileSync {
 					nogui = true;
 				} else if (args[i].equals("-quiet")) {
 					quiet = true;
+				} else if (args[i].equals("-pipeline")) {
+					pipeline = true;
+				} else if (args[i].equals("-watch")) {
+					watch = true;
 				} else if (args[i].equals("-laf")) {
 					if (((i + 1) >= args.length) || args[i + 1].startsWith("-")) {
 						p.println(t.get("cmd.laf"));
@@ -285,7 +341,7 @@ public class JFileSync {
 				new JFSMainView(loadDefaultFile);
 			} else {
 				s.setNoGui(true);
-				JFSShell.startShell(quiet);
+				JFSShell.startShell(quiet, pipeline, watch);
 			}
 		}
 	}
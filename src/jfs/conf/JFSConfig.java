@@ -21,6 +21,9 @@ package jfs.conf;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.Vector;
 
 import jfs.sync.JFSFile;
@@ -61,12 +64,45 @@ public abstract class JFSConfig implements Cloneable {
 	/** The used buffer size for file operations. */
 	protected int bufferSize;
 
+	/** The number of threads used to read directories during comparison. */
+	protected int comparisonThreads;
+
+	/** The number of files copied concurrently by URI scheme. */
+	protected Map<String, Integer> copyThreads = new TreeMap<String, Integer>();
+
+	/**
+	 * Determines whether only the differences of modified files are transfered
+	 * to a JFS server.
+	 */
+	protected boolean deltaTransfer;
+
+	/**
+	 * Determines whether a JFS server compares its directory structure with
+	 * the structure of the source and transfers only the differences.
+	 */
+	protected boolean serverDiff;
+
+	/**
+	 * Determines whether the contents of files, which differ in their time
+	 * stamps only, are compared.
+	 */
+	protected boolean hashComparison;
+
 	/** Determines whether the system should keep user-defined actions. */
 	protected boolean keepUserActions;
 
+	/**
+	 * Determines whether files deleted on one side and copied to another path
+	 * of the same side are moved instead.
+	 */
+	protected boolean moveDetection;
+
 	/** Determines whether the history of the directory pairs is stored. */
 	protected boolean storeHistory;
 
+	/** Determines whether the listings of local directories are cached. */
+	protected boolean useScanCache;
+
 	/** Determines whether the set can write property of a file is set. */
 	protected boolean setCanWrite;
 
@@ -91,6 +127,21 @@ public abstract class JFSConfig implements Cloneable {
 	/** The used default server timeout for all used sockets. */
 	protected int serverTimeout;
 
+	/** The maximum number of sessions a server handles concurrently. */
+	protected int serverSessions;
+
+	/** The number of threads handling requests on server side. */
+	protected int serverWorkers;
+
+	/** The maximum number of files whose attributes are cached by a server. */
+	protected int serverCache;
+
+	/** The minimum number of connections to a server kept open. */
+	protected int serverPoolMin;
+
+	/** The maximum number of connections to a server. */
+	protected int serverPoolMax;
+
 	/** Determines whether the server shuts down after synchronization. */
 	protected boolean serverShutDown;
 
@@ -133,8 +184,15 @@ public abstract class JFSConfig implements Cloneable {
 		// Advanced settings:
 		granularity = JFSConst.GRANULARITY;
 		bufferSize = JFSConst.BUFFER_SIZE;
+		comparisonThreads = JFSConst.COMPARISON_THREADS;
+		copyThreads.clear();
+		deltaTransfer = JFSConst.DELTA_TRANSFER;
+		serverDiff = JFSConst.SERVER_DIFF;
+		hashComparison = JFSConst.HASH_COMPARISON;
 		keepUserActions = JFSConst.KEEP_USER_ACTIONS;
+		moveDetection = JFSConst.MOVE_DETECTION;
 		storeHistory = JFSConst.STORE_HISTORY;
+		useScanCache = JFSConst.USE_SCAN_CACHE;
 		setCanWrite = JFSConst.SET_CAN_WRITE;
 		setExecutable = JFSConst.SET_EXECUTABLE;
 
@@ -147,6 +205,11 @@ public abstract class JFSConfig implements Cloneable {
 		serverBase = JFSConst.SERVER_BASE;
 		serverPassPhrase = JFSConst.SERVER_PASS_PHRASE;
 		serverTimeout = JFSConst.SERVER_TIMEOUT;
+		serverSessions = JFSConst.SERVER_SESSIONS;
+		serverWorkers = JFSConst.SERVER_WORKERS;
+		serverCache = JFSConst.SERVER_CACHE;
+		serverPoolMin = JFSConst.SERVER_POOL_MIN;
+		serverPoolMax = JFSConst.SERVER_POOL_MAX;
 		serverShutDown = JFSConst.SERVER_SHUT_DOWN;
 
 		// When cleaned, the profile is stored by definition:
@@ -427,6 +490,155 @@ public abstract class JFSConfig implements Cloneable {
 		}
 	}
 
+	/**
+	 * Returns the number of threads used to read directories during
+	 * comparison. If only one thread is used, the comparison is performed
+	 * sequentially.
+	 * 
+	 * @return The number of threads.
+	 */
+	public final int getComparisonThreads() {
+		return comparisonThreads;
+	}
+
+	/**
+	 * Sets the number of threads used to read directories during comparison
+	 * if it is greater than zero.
+	 * 
+	 * @param comparisonThreads
+	 *            The number of threads.
+	 */
+	public void setComparisonThreads(int comparisonThreads) {
+		if (comparisonThreads > 0
+				&& comparisonThreads != this.comparisonThreads) {
+			this.comparisonThreads = comparisonThreads;
+			setCurrentProfileStored(false);
+		}
+	}
+
+	/**
+	 * Returns the number of files copied concurrently, if the source or target
+	 * files belong to a certain URI scheme. If no value is configured for the
+	 * scheme, the default value is returned.
+	 * 
+	 * @param scheme
+	 *            The URI scheme of the file producer.
+	 * @return The number of threads.
+	 */
+	public final int getCopyThreads(String scheme) {
+		Integer threads = copyThreads.get(scheme);
+		if (threads != null)
+			return threads;
+		if (scheme.equals(JFSConst.SCHEME_LOCAL))
+			return JFSConst.COPY_THREADS_LOCAL;
+
+		return JFSConst.COPY_THREADS;
+	}
+
+	/**
+	 * Returns the number of files copied concurrently for all URI schemes, for
+	 * which a value is configured.
+	 * 
+	 * @return The number of threads by URI scheme.
+	 */
+	public final Map<String, Integer> getCopyThreads() {
+		return Collections.unmodifiableMap(copyThreads);
+	}
+
+	/**
+	 * Sets the number of files copied concurrently for a URI scheme if it is
+	 * greater than zero.
+	 * 
+	 * @param scheme
+	 *            The URI scheme of the file producer.
+	 * @param threads
+	 *            The number of threads.
+	 */
+	public void setCopyThreads(String scheme, int threads) {
+		if (threads > 0 && threads != getCopyThreads(scheme)) {
+			copyThreads.put(scheme, threads);
+			setCurrentProfileStored(false);
+		}
+	}
+
+	/**
+	 * Returns whether only the differences of modified files are transfered to
+	 * a JFS server. The server compares the blocks of its existing copy with
+	 * the new contents, so that unchanged blocks are not transfered again.
+	 * Files smaller than {@link JFSConst#DELTA_THRESHOLD} are always copied
+	 * completely.
+	 * 
+	 * @return True if and only if delta transfer is enabled.
+	 */
+	public final boolean isDeltaTransfer() {
+		return deltaTransfer;
+	}
+
+	/**
+	 * Sets whether only the differences of modified files are transfered to a
+	 * JFS server.
+	 * 
+	 * @param deltaTransfer
+	 *            True if and only if delta transfer is enabled.
+	 */
+	public void setDeltaTransfer(boolean deltaTransfer) {
+		if (deltaTransfer != this.deltaTransfer) {
+			this.deltaTransfer = deltaTransfer;
+			setCurrentProfileStored(false);
+		}
+	}
+
+	/**
+	 * Returns whether the directory structure of a JFS server used as target
+	 * is compared on server side. The client sends a manifest of the source
+	 * structure and the server answers with the entries differing from the
+	 * manifest only, instead of listing all of its directories.
+	 * 
+	 * @return True if and only if the structure is compared by the server.
+	 */
+	public final boolean isServerDiff() {
+		return serverDiff;
+	}
+
+	/**
+	 * Sets whether the directory structure of a JFS server used as target is
+	 * compared on server side.
+	 * 
+	 * @param serverDiff
+	 *            True if and only if the structure is compared by the server.
+	 */
+	public void setServerDiff(boolean serverDiff) {
+		if (serverDiff != this.serverDiff) {
+			this.serverDiff = serverDiff;
+			setCurrentProfileStored(false);
+		}
+	}
+
+	/**
+	 * Returns whether the contents of files, which have the same length but
+	 * differ in their time stamps, are compared by computing digests. If the
+	 * digests are equal, the files are considered equal.
+	 * 
+	 * @return True if and only if the contents are compared.
+	 */
+	public final boolean isHashComparison() {
+		return hashComparison;
+	}
+
+	/**
+	 * Sets whether the contents of files, which have the same length but
+	 * differ in their time stamps, are compared by computing digests.
+	 * 
+	 * @param hashComparison
+	 *            True if and only if the contents should be compared.
+	 */
+	public void setHashComparison(boolean hashComparison) {
+		if (hashComparison != this.hashComparison) {
+			this.hashComparison = hashComparison;
+			setCurrentProfileStored(false);
+		}
+	}
+
 	/**
 	 * Returns whether the system should keep user-defined actions.
 	 * 
@@ -449,6 +661,33 @@ public abstract class JFSConfig implements Cloneable {
 		}
 	}
 
+	/**
+	 * Returns whether renamed and moved files are detected. If a file has to
+	 * be deleted and another file with the same length and time of last
+	 * modification has to be copied to the same side, the existing file is
+	 * moved to the new path instead of transfering its contents again, if
+	 * the digests of both files are equal as well. Hence, only local files
+	 * are moved.
+	 * 
+	 * @return True if and only if moves are detected.
+	 */
+	public final boolean isMoveDetection() {
+		return moveDetection;
+	}
+
+	/**
+	 * Sets whether renamed and moved files are detected.
+	 * 
+	 * @param moveDetection
+	 *            True if and only if moves are detected.
+	 */
+	public void setMoveDetection(boolean moveDetection) {
+		if (moveDetection != this.moveDetection) {
+			this.moveDetection = moveDetection;
+			setCurrentProfileStored(false);
+		}
+	}
+
 	/**
 	 * Returns whether the program should store the history of a synchronized
 	 * files. This is needed when the program should automatically use the
@@ -477,6 +716,32 @@ public abstract class JFSConfig implements Cloneable {
 		}
 	}
 
+	/**
+	 * Returns whether the listings of local directories are cached between
+	 * two comparisons. A cached listing and the cached attributes of the
+	 * listed files are used as long as the time stamp of the directory is
+	 * unchanged.
+	 * 
+	 * @return True if and only if the scan cache is used.
+	 */
+	public boolean isUseScanCache() {
+		return useScanCache;
+	}
+
+	/**
+	 * Sets whether the listings of local directories are cached between two
+	 * comparisons.
+	 * 
+	 * @param useScanCache
+	 *            True if and only if the scan cache should be used.
+	 */
+	public void setUseScanCache(boolean useScanCache) {
+		if (useScanCache != this.useScanCache) {
+			this.useScanCache = useScanCache;
+			setCurrentProfileStored(false);
+		}
+	}
+
 	/**
 	 * @return Determines whether the set can write property of a file is set.
 	 */
@@ -619,6 +884,62 @@ public abstract class JFSConfig implements Cloneable {
 		return false;
 	}
 
+	/**
+	 * Determines whether a file given by its name, relative path, and path is
+	 * included in the comparison; that is, it matches at least one include
+	 * expression (if any) and no exclude expression.
+	 * 
+	 * @param name
+	 *            The name of the file.
+	 * @param relativePath
+	 *            The relative path of the file.
+	 * @param path
+	 *            The path of the file.
+	 * @param isDirectory
+	 *            Determines whether the file is a directory.
+	 * @return True, if and only if the file is included.
+	 */
+	public final boolean isIncluded(String name, String relativePath,
+			String path, boolean isDirectory) {
+		if (!includes.isEmpty()) {
+			boolean matches = false;
+			for (JFSFilter f : includes) {
+				if (f.matches(name, relativePath, path, isDirectory)) {
+					matches = true;
+					break;
+				}
+			}
+			if (!matches)
+				return false;
+		}
+		for (JFSFilter f : excludes) {
+			if (f.matches(name, relativePath, path, isDirectory))
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Determines whether an active include or exclude filter is applied to
+	 * the whole path of a file. Such a filter may match a file on one side of
+	 * a directory pair, but not the corresponding file on the other side.
+	 * 
+	 * @return True, if and only if an active path filter exists.
+	 */
+	public final boolean hasPathFilters() {
+		for (JFSFilter f : includes) {
+			if (f.isActive() && f.getType() == JFSFilter.FilterType.PATH)
+				return true;
+		}
+		for (JFSFilter f : excludes) {
+			if (f.isActive() && f.getType() == JFSFilter.FilterType.PATH)
+				return true;
+		}
+
+		return false;
+	}
+
 	/**
 	 * Returns the server port for remote connections.
 	 * 
@@ -707,6 +1028,121 @@ public abstract class JFSConfig implements Cloneable {
 		}
 	}
 
+	/**
+	 * Returns the maximum number of sessions a server handles concurrently.
+	 * Further connections wait until a session is closed.
+	 * 
+	 * @return The maximum number of sessions.
+	 */
+	public int getServerSessions() {
+		return serverSessions;
+	}
+
+	/**
+	 * Sets the maximum number of sessions a server handles concurrently.
+	 * 
+	 * @param serverSessions
+	 *            The maximum number of sessions.
+	 */
+	public void setServerSessions(int serverSessions) {
+		if (serverSessions != this.serverSessions) {
+			this.serverSessions = serverSessions;
+			setCurrentProfileStored(false);
+		}
+	}
+
+	/**
+	 * Returns the number of threads handling requests on server side.
+	 * 
+	 * @return The number of threads.
+	 */
+	public int getServerWorkers() {
+		return serverWorkers;
+	}
+
+	/**
+	 * Sets the number of threads handling requests on server side.
+	 * 
+	 * @param serverWorkers
+	 *            The number of threads.
+	 */
+	public void setServerWorkers(int serverWorkers) {
+		if (serverWorkers != this.serverWorkers) {
+			this.serverWorkers = serverWorkers;
+			setCurrentProfileStored(false);
+		}
+	}
+
+	/**
+	 * Returns the maximum number of files, whose attributes are cached by a
+	 * server for all sessions. A value of zero disables the cache.
+	 * 
+	 * @return The number of files.
+	 */
+	public int getServerCache() {
+		return serverCache;
+	}
+
+	/**
+	 * Sets the maximum number of files, whose attributes are cached by a
+	 * server for all sessions.
+	 * 
+	 * @param serverCache
+	 *            The number of files.
+	 */
+	public void setServerCache(int serverCache) {
+		if (serverCache != this.serverCache) {
+			this.serverCache = serverCache;
+			setCurrentProfileStored(false);
+		}
+	}
+
+	/**
+	 * Returns the minimum number of connections to a server, which are kept
+	 * open even if they are idle.
+	 * 
+	 * @return The minimum number of connections.
+	 */
+	public int getServerPoolMin() {
+		return serverPoolMin;
+	}
+
+	/**
+	 * Sets the minimum number of connections to a server, which are kept open
+	 * even if they are idle.
+	 * 
+	 * @param serverPoolMin
+	 *            The minimum number of connections.
+	 */
+	public void setServerPoolMin(int serverPoolMin) {
+		if (serverPoolMin != this.serverPoolMin) {
+			this.serverPoolMin = serverPoolMin;
+			setCurrentProfileStored(false);
+		}
+	}
+
+	/**
+	 * Returns the maximum number of connections to a server.
+	 * 
+	 * @return The maximum number of connections.
+	 */
+	public int getServerPoolMax() {
+		return serverPoolMax;
+	}
+
+	/**
+	 * Sets the maximum number of connections to a server.
+	 * 
+	 * @param serverPoolMax
+	 *            The maximum number of connections.
+	 */
+	public void setServerPoolMax(int serverPoolMax) {
+		if (serverPoolMax != this.serverPoolMax) {
+			this.serverPoolMax = serverPoolMax;
+			setCurrentProfileStored(false);
+		}
+	}
+
 	/**
 	 * Returns whether the server shuts down after synchronization.
 	 * 
@@ -873,11 +1309,47 @@ public abstract class JFSConfig implements Cloneable {
 			serverUpdate = true;
 		}
 
+		if (comparisonThreads != config.comparisonThreads) {
+			config.comparisonThreads = comparisonThreads;
+			configUpdate = true;
+		}
+
+		if (!copyThreads.equals(config.copyThreads)) {
+			config.copyThreads.clear();
+			config.copyThreads.putAll(copyThreads);
+			configUpdate = true;
+		}
+
+		if (deltaTransfer != config.deltaTransfer) {
+			config.deltaTransfer = deltaTransfer;
+			configUpdate = true;
+		}
+
+		if (serverDiff != config.serverDiff) {
+			config.serverDiff = serverDiff;
+			configUpdate = true;
+		}
+
+		if (hashComparison != config.hashComparison) {
+			config.hashComparison = hashComparison;
+			configUpdate = true;
+		}
+
 		if (keepUserActions != config.keepUserActions) {
 			config.keepUserActions = keepUserActions;
 			configUpdate = true;
 		}
 
+		if (moveDetection != config.moveDetection) {
+			config.moveDetection = moveDetection;
+			configUpdate = true;
+		}
+
+		if (useScanCache != config.useScanCache) {
+			config.useScanCache = useScanCache;
+			configUpdate = true;
+		}
+
 		if (storeHistory != config.storeHistory) {
 			config.storeHistory = storeHistory;
 			configUpdate = true;
@@ -934,6 +1406,31 @@ public abstract class JFSConfig implements Cloneable {
 			serverUpdate = true;
 		}
 
+		if (serverSessions != config.serverSessions) {
+			config.serverSessions = serverSessions;
+			serverUpdate = true;
+		}
+
+		if (serverWorkers != config.serverWorkers) {
+			config.serverWorkers = serverWorkers;
+			serverUpdate = true;
+		}
+
+		if (serverCache != config.serverCache) {
+			config.serverCache = serverCache;
+			serverUpdate = true;
+		}
+
+		if (serverPoolMin != config.serverPoolMin) {
+			config.serverPoolMin = serverPoolMin;
+			configUpdate = true;
+		}
+
+		if (serverPoolMax != config.serverPoolMax) {
+			config.serverPoolMax = serverPoolMax;
+			configUpdate = true;
+		}
+
 		if (serverShutDown != config.serverShutDown) {
 			config.serverShutDown = serverShutDown;
 			// A server update is not necessary in this case, because the
@@ -20,6 +20,7 @@
 package jfs.conf;
 
 import java.io.File;
+import java.util.Map;
 
 import org.w3c.dom.Attr;
 import org.w3c.dom.DOMException;
@@ -92,18 +93,65 @@ class JFSConfigXML extends JFSConfig {
 				if (attr != null)
 					setBufferSize(Integer.parseInt(attr.getValue()));
 
+				attr = root.getAttributeNode("threads");
+
+				if (attr != null)
+					setComparisonThreads(Integer.parseInt(attr.getValue()));
+
+				attr = root.getAttributeNode("copythreads");
+
+				if (attr != null) {
+					for (String entry : attr.getValue().split(",")) {
+						int i = entry.lastIndexOf('=');
+						if (i > 0)
+							setCopyThreads(entry.substring(0, i).trim(),
+									Integer.parseInt(entry.substring(i + 1)
+											.trim()));
+					}
+				}
+
+				attr = root.getAttributeNode("deltatransfer");
+
+				if (attr != null)
+					setDeltaTransfer(Boolean.valueOf(attr.getValue())
+							.booleanValue());
+
+				attr = root.getAttributeNode("serverdiff");
+
+				if (attr != null)
+					setServerDiff(Boolean.valueOf(attr.getValue())
+							.booleanValue());
+
+				attr = root.getAttributeNode("hashcomparison");
+
+				if (attr != null)
+					setHashComparison(Boolean.valueOf(attr.getValue())
+							.booleanValue());
+
 				attr = root.getAttributeNode("keepuseractions");
 
 				if (attr != null)
 					setKeepUserActions(Boolean.valueOf(attr.getValue())
 							.booleanValue());
 
+				attr = root.getAttributeNode("movedetection");
+
+				if (attr != null)
+					setMoveDetection(Boolean.valueOf(attr.getValue())
+							.booleanValue());
+
 				attr = root.getAttributeNode("storehistory");
 
 				if (attr != null)
 					setStoreHistory(Boolean.valueOf(attr.getValue())
 							.booleanValue());
 
+				attr = root.getAttributeNode("scancache");
+
+				if (attr != null)
+					setUseScanCache(Boolean.valueOf(attr.getValue())
+							.booleanValue());
+
 				attr = root.getAttributeNode("setcanwrite");
 
 				if (attr != null)
@@ -138,6 +186,31 @@ class JFSConfigXML extends JFSConfig {
 
 						if (attr != null)
 							serverTimeout = Integer.parseInt(attr.getValue());
+
+						attr = ((Element) child).getAttributeNode("sessions");
+
+						if (attr != null)
+							serverSessions = Integer.parseInt(attr.getValue());
+
+						attr = ((Element) child).getAttributeNode("workers");
+
+						if (attr != null)
+							serverWorkers = Integer.parseInt(attr.getValue());
+
+						attr = ((Element) child).getAttributeNode("cache");
+
+						if (attr != null)
+							serverCache = Integer.parseInt(attr.getValue());
+
+						attr = ((Element) child).getAttributeNode("poolmin");
+
+						if (attr != null)
+							serverPoolMin = Integer.parseInt(attr.getValue());
+
+						attr = ((Element) child).getAttributeNode("poolmax");
+
+						if (attr != null)
+							serverPoolMax = Integer.parseInt(attr.getValue());
 					} catch (NumberFormatException e) {
 						// Thrown by parseInt() and parseByte(). Continue in
 						// this case.
@@ -248,14 +321,49 @@ class JFSConfigXML extends JFSConfig {
 						.setAttribute("buffersize", String
 								.valueOf(getBufferSize()));
 
+			if (getComparisonThreads() != JFSConst.COMPARISON_THREADS)
+				root.setAttribute("threads", String
+						.valueOf(getComparisonThreads()));
+
+			if (!getCopyThreads().isEmpty()) {
+				String threads = "";
+				for (Map.Entry<String, Integer> e : getCopyThreads()
+						.entrySet()) {
+					if (!threads.equals(""))
+						threads += ",";
+					threads += e.getKey() + "=" + e.getValue();
+				}
+				root.setAttribute("copythreads", threads);
+			}
+
+			if (isDeltaTransfer() != JFSConst.DELTA_TRANSFER)
+				root.setAttribute("deltatransfer", String
+						.valueOf(isDeltaTransfer()));
+
+			if (isServerDiff() != JFSConst.SERVER_DIFF)
+				root.setAttribute("serverdiff", String
+						.valueOf(isServerDiff()));
+
+			if (isHashComparison() != JFSConst.HASH_COMPARISON)
+				root.setAttribute("hashcomparison", String
+						.valueOf(isHashComparison()));
+
 			if (isKeepUserActions() != JFSConst.KEEP_USER_ACTIONS)
 				root.setAttribute("keepuseractions", String
 						.valueOf(isKeepUserActions()));
 
+			if (isMoveDetection() != JFSConst.MOVE_DETECTION)
+				root.setAttribute("movedetection", String
+						.valueOf(isMoveDetection()));
+
 			if (isStoreHistory() != JFSConst.STORE_HISTORY)
 				root.setAttribute("storehistory", String
 						.valueOf(isStoreHistory()));
 
+			if (isUseScanCache() != JFSConst.USE_SCAN_CACHE)
+				root.setAttribute("scancache", String
+						.valueOf(isUseScanCache()));
+
 			if (isSetCanWrite() != JFSConst.SET_CAN_WRITE)
 				root.setAttribute("setcanwrite", String
 						.valueOf(isSetCanWrite()));
@@ -269,6 +377,11 @@ class JFSConfigXML extends JFSConfig {
 					|| !serverBase.equals(JFSConst.SERVER_BASE)
 					|| !serverPassPhrase.equals(JFSConst.SERVER_PASS_PHRASE)
 					|| serverTimeout != JFSConst.SERVER_TIMEOUT
+					|| serverSessions != JFSConst.SERVER_SESSIONS
+					|| serverWorkers != JFSConst.SERVER_WORKERS
+					|| serverCache != JFSConst.SERVER_CACHE
+					|| serverPoolMin != JFSConst.SERVER_POOL_MIN
+					|| serverPoolMax != JFSConst.SERVER_POOL_MAX
 					|| serverShutDown != JFSConst.SERVER_SHUT_DOWN) {
 				Element element = doc.createElement("server");
 
@@ -285,6 +398,25 @@ class JFSConfigXML extends JFSConfig {
 					element.setAttribute("timeout", String
 							.valueOf(serverTimeout));
 
+				if (serverSessions != JFSConst.SERVER_SESSIONS)
+					element.setAttribute("sessions", String
+							.valueOf(serverSessions));
+
+				if (serverWorkers != JFSConst.SERVER_WORKERS)
+					element.setAttribute("workers", String
+							.valueOf(serverWorkers));
+
+				if (serverCache != JFSConst.SERVER_CACHE)
+					element.setAttribute("cache", String.valueOf(serverCache));
+
+				if (serverPoolMin != JFSConst.SERVER_POOL_MIN)
+					element.setAttribute("poolmin", String
+							.valueOf(serverPoolMin));
+
+				if (serverPoolMax != JFSConst.SERVER_POOL_MAX)
+					element.setAttribute("poolmax", String
+							.valueOf(serverPoolMax));
+
 				if (serverShutDown != JFSConst.SERVER_SHUT_DOWN)
 					element.setAttribute("shutdown", String
 							.valueOf(serverShutDown));
@@ -100,12 +100,142 @@ public class JFSConst {
 	/** The used buffer size for file operations. */
 	public static final int BUFFER_SIZE = 262144;
 
+	/**
+	 * The number of bytes transfered at once between two file channels; that
+	 * is, the progress is updated after each chunk of this size.
+	 */
+	public static final int CHANNEL_CHUNK_SIZE = 8388608;
+
+	/**
+	 * The number of buffers read ahead while copying streams; that is, the
+	 * source is read on a separate thread, while the target is written.
+	 */
+	public static final int READ_AHEAD_BUFFERS = 4;
+
+	/**
+	 * The number of threads used to read directories during comparison. A
+	 * value of one performs the comparison on a single thread.
+	 */
+	public static final int COMPARISON_THREADS = 1;
+
+	/**
+	 * The number of files copied concurrently for a URI scheme, if no other
+	 * value is configured for the scheme. A value of one copies the files
+	 * sequentially.
+	 */
+	public static final int COPY_THREADS = 1;
+
+	/**
+	 * The number of files copied concurrently between local directories, if
+	 * no other value is configured for the local scheme. Concurrent copies
+	 * only pay off for some storage devices, so they have to be enabled
+	 * explicitly.
+	 */
+	public static final int COPY_THREADS_LOCAL = 1;
+
+	/**
+	 * The default value, whether only the differences of modified files are
+	 * transfered to a JFS server.
+	 */
+	public static final boolean DELTA_TRANSFER = false;
+
+	/**
+	 * The default value, whether a JFS server compares its directory
+	 * structure with the structure of the source and transfers only the
+	 * differences.
+	 */
+	public static final boolean SERVER_DIFF = false;
+
+	/**
+	 * The length in bytes, below which files are copied completely to a JFS
+	 * server, even if delta transfer is enabled.
+	 */
+	public static final long DELTA_THRESHOLD = 1048576;
+
+	/** The minimal length of a block compared by delta transfer. */
+	public static final int DELTA_BLOCK_SIZE_MIN = 2048;
+
+	/** The maximal length of a block compared by delta transfer. */
+	public static final int DELTA_BLOCK_SIZE_MAX = 131072;
+
+	/** The algorithm used to compute the digest of a single block. */
+	public static final String DELTA_BLOCK_ALGORITHM = "MD5";
+
+	/**
+	 * The length in bytes, from which on files are copied to a partial file
+	 * first, so that an interrupted copy can be resumed by the next run.
+	 */
+	public static final long RESUME_THRESHOLD = 4194304;
+
+	/** The suffix of a partial file kept for an interrupted copy. */
+	public static final String PARTIAL_FILE_SUFFIX = ".jfspart";
+
+	/** The suffix of the checkpoint of a partial file. */
+	public static final String CHECKPOINT_FILE_SUFFIX = ".jfsckpt";
+
+	/**
+	 * The maximal length in bytes of a file, which is transfered together
+	 * with other files in a single batch, if supported by the target.
+	 */
+	public static final long BATCH_FILE_SIZE = 262144;
+
+	/** The maximal number of bytes transfered in a single batch. */
+	public static final long BATCH_SIZE = 8388608;
+
+	/** The maximal number of files transfered in a single batch. */
+	public static final int BATCH_FILES = 1000;
+
+	/**
+	 * The maximal number of directories created, files deleted, or
+	 * information objects put in a single batch.
+	 */
+	public static final int BATCH_OPERATIONS = 1000;
+
+	/**
+	 * The maximal number of statements waiting for execution, if comparison
+	 * and synchronization are performed in a pipeline.
+	 */
+	public static final int PIPELINE_CAPACITY = 1000;
+
+	/**
+	 * The time in ms without further change events, before changed
+	 * directories are synchronized if directories are watched continuously.
+	 */
+	public static final long WATCH_DELAY = 1000;
+
+	/**
+	 * The maximum time in ms change events are collected, before changed
+	 * directories are synchronized if directories are watched continuously.
+	 */
+	public static final long WATCH_MAX_DELAY = 10000;
+
+	/**
+	 * Determines whether the contents of files, which differ in their time
+	 * stamps only, are compared.
+	 */
+	public static final boolean HASH_COMPARISON = false;
+
+	/** The algorithm used to compute digests of file contents. */
+	public static final String HASH_ALGORITHM = "SHA-256";
+
 	/** Determines whether the system should keep user-defined actions. */
 	public static final boolean KEEP_USER_ACTIONS = true;
 
+	/**
+	 * The default value, whether files deleted on one side and copied to
+	 * another path of the same side are moved instead.
+	 */
+	public static final boolean MOVE_DETECTION = false;
+
 	/** Determines whether the system stores the synchronization histories. */
 	public static final boolean STORE_HISTORY = true;
 
+	/**
+	 * Determines whether the listings of local directories are cached between
+	 * two comparisons.
+	 */
+	public static final boolean USE_SCAN_CACHE = false;
+
 	/** Determines whether the set can write property of a file is set. */
 	public static final boolean SET_CAN_WRITE = true;
 
@@ -124,6 +254,52 @@ public class JFSConst {
 	/** The used default server timeout for all used sockets. */
 	public static final int SERVER_TIMEOUT = 5000;
 
+	/**
+	 * The used default maximum number of sessions a server handles
+	 * concurrently.
+	 */
+	public static final int SERVER_SESSIONS = 256;
+
+	/**
+	 * The maximum number of accepted connections waiting for a session, if the
+	 * maximum number of sessions is reached. Further connections are rejected.
+	 */
+	public static final int SERVER_QUEUE = 256;
+
+	/** The used default number of threads handling requests on server side. */
+	public static final int SERVER_WORKERS = 16;
+
+	/**
+	 * The maximum number of files transfered in a single page of a directory
+	 * listing.
+	 */
+	public static final int SERVER_LIST_PAGE = 1000;
+
+	/**
+	 * The used default maximum number of files, whose attributes are cached by
+	 * a server.
+	 */
+	public static final int SERVER_CACHE = 100000;
+
+	/**
+	 * The used default minimum number of connections to a server, which are
+	 * kept open even if they are idle.
+	 */
+	public static final int SERVER_POOL_MIN = 1;
+
+	/** The used default maximum number of connections to a server. */
+	public static final int SERVER_POOL_MAX = 4;
+
+	/** The time in ms after which idle connections to a server are closed. */
+	public static final int SERVER_POOL_IDLE = 60000;
+
+	/**
+	 * The time in ms between two tests of the connections to a server, and
+	 * between two wake-ups of the server loop, if no server time out is set.
+	 * Otherwise, the period depends on the time out.
+	 */
+	public static final int SERVER_POOL_CHECK = 1000;
+
 	/** Determines whether the server shuts down after synchronization. */
 	public static final boolean SERVER_SHUT_DOWN = false;
 
@@ -154,6 +330,19 @@ public class JFSConst {
 	/** The prefix of a history file. */
 	public static final String HISTORY_FILE_PREFIX = "History-";
 
+	/** The file the digests of file contents are cached in. */
+	public static final String HASH_CACHE_FILE = "HashCache.dat";
+
+	/** The prefix of a scan cache file. */
+	public static final String SCAN_CACHE_FILE_PREFIX = "ScanCache-";
+
+	/**
+	 * The time in ms a directory has to be unmodified before its listing is
+	 * cached. Changes within this interval may not alter the time stamp of
+	 * the directory, depending on the file system.
+	 */
+	public static final long SCAN_CACHE_GRANULARITY = 2000;
+
 	/** The associated bundle to access the properties file. */
 	private ResourceBundle bundle;
 
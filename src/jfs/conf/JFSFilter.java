@@ -20,6 +20,7 @@
 package jfs.conf;
 
 import java.io.File;
+import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
 import jfs.sync.JFSFile;
@@ -75,9 +76,32 @@ public class JFSFilter implements Cloneable {
 	/** Determines whether the filter should be applied or not. */
 	private boolean isActive = true;
 
+	/** The kind of a filter, which can be tested without regular expression. */
+	private static enum Literal {
+		NONE, EQUALS, STARTS_WITH, ENDS_WITH, CONTAINS
+	};
+
 	/** The regular expression representing the filter. */
 	private String filter;
 
+	/**
+	 * The compiled regular expression of the filter. Null, if the regular
+	 * expression is invalid.
+	 */
+	private Pattern pattern;
+
+	/**
+	 * The compiled regular expression of the filter applied to relative paths.
+	 * Null, if the regular expression is invalid.
+	 */
+	private Pattern relativePathPattern;
+
+	/** The kind of the filter, if it can be tested without pattern. */
+	private Literal literal;
+
+	/** The literal text of the filter, if it can be tested without pattern. */
+	private String literalText;
+
 	/**
 	 * Creates a new filter.
 	 * 
@@ -85,7 +109,112 @@ public class JFSFilter implements Cloneable {
 	 *            The filter to use.
 	 */
 	public JFSFilter(String filter) {
-		this.filter = filter;
+		setFilter(filter);
+	}
+
+	/**
+	 * Compiles the regular expression of the filter. If the regular
+	 * expression is a simple literal, which may start and/or end with '.*'
+	 * (like '.*\\.bak'), it is tested without pattern.
+	 */
+	private final void compile() {
+		try {
+			pattern = Pattern.compile(filter);
+			relativePathPattern = Pattern.compile("\\" + File.separator + "?"
+					+ filter);
+		} catch (PatternSyntaxException e) {
+			pattern = null;
+			relativePathPattern = null;
+		}
+
+		literal = Literal.NONE;
+		literalText = null;
+		if (pattern == null)
+			return;
+
+		// Parse the expression as literal with optional wildcards at the
+		// beginning and the end:
+		boolean anyStart = false;
+		boolean anyEnd = false;
+		StringBuilder text = new StringBuilder();
+		int i = 0;
+		while (i < filter.length()) {
+			char c = filter.charAt(i);
+			char next = (i + 1 < filter.length()) ? filter.charAt(i + 1) : 0;
+			if (anyEnd) {
+				return;
+			} else if (c == '.' && next == '*') {
+				if (i == 0) {
+					anyStart = true;
+				} else {
+					anyEnd = true;
+				}
+				i += 2;
+			} else if (c == '\\' && next != 0
+					&& !Character.isLetterOrDigit(next)) {
+				text.append(next);
+				i += 2;
+			} else if ("\\^$.|?*+()[]{}".indexOf(c) != -1) {
+				return;
+			} else {
+				text.append(c);
+				i++;
+			}
+		}
+
+		literalText = text.toString();
+		if (anyStart && anyEnd) {
+			literal = Literal.CONTAINS;
+		} else if (anyStart) {
+			literal = Literal.ENDS_WITH;
+		} else if (anyEnd) {
+			literal = Literal.STARTS_WITH;
+		} else {
+			literal = Literal.EQUALS;
+		}
+	}
+
+	/**
+	 * Tests whether a text matches the filter.
+	 * 
+	 * @param text
+	 *            The text to test.
+	 * @return True if and only if the text matches the regular expression of
+	 *         the filter.
+	 */
+	private final boolean matches(String text) {
+		if (literal == Literal.EQUALS)
+			return text.equals(literalText);
+
+		// The wildcard '.' does not match line terminators:
+		if (literal != Literal.NONE && !hasLineTerminator(text)) {
+			if (literal == Literal.ENDS_WITH)
+				return text.endsWith(literalText);
+			if (literal == Literal.STARTS_WITH)
+				return text.startsWith(literalText);
+			if (literal == Literal.CONTAINS)
+				return text.contains(literalText);
+		}
+
+		return pattern != null && pattern.matcher(text).matches();
+	}
+
+	/**
+	 * Determines whether a text contains a line terminator.
+	 * 
+	 * @param text
+	 *            The text to check.
+	 * @return True if and only if the text contains a line terminator.
+	 */
+	private static final boolean hasLineTerminator(String text) {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028'
+					|| c == '\u2029')
+				return true;
+		}
+
+		return false;
 	}
 
 	/**
@@ -167,6 +296,7 @@ public class JFSFilter implements Cloneable {
 	 */
 	public void setFilter(String filter) {
 		this.filter = filter;
+		compile();
 	}
 
 	/**
@@ -195,21 +325,38 @@ public class JFSFilter implements Cloneable {
 	 *         the regular expression of the filter.
 	 */
 	public boolean matches(JFSFile file) {
-		try {
-			return isActive
-					&& (range == FilterRange.ALL || file.isDirectory()
-							&& range == FilterRange.DIRECTORIES || !file
-							.isDirectory()
-							&& range == FilterRange.FILES)
-					&& (type == FilterType.NAME
-							&& file.getName().matches(filter)
-							|| type == FilterType.RELATIVE_PATH
-							&& file.getRelativePath().matches(
-									"\\" + File.separator + "?" + filter) || type == FilterType.PATH
-							&& file.getPath().matches(filter));
-		} catch (PatternSyntaxException e) {
-			return false;
-		}
+		return matches(file.getName(), file.getRelativePath(), file.getPath(),
+				file.isDirectory());
+	}
+
+	/**
+	 * Tests whether a file given by its name, relative path, and path matches
+	 * the filter; for instance, before the corresponding JFS file is created.
+	 * 
+	 * @param name
+	 *            The name of the file.
+	 * @param relativePath
+	 *            The relative path of the file.
+	 * @param path
+	 *            The path of the file.
+	 * @param isDirectory
+	 *            Determines whether the file is a directory.
+	 * @return Returns true if the filter is active and the given file matches
+	 *         the regular expression of the filter.
+	 * @see #matches(JFSFile)
+	 */
+	public boolean matches(String name, String relativePath, String path,
+			boolean isDirectory) {
+		return isActive
+				&& (range == FilterRange.ALL || isDirectory
+						&& range == FilterRange.DIRECTORIES || !isDirectory
+						&& range == FilterRange.FILES)
+				&& (type == FilterType.NAME
+						&& matches(name)
+						|| type == FilterType.RELATIVE_PATH
+						&& relativePathPattern != null
+						&& relativePathPattern.matcher(relativePath).matches() || type == FilterType.PATH
+						&& matches(path));
 	}
 
 	/**
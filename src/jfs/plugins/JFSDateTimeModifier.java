@@ -20,6 +20,7 @@
 package jfs.plugins;
 
 import java.awt.GridLayout;
+import java.io.IOException;
 import java.util.Vector;
 
 import javax.swing.JComboBox;
@@ -31,6 +32,7 @@ import javax.swing.JSpinner;
 import javax.swing.SpinnerNumberModel;
 
 import jfs.conf.JFSConfig;
+import jfs.conf.JFSConst;
 import jfs.conf.JFSDirectoryPair;
 import jfs.conf.JFSLog;
 import jfs.conf.JFSSettings;
@@ -38,6 +40,7 @@ import jfs.conf.JFSText;
 import jfs.sync.JFSFile;
 import jfs.sync.JFSFileProducer;
 import jfs.sync.JFSFileProducerManager;
+import jfs.sync.JFSMetadataBatch;
 
 /**
  * This plugin is able to modify the data/time of the source or target file
@@ -133,8 +136,15 @@ public class JFSDateTimeModifier implements JFSPlugin {
 			JFSFileProducer factory = pm.createProducer(path);
 			JFSFile file = factory.getRootJfsFile();
 
-			traverse(file, ms);
-			file.flush();
+			// Flush the modified files in batches, if supported:
+			JFSMetadataBatch batch = factory.createMetadataBatch();
+			if (batch != null) {
+				traverse(file, ms, batch);
+				finish(batch);
+			} else {
+				traverse(file, ms);
+				file.flush();
+			}
 
 			pm.shutDownProducer(path);
 		}
@@ -150,9 +160,31 @@ public class JFSDateTimeModifier implements JFSPlugin {
 	 *            The modification interval.
 	 */
 	public void traverse(JFSFile file, long ms) {
+		traverse(file, ms, null);
+	}
+
+	/**
+	 * Modifies a given file object and traverses the whole file system tree
+	 * structure. Every modified file is added to a metadata batch, which is
+	 * finished as soon as it is full.
+	 * 
+	 * @param file
+	 *            The file to modify.
+	 * @param ms
+	 *            The modification interval.
+	 * @param batch
+	 *            The batch to flush modified files with or null, if the
+	 *            files are flushed later on.
+	 */
+	private void traverse(JFSFile file, long ms, JFSMetadataBatch batch) {
 		if (!file.isDirectory()) {
 			if (!JFSSettings.getInstance().isDebug()) {
 				file.setLastModified(file.getLastModified() + ms);
+				if (batch != null) {
+					batch.flush(file);
+					if (batch.size() == JFSConst.BATCH_OPERATIONS)
+						finish(batch);
+				}
 			} else {
 				JFSLog.getOut().getStream().println(
 						file.getName() + ", Old: " + file.getLastModified()
@@ -163,9 +195,24 @@ public class JFSDateTimeModifier implements JFSPlugin {
 
 			if (files != null) {
 				for (int i = 0; i < files.length; i++) {
-					traverse(files[i], ms);
+					traverse(files[i], ms, batch);
 				}
 			}
 		}
 	}
+
+	/**
+	 * Flushes all files added to a metadata batch.
+	 * 
+	 * @param batch
+	 *            The batch to finish.
+	 */
+	private void finish(JFSMetadataBatch batch) {
+		try {
+			batch.finish();
+		} catch (IOException e) {
+			JFSLog.getErr().getStream().println(
+					JFSText.getInstance().get("error.external") + " " + e);
+		}
+	}
 }
\ No newline at end of file
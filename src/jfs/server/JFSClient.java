@@ -19,22 +19,42 @@
 
 package jfs.server;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.RejectedExecutionException;
 
 import jfs.conf.JFSConfig;
+import jfs.conf.JFSConst;
 import jfs.conf.JFSLog;
 import jfs.conf.JFSText;
+import jfs.sync.JFSFile;
 
 /**
  * This class creates a simple JFS client that listens at a given port on the
@@ -43,12 +63,17 @@ import jfs.conf.JFSText;
  * server side and (2) file contents as a byte stream. Depending on the
  * transmitted command the server sends back (1) file information objects, (2)
  * file contents as a byte stream, (3) or a boolean value indicating whether a
- * certain action was performed successfully.
+ * certain action was performed successfully. Modified files may also be
+ * transfered as differences to the existing copy on server side. Requests of
+ * a multiplexed channel (see {@link JFSServerChannel}) are handled
+ * concurrently and answered as soon as they are finished. A client doesn't
+ * own a thread: it is run by a worker thread of the server for every request
+ * and waits for the next request without a thread afterwards.
  * 
  * @author Jens Heidrich
  * @version $Id: JFSClient.java,v 1.16 2009/10/08 08:19:53 heidrich Exp $
  */
-public class JFSClient extends Thread {
+public class JFSClient implements Runnable {
 
 	/** The JFS server that manages the client. */
 	private JFSServer server;
@@ -56,8 +81,27 @@ public class JFSClient extends Thread {
 	/** The socket to read from and write to. */
 	private Socket socket;
 
+	/** The stream to read from, which allows to inspect the next request. */
+	private PushbackInputStream in = null;
+
 	/**
-	 * Creates a new server thread for a client request.
+	 * The lock for writing to the socket and for changing its blocking mode.
+	 * Replies of a multiplexed channel are written while the socket waits for
+	 * the next request in non-blocking mode.
+	 */
+	private final Object lock = new Object();
+
+	/** The last time when a request was received. */
+	private volatile long lastUsed = System.currentTimeMillis();
+
+	/** Determines whether the client is closed after the current request. */
+	private volatile boolean closing = false;
+
+	/** Determines whether the client is closed. */
+	private boolean closed = false;
+
+	/**
+	 * Creates a new server client for a client connection.
 	 * 
 	 * @param server
 	 *            The JFS server that manages the client.
@@ -71,24 +115,29 @@ public class JFSClient extends Thread {
 	}
 
 	/**
+	 * Handles the next request of the client, which is available on the
+	 * socket, and lets the client wait for the following request afterwards.
+	 * 
 	 * @see java.lang.Runnable#run()
 	 */
 	public void run() {
 		JFSText t = JFSText.getInstance();
 		try {
-			try {
-				while (!interrupted()) {
-					handleClient();
-				}
-			} catch (SocketTimeoutException e) {
-				JFSLog.getOut().getStream().println(t.get("error.timeout"));
-			} catch (ClassNotFoundException e) {
-				JFSLog.getOut().getStream().println(t.get("error.external") + " " + e);
+			synchronized (lock) {
+				socket.getChannel().configureBlocking(true);
 			}
-			server.getSockets().remove(socket);
-			socket.shutdownInput();
-			socket.shutdownOutput();
-			socket.close();
+			handleClient();
+			lastUsed = System.currentTimeMillis();
+
+			if (!closing) {
+				waitForRequest();
+
+				return;
+			}
+		} catch (SocketTimeoutException e) {
+			JFSLog.getOut().getStream().println(t.get("error.timeout"));
+		} catch (ClassNotFoundException e) {
+			JFSLog.getOut().getStream().println(t.get("error.external") + " " + e);
 		} catch (SocketException e) {
 			// Ignore socket exceptions...
 		} catch (EOFException e) {
@@ -98,6 +147,476 @@ public class JFSClient extends Thread {
 			JFSLog.getErr().getStream().println(
 					t.get("error.external") + " " + e);
 		}
+		close();
+	}
+
+	/**
+	 * Lets the client wait for its next request without using a thread.
+	 */
+	void waitForRequest() {
+		try {
+			synchronized (lock) {
+				socket.getChannel().configureBlocking(false);
+			}
+			server.waitForRequest(this);
+		} catch (IOException e) {
+			close();
+		}
+	}
+
+	/**
+	 * Closes the socket of the client and ends the session.
+	 */
+	void close() {
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+		}
+
+		server.getSockets().remove(socket);
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// Ignore IO exceptions...
+		}
+		server.closeSession();
+	}
+
+	/**
+	 * Returns the socket of the client.
+	 * 
+	 * @return The socket.
+	 */
+	Socket getSocket() {
+		return socket;
+	}
+
+	/**
+	 * Returns the last time when a request was received.
+	 * 
+	 * @return The time.
+	 */
+	long getLastUsed() {
+		return lastUsed;
+	}
+
+	/**
+	 * Reads a single file of a batch and updates the file system. The whole
+	 * frame of the file is read, even if the file cannot be written, in order
+	 * to keep the stream usable for the following files.
+	 * 
+	 * @param in
+	 *            The stream to read the file from.
+	 * @param info
+	 *            The file information object of the file.
+	 * @param buf
+	 *            The buffer to use.
+	 * @return True if and only if the file was updated successfully.
+	 * @throws IOException
+	 *             Thrown in case of IO problems.
+	 */
+	private boolean receiveFile(DataInputStream in, JFSFileInfo info,
+			byte[] buf) throws IOException {
+		File file = info.complete();
+		boolean success = !file.exists() || file.delete();
+		OutputStream out = null;
+
+		try {
+			if (success)
+				out = new FileOutputStream(file);
+		} catch (IOException e) {
+			success = false;
+		}
+
+		try {
+			long remaining = info.getLength();
+			while (remaining > 0) {
+				int len = in.read(buf, 0, (int) Math.min(buf.length,
+						remaining));
+				if (len < 0)
+					throw new EOFException();
+				if (out != null) {
+					try {
+						out.write(buf, 0, len);
+					} catch (IOException e) {
+						success = false;
+					}
+				}
+				remaining -= len;
+			}
+		} finally {
+			if (out != null)
+				out.close();
+		}
+
+		// The client reports whether the contents are complete:
+		success = in.readBoolean() && success;
+
+		// Updates the file system; that is sets last modified and can write
+		// property:
+		if (success && !info.updateFileSystem()) {
+			JFSLog.getOut().getStream().println(
+					JFSText.getInstance().get("error.update"));
+			success = false;
+		}
+		if (!success && out != null)
+			file.delete();
+		server.getCache().invalidate(file);
+
+		return success;
+	}
+
+	/**
+	 * Sends the contents of a directory in pages. Cached listings are sent
+	 * at once. Otherwise, the directory is read entry by entry in the order
+	 * of the file system, so that only a single page is kept in memory.
+	 * Contained directories are not read. If the directory cannot be read,
+	 * the listing ends with the entries sent so far.
+	 * 
+	 * @param out
+	 *            The stream to write to.
+	 * @param dir
+	 *            The file information object of the directory.
+	 * @param file
+	 *            The directory.
+	 * @throws IOException
+	 *             Thrown in case of IO problems.
+	 */
+	private void sendList(OutputStream out, JFSFileInfo dir, File file)
+			throws IOException {
+		ArrayList<JFSFileInfo> page = new ArrayList<JFSFileInfo>();
+		DirectoryStream<Path> stream = null;
+		JFSFileInfo[] list = server.getCache().list(dir, file);
+
+		if (list != null) {
+			for (JFSFileInfo entry : list) {
+				page.add(entry);
+
+				if (page.size() == JFSConst.SERVER_LIST_PAGE) {
+					JFSWireProtocol.writePage(out, page, false);
+					page.clear();
+				}
+			}
+			JFSWireProtocol.writePage(out, page, true);
+
+			return;
+		}
+
+		try {
+			stream = Files.newDirectoryStream(file.toPath());
+		} catch (IOException e) {
+			JFSLog.getErr().getStream().println(
+					JFSText.getInstance().get("error.io") + " '" + e + "'.");
+			JFSWireProtocol.writePage(out, page, true);
+
+			return;
+		}
+
+		try {
+			for (Path p : stream) {
+				String name = p.getFileName().toString();
+
+				// Skip the contents of interrupted copies:
+				if (JFSFile.isPartialFile(name))
+					continue;
+
+				JFSFileInfo entry = new JFSFileInfo(dir.getRootPath(), dir
+						.getRelativePath()
+						+ File.separator + name);
+				entry.updateAttributes();
+				page.add(entry);
+
+				if (page.size() == JFSConst.SERVER_LIST_PAGE) {
+					JFSWireProtocol.writePage(out, page, false);
+					page.clear();
+				}
+			}
+		} catch (DirectoryIteratorException e) {
+			JFSLog.getErr().getStream().println(
+					JFSText.getInstance().get("error.io") + " '"
+							+ e.getCause() + "'.");
+		} finally {
+			stream.close();
+		}
+
+		JFSWireProtocol.writePage(out, page, true);
+	}
+
+	/**
+	 * Performs a command changing the file system without contents; that is,
+	 * putting a file information object, creating a directory, or deleting a
+	 * file. These commands may be sent one by one or in batches. The cached
+	 * attributes of the changed file are dropped.
+	 * 
+	 * @param command
+	 *            The command to perform.
+	 * @param info
+	 *            The file information object of the command.
+	 * @return The reply to the command.
+	 */
+	private Object perform(byte command, JFSFileInfo info) {
+		JFSText text = JFSText.getInstance();
+		File file;
+		boolean success;
+
+		switch (command) {
+		case JFSTransmission.CMD_PUT_INFO:
+			JFSLog.getOut().getStream().println(
+					text.get("cmd.server.puttingInfo") + " "
+							+ info.getVirtualPath());
+
+			success = info.updateFileSystem();
+			server.getCache().invalidate(new File(info.getPath()));
+
+			return success;
+
+		case JFSTransmission.CMD_MKDIR:
+			JFSLog.getOut().getStream().println(
+					text.get("cmd.server.mkdir") + " " + info.getVirtualPath());
+			file = info.complete();
+			success = true;
+
+			if (!file.exists())
+				success = file.mkdir();
+
+			if (success)
+				info.setExists(true);
+			server.getCache().invalidate(file);
+
+			return info;
+
+		case JFSTransmission.CMD_DELETE:
+			JFSLog.getOut().getStream()
+					.println(
+							text.get("cmd.server.delete") + " "
+									+ info.getVirtualPath());
+			file = info.complete();
+			success = true;
+
+			if (file.exists())
+				success = JFSPartialFile.delete(file);
+			server.getCache().invalidate(file);
+
+			return success;
+
+		default:
+			throw new IllegalArgumentException("Invalid command: " + command);
+		}
+	}
+
+	/**
+	 * Compares the directories of a manifest sent by the client with the
+	 * file system and sends the differing entries of every directory. A
+	 * single directory of the manifest is kept in memory at a time, while the
+	 * client may go on sending the manifest.
+	 * 
+	 * @param out
+	 *            The stream to write to.
+	 * @param root
+	 *            The compared root directory.
+	 * @throws IOException
+	 *             Thrown in case of IO problems.
+	 */
+	private void sendDiff(OutputStream out, JFSFileInfo root)
+			throws IOException {
+		HashMap<String, JFSFileInfo> manifest =
+				new HashMap<String, JFSFileInfo>();
+		HashMap<String, byte[]> digests = new HashMap<String, byte[]>();
+		ArrayList<JFSFileInfo> page = new ArrayList<JFSFileInfo>();
+		ArrayList<Byte> states = new ArrayList<Byte>();
+		JFSFileInfo dir;
+
+		while ((dir = JFSWireProtocol.readManifest(in, root, manifest,
+				digests)) != null) {
+			File file = dir.updateAttributes();
+			DirectoryStream<Path> stream = null;
+
+			if (dir.exists() && dir.isDirectory()) {
+				try {
+					stream = Files.newDirectoryStream(file.toPath());
+				} catch (IOException e) {
+					JFSLog.getErr().getStream().println(
+							JFSText.getInstance().get("error.io") + " '" + e
+									+ "'.");
+				}
+			}
+
+			// Answer directories, which cannot be read, as missing; the
+			// client lists them on demand:
+			if (stream == null) {
+				JFSWireProtocol.writeDiff(out, false, page, states, true);
+				manifest.clear();
+				digests.clear();
+
+				continue;
+			}
+
+			try {
+				for (Path p : stream) {
+					String name = p.getFileName().toString();
+
+					// Skip the contents of interrupted copies:
+					if (JFSFile.isPartialFile(name))
+						continue;
+
+					JFSFileInfo entry = new JFSFileInfo(dir.getRootPath(), dir
+							.getRelativePath()
+							+ File.separator + name);
+					File f = entry.updateAttributes();
+					JFSFileInfo m = manifest.remove(name);
+
+					if (m == null) {
+						page.add(entry);
+						states.add(JFSWireProtocol.DIFF_EXTRA);
+					} else if (!entry.hasSameAttributes(m)
+							&& !isSameContents(entry, m, f, digests.get(name))) {
+						page.add(entry);
+						states.add(JFSWireProtocol.DIFF_CHANGED);
+					}
+
+					if (page.size() == JFSConst.SERVER_LIST_PAGE) {
+						JFSWireProtocol.writeDiff(out, true, page, states,
+								false);
+						page.clear();
+						states.clear();
+					}
+				}
+			} catch (DirectoryIteratorException e) {
+				JFSLog.getErr().getStream().println(
+						JFSText.getInstance().get("error.io") + " '"
+								+ e.getCause() + "'.");
+			} finally {
+				stream.close();
+			}
+
+			// All remaining entries of the manifest are missing:
+			for (JFSFileInfo m : manifest.values()) {
+				page.add(m);
+				states.add(JFSWireProtocol.DIFF_MISSING);
+
+				if (page.size() == JFSConst.SERVER_LIST_PAGE) {
+					JFSWireProtocol.writeDiff(out, true, page, states, false);
+					page.clear();
+					states.clear();
+				}
+			}
+			JFSWireProtocol.writeDiff(out, true, page, states, true);
+			page.clear();
+			states.clear();
+			manifest.clear();
+			digests.clear();
+		}
+	}
+
+	/**
+	 * Determines whether a file differs from its entry of the manifest in
+	 * its time stamp only and has the same contents according to the digest
+	 * sent by the client.
+	 * 
+	 * @param entry
+	 *            The file on server side.
+	 * @param m
+	 *            The entry of the manifest.
+	 * @param file
+	 *            The file to read.
+	 * @param digest
+	 *            The digest sent by the client or null.
+	 * @return True if and only if the contents are equal.
+	 */
+	private static boolean isSameContents(JFSFileInfo entry, JFSFileInfo m,
+			File file, byte[] digest) {
+		if (digest == null || entry.isDirectory() || m.isDirectory())
+			return false;
+
+		// The entry of the manifest is not used afterwards:
+		m.setLastModified(entry.getLastModified());
+		if (!entry.hasSameAttributes(m))
+			return false;
+
+		try {
+			return MessageDigest.isEqual(digest, JFSDelta.digest(file));
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Sends a reply to the client using the protocol of the request. Replies
+	 * of a multiplexed channel may be sent by several threads, while the
+	 * socket waits for the next request; they are therefore written at once
+	 * by {@link #send(byte[])}.
+	 * 
+	 * @param out
+	 *            The stream to write to.
+	 * @param binary
+	 *            Determines whether the request was transmitted in the binary
+	 *            encoding.
+	 * @param id
+	 *            The identifier of a request of a multiplexed channel or zero.
+	 * @param reply
+	 *            The reply to send.
+	 * @throws IOException
+	 *             Thrown in case of IO problems.
+	 */
+	private void reply(OutputStream out, boolean binary, int id, Object reply)
+			throws IOException {
+		if (id > 0) {
+			ByteArrayOutputStream frame = new ByteArrayOutputStream();
+			JFSWireProtocol.writeReply(frame, id, reply);
+			send(frame.toByteArray());
+		} else if (binary) {
+			JFSWireProtocol.writeReply(out, 0, reply);
+		} else {
+			ObjectOutputStream oo = new ObjectOutputStream(out);
+			oo.writeObject(reply);
+		}
+	}
+
+	/**
+	 * Writes a reply of a multiplexed channel. If the socket waits for the
+	 * next request in non-blocking mode, the reply is written by the channel
+	 * of the socket, waiting until the socket is ready for writing if
+	 * necessary.
+	 * 
+	 * @param frame
+	 *            The encoded reply.
+	 * @throws IOException
+	 *             Thrown in case of IO problems.
+	 */
+	private void send(byte[] frame) throws IOException {
+		synchronized (lock) {
+			SocketChannel channel = socket.getChannel();
+
+			if (channel.isBlocking()) {
+				OutputStream out = socket.getOutputStream();
+				out.write(frame);
+				out.flush();
+
+				return;
+			}
+
+			ByteBuffer buf = ByteBuffer.wrap(frame);
+			Selector selector = null;
+			try {
+				while (buf.hasRemaining()) {
+					if (channel.write(buf) == 0) {
+						if (selector == null) {
+							selector = Selector.open();
+							channel.register(selector, SelectionKey.OP_WRITE);
+						}
+						if (selector.select(socket.getSoTimeout()) == 0)
+							throw new SocketTimeoutException();
+						selector.selectedKeys().clear();
+					}
+				}
+			} finally {
+				// Deregisters the channel, so that the blocking mode may be
+				// changed again:
+				if (selector != null)
+					selector.close();
+			}
+		}
 	}
 
 	/**
@@ -115,11 +634,25 @@ public class JFSClient extends Thread {
 		// Translation object:
 		JFSText text = JFSText.getInstance();
 
-		// Read from client:
-		InputStream in = socket.getInputStream();
-		ObjectInputStream oi = new ObjectInputStream(in);
-		JFSTransmission t = (JFSTransmission) oi.readObject();
-		JFSFileInfo info = t.getInfo();
+		// Read from client; binary frames are distinguished from serialized
+		// transmission objects by their first byte:
+		if (in == null)
+			in = new PushbackInputStream(socket.getInputStream());
+		int first = in.read();
+		if (first < 0)
+			throw new EOFException();
+		boolean binary = first == JFSWireProtocol.FRAME
+				|| first == JFSWireProtocol.FRAME_MULTIPLEXED;
+		final JFSTransmission t;
+
+		if (binary) {
+			t = JFSWireProtocol.readRequest(in,
+					first == JFSWireProtocol.FRAME_MULTIPLEXED);
+		} else {
+			in.unread(first);
+			ObjectInputStream oi = new ObjectInputStream(in);
+			t = (JFSTransmission) oi.readObject();
+		}
 
 		// Check for authentication:
 		if (!t.getPassphrase().equals(
@@ -127,12 +660,62 @@ public class JFSClient extends Thread {
 			JFSLog.getOut().getStream().println(
 					text.get("cmd.server.accessDenied"));
 
+			// Close multiplexed channels, which would wait for a reply
+			// otherwise:
+			if (t.getId() > 0)
+				closing = true;
+
 			return;
 		}
 
+		// Handle requests of multiplexed channels concurrently, but answer
+		// the heartbeat at once:
+		if (t.getId() > 0 && t.getCommand() != JFSTransmission.CMD_IS_ALIVE) {
+			try {
+				server.getWorkers().execute(new Runnable() {
+					public void run() {
+						try {
+							handleRequest(t, true);
+						} catch (IOException e) {
+							if (!socket.isClosed()) {
+								JFSLog.getErr().getStream().println(
+										JFSText.getInstance().get(
+												"error.external")
+												+ " " + e);
+								close();
+							}
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// The server is shutting down:
+				closing = true;
+			}
+		} else {
+			handleRequest(t, binary);
+		}
+	}
+
+	/**
+	 * Executes a single request and answers it.
+	 * 
+	 * @param t
+	 *            The transmission received.
+	 * @param binary
+	 *            Determines whether the request was transmitted in the binary
+	 *            encoding.
+	 * @throws IOException
+	 *             Thrown in case of IO problems.
+	 */
+	private void handleRequest(JFSTransmission t, boolean binary)
+			throws IOException {
+		// Translation object:
+		JFSText text = JFSText.getInstance();
+		JFSFileInfo info = t.getInfo();
+		int id = t.getId();
+
 		// Write to client:
 		OutputStream out = socket.getOutputStream();
-		ObjectOutputStream oo;
 		File file;
 		boolean success;
 
@@ -141,19 +724,53 @@ public class JFSClient extends Thread {
 			JFSLog.getOut().getStream().println(
 					text.get("cmd.server.gettingInfo") + " "
 							+ info.getVirtualPath());
-			info.update();
-			oo = new ObjectOutputStream(out);
-			oo.writeObject(info);
+			server.getCache().update(info);
+			reply(out, binary, id, info);
 
 			break;
 
-		case JFSTransmission.CMD_PUT_INFO:
+		case JFSTransmission.CMD_GET_LIST:
 			JFSLog.getOut().getStream().println(
-					text.get("cmd.server.puttingInfo") + " "
+					text.get("cmd.server.gettingList") + " "
 							+ info.getVirtualPath());
-			success = info.updateFileSystem();
-			oo = new ObjectOutputStream(out);
-			oo.writeObject(success);
+			file = info.updateAttributes();
+			reply(out, binary, id, info);
+
+			if (info.exists() && info.isDirectory())
+				sendList(out, info, file);
+
+			break;
+
+		case JFSTransmission.CMD_GET_DIFF:
+			JFSLog.getOut().getStream().println(
+					text.get("cmd.server.gettingDiff") + " "
+							+ info.getVirtualPath());
+			info.updateAttributes();
+			reply(out, binary, id, info);
+
+			if (info.exists() && info.isDirectory())
+				sendDiff(out, info);
+
+			break;
+
+		case JFSTransmission.CMD_PUT_INFO:
+		case JFSTransmission.CMD_MKDIR:
+		case JFSTransmission.CMD_DELETE:
+			reply(out, binary, id, perform(t.getCommand(), info));
+
+			break;
+
+		case JFSTransmission.CMD_BATCH:
+			ArrayList<Byte> commands = new ArrayList<Byte>();
+			ArrayList<JFSFileInfo> infos = new ArrayList<JFSFileInfo>();
+			JFSWireProtocol.readBatch(in, commands, infos);
+			JFSLog.getOut().getStream().println(
+					text.get("cmd.server.batch") + " " + commands.size());
+			ArrayList<Object> replies = new ArrayList<Object>(commands
+					.size());
+			for (int i = 0; i < commands.size(); i++)
+				replies.add(perform(commands.get(i), infos.get(i)));
+			JFSWireProtocol.writeResults(out, replies);
 
 			break;
 
@@ -164,7 +781,21 @@ public class JFSClient extends Thread {
 			file = info.complete();
 
 			FileInputStream inFile = new FileInputStream(file);
-			JFSServer.transferContent(inFile, out, file.length());
+
+			// Acknowledge ranged reads, so that clients don't expect a range
+			// from servers ignoring the offset:
+			if (t.getOffset() > 0) {
+				success = t.getOffset() <= file.length();
+				reply(out, binary, id, success);
+				if (success)
+					inFile.getChannel().position(t.getOffset());
+			} else {
+				success = true;
+			}
+
+			if (success)
+				JFSServer.transferContent(inFile, out, file.length()
+						- t.getOffset());
 			inFile.close();
 
 			break;
@@ -175,14 +806,49 @@ public class JFSClient extends Thread {
 							+ info.getVirtualPath());
 			file = info.complete();
 
+			// Keep the contents of large files in a partial file until they
+			// are transfered completely, so that an interrupted transfer can
+			// be resumed:
+			if (info.getLength() >= JFSConst.RESUME_THRESHOLD) {
+				JFSPartialFile partial = new JFSPartialFile(file);
+				OutputStream partialOut;
+				try {
+					partialOut = partial.getOutputStream(t.getOffset());
+				} catch (IOException e) {
+					partialOut = null;
+				}
+
+				reply(out, binary, id, partialOut != null ? info : null);
+
+				if (partialOut != null) {
+					success = JFSServer.transferContent(in, partialOut, info
+							.getLength()
+							- t.getOffset());
+					partialOut.close();
+					partial.checkpoint(info.getLength(), info
+							.getLastModified());
+
+					if (success && partial.complete(info.getLength())
+							&& !info.updateFileSystem()) {
+						JFSLog.getOut().getStream().println(
+								text.get("error.update"));
+						if (!file.delete()) {
+							throw new IOException("Unable to delete file: " + file.getAbsolutePath());
+						}
+					}
+					server.getCache().invalidate(file);
+				}
+
+				break;
+			}
+
 			if (file.exists()) {
 				if (!file.delete()) {
 					throw new IOException("Unable to delete file: " + file.getAbsolutePath());
 				}
 			}
 
-			oo = new ObjectOutputStream(out);
-			oo.writeObject(info);
+			reply(out, binary, id, info);
 
 			FileOutputStream outFile = new FileOutputStream(info.getPath());
 			success = JFSServer.transferContent(in, outFile, info.getLength());
@@ -203,54 +869,115 @@ public class JFSClient extends Thread {
 					}
 				}
 			}
+			server.getCache().invalidate(file);
 
 			break;
 
-		case JFSTransmission.CMD_MKDIR:
+		case JFSTransmission.CMD_PUT_DELTA:
 			JFSLog.getOut().getStream().println(
-					text.get("cmd.server.mkdir") + " " + info.getVirtualPath());
+					text.get("cmd.server.puttingDelta") + " "
+							+ info.getVirtualPath());
 			file = info.complete();
-			success = true;
 
-			if (!file.exists())
-				success = file.mkdir();
+			// Send signature of the existing copy and reconstruct the new
+			// version in a temporary file:
+			int blockSize = JFSDelta.writeSignature(file,
+					new DataOutputStream(new BufferedOutputStream(out)));
+			File tmpFile = File.createTempFile(".jfs", ".tmp", file
+					.getParentFile());
+			success = false;
+			try {
+				success = JFSDelta.patch(file, tmpFile, new DataInputStream(
+						new BufferedInputStream(in)), blockSize, info
+						.getLength());
+			} finally {
+				if (!success)
+					tmpFile.delete();
+			}
 
-			if (success)
-				info.setExists(true);
+			if (success) {
+				Files.move(tmpFile.toPath(), file.toPath(),
+						StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+
+				// Updates the file system; that is sets last modified and can
+				// write property:
+				if (!info.updateFileSystem()) {
+					JFSLog.getOut().getStream().println(
+							text.get("error.update"));
+					success = false;
+					if (!file.delete()) {
+						throw new IOException("Unable to delete file: " + file.getAbsolutePath());
+					}
+				}
+			}
 
-			oo = new ObjectOutputStream(out);
-			oo.writeObject(info);
+			server.getCache().invalidate(file);
+			reply(out, binary, id, success ? info : null);
 
 			break;
 
-		case JFSTransmission.CMD_DELETE:
-			JFSLog.getOut().getStream()
-					.println(
-							text.get("cmd.server.delete") + " "
-									+ info.getVirtualPath());
-			file = info.complete();
-			success = true;
+		case JFSTransmission.CMD_PUT_BATCH:
+			JFSLog.getOut().getStream().println(
+					text.get("cmd.server.puttingBatch") + " "
+							+ info.getVirtualPath());
+			DataInputStream batchIn = new DataInputStream(
+					new BufferedInputStream(in));
+			ArrayList<JFSFileInfo> results = new ArrayList<JFSFileInfo>();
+			byte[] buf = new byte[JFSConfig.getInstance().getBufferSize()];
+
+			while (batchIn.readByte() == JFSTransmission.BATCH_FILE) {
+				JFSFileInfo fileInfo = new JFSFileInfo(info.getRootPath(),
+						batchIn.readUTF());
+				fileInfo.setLength(batchIn.readLong());
+				fileInfo.setLastModified(batchIn.readLong());
+				if (batchIn.readBoolean())
+					fileInfo.setReadOnly();
+				fileInfo.setExecutable(batchIn.readBoolean());
+				results.add(receiveFile(batchIn, fileInfo, buf) ? fileInfo
+						: null);
+			}
 
-			if (file.exists())
-				success = file.delete();
+			// Acknowledge all files at once:
+			reply(out, binary, id, results.toArray(new JFSFileInfo[results.size()]));
 
-			oo = new ObjectOutputStream(out);
-			oo.writeObject(success);
+			break;
+
+		case JFSTransmission.CMD_GET_RESUME_OFFSET:
+			JFSLog.getOut().getStream().println(
+					text.get("cmd.server.gettingResumeOffset") + " "
+							+ info.getVirtualPath());
+			file = info.complete();
+			reply(out, binary, id, new JFSPartialFile(file).getOffset(info.getLength(),
+					info.getLastModified()));
 
 			break;
 
 		case JFSTransmission.CMD_IS_ALIVE:
 			JFSLog.getOut().getStream().println(text.get("cmd.server.isAlive"));
-			oo = new ObjectOutputStream(out);
-			oo.writeObject(true);
+
+			// Clients offer the binary protocol by transmitting its version:
+			if (t.getVersion() > 0) {
+				reply(out, binary, id, Math.min(t.getVersion(),
+						JFSWireProtocol.VERSION));
+			} else {
+				reply(out, binary, id, true);
+			}
 
 			break;
 
 		case JFSTransmission.CMD_IS_SHUTDOWN:
 			JFSLog.getOut().getStream()
 					.println(text.get("cmd.server.shutdown"));
-			interrupt();
-			JFSServerFactory.getInstance().getServer().stopServer();
+			closing = true;
+
+			// Stop the server by a separate thread, because the server waits
+			// for the requests in progress:
+			new Thread() {
+				public void run() {
+					JFSServerFactory.getInstance().getServer().stopServer();
+				}
+			}.start();
 
 			break;
 		}
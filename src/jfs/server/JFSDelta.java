@@ -0,0 +1,308 @@
+/*
+ * JFileSync
+ * Copyright (C) 2002-2007, Jens Heidrich
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA, 02110-1301, USA
+ */
+
+
+package jfs.server;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import jfs.conf.JFSConfig;
+import jfs.conf.JFSConst;
+
+/**
+ * Computes and applies the differences between two versions of a file on the
+ * basis of block checksums. The receiver of a file splits its existing copy
+ * into blocks and sends a weak rolling checksum and a strong digest for every
+ * block to the sender (the signature). The sender moves a window over the new
+ * contents and transmits a reference for every block found in the signature
+ * and literal data for everything else. Finally, the sender transmits the
+ * length and the digest of the whole file, so that the receiver is able to
+ * verify the reconstructed file.
+ * 
+ * @see JFSDeltaOutputStream
+ * @author Jens Heidrich
+ * @version $Id$
+ */
+final class JFSDelta {
+
+	/** Instruction: The given number of bytes is transfered literally. */
+	static final byte LITERAL = 0;
+
+	/** Instruction: The block with the given index is reused. */
+	static final byte BLOCK = 1;
+
+	/** Instruction: The transfer is finished; length and digest follow. */
+	static final byte END = 2;
+
+	/** The maximal number of bytes transfered by a single literal. */
+	static final int LITERAL_SIZE = 65536;
+
+	/** The time in ms after which a partial signature is sent. */
+	private static final long FLUSH_INTERVAL = 100;
+
+	/**
+	 * Avoids instantiation.
+	 */
+	private JFSDelta() {
+	}
+
+	/**
+	 * Returns the block size used for a file of a certain length. The block
+	 * size grows with the square root of the length, so that the size of the
+	 * signature and the data sent for a changed block are balanced.
+	 * 
+	 * @param length
+	 *            The length of the file.
+	 * @return The block size.
+	 */
+	static int getBlockSize(long length) {
+		long size = (long) Math.sqrt(length) & ~1023L;
+
+		return (int) Math.max(JFSConst.DELTA_BLOCK_SIZE_MIN, Math.min(
+				JFSConst.DELTA_BLOCK_SIZE_MAX, size));
+	}
+
+	/**
+	 * Returns a new message digest object.
+	 * 
+	 * @param algorithm
+	 *            The algorithm to use.
+	 * @return The digest.
+	 * @throws IOException
+	 *             If the algorithm is not available.
+	 */
+	static MessageDigest getDigest(String algorithm) throws IOException {
+		try {
+			return MessageDigest.getInstance(algorithm);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Computes the weak checksum of a block. The two 16 bit sums are computed
+	 * the same way as by the rolling checksum of the sender; that is, the sums
+	 * can be updated in constant time when the window is moved by one byte.
+	 * 
+	 * @param buf
+	 *            The buffer.
+	 * @param off
+	 *            The offset of the block.
+	 * @param len
+	 *            The length of the block.
+	 * @return The checksum.
+	 */
+	static int getChecksum(byte[] buf, int off, int len) {
+		int a = 0;
+		int b = 0;
+
+		for (int i = off; i < off + len; i++) {
+			a += buf[i] & 0xff;
+			b += a;
+		}
+
+		return getChecksum(a, b);
+	}
+
+	/**
+	 * Combines the two sums of the rolling checksum.
+	 * 
+	 * @param a
+	 *            The sum of all bytes.
+	 * @param b
+	 *            The sum of all values of a.
+	 * @return The checksum.
+	 */
+	static int getChecksum(int a, int b) {
+		return (b << 16) | (a & 0xffff);
+	}
+
+	/**
+	 * Writes the signature of the existing copy of a file; that is, the
+	 * length, the block size, the number of blocks, and the weak checksum and
+	 * strong digest of every block. If the file does not exist, the signature
+	 * contains no blocks. The signature is sent in parts while the file is
+	 * read, so that the sender doesn't run into a time out.
+	 * 
+	 * @param file
+	 *            The existing copy.
+	 * @param out
+	 *            The stream to write the signature to.
+	 * @return The used block size.
+	 * @throws IOException
+	 *             If the file cannot be read or the signature not written.
+	 */
+	static int writeSignature(File file, DataOutputStream out)
+			throws IOException {
+		long length = file.isFile() ? file.length() : 0;
+		int blockSize = getBlockSize(length);
+		int count = (int) ((length + blockSize - 1) / blockSize);
+
+		out.writeLong(length);
+		out.writeInt(blockSize);
+		out.writeInt(count);
+
+		if (count > 0) {
+			MessageDigest md = getDigest(JFSConst.DELTA_BLOCK_ALGORITHM);
+			DataInputStream in = new DataInputStream(new FileInputStream(file));
+			byte[] buf = new byte[blockSize];
+			long flushed = System.currentTimeMillis();
+
+			try {
+				for (int i = 0; i < count; i++) {
+					int len = (int) Math.min(blockSize, length - (long) i
+							* blockSize);
+					in.readFully(buf, 0, len);
+					md.update(buf, 0, len);
+					out.writeInt(getChecksum(buf, 0, len));
+					out.write(md.digest());
+
+					if (System.currentTimeMillis() - flushed > FLUSH_INTERVAL) {
+						out.flush();
+						flushed = System.currentTimeMillis();
+					}
+				}
+			} finally {
+				in.close();
+			}
+		}
+		out.flush();
+
+		return blockSize;
+	}
+
+	/**
+	 * Computes the digest of the contents of a file the same way as the
+	 * client computes the digests of its files.
+	 * 
+	 * @param file
+	 *            The file to read.
+	 * @return The digest.
+	 * @throws IOException
+	 *             If the file cannot be read.
+	 */
+	static byte[] digest(File file) throws IOException {
+		MessageDigest md = getDigest(JFSConst.HASH_ALGORITHM);
+		byte[] buf = new byte[JFSConfig.getInstance().getBufferSize()];
+		FileInputStream in = new FileInputStream(file);
+
+		try {
+			int len;
+			while ((len = in.read(buf)) > 0)
+				md.update(buf, 0, len);
+		} finally {
+			in.close();
+		}
+
+		return md.digest();
+	}
+
+	/**
+	 * Reconstructs the new version of a file from the instructions sent by the
+	 * sender. All instructions are read, even if the reconstruction fails, in
+	 * order to keep the stream usable for further requests.
+	 * 
+	 * @param file
+	 *            The existing copy, the signature was computed for.
+	 * @param tmpFile
+	 *            The file to write the new version to.
+	 * @param in
+	 *            The stream to read the instructions from.
+	 * @param blockSize
+	 *            The block size used for the signature.
+	 * @param length
+	 *            The expected length of the new version.
+	 * @return True if and only if the new version was reconstructed
+	 *         completely and its digest matches the digest of the sender.
+	 * @throws IOException
+	 *             If the instructions cannot be read or the new version not
+	 *             written.
+	 */
+	static boolean patch(File file, File tmpFile, DataInputStream in,
+			int blockSize, long length) throws IOException {
+		MessageDigest md = getDigest(JFSConst.HASH_ALGORITHM);
+		RandomAccessFile old = null;
+		OutputStream out = null;
+		boolean success = true;
+		long transferedBytes = 0;
+		byte[] buf = new byte[Math.max(blockSize, LITERAL_SIZE)];
+
+		try {
+			if (file.isFile())
+				old = new RandomAccessFile(file, "r");
+			out = new BufferedOutputStream(new FileOutputStream(tmpFile),
+					JFSConfig.getInstance().getBufferSize());
+
+			while (true) {
+				byte instruction = in.readByte();
+
+				if (instruction == LITERAL) {
+					int len = in.readInt();
+					if (len < 0 || len > LITERAL_SIZE)
+						throw new IOException("Illegal literal length: " + len);
+					in.readFully(buf, 0, len);
+					out.write(buf, 0, len);
+					md.update(buf, 0, len);
+					transferedBytes += len;
+				} else if (instruction == BLOCK) {
+					long offset = (long) in.readInt() * blockSize;
+
+					// The file may have been changed in the meantime:
+					if (old == null || offset < 0 || offset >= old.length()) {
+						success = false;
+					} else {
+						int len = (int) Math.min(blockSize, old.length()
+								- offset);
+						old.seek(offset);
+						old.readFully(buf, 0, len);
+						out.write(buf, 0, len);
+						md.update(buf, 0, len);
+						transferedBytes += len;
+					}
+				} else if (instruction == END) {
+					long total = in.readLong();
+					byte[] digest = new byte[md.getDigestLength()];
+					in.readFully(digest);
+
+					return success && transferedBytes == total
+							&& total == length
+							&& MessageDigest.isEqual(digest, md.digest());
+				} else {
+					throw new IOException("Illegal instruction: "
+							+ instruction);
+				}
+			}
+		} finally {
+			if (out != null)
+				out.close();
+			if (old != null)
+				old.close();
+		}
+	}
+}
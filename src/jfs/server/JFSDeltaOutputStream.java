@@ -0,0 +1,383 @@
+/*
+ * JFileSync
+ * Copyright (C) 2002-2007, Jens Heidrich
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA, 02110-1301, USA
+ */
+
+
+package jfs.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+
+import jfs.conf.JFSConst;
+
+/**
+ * Transfers the contents of a file to a JFS server by sending only the
+ * differences to the server's existing copy. The stream reads the signature
+ * of the existing copy when it is created. The written contents are compared
+ * with the blocks of the signature using a rolling checksum; matching blocks
+ * are replaced by references. The server reconstructs the file when the
+ * stream is closed.
+ * 
+ * @see JFSDelta
+ * @author Jens Heidrich
+ * @version $Id$
+ */
+public class JFSDeltaOutputStream extends OutputStream {
+
+	/** The file information object to complete with server information. */
+	private final JFSFileInfo info;
+
+	/** The stream to read the signature and the result from. */
+	private final DataInputStream in;
+
+	/** The stream to write the instructions to. */
+	private final DataOutputStream out;
+
+	/** The length of the existing copy. */
+	private final long length;
+
+	/** The block size used by the signature. */
+	private final int blockSize;
+
+	/** The weak checksums of all blocks. */
+	private final int[] checksums;
+
+	/** The strong digests of all blocks. */
+	private final byte[] digests;
+
+	/** The length of a single strong digest. */
+	private final int digestLength;
+
+	/** The first block for every slot of the hash table. */
+	private final int[] head;
+
+	/** The next block with the same slot for every block. */
+	private final int[] next;
+
+	/** The number of bits to shift a checksum in order to get the slot. */
+	private final int shift;
+
+	/** The current window as a ring buffer. */
+	private final byte[] window;
+
+	/** The start of the current window. */
+	private int start = 0;
+
+	/** The number of bytes in the current window. */
+	private int windowLength = 0;
+
+	/** The sum of all bytes of the current window. */
+	private int a = 0;
+
+	/** The sum of all values of a of the current window. */
+	private int b = 0;
+
+	/** Bytes which did not match any block and are not yet sent. */
+	private final byte[] literal = new byte[JFSDelta.LITERAL_SIZE];
+
+	/** The number of bytes in the literal buffer. */
+	private int literalLength = 0;
+
+	/** The digest used to compare blocks. */
+	private final MessageDigest blockDigest;
+
+	/** The digest of the whole file. */
+	private final MessageDigest fileDigest;
+
+	/** The number of bytes written. */
+	private long transferedBytes = 0;
+
+	/** Determines whether the stream is closed. */
+	private boolean closed = false;
+
+	/** Determines whether the server reconstructed the file successfully. */
+	private boolean success = false;
+
+	/**
+	 * Creates a new stream and reads the signature of the server's copy.
+	 * 
+	 * @param info
+	 *            The file information object to complete with server
+	 *            information.
+	 * @param in
+	 *            The input stream of the socket.
+	 * @param out
+	 *            The output stream of the socket.
+	 * @throws IOException
+	 *             If the signature cannot be read.
+	 */
+	JFSDeltaOutputStream(JFSFileInfo info, InputStream in, OutputStream out)
+			throws IOException {
+		this.info = info;
+		this.in = new DataInputStream(new BufferedInputStream(in));
+		this.out = new DataOutputStream(new BufferedOutputStream(out,
+				JFSDelta.LITERAL_SIZE + 8));
+		blockDigest = JFSDelta.getDigest(JFSConst.DELTA_BLOCK_ALGORITHM);
+		fileDigest = JFSDelta.getDigest(JFSConst.HASH_ALGORITHM);
+		digestLength = blockDigest.getDigestLength();
+
+		// Read signature:
+		length = this.in.readLong();
+		blockSize = this.in.readInt();
+		int count = this.in.readInt();
+		if (blockSize < JFSConst.DELTA_BLOCK_SIZE_MIN
+				|| blockSize > JFSConst.DELTA_BLOCK_SIZE_MAX || count < 0)
+			throw new IOException("Illegal signature");
+
+		checksums = new int[count];
+		digests = new byte[count * digestLength];
+		for (int i = 0; i < count; i++) {
+			checksums[i] = this.in.readInt();
+			this.in.readFully(digests, i * digestLength, digestLength);
+		}
+		window = new byte[blockSize];
+
+		// Index all complete blocks by their weak checksum; the last block
+		// may only match at the end of the file:
+		int bits = 33 - Integer.numberOfLeadingZeros(Math.max(count, 1));
+		shift = 32 - bits;
+		head = new int[1 << bits];
+		next = new int[count];
+		for (int i = 0; i < head.length; i++)
+			head[i] = -1;
+		for (int i = count - 1; i >= 0; i--) {
+			if ((long) (i + 1) * blockSize <= length) {
+				int slot = getSlot(checksums[i]);
+				next[i] = head[slot];
+				head[slot] = i;
+			}
+		}
+	}
+
+	/**
+	 * Returns the slot of the hash table for a weak checksum.
+	 * 
+	 * @param checksum
+	 *            The checksum.
+	 * @return The slot.
+	 */
+	private int getSlot(int checksum) {
+		return (checksum * 0x9E3779B1) >>> shift;
+	}
+
+	/**
+	 * Returns the index of the block matching the current window.
+	 * 
+	 * @param candidate
+	 *            The first block to check.
+	 * @return The block index or -1, if no block matches.
+	 */
+	private int findBlock(int candidate) {
+		int checksum = JFSDelta.getChecksum(a, b);
+		byte[] digest = null;
+
+		for (int i = candidate; i >= 0; i = next[i]) {
+			if (checksums[i] == checksum) {
+				// Compute the strong digest only once per window:
+				if (digest == null) {
+					blockDigest.update(window, start, windowLength - start);
+					blockDigest.update(window, 0, start);
+					digest = blockDigest.digest();
+				}
+				if (isDigestEqual(i, digest))
+					return i;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Compares the strong digest of a block with a computed digest.
+	 * 
+	 * @param index
+	 *            The index of the block.
+	 * @param digest
+	 *            The computed digest.
+	 * @return True if and only if both digests are equal.
+	 */
+	private boolean isDigestEqual(int index, byte[] digest) {
+		int off = index * digestLength;
+
+		for (int i = 0; i < digestLength; i++) {
+			if (digests[off + i] != digest[i])
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Sends the literal buffer.
+	 * 
+	 * @throws IOException
+	 *             If the buffer cannot be sent.
+	 */
+	private void writeLiteral() throws IOException {
+		if (literalLength > 0) {
+			out.writeByte(JFSDelta.LITERAL);
+			out.writeInt(literalLength);
+			out.write(literal, 0, literalLength);
+			literalLength = 0;
+		}
+	}
+
+	/**
+	 * Adds a byte to the literal buffer and sends the buffer if it is full.
+	 * 
+	 * @param x
+	 *            The byte.
+	 * @throws IOException
+	 *             If the buffer cannot be sent.
+	 */
+	private void addLiteral(byte x) throws IOException {
+		literal[literalLength++] = x;
+		if (literalLength == literal.length)
+			writeLiteral();
+	}
+
+	/**
+	 * Sends a reference to a block and starts a new window.
+	 * 
+	 * @param index
+	 *            The index of the block.
+	 * @throws IOException
+	 *             If the reference cannot be sent.
+	 */
+	private void writeBlock(int index) throws IOException {
+		writeLiteral();
+		out.writeByte(JFSDelta.BLOCK);
+		out.writeInt(index);
+		start = 0;
+		windowLength = 0;
+		a = 0;
+		b = 0;
+	}
+
+	/**
+	 * @see OutputStream#write(int)
+	 */
+	public void write(int x) throws IOException {
+		write(new byte[] { (byte) x }, 0, 1);
+	}
+
+	/**
+	 * @see OutputStream#write(byte[], int, int)
+	 */
+	public void write(byte[] buf, int off, int len) throws IOException {
+		fileDigest.update(buf, off, len);
+		transferedBytes += len;
+
+		// Without blocks to compare, the window is not needed:
+		if (checksums.length == 0) {
+			for (int i = off; i < off + len; i++)
+				addLiteral(buf[i]);
+			return;
+		}
+
+		for (int i = off; i < off + len; i++) {
+			int x = buf[i] & 0xff;
+
+			if (windowLength < blockSize) {
+				window[windowLength++] = buf[i];
+				a += x;
+				b += a;
+				if (windowLength < blockSize)
+					continue;
+			} else {
+				// Move the window by one byte and update the checksum:
+				int y = window[start] & 0xff;
+				addLiteral(window[start]);
+				window[start] = buf[i];
+				start = (start + 1 == blockSize) ? 0 : start + 1;
+				a += x - y;
+				b += a - blockSize * y;
+			}
+
+			int candidate = head[getSlot(JFSDelta.getChecksum(a, b))];
+			if (candidate >= 0) {
+				int index = findBlock(candidate);
+				if (index >= 0)
+					writeBlock(index);
+			}
+		}
+	}
+
+	/**
+	 * Sends the remaining data and waits for the server to reconstruct the
+	 * file. Afterwards, the name, path, and virtual path information of the
+	 * JFS file information object are completed with server information.
+	 * 
+	 * @see OutputStream#close()
+	 */
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+
+		// The last block of the existing copy may be shorter than the others:
+		int last = checksums.length - 1;
+		if (last >= 0 && windowLength > 0 && windowLength < blockSize
+				&& (long) last * blockSize + windowLength == length
+				&& checksums[last] == JFSDelta.getChecksum(a, b)) {
+			blockDigest.update(window, 0, windowLength);
+			if (isDigestEqual(last, blockDigest.digest()))
+				writeBlock(last);
+		}
+
+		for (int i = 0; i < windowLength; i++)
+			addLiteral(window[(start + i) % blockSize]);
+		writeLiteral();
+		out.writeByte(JFSDelta.END);
+		out.writeLong(transferedBytes);
+		out.write(fileDigest.digest());
+		out.flush();
+
+		try {
+			ObjectInputStream oi = new ObjectInputStream(in);
+			JFSFileInfo serverInfo = (JFSFileInfo) oi.readObject();
+
+			if (serverInfo != null) {
+				info.setName(serverInfo.getName());
+				info.setPath(serverInfo.getPath());
+				info.setRootPath(serverInfo.getRootPath());
+				info.setRelativePath(serverInfo.getRelativePath());
+				success = true;
+			}
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Returns whether the server reconstructed the file successfully. The
+	 * result is available after the stream is closed.
+	 * 
+	 * @return True if and only if the file was transfered successfully.
+	 */
+	public boolean isSuccess() {
+		return success;
+	}
+}
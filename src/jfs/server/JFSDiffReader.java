@@ -0,0 +1,236 @@
+/*
+ * JFileSync
+ * Copyright (C) 2002-2007, Jens Heidrich
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA, 02110-1301, USA
+ */
+
+package jfs.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import jfs.conf.JFSLog;
+import jfs.conf.JFSText;
+import jfs.sync.JFSFile;
+
+/**
+ * Reads the differences sent by a JFS server for the manifest of a directory
+ * structure of the client (see {@link JFSTransmission#CMD_GET_DIFF}). The
+ * differences are read by a separate thread, so that the comparison is
+ * started at once. The list of every directory is set as soon as its
+ * differences arrived; the comparison only waits for the directories it
+ * requests. Unchanged entries are taken from the manifest.
+ * 
+ * @author Jens Heidrich
+ * @version $Id$
+ */
+public final class JFSDiffReader extends Thread {
+
+	/** The pool the connection is returned to. */
+	private final JFSServerPool pool;
+
+	/** The connection the differences are read from. */
+	private final JFSServerConnection connection;
+
+	/** The writer of the manifest. */
+	private final JFSManifestWriter writer;
+
+	/** The reference directory of the client. */
+	private final JFSFile reference;
+
+	/** The root directory on server side. */
+	private final JFSFileInfo root;
+
+	/** The directories on server side, whose lists are not read yet. */
+	private final Set<JFSFileInfo> pending = Collections
+			.newSetFromMap(new IdentityHashMap<JFSFileInfo, Boolean>());
+
+	/** Determines whether all differences were read or reading failed. */
+	private boolean done = false;
+
+	/**
+	 * Creates a new reader. The reader has to be started, after the writer
+	 * was started.
+	 * 
+	 * @param pool
+	 *            The pool the connection is returned to.
+	 * @param connection
+	 *            The connection the differences are read from.
+	 * @param writer
+	 *            The writer of the manifest.
+	 * @param reference
+	 *            The reference directory of the client.
+	 * @param root
+	 *            The root directory on server side.
+	 */
+	JFSDiffReader(JFSServerPool pool, JFSServerConnection connection,
+			JFSManifestWriter writer, JFSFile reference, JFSFileInfo root) {
+		super("JFSDiffReader");
+		this.pool = pool;
+		this.connection = connection;
+		this.writer = writer;
+		this.reference = reference;
+		this.root = root;
+		pending.add(root);
+		setDaemon(true);
+	}
+
+	/**
+	 * @return Returns the root directory on server side.
+	 */
+	public JFSFileInfo getRoot() {
+		return root;
+	}
+
+	/**
+	 * Returns the list of a directory on server side. Waits until the
+	 * differences of the directory are read, if the directory is part of the
+	 * manifest.
+	 * 
+	 * @param dir
+	 *            The directory on server side.
+	 * @return The list or null, if the directory is not part of the manifest
+	 *         or reading failed; that is, the directory has to be listed.
+	 */
+	public synchronized JFSFileInfo[] getList(JFSFileInfo dir) {
+		try {
+			while (!done && pending.contains(dir))
+				wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		return dir.getList();
+	}
+
+	/**
+	 * @see Thread#run()
+	 */
+	public void run() {
+		boolean success = false;
+
+		try {
+			read(connection.getSocket().getInputStream());
+			if (writer.getFailure() != null)
+				throw writer.getFailure();
+			success = true;
+		} catch (IOException e) {
+			JFSLog.getErr().getStream().println(
+					JFSText.getInstance().get("error.external") + " " + e);
+		} catch (InterruptedException e) {
+			JFSLog.getErr().getStream().println(
+					JFSText.getInstance().get("error.external") + " " + e);
+		} finally {
+			finish(success);
+		}
+	}
+
+	/**
+	 * Returns the connection to the pool and lets the directories, whose
+	 * differences were not read, be listed on demand.
+	 * 
+	 * @param success
+	 *            Determines whether the connection may be used again.
+	 */
+	void finish(boolean success) {
+		if (success) {
+			pool.release(connection);
+		} else {
+			pool.discard(connection);
+		}
+
+		synchronized (this) {
+			done = true;
+			pending.clear();
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Reads the differences for all directories of the manifest and sets the
+	 * lists of the directories existing on server side.
+	 * 
+	 * @param in
+	 *            The stream to read from.
+	 * @throws IOException
+	 *             Thrown in case of IO problems.
+	 * @throws InterruptedException
+	 *             Thrown if the thread was interrupted while waiting for the
+	 *             writer.
+	 */
+	private void read(InputStream in) throws IOException, InterruptedException {
+		// The directories on server side by the relative paths of the
+		// corresponding directories of the client:
+		HashMap<String, JFSFileInfo> dirs = new HashMap<String, JFSFileInfo>();
+		HashMap<String, JFSFileInfo> diff = new HashMap<String, JFSFileInfo>();
+		JFSManifestWriter.Directory d;
+
+		dirs.put(reference.getRelativePath(), root);
+		while ((d = writer.next()) != JFSManifestWriter.END) {
+			// The differences of directories, which don't exist on server
+			// side or are replaced by files, are read but not used:
+			JFSFileInfo dir = dirs.remove(d.file.getRelativePath());
+			diff.clear();
+			char separator = JFSWireProtocol.readDiff(in, dir != null ? dir
+					: root, diff);
+			if (dir == null)
+				continue;
+
+			ArrayList<JFSFileInfo> list = new ArrayList<JFSFileInfo>();
+			ArrayList<JFSFileInfo> subDirs = new ArrayList<JFSFileInfo>();
+			if (separator != 0) {
+				for (int i = 0; i < d.entries.length; i++) {
+					JFSFileInfo entry = d.entries[i];
+					String name = entry.getName();
+
+					if (diff.containsKey(name)) {
+						// Skip missing entries:
+						entry = diff.remove(name);
+						if (entry == null)
+							continue;
+					} else {
+						entry.setParent(dir, separator);
+					}
+					list.add(entry);
+
+					if (entry.exists() && entry.isDirectory()
+							&& d.files[i].isDirectory()) {
+						dirs.put(d.files[i].getRelativePath(), entry);
+						subDirs.add(entry);
+					}
+				}
+
+				// Add the entries not contained in the manifest:
+				list.addAll(diff.values());
+			}
+
+			// Publish the list; contained directories of the manifest are
+			// pending until their own differences are read:
+			synchronized (this) {
+				if (separator != 0)
+					dir.setList(JFSWireProtocol.sort(list));
+				pending.addAll(subDirs);
+				pending.remove(dir);
+				notifyAll();
+			}
+		}
+	}
+}
@@ -19,13 +19,17 @@
 
 package jfs.server;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.io.Serializable;
 import java.util.Arrays;
 
 import jfs.conf.JFSConfig;
 import jfs.conf.JFSLog;
+import jfs.sync.JFSFile;
 import jfs.sync.JFSFormatter;
 
 /**
@@ -39,6 +43,24 @@ public class JFSFileInfo implements Serializable {
 	/** The UID. */
 	private static final long serialVersionUID = 42L;
 
+	/** Flag of the binary encoding denoting a directory. */
+	private static final int FLAG_DIRECTORY = 1;
+
+	/** Flag of the binary encoding denoting a readable file. */
+	private static final int FLAG_READ = 2;
+
+	/** Flag of the binary encoding denoting a writable file. */
+	private static final int FLAG_WRITE = 4;
+
+	/** Flag of the binary encoding denoting an executable file. */
+	private static final int FLAG_EXECUTE = 8;
+
+	/** Flag of the binary encoding denoting an existing file. */
+	private static final int FLAG_EXISTS = 16;
+
+	/** Flag of the binary encoding denoting an attached list. */
+	private static final int FLAG_LIST = 32;
+
 	/** The name of the file. */
 	private String name = "";
 
@@ -135,23 +157,25 @@ public class JFSFileInfo implements Serializable {
 	 * systen is read in.
 	 */
 	public final void update() {
-		File file = complete();
+		File file = updateAttributes();
 
 		if (exists) {
-			isDirectory = file.isDirectory();
-			if (!isDirectory) {
-				canExecute = file.canExecute();
-				length = file.length();
-				lastModified = file.lastModified();
-			}
-
 			if (list == null) {
 				String[] fileList = file.list();
 
 				if (isDirectory && (fileList != null)) {
-					list = new JFSFileInfo[fileList.length];
+					// Sort the listing, so that the client has not to:
+					Arrays.sort(fileList);
 
+					// Skip the contents of interrupted copies:
+					int j = 0;
 					for (int i = 0; i < fileList.length; i++) {
+						if (!JFSFile.isPartialFile(fileList[i]))
+							fileList[j++] = fileList[i];
+					}
+					list = new JFSFileInfo[j];
+
+					for (int i = 0; i < list.length; i++) {
 						list[i] = new JFSFileInfo(rootPath, relativePath
 								+ File.separator + fileList[i]);
 						list[i].update();
@@ -161,6 +185,28 @@ public class JFSFileInfo implements Serializable {
 		}
 	}
 
+	/**
+	 * Updates the attributes of the object on the basis of the current file
+	 * system without reading the contents of directories. This method is
+	 * called on the server side.
+	 * 
+	 * @return The file object used to extract the information.
+	 */
+	final File updateAttributes() {
+		File file = complete();
+
+		if (exists) {
+			isDirectory = file.isDirectory();
+			if (!isDirectory) {
+				canExecute = file.canExecute();
+				length = file.length();
+				lastModified = file.lastModified();
+			}
+		}
+
+		return file;
+	}
+
 	/**
 	 * Updates the current file on the basis of this object.
 	 * 
@@ -408,6 +454,210 @@ public class JFSFileInfo implements Serializable {
 		exists = b;
 	}
 
+	/**
+	 * Writes the object in the binary encoding of the JFS wire protocol. The
+	 * list of contained files is written recursively.
+	 * 
+	 * @param out
+	 *            The output to write to.
+	 * @throws IOException
+	 *             Thrown in case of IO problems.
+	 * @see JFSWireProtocol
+	 */
+	final void write(DataOutput out) throws IOException {
+		int flags = (isDirectory ? FLAG_DIRECTORY : 0)
+				| (canRead ? FLAG_READ : 0) | (canWrite ? FLAG_WRITE : 0)
+				| (canExecute ? FLAG_EXECUTE : 0) | (exists ? FLAG_EXISTS : 0)
+				| (list != null ? FLAG_LIST : 0);
+		out.writeByte(flags);
+		out.writeUTF(name);
+		out.writeUTF(path);
+		out.writeUTF(rootPath);
+		out.writeUTF(relativePath);
+		out.writeLong(length);
+		out.writeLong(lastModified);
+
+		if (list != null) {
+			out.writeInt(list.length);
+			for (JFSFileInfo i : list)
+				i.write(out);
+		}
+	}
+
+	/**
+	 * Writes the object as an entry of a directory listing in the binary
+	 * encoding of the JFS wire protocol. In contrast to
+	 * {@link #write(DataOutput)}, only the name and the attributes are
+	 * written; the paths are derived from the directory by the reader.
+	 * 
+	 * @param out
+	 *            The output to write to.
+	 * @throws IOException
+	 *             Thrown in case of IO problems.
+	 */
+	final void writeEntry(DataOutput out) throws IOException {
+		int flags = (isDirectory ? FLAG_DIRECTORY : 0)
+				| (canRead ? FLAG_READ : 0) | (canWrite ? FLAG_WRITE : 0)
+				| (canExecute ? FLAG_EXECUTE : 0) | (exists ? FLAG_EXISTS : 0);
+		out.writeByte(flags);
+		out.writeUTF(name);
+		out.writeLong(length);
+		out.writeLong(lastModified);
+	}
+
+	/**
+	 * Reads an entry of a directory listing written by
+	 * {@link #writeEntry(DataOutput)}.
+	 * 
+	 * @param in
+	 *            The input to read from.
+	 * @param dir
+	 *            The listed directory.
+	 * @param separator
+	 *            The separator of the server.
+	 * @return The read file information object.
+	 * @throws IOException
+	 *             Thrown in case of IO problems.
+	 */
+	static JFSFileInfo readEntry(DataInput in, JFSFileInfo dir, char separator)
+			throws IOException {
+		int flags = in.readUnsignedByte();
+		JFSFileInfo info = new JFSFileInfo();
+		info.isDirectory = (flags & FLAG_DIRECTORY) != 0;
+		info.canRead = (flags & FLAG_READ) != 0;
+		info.canWrite = (flags & FLAG_WRITE) != 0;
+		info.canExecute = (flags & FLAG_EXECUTE) != 0;
+		info.exists = (flags & FLAG_EXISTS) != 0;
+		info.name = in.readUTF();
+		info.setParent(dir, separator);
+		info.length = in.readLong();
+		info.lastModified = in.readLong();
+
+		return info;
+	}
+
+	/**
+	 * Derives the paths of an entry of a directory listing from the directory
+	 * and the name of the entry.
+	 * 
+	 * @param dir
+	 *            The listed directory.
+	 * @param separator
+	 *            The separator of the server.
+	 */
+	final void setParent(JFSFileInfo dir, char separator) {
+		rootPath = dir.rootPath;
+		relativePath = dir.relativePath + separator + name;
+		path = dir.path + separator + name;
+	}
+
+	/**
+	 * Creates an entry of a manifest out of a file of the client. Only the
+	 * name and the attributes compared by the server are set; the paths are
+	 * derived from the directory later on. Like on server side, the length
+	 * and time stamp of directories are not set.
+	 * 
+	 * @param file
+	 *            The file of the client.
+	 * @return The created entry.
+	 * @see #setParent(JFSFileInfo, char)
+	 */
+	static JFSFileInfo createEntry(JFSFile file) {
+		JFSFileInfo info = new JFSFileInfo();
+		info.name = file.getName();
+		info.exists = file.exists();
+		info.isDirectory = file.isDirectory();
+		info.canRead = file.canRead();
+		info.canWrite = file.canWrite();
+		if (!info.isDirectory) {
+			info.canExecute = file.canExecute();
+			info.length = file.getLength();
+			info.lastModified = file.getLastModified();
+		}
+
+		return info;
+	}
+
+	/**
+	 * Determines whether an entry of a manifest has the same attributes as
+	 * this object. The length and time stamp are compared for files only.
+	 * 
+	 * @param entry
+	 *            The entry to compare.
+	 * @return True if and only if the attributes are equal.
+	 */
+	final boolean hasSameAttributes(JFSFileInfo entry) {
+		if (exists != entry.exists || isDirectory != entry.isDirectory
+				|| canRead != entry.canRead || canWrite != entry.canWrite)
+			return false;
+
+		return isDirectory
+				|| (canExecute == entry.canExecute && length == entry.length
+						&& lastModified == entry.lastModified);
+	}
+
+	/**
+	 * Copies the name and the attributes of another object without its paths
+	 * and its list of contained files.
+	 * 
+	 * @param info
+	 *            The object to copy.
+	 */
+	final void setAttributes(JFSFileInfo info) {
+		name = info.name;
+		isDirectory = info.isDirectory;
+		canRead = info.canRead;
+		canWrite = info.canWrite;
+		canExecute = info.canExecute;
+		exists = info.exists;
+		length = info.length;
+		lastModified = info.lastModified;
+	}
+
+	/**
+	 * Sets the list of contained files of a directory, which was read by a
+	 * directory listing.
+	 * 
+	 * @param list
+	 *            The contained files.
+	 */
+	final void setList(JFSFileInfo[] list) {
+		this.list = list;
+	}
+
+	/**
+	 * Reads an object written by {@link #write(DataOutput)}.
+	 * 
+	 * @param in
+	 *            The input to read from.
+	 * @return The read file information object.
+	 * @throws IOException
+	 *             Thrown in case of IO problems.
+	 */
+	static JFSFileInfo read(DataInput in) throws IOException {
+		JFSFileInfo info = new JFSFileInfo();
+		int flags = in.readUnsignedByte();
+		info.isDirectory = (flags & FLAG_DIRECTORY) != 0;
+		info.canRead = (flags & FLAG_READ) != 0;
+		info.canWrite = (flags & FLAG_WRITE) != 0;
+		info.canExecute = (flags & FLAG_EXECUTE) != 0;
+		info.exists = (flags & FLAG_EXISTS) != 0;
+		info.name = in.readUTF();
+		info.path = in.readUTF();
+		info.rootPath = in.readUTF();
+		info.relativePath = in.readUTF();
+		info.length = in.readLong();
+		info.lastModified = in.readLong();
+
+		if ((flags & FLAG_LIST) != 0) {
+			info.list = new JFSFileInfo[in.readInt()];
+			for (int i = 0; i < info.list.length; i++)
+				info.list[i] = read(in);
+		}
+
+		return info;
+	}
+
 	/**
 	 * Prints information about the specified file to the JFS standard out.
 	 */
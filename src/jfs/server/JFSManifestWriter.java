@@ -0,0 +1,204 @@
+/*
+ * JFileSync
+ * Copyright (C) 2002-2007, Jens Heidrich
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA, 02110-1301, USA
+ */
+
+
+package jfs.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import jfs.conf.JFSConfig;
+import jfs.conf.JFSConst;
+import jfs.sync.JFSFile;
+import jfs.sync.JFSHashCache;
+import jfs.sync.JFSProgress;
+
+/**
+ * Writes the manifest of a directory structure of the client to a JFS server
+ * (see {@link JFSTransmission#CMD_GET_DIFF}). The directories are written in
+ * pre-order by a separate thread, while the differences sent by the server
+ * are read by a {@link JFSDiffReader}; that is, the client doesn't have to
+ * wait for the differences of a directory before it sends the next one and
+ * the server doesn't have to keep the differences in memory until the
+ * manifest is complete. Every written directory is queued, so that the reading thread
+ * is able to assign the differences to the directories in the same order.
+ * 
+ * @author Jens Heidrich
+ * @version $Id$
+ */
+final class JFSManifestWriter extends Thread {
+
+	/**
+	 * A directory of the manifest.
+	 */
+	static final class Directory {
+		/** The directory of the client. */
+		final JFSFile file;
+
+		/** The contained files of the client. */
+		final JFSFile[] files;
+
+		/** The entries of the manifest for the contained files. */
+		final JFSFileInfo[] entries;
+
+		/**
+		 * Creates a new directory of the manifest.
+		 * 
+		 * @param file
+		 *            The directory of the client.
+		 * @param files
+		 *            The contained files of the client.
+		 * @param entries
+		 *            The entries of the manifest for the contained files.
+		 */
+		Directory(JFSFile file, JFSFile[] files, JFSFileInfo[] entries) {
+			this.file = file;
+			this.files = files;
+			this.entries = entries;
+		}
+	}
+
+	/** Ends the queue of written directories. */
+	static final Directory END = new Directory(null, null, null);
+
+	/** The root directory of the client. */
+	private final JFSFile reference;
+
+	/** The socket to write to. */
+	private final Socket socket;
+
+	/** The written directories in the order they were written. */
+	private final BlockingQueue<Directory> written =
+			new LinkedBlockingQueue<Directory>();
+
+	/** The problem, which stopped writing the manifest, if any. */
+	private volatile IOException failure = null;
+
+	/**
+	 * Creates a new writer.
+	 * 
+	 * @param reference
+	 *            The root directory of the client.
+	 * @param socket
+	 *            The socket to write to.
+	 */
+	JFSManifestWriter(JFSFile reference, Socket socket) {
+		super("JFSManifestWriter");
+		this.reference = reference;
+		this.socket = socket;
+		setDaemon(true);
+	}
+
+	/**
+	 * @see Thread#run()
+	 */
+	public void run() {
+		try {
+			OutputStream out = socket.getOutputStream();
+			write(out, reference);
+			JFSWireProtocol.writeManifestEnd(out);
+		} catch (IOException e) {
+			failure = e;
+
+			// Let the reading thread fail as well instead of waiting for
+			// differences, which are never sent:
+			try {
+				socket.close();
+			} catch (IOException e2) {
+				// Ignore the second failure...
+			}
+		} finally {
+			written.add(END);
+		}
+	}
+
+	/**
+	 * Writes the manifest of a directory and of all contained directories.
+	 * 
+	 * @param out
+	 *            The stream to write to.
+	 * @param dir
+	 *            The directory to write.
+	 * @throws IOException
+	 *             Thrown in case of IO problems.
+	 */
+	private void write(OutputStream out, JFSFile dir) throws IOException {
+		// Stop sending the manifest, if the comparison was canceled:
+		if (JFSProgress.getInstance().isCanceled())
+			return;
+
+		// Send the cached digests of local files, if contents are compared:
+		JFSHashCache cache = null;
+		if (JFSConfig.getInstance().isHashComparison())
+			cache = JFSHashCache.getInstance();
+
+		JFSFile[] files = dir.getList();
+		JFSFileInfo[] entries = new JFSFileInfo[files.length];
+		ArrayList<JFSFileInfo> page = new ArrayList<JFSFileInfo>();
+		ArrayList<byte[]> digests = new ArrayList<byte[]>();
+
+		for (int i = 0; i < files.length; i++) {
+			entries[i] = JFSFileInfo.createEntry(files[i]);
+			page.add(entries[i]);
+			digests.add(cache != null ? cache.lookupDigest(files[i]) : null);
+
+			if (page.size() == JFSConst.SERVER_LIST_PAGE
+					&& i < files.length - 1) {
+				JFSWireProtocol.writeManifest(out, dir.getRelativePath(),
+						page, digests, false);
+				page.clear();
+				digests.clear();
+			}
+		}
+		JFSWireProtocol.writeManifest(out, dir.getRelativePath(), page,
+				digests, true);
+		written.add(new Directory(dir, files, entries));
+
+		for (JFSFile f : files) {
+			if (f.isDirectory())
+				write(out, f);
+		}
+	}
+
+	/**
+	 * Returns the next directory, whose manifest was written, in the order
+	 * the directories were written. Waits until the next directory is
+	 * written.
+	 * 
+	 * @return The next directory or {@link #END}, if the manifest is
+	 *         complete or writing failed.
+	 * @throws InterruptedException
+	 *             Thrown if the thread was interrupted while waiting.
+	 */
+	Directory next() throws InterruptedException {
+		return written.take();
+	}
+
+	/**
+	 * @return Returns the problem, which stopped writing the manifest, or
+	 *         null, if the manifest was written completely.
+	 */
+	IOException getFailure() {
+		return failure;
+	}
+}
@@ -0,0 +1,426 @@
+/*
+ * JFileSync
+ * Copyright (C) 2002-2007, Jens Heidrich
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA, 02110-1301, USA
+ */
+
+
+package jfs.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import jfs.conf.JFSLog;
+import jfs.conf.JFSText;
+import jfs.sync.JFSFile;
+
+/**
+ * Caches the listings of directories on server side for all sessions of a
+ * server. Every cached listing contains the attributes of the listed files.
+ * A cached directory is watched for changes by a watch service; as soon as a
+ * change is reported, its listing is dropped. Because the watch service
+ * reports changes asynchronously, changes performed by the server itself
+ * have to be reported at once. The number of cached files is limited; if the
+ * limit is reached, the least recently used listings are dropped.
+ * 
+ * @author Jens Heidrich
+ * @version $Id$
+ */
+final class JFSMetadataCache implements Runnable {
+
+	/** A cached listing of a directory. */
+	private static final class Listing {
+		/** The key of the watched directory. */
+		private final WatchKey key;
+
+		/** The names and attributes of the listed files. */
+		private final JFSFileInfo[] entries;
+
+		/**
+		 * Creates a new listing.
+		 * 
+		 * @param key
+		 *            The key of the watched directory.
+		 * @param entries
+		 *            The names and attributes of the listed files.
+		 */
+		private Listing(WatchKey key, JFSFileInfo[] entries) {
+			this.key = key;
+			this.entries = entries;
+		}
+	}
+
+	/** The maximum number of cached files. */
+	private final int capacity;
+
+	/** The watch service used or null, if the cache is disabled. */
+	private final WatchService watcher;
+
+	/** The cached listings in the order of their last usage. */
+	private final LinkedHashMap<File, Listing> listings = new LinkedHashMap<File, Listing>(
+			16, 0.75f, true);
+
+	/** The watched directories. */
+	private final HashMap<WatchKey, File> keys = new HashMap<WatchKey, File>();
+
+	/** The number of cached files. */
+	private int size = 0;
+
+	/**
+	 * The number of changes reported so far. A listing is only cached, if no
+	 * change was reported while it was read.
+	 */
+	private long generation = 0;
+
+	/**
+	 * Creates a new cache and starts watching for changes.
+	 * 
+	 * @param capacity
+	 *            The maximum number of cached files. Zero disables the cache.
+	 */
+	JFSMetadataCache(int capacity) {
+		WatchService w = null;
+
+		if (capacity > 0) {
+			try {
+				w = FileSystems.getDefault().newWatchService();
+			} catch (IOException e) {
+				JFSLog.getErr().getStream().println(
+						JFSText.getInstance().get("error.external") + " " + e);
+			}
+		}
+
+		this.capacity = capacity;
+		watcher = w;
+
+		if (watcher != null) {
+			Thread t = new Thread(this, "JFSMetadataCache");
+			t.setDaemon(true);
+			t.start();
+		}
+	}
+
+	/**
+	 * Updates a file information object and the whole structure below like
+	 * {@link JFSFileInfo#update()}, but takes the listings of directories
+	 * from the cache.
+	 * 
+	 * @param info
+	 *            The file information object to update.
+	 */
+	final void update(JFSFileInfo info) {
+		if (watcher == null) {
+			info.update();
+
+			return;
+		}
+
+		File file = info.updateAttributes();
+
+		if (info.exists() && info.isDirectory())
+			update(info, file);
+	}
+
+	/**
+	 * Attaches the listing of a directory and of all contained directories.
+	 * 
+	 * @param dir
+	 *            The directory.
+	 * @param file
+	 *            The file of the directory.
+	 */
+	private void update(JFSFileInfo dir, File file) {
+		JFSFileInfo[] list = list(dir, file);
+
+		if (list != null) {
+			dir.setList(list);
+
+			for (JFSFileInfo entry : list) {
+				if (entry.isDirectory())
+					update(entry, new File(file, entry.getName()));
+			}
+		}
+	}
+
+	/**
+	 * Returns the sorted listing of a directory without the contents of
+	 * interrupted copies. If the listing is not cached yet, it is read and
+	 * the directory is watched for changes.
+	 * 
+	 * @param dir
+	 *            The directory.
+	 * @param file
+	 *            The file of the directory.
+	 * @return The contained files or null, if the cache is disabled or the
+	 *         directory cannot be read.
+	 */
+	final JFSFileInfo[] list(JFSFileInfo dir, File file) {
+		if (watcher == null)
+			return null;
+
+		long g;
+		WatchKey key;
+
+		synchronized (this) {
+			Listing listing = listings.get(file);
+
+			if (listing != null)
+				return copy(listing.entries, dir);
+
+			// Watch the directory, before it is read:
+			g = generation;
+			key = watch(file);
+		}
+
+		JFSFileInfo[] list = read(dir, file);
+
+		if (key != null) {
+			synchronized (this) {
+				if (list != null && g == generation
+						&& list.length <= capacity) {
+					JFSFileInfo[] entries = new JFSFileInfo[list.length];
+					for (int i = 0; i < list.length; i++) {
+						entries[i] = new JFSFileInfo();
+						entries[i].setAttributes(list[i]);
+					}
+					store(file, new Listing(key, entries));
+				} else if (!listings.containsKey(file)) {
+					unwatch(key);
+				}
+			}
+		}
+
+		return list;
+	}
+
+	/**
+	 * Drops the cached attributes of a file changed by the server as well as
+	 * the cached listing of the file itself, if it is a directory.
+	 * 
+	 * @param file
+	 *            The changed file.
+	 */
+	final synchronized void invalidate(File file) {
+		if (watcher == null)
+			return;
+
+		generation++;
+		remove(file.getParentFile());
+		remove(file);
+	}
+
+	/**
+	 * Stops watching for changes and drops all cached listings.
+	 */
+	final void close() {
+		if (watcher == null)
+			return;
+
+		try {
+			watcher.close();
+		} catch (IOException e) {
+			// Ignore IO exceptions...
+		}
+
+		synchronized (this) {
+			generation++;
+			listings.clear();
+			keys.clear();
+			size = 0;
+		}
+	}
+
+	/**
+	 * Drops the listings of the watched directories as soon as a change is
+	 * reported.
+	 * 
+	 * @see java.lang.Runnable#run()
+	 */
+	public void run() {
+		try {
+			while (true) {
+				WatchKey key = watcher.take();
+
+				synchronized (this) {
+					File dir = keys.get(key);
+
+					if (dir != null) {
+						generation++;
+						remove(dir);
+
+						// Contained directories may have been renamed:
+						for (WatchEvent<?> e : key.pollEvents()) {
+							if (e.kind() != StandardWatchEventKinds.OVERFLOW)
+								remove(new File(dir, e.context().toString()));
+						}
+					} else {
+						key.pollEvents();
+					}
+
+					if (!key.reset())
+						keys.remove(key);
+				}
+			}
+		} catch (InterruptedException e) {
+			// Stop watching...
+		} catch (ClosedWatchServiceException e) {
+			// Stop watching...
+		}
+	}
+
+	/**
+	 * Reads the sorted listing of a directory without the contents of
+	 * interrupted copies.
+	 * 
+	 * @param dir
+	 *            The directory.
+	 * @param file
+	 *            The file of the directory.
+	 * @return The contained files or null, if the directory cannot be read.
+	 */
+	private static JFSFileInfo[] read(JFSFileInfo dir, File file) {
+		String[] names = file.list();
+
+		if (names == null)
+			return null;
+
+		Arrays.sort(names);
+		ArrayList<JFSFileInfo> list = new ArrayList<JFSFileInfo>(names.length);
+
+		for (String name : names) {
+			if (JFSFile.isPartialFile(name))
+				continue;
+
+			JFSFileInfo entry = new JFSFileInfo(dir.getRootPath(), dir
+					.getRelativePath()
+					+ File.separator + name);
+			entry.updateAttributes();
+			list.add(entry);
+		}
+
+		return list.toArray(new JFSFileInfo[list.size()]);
+	}
+
+	/**
+	 * Creates the file information objects of a cached listing.
+	 * 
+	 * @param entries
+	 *            The cached entries.
+	 * @param dir
+	 *            The listed directory.
+	 * @return The contained files.
+	 */
+	private static JFSFileInfo[] copy(JFSFileInfo[] entries, JFSFileInfo dir) {
+		JFSFileInfo[] list = new JFSFileInfo[entries.length];
+
+		for (int i = 0; i < entries.length; i++) {
+			list[i] = new JFSFileInfo();
+			list[i].setAttributes(entries[i]);
+			list[i].setParent(dir, File.separatorChar);
+		}
+
+		return list;
+	}
+
+	/**
+	 * Watches a directory for changes.
+	 * 
+	 * @param dir
+	 *            The directory.
+	 * @return The key of the directory or null, if it cannot be watched.
+	 */
+	private WatchKey watch(File dir) {
+		try {
+			WatchKey key = dir.toPath().register(watcher,
+					StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_DELETE,
+					StandardWatchEventKinds.ENTRY_MODIFY);
+			keys.put(key, dir);
+
+			return key;
+		} catch (IOException e) {
+			return null;
+		} catch (ClosedWatchServiceException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Stops watching a directory. Listings of the directory, which are read
+	 * concurrently, are not cached afterwards.
+	 * 
+	 * @param key
+	 *            The key of the directory.
+	 */
+	private void unwatch(WatchKey key) {
+		generation++;
+		key.cancel();
+		keys.remove(key);
+	}
+
+	/**
+	 * Caches a listing and drops the least recently used listings, if the
+	 * maximum number of cached files is exceeded.
+	 * 
+	 * @param dir
+	 *            The listed directory.
+	 * @param listing
+	 *            The listing to cache.
+	 */
+	private void store(File dir, Listing listing) {
+		Listing old = listings.put(dir, listing);
+		if (old != null)
+			size -= old.entries.length;
+		size += listing.entries.length;
+
+		Iterator<Map.Entry<File, Listing>> i = listings.entrySet().iterator();
+		while (size > capacity && i.hasNext()) {
+			Listing eldest = i.next().getValue();
+			if (eldest == listing)
+				break;
+			i.remove();
+			size -= eldest.entries.length;
+			unwatch(eldest.key);
+		}
+	}
+
+	/**
+	 * Drops the cached listing of a directory.
+	 * 
+	 * @param dir
+	 *            The directory.
+	 */
+	private void remove(File dir) {
+		Listing listing = listings.remove(dir);
+
+		if (listing != null) {
+			size -= listing.entries.length;
+			unwatch(listing.key);
+		}
+	}
+}
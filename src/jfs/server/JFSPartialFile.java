@@ -0,0 +1,227 @@
+/*
+ * JFileSync
+ * Copyright (C) 2002-2007, Jens Heidrich
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA, 02110-1301, USA
+ */
+
+
+package jfs.server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import jfs.conf.JFSConst;
+import jfs.sync.JFSFile;
+
+/**
+ * Keeps the contents of a file transfered so far in a hidden file next to the
+ * target, so that an interrupted copy can be resumed. A checkpoint stores the
+ * length and the time of last modification of the source as well as the
+ * number of bytes transfered; the contents are only resumed for the same
+ * version of the source. The partial file replaces the target not until all
+ * contents are transfered. This class is used on client side for local files
+ * and on server side for external files.
+ * 
+ * @author Jens Heidrich
+ * @version $Id$
+ */
+public class JFSPartialFile {
+
+	/** The target file. */
+	private final File file;
+
+	/** The file keeping the contents transfered so far. */
+	private final File data;
+
+	/** The checkpoint of the partial file. */
+	private final File checkpoint;
+
+	/**
+	 * Creates a new partial file for a target.
+	 * 
+	 * @param file
+	 *            The target file.
+	 */
+	public JFSPartialFile(File file) {
+		this.file = file;
+		data = new File(file.getParentFile(), "." + file.getName()
+				+ JFSConst.PARTIAL_FILE_SUFFIX);
+		checkpoint = new File(file.getParentFile(), "." + file.getName()
+				+ JFSConst.CHECKPOINT_FILE_SUFFIX);
+	}
+
+	/**
+	 * Returns the number of bytes transfered by a previous copy of the same
+	 * version of the source. Partial contents of other versions are discarded.
+	 * 
+	 * @param length
+	 *            The length of the source.
+	 * @param lastModified
+	 *            The time of last modification of the source.
+	 * @return The offset to resume the copy at.
+	 */
+	public long getOffset(long length, long lastModified) {
+		long offset = 0;
+
+		if (checkpoint.exists()) {
+			try {
+				DataInputStream in = new DataInputStream(new FileInputStream(
+						checkpoint));
+				try {
+					if (in.readLong() == length
+							&& in.readLong() == lastModified)
+						offset = in.readLong();
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				offset = 0;
+			}
+		}
+
+		if (offset <= 0 || offset >= length || offset > data.length()) {
+			discard();
+			offset = 0;
+		}
+
+		return offset;
+	}
+
+	/**
+	 * Returns an output stream appending to the partial file at a certain
+	 * offset. All contents behind the offset are discarded.
+	 * 
+	 * @param offset
+	 *            The offset returned by {@link #getOffset(long, long)}.
+	 * @return The output stream.
+	 * @throws IOException
+	 *             If the partial file is shorter than the offset or cannot be
+	 *             written.
+	 */
+	public OutputStream getOutputStream(long offset) throws IOException {
+		if (offset < 0 || offset > data.length())
+			throw new IOException("Illegal offset: " + offset);
+
+		RandomAccessFile raf = new RandomAccessFile(data, "rw");
+		try {
+			raf.setLength(offset);
+		} finally {
+			raf.close();
+		}
+
+		// The checkpoint is written again, when the copy is interrupted:
+		checkpoint.delete();
+
+		return new FileOutputStream(data, true);
+	}
+
+	/**
+	 * Writes the checkpoint after the output stream was closed. If nothing
+	 * was transfered, the partial file is discarded.
+	 * 
+	 * @param length
+	 *            The length of the source.
+	 * @param lastModified
+	 *            The time of last modification of the source.
+	 */
+	public void checkpoint(long length, long lastModified) {
+		long offset = data.length();
+
+		if (offset == 0) {
+			discard();
+		} else if (offset < length) {
+			try {
+				DataOutputStream out = new DataOutputStream(
+						new FileOutputStream(checkpoint));
+				try {
+					out.writeLong(length);
+					out.writeLong(lastModified);
+					out.writeLong(offset);
+				} finally {
+					out.close();
+				}
+			} catch (IOException e) {
+				checkpoint.delete();
+			}
+		}
+	}
+
+	/**
+	 * Replaces the target by the partial file, if all contents are
+	 * transfered.
+	 * 
+	 * @param length
+	 *            The length of the source.
+	 * @return True if and only if the target was replaced.
+	 */
+	public boolean complete(long length) {
+		if (data.length() != length)
+			return false;
+
+		try {
+			Files.move(data.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			return false;
+		}
+		checkpoint.delete();
+
+		return true;
+	}
+
+	/**
+	 * Deletes the partial file and its checkpoint.
+	 */
+	public void discard() {
+		data.delete();
+		checkpoint.delete();
+	}
+
+	/**
+	 * Deletes a file or an empty directory together with the partial files
+	 * left behind by interrupted copies. Partial files are not listed for
+	 * comparison, so they are never deleted by a synchronization themselves
+	 * and would keep their directory from being deleted.
+	 * 
+	 * @param file
+	 *            The file or directory to delete.
+	 * @return True if and only if the file or directory was deleted.
+	 */
+	public static boolean delete(File file) {
+		if (file.isDirectory()) {
+			String[] names = file.list();
+			if (names != null) {
+				for (String name : names) {
+					if (JFSFile.isPartialFile(name))
+						new File(file, name).delete();
+				}
+			}
+		} else {
+			new JFSPartialFile(file).discard();
+		}
+
+		return file.delete();
+	}
+}
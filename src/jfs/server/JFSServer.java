@@ -27,11 +27,27 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import jfs.conf.JFSConfig;
 import jfs.conf.JFSConst;
@@ -39,8 +55,16 @@ import jfs.conf.JFSLog;
 import jfs.conf.JFSText;
 
 /**
- * This class launches and stops the JFS server.
+ * This class launches and stops the JFS server. The server thread waits for
+ * new connections and for requests of idle sessions using a selector; that
+ * is, idle sessions don't use a thread. As soon as a request arrives, the
+ * session is handled by one of a fixed number of worker threads, which
+ * handle the sessions in the order of their requests. The number of
+ * concurrent sessions is limited; further connections wait in the order of
+ * their arrival until a session is closed. The listings of directories are
+ * cached for all sessions.
  * 
+ * @see JFSClient
  * @author Jens Heidrich
  * @version $Id: JFSServer.java,v 1.25 2009/10/08 08:19:53 heidrich Exp $
  */
@@ -52,6 +76,27 @@ public class JFSServer extends Thread {
 	/** The used server socket. */
 	private ServerSocket serverSocket;
 
+	/** Waits for new connections and requests of idle sessions. */
+	private volatile Selector selector = null;
+
+	/** The threads handling the requests of all sessions. */
+	private final ExecutorService workers;
+
+	/** The listings of directories cached for all sessions. */
+	private final JFSMetadataCache cache;
+
+	/** The idle sessions, which have to be registered with the selector. */
+	private final ConcurrentLinkedQueue<JFSClient> idle = new ConcurrentLinkedQueue<JFSClient>();
+
+	/** The connections waiting for a session in the order of their arrival. */
+	private final LinkedList<SocketChannel> waiting = new LinkedList<SocketChannel>();
+
+	/** The number of open sessions. */
+	private int sessions = 0;
+
+	/** Determines whether the server is shutting down. */
+	private volatile boolean stopping = false;
+
 	/**
 	 * The default constructor is package protected. You have to use a server
 	 * factory in order to get a server.
@@ -59,39 +104,58 @@ public class JFSServer extends Thread {
 	 * @see JFSServerFactory
 	 */
 	JFSServer() {
+		int n = Math.max(JFSConfig.getInstance().getServerWorkers(), 1);
+		workers = new ThreadPoolExecutor(n, n, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "JFSClient");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		cache = new JFSMetadataCache(JFSConfig.getInstance().getServerCache());
 	}
 
 	/**
-	 * Stopps the server. This will close the server socket and therewith cause
-	 * a SocketException which will shutdown the server at once. As an
-	 * alternative you may send an interrupt, which will shutdown the server
-	 * after accepting a last socket connection. ATTENTION: If there is no such
-	 * last client requesting a connection, the server will not shut down after
-	 * getting an interrupt, but wait for the last connection.
+	 * Stopps the server. New connections are not accepted any more and idle
+	 * sessions are closed at once. Requests in progress are finished, before
+	 * their sessions are closed, as long as they don't take longer than the
+	 * server timeout. Afterwards, all remaining sockets are closed.
 	 */
 	public synchronized void stopServer() {
-		JFSText t = JFSText.getInstance();
+		int timeout = JFSConfig.getInstance().getServerTimeout();
+
+		// Stop the server thread, which closes the server socket and all idle
+		// sessions:
+		stopping = true;
+		interrupt();
+		Selector s = selector;
+		if (s != null)
+			s.wakeup();
+
+		try {
+			if (Thread.currentThread() != this)
+				join(timeout);
+
+			// Let the requests in progress finish:
+			workers.shutdown();
+			workers.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
 
 		// Shut down all sockets using a new vector in order to avoid
 		// concurrent modification when socket is interrupted:
-		for (Socket s : new Vector<Socket>(sockets)) {
+		for (Socket socket : new Vector<Socket>(sockets)) {
 			try {
-				s.close();
+				socket.close();
 			} catch (IOException e) {
 				// Ignore IO exceptions...
 			}
 		}
 		sockets.clear();
-
-		// Shut down server socket:
-		interrupt();
-		try {
-			if (serverSocket != null)
-				serverSocket.close();
-		} catch (IOException e) {
-			JFSLog.getErr().getStream().println(
-					t.get("error.external") + " " + e);
-		}
+		workers.shutdownNow();
+		cache.close();
 
 		// If a command line server was used, exit application in order to
 		// stop waiting for an input line from the input stream:
@@ -110,36 +174,285 @@ public class JFSServer extends Thread {
 		out.println(t.get("general.appName") + " "
 				+ JFSConst.getInstance().getString("jfs.version"));
 
+		ServerSocketChannel channel = null;
+
 		try {
 			int port = JFSConfig.getInstance().getServerPort();
-			serverSocket = new ServerSocket(port);
+			int timeout = JFSConfig.getInstance().getServerTimeout();
+			selector = Selector.open();
+			channel = ServerSocketChannel.open();
+			serverSocket = channel.socket();
+			serverSocket.bind(new InetSocketAddress(port));
 			out.println(t.get("cmd.server.socket") + " ["
 					+ serverSocket.getLocalPort() + "]");
+			channel.configureBlocking(false);
+			channel.register(selector, SelectionKey.OP_ACCEPT);
+			long lastCheck = System.currentTimeMillis();
+
+			// Wake up regularly in order to check for idle sessions, or for a
+			// stop request, when no timeout is set:
+			long wakeUp = timeout > 0 ? Math.max(timeout / 4, 1)
+					: JFSConst.SERVER_POOL_CHECK;
 
 			// Start server loop:
-			while (!isInterrupted()) {
-				Socket socket = serverSocket.accept();
-				socket.setSoTimeout(JFSConfig.getInstance().getServerTimeout());
-				out.println(t.get("cmd.server.clientSocket") + " ["
-						+ socket.getLocalSocketAddress() + "]");
-				out.println(t.get("cmd.server.timeout") + " ["
-						+ socket.getSoTimeout() + "]");
-				JFSClient handler = new JFSClient(this, socket);
-				handler.start();
+			while (!isInterrupted() && !stopping) {
+				selector.select(wakeUp);
+				register();
+
+				ArrayList<JFSClient> ready = new ArrayList<JFSClient>();
+				Iterator<SelectionKey> i = selector.selectedKeys().iterator();
+				while (i.hasNext()) {
+					SelectionKey key = i.next();
+					i.remove();
+
+					if (!key.isValid())
+						continue;
+					if (key.isAcceptable()) {
+						SocketChannel c;
+						while ((c = channel.accept()) != null)
+							accept(c);
+					} else if (key.isReadable()) {
+						key.cancel();
+						ready.add((JFSClient) key.attachment());
+					}
+				}
+
+				// Deregister the sessions, before they are handled in
+				// blocking mode:
+				if (!ready.isEmpty()) {
+					selector.selectNow();
+					for (JFSClient client : ready) {
+						try {
+							workers.execute(client);
+						} catch (RejectedExecutionException e) {
+							client.close();
+						}
+					}
+				}
+
+				// Close sessions, which were idle longer than the timeout (if
+				// any):
+				long now = System.currentTimeMillis();
+				if (timeout > 0 && now - lastCheck > wakeUp) {
+					lastCheck = now;
+					for (SelectionKey key : selector.keys()) {
+						if (key.attachment() instanceof JFSClient) {
+							JFSClient client = (JFSClient) key.attachment();
+							if (now - client.getLastUsed() > timeout) {
+								key.cancel();
+								out.println(t.get("error.timeout"));
+								client.close();
+							}
+						}
+					}
+				}
 			}
-
-			serverSocket.close();
 		} catch (SocketException e) {
 			JFSLog.getErr().getStream()
 					.println(t.get("error.socket") + " " + e);
 		} catch (IOException e) {
 			JFSLog.getErr().getStream().println(
 					t.get("error.external") + " " + e);
+		} finally {
+			close(channel);
 		}
 
 		out.println(t.get("cmd.server.stop"));
 	}
 
+	/**
+	 * Closes the server socket, the idle sessions, and all connections
+	 * waiting for a session, when the server thread stops.
+	 * 
+	 * @param channel
+	 *            The channel of the server socket.
+	 */
+	private void close(ServerSocketChannel channel) {
+		stopping = true;
+		try {
+			if (channel != null)
+				channel.close();
+		} catch (IOException e) {
+			JFSLog.getErr().getStream().println(
+					JFSText.getInstance().get("error.external") + " " + e);
+		}
+
+		synchronized (waiting) {
+			for (SocketChannel c : waiting) {
+				try {
+					c.close();
+				} catch (IOException e) {
+					// Ignore IO exceptions...
+				}
+			}
+			waiting.clear();
+		}
+
+		Selector s = selector;
+		if (s != null) {
+			for (SelectionKey key : s.keys()) {
+				if (key.attachment() instanceof JFSClient)
+					((JFSClient) key.attachment()).close();
+			}
+			try {
+				s.close();
+			} catch (IOException e) {
+				// Ignore IO exceptions...
+			}
+		}
+		register();
+	}
+
+	/**
+	 * Registers all idle sessions with the selector, so that the server
+	 * thread waits for their next requests. If the server is stopping, the
+	 * sessions are closed instead.
+	 */
+	private void register() {
+		JFSClient client;
+		while ((client = idle.poll()) != null) {
+			try {
+				if (stopping)
+					throw new ClosedChannelException();
+				client.getSocket().getChannel().register(selector,
+						SelectionKey.OP_READ, client);
+			} catch (IOException e) {
+				client.close();
+			}
+		}
+	}
+
+	/**
+	 * Opens a session for an accepted connection, if the maximum number of
+	 * sessions is not reached. Otherwise, the connection waits for a session
+	 * or is rejected, if too many connections are waiting.
+	 * 
+	 * @param channel
+	 *            The accepted connection.
+	 */
+	private void accept(SocketChannel channel) {
+		JFSText t = JFSText.getInstance();
+
+		synchronized (waiting) {
+			if (sessions < JFSConfig.getInstance().getServerSessions()) {
+				sessions++;
+			} else if (waiting.size() < JFSConst.SERVER_QUEUE) {
+				JFSLog.getOut().getStream().println(
+						t.get("cmd.server.queued") + " ["
+								+ channel.socket().getRemoteSocketAddress()
+								+ "]");
+				waiting.add(channel);
+
+				return;
+			} else {
+				JFSLog.getOut().getStream().println(
+						t.get("cmd.server.rejected") + " ["
+								+ channel.socket().getRemoteSocketAddress()
+								+ "]");
+				try {
+					channel.close();
+				} catch (IOException e) {
+					// Ignore IO exceptions...
+				}
+
+				return;
+			}
+		}
+
+		open(channel);
+	}
+
+	/**
+	 * Opens a new session for a connection, for which the number of sessions
+	 * was already increased.
+	 * 
+	 * @param channel
+	 *            The connection.
+	 */
+	private void open(SocketChannel channel) {
+		JFSText t = JFSText.getInstance();
+		PrintStream out = JFSLog.getOut().getStream();
+		Socket socket = channel.socket();
+		int timeout = JFSConfig.getInstance().getServerTimeout();
+
+		try {
+			socket.setSoTimeout(timeout);
+		} catch (SocketException e) {
+			JFSLog.getErr().getStream()
+					.println(t.get("error.socket") + " " + e);
+			try {
+				channel.close();
+			} catch (IOException ex) {
+				// Ignore IO exceptions...
+			}
+			closeSession();
+
+			return;
+		}
+
+		out.println(t.get("cmd.server.clientSocket") + " ["
+				+ socket.getLocalSocketAddress() + "]");
+		out.println(t.get("cmd.server.timeout") + " [" + timeout + "]");
+		new JFSClient(this, socket).waitForRequest();
+	}
+
+	/**
+	 * Called by a session when it is closed. The session is handed over to
+	 * the connection waiting longest.
+	 */
+	void closeSession() {
+		SocketChannel next;
+
+		synchronized (waiting) {
+			next = stopping ? null : waiting.poll();
+			if (next == null) {
+				sessions--;
+
+				return;
+			}
+		}
+
+		open(next);
+	}
+
+	/**
+	 * Lets a session wait for its next request without using a thread. The
+	 * socket of the session has to be in non-blocking mode.
+	 * 
+	 * @param client
+	 *            The session.
+	 */
+	void waitForRequest(JFSClient client) {
+		if (stopping) {
+			client.close();
+
+			return;
+		}
+
+		idle.add(client);
+		Selector s = selector;
+		if (s != null)
+			s.wakeup();
+	}
+
+	/**
+	 * Returns the threads handling the requests of all sessions.
+	 * 
+	 * @return The threads.
+	 */
+	ExecutorService getWorkers() {
+		return workers;
+	}
+
+	/**
+	 * Returns the listings of directories cached for all sessions.
+	 * 
+	 * @return The cache.
+	 */
+	JFSMetadataCache getCache() {
+		return cache;
+	}
+
 	/**
 	 * @return Returns the sockets.
 	 */
@@ -25,18 +25,26 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.net.Socket;
-import java.net.UnknownHostException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
-import jfs.conf.JFSConfig;
 import jfs.conf.JFSLog;
 import jfs.conf.JFSText;
+import jfs.sync.JFSFile;
 
 /**
  * This class provides methods for JFS clients to access the server's
  * functionality. It is used by a JFSExternalFile in order to access a JFS
- * server.
+ * server. Requests without contents are sent over a multiplexed channel, if
+ * the server supports it, so that several threads may wait for replies at the
+ * same time. Contents are transfered over connections borrowed from the pool
+ * of the server, so that several threads may transfer contents concurrently.
+ * A connection is bound to the borrowing thread until the socket is released
+ * or closed by this thread.
  * 
+ * @see JFSServerPool
  * @author Jens Heidrich
  * @version $Id: JFSServerAccess.java,v 1.20 2009/10/08 08:19:53 heidrich Exp $
  */
@@ -45,17 +53,20 @@ public class JFSServerAccess extends Thread {
 	/** Stores the only instance of the class. */
 	private static HashMap<String, JFSServerAccess> instances = new HashMap<String, JFSServerAccess>();
 
-	/** The sockets on client side for different hosts and ports. */
-	private Socket socket = null;
+	/** The pool of connections to the server. */
+	private final JFSServerPool pool;
 
-	/** The last time when releasing a socket. */
-	private long lastSocketRelease = -1;
+	/** The connection currently borrowed by a thread. */
+	private final ThreadLocal<JFSServerConnection> connection = new ThreadLocal<JFSServerConnection>();
 
-	/** The host. */
-	private String host;
+	/** Determines whether the server is able to resume interrupted copies. */
+	private volatile boolean resumeSupported = true;
 
-	/** The port. */
-	private int port;
+	/**
+	 * Determines whether the server accepts batches of files; null, if the
+	 * server was not asked yet.
+	 */
+	private volatile Boolean batchSupported = null;
 
 	/**
 	 * Creates a new server access object for the client.
@@ -66,8 +77,7 @@ public class JFSServerAccess extends Thread {
 	 *            The server port.
 	 */
 	private JFSServerAccess(String host, int port) {
-		this.host = host;
-		this.port = port;
+		pool = JFSServerPool.getInstance(host, port);
 	}
 
 	/**
@@ -95,70 +105,76 @@ public class JFSServerAccess extends Thread {
 	}
 
 	/**
-	 * Checks whether a socket is available and creates a new one if necessary.
+	 * Borrows a connection from the pool for the current thread. A connection
+	 * still bound to the thread was left by an incomplete request and is
+	 * closed first, because its streams may contain unread data.
 	 * 
-	 * @throws UnknownHostException
-	 *             Thrown, if the host is unknown.
+	 * @return The connection.
 	 * @throws IOException
-	 *             Thrown, if the socket cannot be created.
+	 *             Thrown, if the connection cannot be opened.
 	 */
-	private synchronized void checkSocket() throws UnknownHostException,
-			IOException {
-		// Use half of the server time out for client:
-		int timeout = JFSConfig.getInstance().getServerTimeout() / 2;
-
-		if (socket == null || !socket.isConnected() || socket.isClosed()
-				|| !socket.isBound() || socket.isInputShutdown()
-				|| socket.isOutputShutdown()) {
-			socket = new Socket(host, port);
-			socket.setSoTimeout(timeout);
-		} else {
-			// Test whether socket is alive if it was not used for some time:
-			if (lastSocketRelease == -1
-					|| System.currentTimeMillis() - lastSocketRelease > timeout / 2) {
-				try {
-					OutputStream out = socket.getOutputStream();
-					ObjectOutputStream oo = new ObjectOutputStream(out);
-					JFSTransmission t = new JFSTransmission(
-							JFSTransmission.CMD_IS_ALIVE);
-					oo.writeObject(t);
-					InputStream in = socket.getInputStream();
-					ObjectInputStream oi = new ObjectInputStream(in);
-					// Read boolean from stream (even if currently not used):
-					((Boolean) oi.readObject()).booleanValue();
-				} catch (IOException e) {
-					closeSocket();
-					socket = new Socket(host, port);
-					socket.setSoTimeout(timeout);
-				} catch (ClassNotFoundException e) {
-					closeSocket();
-					socket = new Socket(host, port);
-					socket.setSoTimeout(timeout);
-				}
-			}
+	private JFSServerConnection checkSocket() throws IOException {
+		closeSocket();
+		JFSServerConnection c = pool.borrow();
+		connection.set(c);
+
+		return c;
+	}
+
+	/**
+	 * Sends a request without contents and waits for the reply. The
+	 * multiplexed channel is used if available, otherwise a connection of the
+	 * pool.
+	 * 
+	 * @param t
+	 *            The transmission to send.
+	 * @return The reply.
+	 * @throws IOException
+	 *             Thrown in case of IO problems.
+	 * @throws ClassNotFoundException
+	 *             Thrown if the class of the reply is missing.
+	 */
+	private Object call(JFSTransmission t) throws IOException,
+			ClassNotFoundException {
+		JFSServerChannel ch = pool.getChannel();
+		if (ch != null)
+			return ch.call(t);
+
+		JFSServerConnection c = pool.borrow();
+		try {
+			c.request(t);
+			Object reply = c.reply(t);
+			pool.release(c);
+			c = null;
+
+			return reply;
+		} finally {
+			if (c != null)
+				pool.discard(c);
 		}
 	}
 
 	/**
-	 * Releases a socket.
+	 * Releases the socket used by the current thread; that is, the connection
+	 * is given back to the pool.
 	 */
-	public synchronized void releaseSocket() {
-		lastSocketRelease = System.currentTimeMillis();
+	public void releaseSocket() {
+		JFSServerConnection c = connection.get();
+		if (c != null) {
+			connection.remove();
+			pool.release(c);
+		}
 	}
 
 	/**
-	 * Closes a socket.
+	 * Closes the socket used by the current thread; that is, the connection
+	 * is removed from the pool.
 	 */
-	public synchronized void closeSocket() {
-		if (socket != null) {
-			try {
-				socket.shutdownInput();
-				socket.shutdownOutput();
-				socket.close();
-			} catch (IOException e) {
-				JFSLog.getErr().getStream().println(
-						JFSText.getInstance().get("error.external") + " " + e);
-			}
+	public void closeSocket() {
+		JFSServerConnection c = connection.get();
+		if (c != null) {
+			connection.remove();
+			pool.discard(c);
 		}
 	}
 
@@ -171,25 +187,67 @@ public class JFSServerAccess extends Thread {
 	 *            about.
 	 * @return The retrieved file information object.
 	 */
-	public synchronized JFSFileInfo getInfo(JFSFileInfo info) {
+	public JFSFileInfo getInfo(JFSFileInfo info) {
 		try {
-			checkSocket();
+			return (JFSFileInfo) call(new JFSTransmission(
+					JFSTransmission.CMD_GET_INFO, info));
+		} catch (IOException e) {
+			JFSLog.getErr().getStream().println(
+					JFSText.getInstance().get("error.external") + " " + e);
 
-			// Request information:
-			OutputStream out = socket.getOutputStream();
-			ObjectOutputStream oo = new ObjectOutputStream(out);
+			return null;
+		} catch (ClassNotFoundException e) {
+			JFSLog.getErr().getStream().println(
+					JFSText.getInstance().get("error.external") + " " + e);
+
+			return null;
+		}
+	}
+
+	/**
+	 * Gets a file information object of a directory from a JFS server
+	 * together with the file information objects of the contained files, but
+	 * without the contents of contained directories. The contained files are
+	 * transfered in pages, so that neither the server nor the client has to
+	 * keep more than the directory in memory. Servers not supporting
+	 * directory listings return the whole structure below the directory
+	 * instead (see {@link #getInfo(JFSFileInfo)}). In case of problems null
+	 * is returned.
+	 * 
+	 * @param info
+	 *            The file information object identifying the directory.
+	 * @return The retrieved file information object.
+	 */
+	public JFSFileInfo getList(JFSFileInfo info) {
+		JFSServerConnection c = null;
+
+		try {
+			c = pool.borrow();
+
+			if (c.getProtocolVersion() < JFSWireProtocol.VERSION_LIST) {
+				pool.release(c);
+				c = null;
+
+				return getInfo(info);
+			}
+
+			// Request information. Create new file information object to avoid
+			// transmitting the whole file system's structure:
 			JFSTransmission t = new JFSTransmission(
-					JFSTransmission.CMD_GET_INFO, info);
-			oo.writeObject(t);
+					JFSTransmission.CMD_GET_LIST, new JFSFileInfo(info
+							.getRootPath(), info.getRelativePath()));
+			c.request(t);
 
 			// Get results:
-			InputStream in = socket.getInputStream();
-			ObjectInputStream oi = new ObjectInputStream(in);
-			info = (JFSFileInfo) oi.readObject();
+			JFSFileInfo dir = (JFSFileInfo) c.reply(t);
+			if (dir != null && dir.exists() && dir.isDirectory())
+				dir.setList(JFSWireProtocol.readList(c.getSocket()
+						.getInputStream(), dir));
 
-			releaseSocket();
+			pool.release(c);
+			c = null;
 
-			return info;
+			return dir;
 		} catch (IOException e) {
 			JFSLog.getErr().getStream().println(
 					JFSText.getInstance().get("error.external") + " " + e);
@@ -200,36 +258,93 @@ public class JFSServerAccess extends Thread {
 					JFSText.getInstance().get("error.external") + " " + e);
 
 			return null;
+		} finally {
+			if (c != null)
+				pool.discard(c);
 		}
 	}
 
 	/**
-	 * Puts a file information object to a JFS server. In case of problems false
-	 * is returned.
+	 * Lets a JFS server compare the structure of a directory with the
+	 * structure of a reference directory of the client. The client sends a
+	 * manifest of the reference and the server answers with the differing
+	 * entries only; all other entries are created out of the manifest. The
+	 * manifest is written and the differences are read by separate threads,
+	 * so that the lists of the directories become available one after the
+	 * other (see {@link JFSDiffReader#getList(JFSFileInfo)}). Directories,
+	 * which are not contained in the reference, are listed on demand. In case
+	 * of problems or if the server does not support the comparison, null is
+	 * returned.
 	 * 
 	 * @param info
-	 *            The file information object to put.
-	 * @return True if and only if the putting was successful.
+	 *            The file information object identifying the directory.
+	 * @param reference
+	 *            The reference directory of the client.
+	 * @return The reader of the differences.
 	 */
-	public synchronized boolean putInfo(JFSFileInfo info) {
+	public JFSDiffReader getDiff(JFSFileInfo info, JFSFile reference) {
+		JFSServerConnection c = null;
+
 		try {
-			checkSocket();
+			c = pool.borrow();
+
+			if (c.getProtocolVersion() < JFSWireProtocol.VERSION_DIFF) {
+				pool.release(c);
+				c = null;
+
+				return null;
+			}
 
 			// Request information:
-			OutputStream out = socket.getOutputStream();
-			ObjectOutputStream oo = new ObjectOutputStream(out);
 			JFSTransmission t = new JFSTransmission(
-					JFSTransmission.CMD_PUT_INFO, info);
-			oo.writeObject(t);
+					JFSTransmission.CMD_GET_DIFF, new JFSFileInfo(info
+							.getRootPath(), info.getRelativePath()));
+			c.request(t);
+			JFSFileInfo root = (JFSFileInfo) c.reply(t);
+			if (root == null)
+				return null;
+
+			JFSManifestWriter writer = new JFSManifestWriter(reference, c
+					.getSocket());
+			JFSDiffReader reader = new JFSDiffReader(pool, c, writer,
+					reference, root);
+			if (root.exists() && root.isDirectory()) {
+				writer.start();
+				reader.start();
+			} else {
+				reader.finish(true);
+			}
+			c = null;
 
-			// Get results:
-			InputStream in = socket.getInputStream();
-			ObjectInputStream oi = new ObjectInputStream(in);
-			boolean b = ((Boolean) oi.readObject()).booleanValue();
+			return reader;
+		} catch (IOException e) {
+			JFSLog.getErr().getStream().println(
+					JFSText.getInstance().get("error.external") + " " + e);
 
-			releaseSocket();
+			return null;
+		} catch (ClassNotFoundException e) {
+			JFSLog.getErr().getStream().println(
+					JFSText.getInstance().get("error.external") + " " + e);
 
-			return b;
+			return null;
+		} finally {
+			if (c != null)
+				pool.discard(c);
+		}
+	}
+
+	/**
+	 * Puts a file information object to a JFS server. In case of problems false
+	 * is returned.
+	 * 
+	 * @param info
+	 *            The file information object to put.
+	 * @return True if and only if the putting was successful.
+	 */
+	public boolean putInfo(JFSFileInfo info) {
+		try {
+			return ((Boolean) call(new JFSTransmission(
+					JFSTransmission.CMD_PUT_INFO, info))).booleanValue();
 		} catch (IOException e) {
 			JFSLog.getErr().getStream().println(
 					JFSText.getInstance().get("error.external") + " " + e);
@@ -256,28 +371,56 @@ public class JFSServerAccess extends Thread {
 	 *            contents from.
 	 * @return The input stream.
 	 */
-	public synchronized InputStream getContents(JFSFileInfo info) {
-		try {
-			checkSocket();
+	public InputStream getContents(JFSFileInfo info) {
+		return getContents(info, 0);
+	}
 
-			// Request information:
-			OutputStream out = socket.getOutputStream();
-			ObjectOutputStream oo = new ObjectOutputStream(out);
+	/**
+	 * Allows to get the contents of a file from a JFS server starting at a
+	 * certain offset. The server acknowledges a ranged read before the
+	 * contents are transfered. In case of problems null is returned.
+	 * ATTENTION: The streams and sockets cannot be closed by this method. This
+	 * has to be done by the methods using this method.
+	 * 
+	 * @param info
+	 *            The file information object identifying the file to get the
+	 *            contents from.
+	 * @param offset
+	 *            The number of bytes to skip.
+	 * @return The input stream.
+	 * @see #getContents(JFSFileInfo)
+	 */
+	public InputStream getContents(JFSFileInfo info, long offset) {
+		try {
+			JFSServerConnection c = checkSocket();
 
-			// Create new file information object to avoid transmitting the
-			// whole file system's structure:
+			// Request information. Create new file information object to avoid
+			// transmitting the whole file system's structure:
 			JFSFileInfo getInfo = new JFSFileInfo(info.getRootPath(), info
 					.getRelativePath());
 			JFSTransmission t = new JFSTransmission(
-					JFSTransmission.CMD_GET_CONTENTS, getInfo);
-			oo.writeObject(t);
+					JFSTransmission.CMD_GET_CONTENTS, getInfo, offset);
+			c.request(t);
 
 			// Get results and don't close streams. This has to be done by the
 			// methods using this method:
-			InputStream in = socket.getInputStream();
+			if (offset > 0) {
+				if (!((Boolean) c.reply(t)).booleanValue()) {
+					releaseSocket();
+
+					return null;
+				}
+			}
 
-			return in;
+			return c.getSocket().getInputStream();
 		} catch (IOException e) {
+			closeSocket();
+			JFSLog.getErr().getStream().println(
+					JFSText.getInstance().get("error.external") + " " + e);
+
+			return null;
+		} catch (ClassNotFoundException e) {
+			closeSocket();
 			JFSLog.getErr().getStream().println(
 					JFSText.getInstance().get("error.external") + " " + e);
 
@@ -299,37 +442,57 @@ public class JFSServerAccess extends Thread {
 	 *            The file information object to put.
 	 * @return The output stream.
 	 */
-	public synchronized OutputStream putContents(JFSFileInfo info) {
+	public OutputStream putContents(JFSFileInfo info) {
+		return putContents(info, 0);
+	}
+
+	/**
+	 * Allows to put the contents of a file to a JFS server starting at a
+	 * certain offset; that is, the contents are appended to the contents kept
+	 * by an interrupted copy. In case of problems null is returned.
+	 * ATTENTION: The streams and sockets cannot be closed by this method. This
+	 * has to be done by the methods using this method.
+	 * 
+	 * @param info
+	 *            The file information object to put.
+	 * @param offset
+	 *            The offset returned by {@link #getResumeOffset(JFSFileInfo)}.
+	 * @return The output stream.
+	 * @see #putContents(JFSFileInfo)
+	 */
+	public OutputStream putContents(JFSFileInfo info, long offset) {
 		try {
-			checkSocket();
+			JFSServerConnection c = checkSocket();
 
 			// Request information:
-			OutputStream out = socket.getOutputStream();
-			ObjectOutputStream oo = new ObjectOutputStream(out);
 			JFSTransmission t = new JFSTransmission(
-					JFSTransmission.CMD_PUT_CONTENTS, info);
-			oo.writeObject(t);
+					JFSTransmission.CMD_PUT_CONTENTS, info, offset);
+			c.request(t);
 
 			// Get results and don't close streams. This has to be done by the
 			// methods using this method:
-			InputStream in = socket.getInputStream();
-			ObjectInputStream oi = new ObjectInputStream(in);
-			JFSFileInfo serverInfo = ((JFSFileInfo) oi.readObject());
+			JFSFileInfo serverInfo = ((JFSFileInfo) c.reply(t));
 
 			if (serverInfo != null) {
 				info.setName(serverInfo.getName());
 				info.setPath(serverInfo.getPath());
 				info.setRootPath(serverInfo.getRootPath());
 				info.setRelativePath(serverInfo.getRelativePath());
+			} else if (offset > 0) {
+				releaseSocket();
+
+				return null;
 			}
 
-			return out;
+			return c.getSocket().getOutputStream();
 		} catch (IOException e) {
+			closeSocket();
 			JFSLog.getErr().getStream().println(
 					JFSText.getInstance().get("error.external") + " " + e);
 
 			return null;
 		} catch (ClassNotFoundException e) {
+			closeSocket();
 			JFSLog.getErr().getStream().println(
 					JFSText.getInstance().get("error.external") + " " + e);
 
@@ -338,90 +501,388 @@ public class JFSServerAccess extends Thread {
 	}
 
 	/**
-	 * Creates a new directory on a JFS server. In case of problems false is
-	 * returned.
+	 * Determines whether the JFS server accepts batches of files (see
+	 * {@link #putBatch(String)}). The server is asked once by sending an empty
+	 * batch. Servers of previous versions don't answer unknown commands, so
+	 * batches are not used, if the answer is missing.
 	 * 
-	 * @param info
-	 *            The file information object to put.
-	 * @return True if and only if the creation was successful.
+	 * @param rootPath
+	 *            The root path of the files to put.
+	 * @return True if and only if batches of files may be sent.
 	 */
-	public synchronized boolean mkdir(JFSFileInfo info) {
+	public boolean isBatchSupported(String rootPath) {
+		Boolean supported = batchSupported;
+		if (supported != null)
+			return supported.booleanValue();
+
+		supported = false;
 		try {
-			checkSocket();
+			Socket socket = checkSocket().getSocket();
 
 			// Request information:
 			OutputStream out = socket.getOutputStream();
 			ObjectOutputStream oo = new ObjectOutputStream(out);
-
-			// Create new file information object to avoid transmitting the
-			// whole file system's structure:
-			JFSFileInfo mkdirInfo = new JFSFileInfo(info.getRootPath(), info
-					.getRelativePath());
-			JFSTransmission t = new JFSTransmission(JFSTransmission.CMD_MKDIR,
-					mkdirInfo);
+			JFSTransmission t = new JFSTransmission(
+					JFSTransmission.CMD_PUT_BATCH, new JFSFileInfo(rootPath,
+							""));
 			oo.writeObject(t);
+			oo.flush();
+			out.write(JFSTransmission.BATCH_END);
+			out.flush();
 
 			// Get results:
 			InputStream in = socket.getInputStream();
 			ObjectInputStream oi = new ObjectInputStream(in);
-			JFSFileInfo serverInfo = ((JFSFileInfo) oi.readObject());
-			boolean b = false;
-			
-			if (serverInfo != null) {
-				b = serverInfo.exists();
-				info.setName(serverInfo.getName());
-				info.setPath(serverInfo.getPath());
-				info.setRootPath(serverInfo.getRootPath());
-				info.setRelativePath(serverInfo.getRelativePath());
-			}
+			JFSFileInfo[] infos = (JFSFileInfo[]) oi.readObject();
+			supported = infos.length == 0;
+
+			releaseSocket();
+		} catch (SocketTimeoutException e) {
+			// Servers of previous versions don't answer unknown commands:
+			closeSocket();
+		} catch (IOException e) {
+			closeSocket();
+			JFSLog.getErr().getStream().println(
+					JFSText.getInstance().get("error.external") + " " + e);
+		} catch (ClassNotFoundException e) {
+			closeSocket();
+			JFSLog.getErr().getStream().println(
+					JFSText.getInstance().get("error.external") + " " + e);
+		}
+		batchSupported = supported;
+
+		return supported.booleanValue();
+	}
+
+	/**
+	 * Allows to put the contents of several files to a JFS server at once by
+	 * providing an output stream. The files have to be written to the stream
+	 * as frames described by {@link JFSTransmission#CMD_PUT_BATCH}. The server
+	 * does not answer before the batch is ended; the results are read by
+	 * {@link #getBatchResults()} afterwards. In case of problems null is
+	 * returned. ATTENTION: The streams and sockets cannot be closed by this
+	 * method. This has to be done by the methods using this method.
+	 * 
+	 * @param rootPath
+	 *            The root path of all files.
+	 * @return The output stream.
+	 */
+	public OutputStream putBatch(String rootPath) {
+		try {
+			Socket socket = checkSocket().getSocket();
+
+			// Request information:
+			OutputStream out = socket.getOutputStream();
+			ObjectOutputStream oo = new ObjectOutputStream(out);
+			JFSTransmission t = new JFSTransmission(
+					JFSTransmission.CMD_PUT_BATCH, new JFSFileInfo(rootPath,
+							""));
+			oo.writeObject(t);
+
+			return out;
+		} catch (IOException e) {
+			closeSocket();
+			JFSLog.getErr().getStream().println(
+					JFSText.getInstance().get("error.external") + " " + e);
+
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the results of a batch after it was ended. For every file of the
+	 * batch, the server returns its file information object or null, if the
+	 * file could not be updated. In case of problems null is returned.
+	 * 
+	 * @return The file information objects.
+	 * @see #putBatch(String)
+	 */
+	public JFSFileInfo[] getBatchResults() {
+		JFSServerConnection c = connection.get();
+		if (c == null)
+			return null;
+
+		try {
+			InputStream in = c.getSocket().getInputStream();
+			ObjectInputStream oi = new ObjectInputStream(in);
+			JFSFileInfo[] infos = (JFSFileInfo[]) oi.readObject();
 
 			releaseSocket();
 
-			return b;
+			return infos;
 		} catch (IOException e) {
+			closeSocket();
 			JFSLog.getErr().getStream().println(
 					JFSText.getInstance().get("error.external") + " " + e);
 
-			return false;
+			return null;
 		} catch (ClassNotFoundException e) {
+			closeSocket();
 			JFSLog.getErr().getStream().println(
 					JFSText.getInstance().get("error.external") + " " + e);
 
-			return false;
+			return null;
 		}
 	}
 
 	/**
-	 * Deletes a file on a JFS server. In case of problems false is returned.
+	 * Returns the number of bytes kept by an interrupted copy of the same
+	 * version of a file on the JFS server. The length and the time of last
+	 * modification of the file information object have to be set to the
+	 * values of the source. If the server is not able to resume copies or in
+	 * case of problems -1 is returned.
 	 * 
 	 * @param info
 	 *            The file information object to put.
-	 * @return True if and only if the creation was successful.
+	 * @return The offset to resume the copy at or -1, if the copy is not
+	 *         resumable.
 	 */
-	public synchronized boolean delete(JFSFileInfo info) {
+	public long getResumeOffset(JFSFileInfo info) {
+		if (!resumeSupported)
+			return -1;
+
 		try {
-			checkSocket();
+			Socket socket = checkSocket().getSocket();
 
 			// Request information:
 			OutputStream out = socket.getOutputStream();
 			ObjectOutputStream oo = new ObjectOutputStream(out);
-
-			// Create new file information object to avoid transmitting the
-			// whole file system's structure:
-			JFSFileInfo deleteInfo = new JFSFileInfo(info.getRootPath(), info
-					.getRelativePath());
-			JFSTransmission t = new JFSTransmission(JFSTransmission.CMD_DELETE,
-					deleteInfo);
+			JFSTransmission t = new JFSTransmission(
+					JFSTransmission.CMD_GET_RESUME_OFFSET, info);
 			oo.writeObject(t);
 
 			// Get results:
 			InputStream in = socket.getInputStream();
 			ObjectInputStream oi = new ObjectInputStream(in);
-			boolean b = ((Boolean) oi.readObject()).booleanValue();
+			long offset = ((Long) oi.readObject()).longValue();
 
 			releaseSocket();
 
-			return b;
+			return offset;
+		} catch (SocketTimeoutException e) {
+			// Servers of previous versions don't answer unknown commands:
+			resumeSupported = false;
+			closeSocket();
+
+			return -1;
+		} catch (IOException e) {
+			closeSocket();
+			JFSLog.getErr().getStream().println(
+					JFSText.getInstance().get("error.external") + " " + e);
+
+			return -1;
+		} catch (ClassNotFoundException e) {
+			closeSocket();
+			JFSLog.getErr().getStream().println(
+					JFSText.getInstance().get("error.external") + " " + e);
+
+			return -1;
+		}
+	}
+
+	/**
+	 * Allows to put the contents of a file to a JFS server by transfering only
+	 * the differences to the server's existing copy. The server sends the
+	 * signature of its copy first, which is read by the returned stream. In
+	 * case of problems null is returned. The file is reconstructed and its
+	 * attributes are set on server side when the returned stream is closed.
+	 * ATTENTION: The sockets cannot be closed by this method. This has to be
+	 * done by the methods using this method.
+	 * 
+	 * @param info
+	 *            The file information object to put.
+	 * @return The output stream.
+	 */
+	public JFSDeltaOutputStream putDelta(JFSFileInfo info) {
+		try {
+			Socket socket = checkSocket().getSocket();
+
+			// Request information:
+			OutputStream out = socket.getOutputStream();
+			ObjectOutputStream oo = new ObjectOutputStream(out);
+			JFSTransmission t = new JFSTransmission(
+					JFSTransmission.CMD_PUT_DELTA, info);
+			oo.writeObject(t);
+
+			// Get signature and don't close streams. This has to be done by
+			// the methods using this method:
+			InputStream in = socket.getInputStream();
+
+			return new JFSDeltaOutputStream(info, in, out);
+		} catch (IOException e) {
+			closeSocket();
+			JFSLog.getErr().getStream().println(
+					JFSText.getInstance().get("error.external") + " " + e);
+
+			return null;
+		}
+	}
+
+	/**
+	 * Creates a new directory on a JFS server. In case of problems false is
+	 * returned.
+	 * 
+	 * @param info
+	 *            The file information object to put.
+	 * @return True if and only if the creation was successful.
+	 */
+	public boolean mkdir(JFSFileInfo info) {
+		try {
+			// Request information. Create new file information object to avoid
+			// transmitting the whole file system's structure:
+			JFSFileInfo mkdirInfo = new JFSFileInfo(info.getRootPath(), info
+					.getRelativePath());
+			JFSFileInfo serverInfo = ((JFSFileInfo) call(new JFSTransmission(
+					JFSTransmission.CMD_MKDIR, mkdirInfo)));
+
+			return update(info, serverInfo);
+		} catch (IOException e) {
+			JFSLog.getErr().getStream().println(
+					JFSText.getInstance().get("error.external") + " " + e);
+
+			return false;
+		} catch (ClassNotFoundException e) {
+			JFSLog.getErr().getStream().println(
+					JFSText.getInstance().get("error.external") + " " + e);
+
+			return false;
+		}
+	}
+
+	/**
+	 * Updates the file information object of a created directory with the
+	 * information returned by the server.
+	 * 
+	 * @param info
+	 *            The file information object of the directory.
+	 * @param serverInfo
+	 *            The returned file information object or null.
+	 * @return True if and only if the directory exists.
+	 */
+	private static boolean update(JFSFileInfo info, JFSFileInfo serverInfo) {
+		if (serverInfo == null)
+			return false;
+
+		info.setName(serverInfo.getName());
+		info.setPath(serverInfo.getPath());
+		info.setRootPath(serverInfo.getRootPath());
+		info.setRelativePath(serverInfo.getRelativePath());
+
+		return serverInfo.exists();
+	}
+
+	/**
+	 * Performs several commands changing the file system without contents at
+	 * once; that is, putting file information objects, creating directories,
+	 * and deleting files. The commands are performed by the server in their
+	 * sequence and transfered in a single round trip. Servers not supporting
+	 * batches get the commands one by one. In case of problems false is
+	 * returned for all commands without a result.
+	 * 
+	 * @param commands
+	 *            The commands to perform; that is,
+	 *            {@link JFSTransmission#CMD_PUT_INFO},
+	 *            {@link JFSTransmission#CMD_MKDIR}, or
+	 *            {@link JFSTransmission#CMD_DELETE}.
+	 * @param infos
+	 *            The file information objects of the commands.
+	 * @return True for every command, if it was performed successfully.
+	 */
+	public boolean[] perform(List<Byte> commands, List<JFSFileInfo> infos) {
+		boolean[] results = new boolean[commands.size()];
+		JFSServerConnection c = null;
+
+		try {
+			c = pool.borrow();
+
+			if (c.getProtocolVersion() < JFSWireProtocol.VERSION_BATCH) {
+				pool.release(c);
+				c = null;
+
+				for (int i = 0; i < results.length; i++)
+					results[i] = perform(commands.get(i), infos.get(i));
+
+				return results;
+			}
+
+			// Create new file information objects to avoid transmitting the
+			// whole file system's structure, unless information is put:
+			ArrayList<JFSFileInfo> sent = new ArrayList<JFSFileInfo>(infos
+					.size());
+			for (int i = 0; i < results.length; i++) {
+				JFSFileInfo info = infos.get(i);
+				if (commands.get(i) != JFSTransmission.CMD_PUT_INFO)
+					info = new JFSFileInfo(info.getRootPath(), info
+							.getRelativePath());
+				sent.add(info);
+			}
+
+			c.request(new JFSTransmission(JFSTransmission.CMD_BATCH));
+			JFSWireProtocol.writeBatch(c.getSocket().getOutputStream(),
+					commands, sent);
+			Object[] replies = JFSWireProtocol.readResults(c.getSocket()
+					.getInputStream());
+
+			for (int i = 0; i < results.length && i < replies.length; i++) {
+				if (commands.get(i) == JFSTransmission.CMD_MKDIR) {
+					results[i] = update(infos.get(i),
+							(JFSFileInfo) replies[i]);
+				} else {
+					results[i] = Boolean.TRUE.equals(replies[i]);
+				}
+			}
+
+			pool.release(c);
+			c = null;
+		} catch (IOException e) {
+			JFSLog.getErr().getStream().println(
+					JFSText.getInstance().get("error.external") + " " + e);
+		} finally {
+			if (c != null)
+				pool.discard(c);
+		}
+
+		return results;
+	}
+
+	/**
+	 * Performs a single command changing the file system without contents.
+	 * 
+	 * @param command
+	 *            The command to perform.
+	 * @param info
+	 *            The file information object of the command.
+	 * @return True if and only if the command was performed successfully.
+	 */
+	private boolean perform(byte command, JFSFileInfo info) {
+		switch (command) {
+		case JFSTransmission.CMD_PUT_INFO:
+			return putInfo(info);
+		case JFSTransmission.CMD_MKDIR:
+			return mkdir(info);
+		case JFSTransmission.CMD_DELETE:
+			return delete(info);
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Deletes a file on a JFS server. In case of problems false is returned.
+	 * 
+	 * @param info
+	 *            The file information object to put.
+	 * @return True if and only if the creation was successful.
+	 */
+	public boolean delete(JFSFileInfo info) {
+		try {
+			// Request information. Create new file information object to avoid
+			// transmitting the whole file system's structure:
+			JFSFileInfo deleteInfo = new JFSFileInfo(info.getRootPath(), info
+					.getRelativePath());
+
+			return ((Boolean) call(new JFSTransmission(
+					JFSTransmission.CMD_DELETE, deleteInfo))).booleanValue();
 		} catch (IOException e) {
 			JFSLog.getErr().getStream().println(
 					JFSText.getInstance().get("error.external") + " " + e);
@@ -438,9 +899,9 @@ public class JFSServerAccess extends Thread {
 	/**
 	 * Shuts down the server from client side.
 	 */
-	public synchronized void shutDown() {
+	public void shutDown() {
 		try {
-			checkSocket();
+			Socket socket = checkSocket().getSocket();
 
 			OutputStream out = socket.getOutputStream();
 			ObjectOutputStream oo = new ObjectOutputStream(out);
@@ -451,6 +912,7 @@ public class JFSServerAccess extends Thread {
 
 			releaseSocket();
 		} catch (IOException e) {
+			closeSocket();
 			JFSLog.getErr().getStream().println(
 					JFSText.getInstance().get("error.external") + " " + e);
 		}
@@ -461,13 +923,6 @@ public class JFSServerAccess extends Thread {
 	 */
 	//FIXME: Is it correct that this is not synchronized?
 	public void cancel() {
-		if (socket != null) {
-			try {
-				socket.shutdownInput();
-				socket.shutdownOutput();
-				socket.close();
-			} catch (IOException e) {
-			}
-		}
+		pool.cancel();
 	}
 }
\ No newline at end of file
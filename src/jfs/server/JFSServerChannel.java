@@ -0,0 +1,320 @@
+/*
+ * JFileSync
+ * Copyright (C) 2002-2007, Jens Heidrich
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA, 02110-1301, USA
+ */
+
+
+package jfs.server;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jfs.conf.JFSLog;
+import jfs.conf.JFSText;
+
+/**
+ * A multiplexed connection to a JFS server for requests without contents.
+ * Every request carries an identifier, so that several threads may have
+ * outstanding requests on the connection at the same time and the server may
+ * answer them in any order. The replies are read by a separate thread and
+ * handed over to the waiting requests. Contents are still transfered over the
+ * socket of {@link JFSServerAccess}; that is, requests sent over the channel
+ * are never stuck behind a large transfer. Whether the server is alive is
+ * checked by a periodic heartbeat instead of probing the server before each
+ * request.
+ * 
+ * @see JFSWireProtocol
+ * @author Jens Heidrich
+ * @version $Id$
+ */
+final class JFSServerChannel implements Runnable {
+
+	/** The socket of the channel. */
+	private final Socket socket;
+
+	/** The stream to write requests to. Writes are synchronized on it. */
+	private final OutputStream out;
+
+	/** The time out for replies of the server; zero, if there is none. */
+	private final int timeout;
+
+	/** The identifier of the last request. */
+	private final AtomicInteger lastId = new AtomicInteger();
+
+	/** The outstanding requests. */
+	private final Map<Integer, Reply> replies = new ConcurrentHashMap<Integer, Reply>();
+
+	/** The last time when a request was sent. */
+	private volatile long lastSent = 0;
+
+	/** The last time when a reply was received. */
+	private volatile long lastReceived = System.currentTimeMillis();
+
+	/** The last time when a heartbeat was sent. */
+	private volatile long lastHeartbeat = 0;
+
+	/** Determines whether the channel is closed. */
+	private volatile boolean closed = false;
+
+	/**
+	 * The reply to an outstanding request.
+	 */
+	private final class Reply {
+		/** Signals that the reply was received or the channel was closed. */
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		/** The received value. */
+		private Object value = null;
+
+		/** Determines whether the value was received. */
+		private boolean received = false;
+
+		/**
+		 * Hands over the received value.
+		 * 
+		 * @param value
+		 *            The value.
+		 */
+		private void set(Object value) {
+			this.value = value;
+			received = true;
+			done.countDown();
+		}
+
+		/**
+		 * Wakes up the thread waiting for the reply, because the channel was
+		 * closed.
+		 */
+		private void abort() {
+			done.countDown();
+		}
+
+		/**
+		 * Waits for the reply as long as the channel is open.
+		 * 
+		 * @return The received value.
+		 * @throws IOException
+		 *             Thrown if the channel was closed before the reply was
+		 *             received.
+		 */
+		private Object get() throws IOException {
+			try {
+				if (timeout > 0) {
+					while (!done.await(timeout, TimeUnit.MILLISECONDS)) {
+						if (closed)
+							break;
+					}
+				} else {
+					done.await();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+			if (!received)
+				throw new IOException("Channel closed");
+
+			return value;
+		}
+	}
+
+	/**
+	 * Creates a new channel for a connected socket.
+	 * 
+	 * @param socket
+	 *            The socket.
+	 * @param timeout
+	 *            The time out for replies of the server.
+	 * @throws IOException
+	 *             Thrown in case of IO problems.
+	 */
+	private JFSServerChannel(Socket socket, int timeout) throws IOException {
+		this.socket = socket;
+		this.timeout = timeout;
+		out = socket.getOutputStream();
+	}
+
+	/**
+	 * Connects to a JFS server and starts reading replies. If the server does
+	 * not support multiplexed channels, null is returned.
+	 * 
+	 * @param host
+	 *            The server host.
+	 * @param port
+	 *            The server port.
+	 * @param timeout
+	 *            The time out for replies of the server.
+	 * @return The channel or null.
+	 * @throws IOException
+	 *             Thrown, if the socket cannot be created.
+	 */
+	static JFSServerChannel open(String host, int port, int timeout)
+			throws IOException {
+		Socket socket = new Socket(host, port);
+		socket.setSoTimeout(timeout);
+
+		if (JFSWireProtocol.negotiate(socket) < JFSWireProtocol.VERSION_MULTIPLEXED) {
+			socket.close();
+
+			return null;
+		}
+
+		// Replies may take longer than the time out, as long as the
+		// heartbeat is answered:
+		socket.setSoTimeout(0);
+		JFSServerChannel channel = new JFSServerChannel(socket, timeout);
+		Thread reader = new Thread(channel, "JFSServerChannel");
+		reader.setDaemon(true);
+		reader.start();
+
+		return channel;
+	}
+
+	/**
+	 * Sends a request and waits for its reply. Several threads may wait for
+	 * their replies at the same time.
+	 * 
+	 * @param t
+	 *            The transmission to send. Only commands supported by
+	 *            {@link JFSWireProtocol#isMultiplexed(byte)} are allowed.
+	 * @return The reply.
+	 * @throws IOException
+	 *             Thrown in case of IO problems or if the channel is closed.
+	 */
+	Object call(JFSTransmission t) throws IOException {
+		t.setId(lastId.incrementAndGet());
+		Reply reply = new Reply();
+		replies.put(t.getId(), reply);
+
+		try {
+			send(t);
+
+			return reply.get();
+		} finally {
+			replies.remove(t.getId());
+		}
+	}
+
+	/**
+	 * Sends a request.
+	 * 
+	 * @param t
+	 *            The transmission to send.
+	 * @throws IOException
+	 *             Thrown in case of IO problems or if the channel is closed.
+	 */
+	private void send(JFSTransmission t) throws IOException {
+		synchronized (out) {
+			if (closed)
+				throw new IOException("Channel closed");
+			JFSWireProtocol.writeRequest(out, t);
+		}
+		lastSent = System.currentTimeMillis();
+	}
+
+	/**
+	 * Sends a heartbeat if the channel was idle for some time and closes the
+	 * channel if the last heartbeat was not answered in time. The method
+	 * doesn't wait for the reply. Without a time out, the channel never
+	 * expires and no heartbeats are sent.
+	 */
+	void heartbeat() {
+		if (closed || timeout <= 0)
+			return;
+
+		long now = System.currentTimeMillis();
+		if (lastHeartbeat > lastReceived && now - lastHeartbeat > timeout) {
+			JFSLog.getErr().getStream().println(
+					JFSText.getInstance().get("error.timeout"));
+			close();
+		} else if (lastHeartbeat <= lastReceived
+				&& now - Math.max(lastSent, lastReceived) > timeout / 2) {
+			try {
+				JFSTransmission t = new JFSTransmission(
+						JFSTransmission.CMD_IS_ALIVE);
+				t.setId(lastId.incrementAndGet());
+				lastHeartbeat = now;
+				send(t);
+			} catch (IOException e) {
+				close();
+			}
+		}
+	}
+
+	/**
+	 * Determines whether the channel is closed.
+	 * 
+	 * @return True if and only if the channel is closed.
+	 */
+	boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Closes the channel. All outstanding requests fail.
+	 */
+	void close() {
+		closed = true;
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// Ignore IO exceptions...
+		}
+
+		// Requests sent before the channel was closed are still registered:
+		for (Reply reply : replies.values())
+			reply.abort();
+	}
+
+	/**
+	 * Reads replies and hands them over to the waiting requests until the
+	 * channel is closed.
+	 * 
+	 * @see java.lang.Runnable#run()
+	 */
+	public void run() {
+		try {
+			InputStream in = socket.getInputStream();
+
+			while (!closed) {
+				DataInputStream data = JFSWireProtocol.readFrame(in);
+				int id = data.readInt();
+				Object value = JFSWireProtocol.decodeReply(data);
+				lastReceived = System.currentTimeMillis();
+
+				// Replies to heartbeats have no waiting request:
+				Reply reply = replies.get(id);
+				if (reply != null)
+					reply.set(value);
+			}
+		} catch (IOException e) {
+			if (!closed)
+				JFSLog.getErr().getStream().println(
+						JFSText.getInstance().get("error.external") + " " + e);
+		}
+		close();
+	}
+}
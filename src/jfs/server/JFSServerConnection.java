@@ -0,0 +1,231 @@
+/*
+ * JFileSync
+ * Copyright (C) 2002-2007, Jens Heidrich
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA, 02110-1301, USA
+ */
+
+
+package jfs.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * A connection to a JFS server for requests transfering contents. The
+ * connection negotiates the version of the binary protocol when it is opened
+ * and uses it for all requests supporting it. Connections are managed by a
+ * {@link JFSServerPool}.
+ * 
+ * @author Jens Heidrich
+ * @version $Id$
+ */
+final class JFSServerConnection {
+
+	/** The socket of the connection. */
+	private final Socket socket;
+
+	/**
+	 * The version of the binary protocol negotiated with the server. Zero, if
+	 * serialized transmission objects are used.
+	 */
+	private final int protocolVersion;
+
+	/** The last time when the connection was used by a request. */
+	private volatile long lastUsed = System.currentTimeMillis();
+
+	/** The last time when the server answered on the connection. */
+	private volatile long lastAlive = System.currentTimeMillis();
+
+	/**
+	 * Creates a new connection.
+	 * 
+	 * @param socket
+	 *            The connected socket.
+	 * @param protocolVersion
+	 *            The negotiated version of the binary protocol.
+	 */
+	private JFSServerConnection(Socket socket, int protocolVersion) {
+		this.socket = socket;
+		this.protocolVersion = protocolVersion;
+	}
+
+	/**
+	 * Connects to a JFS server and negotiates the version of the binary
+	 * protocol. Servers not supporting the binary protocol answer the offer
+	 * with a boolean value; in this case serialized transmission objects are
+	 * used.
+	 * 
+	 * @param host
+	 *            The server host.
+	 * @param port
+	 *            The server port.
+	 * @param timeout
+	 *            The time out of the socket.
+	 * @return The connection.
+	 * @throws IOException
+	 *             Thrown, if the socket cannot be created.
+	 */
+	static JFSServerConnection open(String host, int port, int timeout)
+			throws IOException {
+		Socket socket = new Socket(host, port);
+
+		try {
+			socket.setSoTimeout(timeout);
+
+			return new JFSServerConnection(socket, JFSWireProtocol
+					.negotiate(socket));
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the socket of the connection.
+	 * 
+	 * @return The socket.
+	 */
+	Socket getSocket() {
+		return socket;
+	}
+
+	/**
+	 * Returns the version of the binary protocol negotiated with the server.
+	 * 
+	 * @return The version or zero, if serialized transmission objects are
+	 *         used.
+	 */
+	int getProtocolVersion() {
+		return protocolVersion;
+	}
+
+	/**
+	 * Determines whether the socket of the connection is still open.
+	 * 
+	 * @return True if and only if the socket is open.
+	 */
+	boolean isOpen() {
+		return socket.isConnected() && !socket.isClosed() && socket.isBound()
+				&& !socket.isInputShutdown() && !socket.isOutputShutdown();
+	}
+
+	/**
+	 * Sends a request to the server. The binary protocol is used, if it was
+	 * negotiated and supports the command.
+	 * 
+	 * @param t
+	 *            The transmission to send.
+	 * @throws IOException
+	 *             Thrown in case of IO problems.
+	 */
+	void request(JFSTransmission t) throws IOException {
+		OutputStream out = socket.getOutputStream();
+
+		if (protocolVersion > 0 && JFSWireProtocol.isSupported(t.getCommand())) {
+			JFSWireProtocol.writeRequest(out, t);
+		} else {
+			ObjectOutputStream oo = new ObjectOutputStream(out);
+			oo.writeObject(t);
+		}
+	}
+
+	/**
+	 * Reads the reply of the server to a request using the protocol of the
+	 * request.
+	 * 
+	 * @param t
+	 *            The transmission sent.
+	 * @return The reply.
+	 * @throws IOException
+	 *             Thrown in case of IO problems.
+	 * @throws ClassNotFoundException
+	 *             Thrown if the class of the reply is missing.
+	 */
+	Object reply(JFSTransmission t) throws IOException,
+			ClassNotFoundException {
+		InputStream in = socket.getInputStream();
+
+		if (protocolVersion > 0 && JFSWireProtocol.isSupported(t.getCommand()))
+			return JFSWireProtocol.readReply(in);
+
+		ObjectInputStream oi = new ObjectInputStream(in);
+
+		return oi.readObject();
+	}
+
+	/**
+	 * Tests whether the server still answers on the connection. This must
+	 * only be done while the connection is not used by a request.
+	 * 
+	 * @return True if and only if the server answered.
+	 */
+	boolean ping() {
+		try {
+			JFSTransmission t = new JFSTransmission(
+					JFSTransmission.CMD_IS_ALIVE);
+			request(t);
+			((Boolean) reply(t)).booleanValue();
+			lastAlive = System.currentTimeMillis();
+
+			return true;
+		} catch (IOException e) {
+			return false;
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Marks the connection as used by a request, which finished successfully.
+	 */
+	void touch() {
+		lastUsed = System.currentTimeMillis();
+		lastAlive = lastUsed;
+	}
+
+	/**
+	 * Returns the last time when the connection was used by a request.
+	 * 
+	 * @return The time.
+	 */
+	long getLastUsed() {
+		return lastUsed;
+	}
+
+	/**
+	 * Returns the last time when the server answered on the connection.
+	 * 
+	 * @return The time.
+	 */
+	long getLastAlive() {
+		return lastAlive;
+	}
+
+	/**
+	 * Closes the connection.
+	 */
+	void close() {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// Ignore IO exceptions...
+		}
+	}
+}
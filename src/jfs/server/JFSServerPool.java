@@ -0,0 +1,424 @@
+/*
+ * JFileSync
+ * Copyright (C) 2002-2007, Jens Heidrich
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA, 02110-1301, USA
+ */
+
+
+package jfs.server;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import jfs.conf.JFSConfig;
+import jfs.conf.JFSConst;
+
+/**
+ * Manages the connections to a single JFS server, which are shared by all
+ * server access objects for the server. Connections transfering contents are
+ * borrowed by a thread for a request and given back afterwards, so that
+ * several threads may transfer contents concurrently. The number of
+ * connections is bounded by the configured maximum; further threads wait
+ * until a connection is given back. Idle connections are tested periodically
+ * and closed if the server doesn't answer any more or if they were not used
+ * for some time. The configured minimum number of connections is kept open.
+ * Moreover, the pool provides the multiplexed channel to the server for
+ * requests without contents.
+ * 
+ * @see JFSServerAccess
+ * @author Jens Heidrich
+ * @version $Id$
+ */
+final class JFSServerPool {
+
+	/** The pools for different hosts and ports. */
+	private static final HashMap<String, JFSServerPool> pools = new HashMap<String, JFSServerPool>();
+
+	/** Tests the connections of all pools. */
+	private static final ScheduledExecutorService checks = Executors
+			.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "JFSServerPool");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	/** The host. */
+	private final String host;
+
+	/** The port. */
+	private final int port;
+
+	/** All open connections, including the borrowed ones. */
+	private final HashSet<JFSServerConnection> connections = new HashSet<JFSServerConnection>();
+
+	/** The idle connections; the most recently used one first. */
+	private final LinkedList<JFSServerConnection> idle = new LinkedList<JFSServerConnection>();
+
+	/** The number of open connections and connections being opened. */
+	private int size = 0;
+
+	/**
+	 * Determines whether the minimum number of connections is kept open. This
+	 * is the case as soon as the server was connected successfully.
+	 */
+	private boolean keepOpen = false;
+
+	/** The number of connections borrowed by the current thread. */
+	private final ThreadLocal<int[]> borrowed = new ThreadLocal<int[]>() {
+		protected int[] initialValue() {
+			return new int[1];
+		}
+	};
+
+	/** The multiplexed channel for requests without contents. */
+	private volatile JFSServerChannel channel = null;
+
+	/** Determines whether the server supports multiplexed channels. */
+	private boolean channelSupported = true;
+
+	/** The lock for opening the multiplexed channel. */
+	private final Object channelLock = new Object();
+
+	/** The periodic test of the connections. */
+	private ScheduledFuture<?> check = null;
+
+	/**
+	 * Creates a new pool.
+	 * 
+	 * @param host
+	 *            The server host.
+	 * @param port
+	 *            The server port.
+	 */
+	private JFSServerPool(String host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+
+	/**
+	 * Returns the pool for a server.
+	 * 
+	 * @param host
+	 *            The server host.
+	 * @param port
+	 *            The server port.
+	 * @return The pool.
+	 */
+	static synchronized JFSServerPool getInstance(String host, int port) {
+		String key = host + ":" + port;
+		JFSServerPool pool = pools.get(key);
+
+		if (pool == null) {
+			pool = new JFSServerPool(host, port);
+			pools.put(key, pool);
+		}
+
+		return pool;
+	}
+
+	/**
+	 * Returns the time out used for the connections on client side, which is
+	 * half of the server time out. If no server time out is set, zero is
+	 * returned; that is, connections never time out.
+	 * 
+	 * @return The time out.
+	 */
+	private static int getTimeout() {
+		int timeout = JFSConfig.getInstance().getServerTimeout();
+		if (timeout <= 0)
+			return 0;
+
+		return Math.max(timeout / 2, 1);
+	}
+
+	/**
+	 * Borrows a connection. If the maximum number of connections is reached,
+	 * the method waits until a connection is given back. A thread already
+	 * holding a connection of the pool doesn't wait, but gets an additional
+	 * connection, in order to avoid dead locks. Idle connections not tested
+	 * for some time are tested before they are returned, unless connections
+	 * never time out.
+	 * 
+	 * @return The connection.
+	 * @throws IOException
+	 *             Thrown, if the connection cannot be opened.
+	 */
+	JFSServerConnection borrow() throws IOException {
+		int timeout = getTimeout();
+		int[] count = borrowed.get();
+
+		while (true) {
+			JFSServerConnection c = null;
+
+			synchronized (this) {
+				startCheck(timeout);
+				while (idle.isEmpty() && count[0] == 0
+						&& size >= JFSConfig.getInstance().getServerPoolMax()) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException();
+					}
+				}
+				if (!idle.isEmpty()) {
+					c = idle.removeFirst();
+				} else {
+					size++;
+				}
+			}
+
+			if (c == null) {
+				c = open(timeout);
+				count[0]++;
+
+				return c;
+			}
+
+			if (c.isOpen()
+					&& (timeout <= 0
+							|| System.currentTimeMillis() - c.getLastAlive() <= timeout || c
+							.ping())) {
+				count[0]++;
+
+				return c;
+			}
+			remove(c);
+		}
+	}
+
+	/**
+	 * Opens a new connection, for which the size of the pool was already
+	 * increased.
+	 * 
+	 * @param timeout
+	 *            The time out.
+	 * @return The connection.
+	 * @throws IOException
+	 *             Thrown, if the connection cannot be opened.
+	 */
+	private JFSServerConnection open(int timeout) throws IOException {
+		try {
+			JFSServerConnection c = JFSServerConnection.open(host, port,
+					timeout);
+			synchronized (this) {
+				connections.add(c);
+				keepOpen = true;
+			}
+
+			return c;
+		} catch (IOException e) {
+			synchronized (this) {
+				size--;
+				notifyAll();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Gives a borrowed connection back after a successful request.
+	 * 
+	 * @param c
+	 *            The connection.
+	 */
+	void release(JFSServerConnection c) {
+		borrowed.get()[0]--;
+		if (c.isOpen()) {
+			c.touch();
+			synchronized (this) {
+				idle.addFirst(c);
+				notifyAll();
+			}
+		} else {
+			remove(c);
+		}
+	}
+
+	/**
+	 * Closes a borrowed connection, which must not be used any more; for
+	 * instance, after a failed or canceled request.
+	 * 
+	 * @param c
+	 *            The connection.
+	 */
+	void discard(JFSServerConnection c) {
+		borrowed.get()[0]--;
+		remove(c);
+	}
+
+	/**
+	 * Closes a connection and removes it from the pool.
+	 * 
+	 * @param c
+	 *            The connection.
+	 */
+	private void remove(JFSServerConnection c) {
+		c.close();
+		synchronized (this) {
+			if (connections.remove(c))
+				size--;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Closes all connections and the multiplexed channel. Borrowed
+	 * connections are removed from the pool when they are given back.
+	 */
+	void cancel() {
+		JFSServerChannel ch = channel;
+		if (ch != null)
+			ch.close();
+
+		synchronized (this) {
+			for (JFSServerConnection c : connections)
+				c.close();
+			keepOpen = false;
+		}
+	}
+
+	/**
+	 * Returns the multiplexed channel and opens it if necessary. If the
+	 * server does not support multiplexed channels or the channel cannot be
+	 * opened, null is returned.
+	 * 
+	 * @return The channel or null.
+	 */
+	JFSServerChannel getChannel() {
+		synchronized (channelLock) {
+			if (channelSupported && (channel == null || channel.isClosed())) {
+				int timeout = getTimeout();
+				try {
+					channel = JFSServerChannel.open(host, port, timeout);
+					channelSupported = channel != null;
+					synchronized (this) {
+						startCheck(timeout);
+					}
+				} catch (IOException e) {
+					// Use a connection, which reports the problem...
+					channel = null;
+				}
+			}
+
+			return channel;
+		}
+	}
+
+	/**
+	 * Starts the periodic test of the connections if it is not running yet.
+	 * Connections are tested four times per time out or, if connections never
+	 * time out, every {@link JFSConst#SERVER_POOL_CHECK} ms.
+	 * 
+	 * @param timeout
+	 *            The time out of the connections.
+	 */
+	private void startCheck(int timeout) {
+		if (check == null) {
+			long period = timeout > 0 ? Math.max(timeout / 4, 1)
+					: JFSConst.SERVER_POOL_CHECK;
+			check = checks.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					check();
+				}
+			}, period, period, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Keeps the multiplexed channel alive and tests the idle connections.
+	 * Connections not used for {@link JFSConst#SERVER_POOL_IDLE} are closed,
+	 * as long as more than the minimum number of connections are open.
+	 * Connections not answering are closed as well; they are only tested, if
+	 * connections time out. Afterwards, new
+	 * connections are opened until the minimum number is reached.
+	 */
+	private void check() {
+		JFSServerChannel ch = channel;
+		if (ch != null)
+			ch.heartbeat();
+
+		int timeout = getTimeout();
+		int min = JFSConfig.getInstance().getServerPoolMin();
+		long now = System.currentTimeMillis();
+		ArrayList<JFSServerConnection> closed = new ArrayList<JFSServerConnection>();
+		ArrayList<JFSServerConnection> tested = new ArrayList<JFSServerConnection>();
+
+		synchronized (this) {
+			// Start with the least recently used connections:
+			Iterator<JFSServerConnection> i = idle.descendingIterator();
+			while (i.hasNext()) {
+				JFSServerConnection c = i.next();
+				if (!c.isOpen()
+						|| (now - c.getLastUsed() > JFSConst.SERVER_POOL_IDLE && size
+								- closed.size() > min)) {
+					i.remove();
+					closed.add(c);
+				} else if (timeout > 0 && now - c.getLastAlive() > timeout / 2) {
+					i.remove();
+					tested.add(c);
+				}
+			}
+		}
+
+		for (JFSServerConnection c : tested) {
+			if (c.ping()) {
+				synchronized (this) {
+					idle.addLast(c);
+					notifyAll();
+				}
+			} else {
+				closed.add(c);
+			}
+		}
+		for (JFSServerConnection c : closed)
+			remove(c);
+
+		// Keep the minimum number of connections open:
+		while (true) {
+			synchronized (this) {
+				if (!keepOpen || size >= min)
+					return;
+				size++;
+			}
+			try {
+				JFSServerConnection c = open(timeout);
+				synchronized (this) {
+					idle.addLast(c);
+					notifyAll();
+				}
+			} catch (IOException e) {
+				// Try again after the next successful request...
+				synchronized (this) {
+					keepOpen = false;
+				}
+				return;
+			}
+		}
+	}
+}
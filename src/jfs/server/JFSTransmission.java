@@ -48,13 +48,14 @@ public class JFSTransmission implements Serializable {
 
 	/**
 	 * The server wants to get the contents of a certain file (identified by the
-	 * attached file info object).
+	 * attached file info object) starting at the transmitted offset.
 	 */
 	public static final byte CMD_GET_CONTENTS = 2;
 
 	/**
 	 * The server wants to update the contents of a certain file (identified by
-	 * the attached file info object and supplied by the input stream).
+	 * the attached file info object and supplied by the input stream) starting
+	 * at the transmitted offset.
 	 */
 	public static final byte CMD_PUT_CONTENTS = 3;
 
@@ -71,7 +72,9 @@ public class JFSTransmission implements Serializable {
 	public static final byte CMD_DELETE = 5;
 
 	/**
-	 * Checks whether the socket is still alive.
+	 * Checks whether the socket is still alive. If a protocol version is
+	 * transmitted, the server answers with the version of the binary protocol
+	 * to use instead (see {@link JFSWireProtocol}).
 	 */
 	public static final byte CMD_IS_ALIVE = 6;
 
@@ -80,15 +83,81 @@ public class JFSTransmission implements Serializable {
 	 */
 	public static final byte CMD_IS_SHUTDOWN = 7;
 
+	/**
+	 * The server wants to update the contents of a certain file (identified by
+	 * the attached file info object) by receiving only the differences to its
+	 * existing copy.
+	 */
+	public static final byte CMD_PUT_DELTA = 8;
+
+	/**
+	 * The server wants to get the number of bytes kept by an interrupted
+	 * update of the contents of a certain file (identified by the attached
+	 * file info object).
+	 */
+	public static final byte CMD_GET_RESUME_OFFSET = 9;
+
+	/**
+	 * The server wants to update the contents of several files at once. The
+	 * attached file info object identifies the root path of all files. Every
+	 * file is supplied by the input stream as a {@link #BATCH_FILE} frame
+	 * containing the relative path, length, last modified time, read-only and
+	 * executable property, the contents, and whether the contents are
+	 * complete. The batch ends with {@link #BATCH_END}.
+	 */
+	public static final byte CMD_PUT_BATCH = 10;
+
+	/**
+	 * The server wants to get information about a certain directory
+	 * (identified by the attached file info object) without its contents,
+	 * followed by the attributes of the contained files in pages of limited
+	 * size (see {@link JFSWireProtocol#writePage}). Contained directories are
+	 * not read.
+	 */
+	public static final byte CMD_GET_LIST = 12;
+
+	/**
+	 * The server wants to compare the directory structure identified by the
+	 * attached file info object with a manifest of the client. The server
+	 * answers with the attributes of the directory, followed by the entries
+	 * differing from the manifest for every directory of the manifest (see
+	 * {@link JFSWireProtocol#writeDiff}).
+	 */
+	public static final byte CMD_GET_DIFF = 13;
+
+	/**
+	 * The server wants to perform several {@link #CMD_PUT_INFO},
+	 * {@link #CMD_MKDIR}, and {@link #CMD_DELETE} commands at once. The
+	 * commands are supplied by a single frame following the request (see
+	 * {@link JFSWireProtocol#writeBatch}) and performed in their sequence.
+	 * The server answers with the replies to all commands in a single frame.
+	 */
+	public static final byte CMD_BATCH = 14;
+
+	/** Starts the frame of a file within a batch. */
+	public static final byte BATCH_FILE = 1;
+
+	/** Ends a batch. */
+	public static final byte BATCH_END = 0;
+
 	/** The transmitted command identifier. */
 	private byte command = -1;
 
 	/** The transmited file information object. */
 	private JFSFileInfo info = null;
 
+	/** The transmitted offset of the contents. */
+	private long offset = 0;
+
 	/** The transmitted passphrase to be allowed to access the server. */
 	private String passphrase = JFSConfig.getInstance().getServerPassPhrase();
 
+	/** The transmitted version of the binary protocol supported by the client. */
+	private int version = 0;
+
+	/** The identifier of the request within a multiplexed channel. */
+	private transient int id = 0;
+
 	/**
 	 * Creates a new transmission.
 	 * 
@@ -112,6 +181,55 @@ public class JFSTransmission implements Serializable {
 		this.info = info;
 	}
 
+	/**
+	 * Creates a new transmission.
+	 * 
+	 * @param command
+	 *            The transmitted command.
+	 * @param info
+	 *            The transmited file information object.
+	 * @param offset
+	 *            The transmitted offset of the contents.
+	 */
+	public JFSTransmission(byte command, JFSFileInfo info, long offset) {
+		this.command = command;
+		this.info = info;
+		this.offset = offset;
+	}
+
+	/**
+	 * Creates a new transmission offering the binary protocol to the server.
+	 * 
+	 * @param command
+	 *            The transmitted command.
+	 * @param version
+	 *            The version of the binary protocol supported by the client.
+	 */
+	JFSTransmission(byte command, int version) {
+		this.command = command;
+		this.version = version;
+	}
+
+	/**
+	 * Creates a new transmission decoded from the binary protocol.
+	 * 
+	 * @param command
+	 *            The transmitted command.
+	 * @param info
+	 *            The transmited file information object.
+	 * @param offset
+	 *            The transmitted offset of the contents.
+	 * @param passphrase
+	 *            The transmitted passphrase.
+	 */
+	JFSTransmission(byte command, JFSFileInfo info, long offset,
+			String passphrase) {
+		this.command = command;
+		this.info = info;
+		this.offset = offset;
+		this.passphrase = passphrase;
+	}
+
 	/**
 	 * Returns the transmitted command.
 	 * 
@@ -130,6 +248,15 @@ public class JFSTransmission implements Serializable {
 		return info;
 	}
 
+	/**
+	 * Returns the transmitted offset of the contents.
+	 * 
+	 * @return The offset.
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
 	/**
 	 * Returns the transmitted passphrase to be allowed to access the server.
 	 * 
@@ -138,4 +265,33 @@ public class JFSTransmission implements Serializable {
 	public String getPassphrase() {
 		return passphrase;
 	}
+
+	/**
+	 * Returns the identifier of the request within a multiplexed channel.
+	 * 
+	 * @return The identifier or zero, if the request is not multiplexed.
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Sets the identifier of the request within a multiplexed channel.
+	 * 
+	 * @param id
+	 *            The identifier.
+	 */
+	void setId(int id) {
+		this.id = id;
+	}
+
+	/**
+	 * Returns the transmitted version of the binary protocol supported by the
+	 * client.
+	 * 
+	 * @return The version or zero, if the binary protocol is not supported.
+	 */
+	public int getVersion() {
+		return version;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,784 @@
+/*
+ * JFileSync
+ * Copyright (C) 2002-2007, Jens Heidrich
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA, 02110-1301, USA
+ */
+
+
+package jfs.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Implements the compact binary encoding of the JFS wire protocol. The most
+ * frequent commands are transmitted as length-prefixed frames instead of
+ * serialized transmission objects, which avoids the overhead of object
+ * serialization for every request. A request frame starts with
+ * {@link #FRAME}, followed by the length of the payload, the command, the
+ * passphrase, the offset, and the file information object. A reply frame
+ * contains the length of the payload, the type of the reply, and its value.
+ * Every frame is written at once, so that small requests are not delayed by
+ * the TCP stack. A client negotiates the binary protocol after connecting to a
+ * server by sending {@link JFSTransmission#CMD_IS_ALIVE} together with the
+ * version it supports. Servers not knowing the binary protocol answer with a
+ * boolean value, in this case the client keeps on using serialized
+ * transmission objects. Since version 2, frames of a multiplexed channel
+ * start with {@link #FRAME_MULTIPLEXED} and carry the identifier of the
+ * request in front of the payload (see {@link JFSServerChannel}). Since
+ * version 3, the contents of a single directory are listed by
+ * {@link JFSTransmission#CMD_GET_LIST}, which is answered by a sequence of
+ * page frames following the reply. Since version 4, the directory structure
+ * of the server is compared with a manifest of the client by
+ * {@link JFSTransmission#CMD_GET_DIFF}: the client streams a manifest page
+ * for every directory and the server answers every directory with the
+ * differing entries only. Since version 5, several metadata commands are
+ * sent at once by {@link JFSTransmission#CMD_BATCH}.
+ * 
+ * @author Jens Heidrich
+ * @version $Id$
+ */
+final class JFSWireProtocol {
+
+	/** The version of the binary protocol. */
+	static final int VERSION = 5;
+
+	/** The first version supporting multiplexed channels. */
+	static final int VERSION_MULTIPLEXED = 2;
+
+	/** The first version supporting directory listings. */
+	static final int VERSION_LIST = 3;
+
+	/** The first version supporting the comparison of manifests. */
+	static final int VERSION_DIFF = 4;
+
+	/** The first version supporting batches of metadata commands. */
+	static final int VERSION_BATCH = 5;
+
+	/** The entry of the manifest is missing on server side. */
+	static final byte DIFF_MISSING = 0;
+
+	/** The entry of the manifest differs from the entry on server side. */
+	static final byte DIFF_CHANGED = 1;
+
+	/** The entry on server side is not contained in the manifest. */
+	static final byte DIFF_EXTRA = 2;
+
+	/**
+	 * Starts a request frame. Differs from the first byte of a serialized
+	 * transmission object.
+	 */
+	static final int FRAME = 0x4A;
+
+	/** Starts a request frame of a multiplexed channel. */
+	static final int FRAME_MULTIPLEXED = 0x4B;
+
+	/**
+	 * The maximum length of the payload of a frame in bytes. Pages are limited
+	 * by their number of entries, so that legitimate frames stay far below.
+	 */
+	static final int FRAME_MAX = 16777216;
+
+	/** The reply is null. */
+	private static final byte REPLY_NULL = 0;
+
+	/** The reply is a file information object. */
+	private static final byte REPLY_INFO = 1;
+
+	/** The reply is a boolean value. */
+	private static final byte REPLY_BOOLEAN = 2;
+
+	/**
+	 * Avoids instantiation.
+	 */
+	private JFSWireProtocol() {
+	}
+
+	/**
+	 * Determines whether a command may be transmitted in the binary encoding.
+	 * All other commands are transmitted as serialized transmission objects.
+	 * 
+	 * @param command
+	 *            The command to check.
+	 * @return True if and only if the command is supported.
+	 */
+	static boolean isSupported(byte command) {
+		switch (command) {
+		case JFSTransmission.CMD_GET_INFO:
+		case JFSTransmission.CMD_PUT_INFO:
+		case JFSTransmission.CMD_GET_CONTENTS:
+		case JFSTransmission.CMD_PUT_CONTENTS:
+		case JFSTransmission.CMD_MKDIR:
+		case JFSTransmission.CMD_DELETE:
+		case JFSTransmission.CMD_IS_ALIVE:
+		case JFSTransmission.CMD_GET_LIST:
+		case JFSTransmission.CMD_GET_DIFF:
+		case JFSTransmission.CMD_BATCH:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Determines whether a command may be sent over a multiplexed channel.
+	 * These are the commands with a single reply and without contents.
+	 * 
+	 * @param command
+	 *            The command to check.
+	 * @return True if and only if the command is supported.
+	 */
+	static boolean isMultiplexed(byte command) {
+		switch (command) {
+		case JFSTransmission.CMD_GET_INFO:
+		case JFSTransmission.CMD_PUT_INFO:
+		case JFSTransmission.CMD_MKDIR:
+		case JFSTransmission.CMD_DELETE:
+		case JFSTransmission.CMD_IS_ALIVE:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Offers the binary protocol to the server after connecting a socket.
+	 * 
+	 * @param socket
+	 *            The connected socket.
+	 * @return The version of the binary protocol to use or zero, if the server
+	 *         does not support the binary protocol.
+	 * @throws IOException
+	 *             Thrown in case of IO problems.
+	 */
+	static int negotiate(Socket socket) throws IOException {
+		ObjectOutputStream oo = new ObjectOutputStream(socket
+				.getOutputStream());
+		oo.writeObject(new JFSTransmission(JFSTransmission.CMD_IS_ALIVE,
+				VERSION));
+		ObjectInputStream oi = new ObjectInputStream(socket.getInputStream());
+
+		try {
+			Object version = oi.readObject();
+			if (version instanceof Integer)
+				return ((Integer) version).intValue();
+		} catch (ClassNotFoundException e) {
+			// Treat unknown answers like old servers...
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Writes a request frame. If the transmission has a request identifier, a
+	 * frame of a multiplexed channel is written.
+	 * 
+	 * @param out
+	 *            The stream to write to.
+	 * @param t
+	 *            The transmission to encode.
+	 * @throws IOException
+	 *             Thrown in case of IO problems.
+	 */
+	static void writeRequest(OutputStream out, JFSTransmission t)
+			throws IOException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(buf);
+		data.writeByte(t.getId() > 0 ? FRAME_MULTIPLEXED : FRAME);
+		data.writeInt(0);
+		if (t.getId() > 0)
+			data.writeInt(t.getId());
+		data.writeByte(t.getCommand());
+		data.writeUTF(t.getPassphrase());
+		data.writeLong(t.getOffset());
+		writeInfo(data, t.getInfo());
+		writeFrame(out, buf.toByteArray(), 1);
+	}
+
+	/**
+	 * Reads a request frame. The leading {@link #FRAME} or
+	 * {@link #FRAME_MULTIPLEXED} byte has to be read by the caller already.
+	 * 
+	 * @param in
+	 *            The stream to read from.
+	 * @param multiplexed
+	 *            Determines whether the frame belongs to a multiplexed
+	 *            channel.
+	 * @return The decoded transmission.
+	 * @throws IOException
+	 *             Thrown in case of IO problems or if the frame is invalid.
+	 */
+	static JFSTransmission readRequest(InputStream in, boolean multiplexed)
+			throws IOException {
+		DataInputStream data = readFrame(in);
+		int id = multiplexed ? data.readInt() : 0;
+		byte command = data.readByte();
+		if (multiplexed ? !isMultiplexed(command) : !isSupported(command))
+			throw new IOException("Invalid command: " + command);
+		String passphrase = data.readUTF();
+		long offset = data.readLong();
+		JFSTransmission t = new JFSTransmission(command, readInfo(data),
+				offset, passphrase);
+		t.setId(id);
+
+		return t;
+	}
+
+	/**
+	 * Writes a reply frame. The replies of a multiplexed channel carry the
+	 * identifier of the request.
+	 * 
+	 * @param out
+	 *            The stream to write to.
+	 * @param id
+	 *            The identifier of the request or zero, if the request was not
+	 *            sent over a multiplexed channel.
+	 * @param reply
+	 *            The reply; that is, null, a file information object, or a
+	 *            boolean value.
+	 * @throws IOException
+	 *             Thrown in case of IO problems.
+	 */
+	static void writeReply(OutputStream out, int id, Object reply)
+			throws IOException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(buf);
+		data.writeInt(0);
+		if (id > 0)
+			data.writeInt(id);
+		encodeReply(data, reply);
+		writeFrame(out, buf.toByteArray(), 0);
+	}
+
+	/**
+	 * Encodes the type of a reply and its value.
+	 * 
+	 * @param data
+	 *            The output to write to.
+	 * @param reply
+	 *            The reply; that is, null, a file information object, or a
+	 *            boolean value.
+	 * @throws IOException
+	 *             Thrown in case of IO problems.
+	 */
+	private static void encodeReply(DataOutputStream data, Object reply)
+			throws IOException {
+		if (reply == null) {
+			data.writeByte(REPLY_NULL);
+		} else if (reply instanceof JFSFileInfo) {
+			data.writeByte(REPLY_INFO);
+			((JFSFileInfo) reply).write(data);
+		} else if (reply instanceof Boolean) {
+			data.writeByte(REPLY_BOOLEAN);
+			data.writeBoolean(((Boolean) reply).booleanValue());
+		} else {
+			throw new IllegalArgumentException("Invalid reply: " + reply);
+		}
+	}
+
+	/**
+	 * Reads a reply frame.
+	 * 
+	 * @param in
+	 *            The stream to read from.
+	 * @return The decoded reply.
+	 * @throws IOException
+	 *             Thrown in case of IO problems or if the frame is invalid.
+	 */
+	static Object readReply(InputStream in) throws IOException {
+		return decodeReply(readFrame(in));
+	}
+
+	/**
+	 * Decodes the reply of a frame. The identifier of the request has to be
+	 * read by the caller already, if the frame belongs to a multiplexed
+	 * channel.
+	 * 
+	 * @param data
+	 *            The payload of the frame.
+	 * @return The decoded reply.
+	 * @throws IOException
+	 *             Thrown in case of IO problems or if the frame is invalid.
+	 */
+	static Object decodeReply(DataInputStream data) throws IOException {
+		byte type = data.readByte();
+
+		switch (type) {
+		case REPLY_NULL:
+			return null;
+		case REPLY_INFO:
+			return JFSFileInfo.read(data);
+		case REPLY_BOOLEAN:
+			return data.readBoolean();
+		default:
+			throw new IOException("Invalid reply: " + type);
+		}
+	}
+
+	/**
+	 * Writes a page of a directory listing. A page frame contains whether it
+	 * is the last page of the listing, the separator of the server, the
+	 * number of entries, and the entries themselves.
+	 * 
+	 * @param out
+	 *            The stream to write to.
+	 * @param entries
+	 *            The entries of the page.
+	 * @param last
+	 *            Determines whether this is the last page of the listing.
+	 * @throws IOException
+	 *             Thrown in case of IO problems.
+	 */
+	static void writePage(OutputStream out, List<JFSFileInfo> entries,
+			boolean last) throws IOException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(buf);
+		data.writeInt(0);
+		data.writeBoolean(last);
+		data.writeChar(File.separatorChar);
+		data.writeInt(entries.size());
+		for (JFSFileInfo info : entries)
+			info.writeEntry(data);
+		writeFrame(out, buf.toByteArray(), 0);
+	}
+
+	/**
+	 * Reads all pages of a directory listing. Only a single page is kept in
+	 * memory in its encoded form at a time.
+	 * 
+	 * @param in
+	 *            The stream to read from.
+	 * @param dir
+	 *            The listed directory.
+	 * @return The entries of the directory sorted by their names.
+	 * @throws IOException
+	 *             Thrown in case of IO problems or if a frame is invalid.
+	 */
+	static JFSFileInfo[] readList(InputStream in, JFSFileInfo dir)
+			throws IOException {
+		ArrayList<JFSFileInfo> entries = new ArrayList<JFSFileInfo>();
+		boolean last;
+
+		do {
+			DataInputStream data = readFrame(in);
+			last = data.readBoolean();
+			char separator = data.readChar();
+			int n = data.readInt();
+			for (int i = 0; i < n; i++)
+				entries.add(JFSFileInfo.readEntry(data, dir, separator));
+		} while (!last);
+
+		// The server lists the entries in the order of the file system:
+		return sort(entries);
+	}
+
+	/**
+	 * Sorts the entries of a directory by their names.
+	 * 
+	 * @param entries
+	 *            The entries to sort.
+	 * @return The sorted entries.
+	 */
+	static JFSFileInfo[] sort(List<JFSFileInfo> entries) {
+		JFSFileInfo[] list = entries.toArray(new JFSFileInfo[entries.size()]);
+		Arrays.sort(list, new Comparator<JFSFileInfo>() {
+			public int compare(JFSFileInfo i1, JFSFileInfo i2) {
+				return i1.getName().compareTo(i2.getName());
+			}
+		});
+
+		return list;
+	}
+
+	/**
+	 * Writes a page of the manifest of a directory. A manifest frame contains
+	 * whether it ends the manifest; if not, the relative path of the
+	 * directory, whether it is the last page of the directory, the number of
+	 * entries, and the entries themselves, each followed by the length of its
+	 * digest and the digest.
+	 * 
+	 * @param out
+	 *            The stream to write to.
+	 * @param path
+	 *            The relative path of the directory.
+	 * @param entries
+	 *            The entries of the page.
+	 * @param digests
+	 *            The digests of the entries; an element is null, if the
+	 *            digest of the entry is unknown.
+	 * @param last
+	 *            Determines whether this is the last page of the directory.
+	 * @throws IOException
+	 *             Thrown in case of IO problems.
+	 */
+	static void writeManifest(OutputStream out, String path,
+			List<JFSFileInfo> entries, List<byte[]> digests, boolean last)
+			throws IOException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(buf);
+		data.writeInt(0);
+		data.writeBoolean(false);
+		data.writeUTF(path);
+		data.writeBoolean(last);
+		data.writeInt(entries.size());
+		for (int i = 0; i < entries.size(); i++) {
+			entries.get(i).writeEntry(data);
+			byte[] digest = digests.get(i);
+			data.writeByte(digest != null ? digest.length : 0);
+			if (digest != null)
+				data.write(digest);
+		}
+		writeFrame(out, buf.toByteArray(), 0);
+	}
+
+	/**
+	 * Writes the frame ending a manifest.
+	 * 
+	 * @param out
+	 *            The stream to write to.
+	 * @throws IOException
+	 *             Thrown in case of IO problems.
+	 */
+	static void writeManifestEnd(OutputStream out) throws IOException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(buf);
+		data.writeInt(0);
+		data.writeBoolean(true);
+		writeFrame(out, buf.toByteArray(), 0);
+	}
+
+	/**
+	 * Reads all pages of the manifest of the next directory. Only a single
+	 * page is kept in memory in its encoded form at a time.
+	 * 
+	 * @param in
+	 *            The stream to read from.
+	 * @param root
+	 *            The compared root directory.
+	 * @param entries
+	 *            The map to put the entries of the directory to by their
+	 *            names.
+	 * @param digests
+	 *            The map to put the known digests of the entries to by their
+	 *            names.
+	 * @return The directory or null, if the manifest ended.
+	 * @throws IOException
+	 *             Thrown in case of IO problems or if a frame is invalid.
+	 */
+	static JFSFileInfo readManifest(InputStream in, JFSFileInfo root,
+			Map<String, JFSFileInfo> entries, Map<String, byte[]> digests)
+			throws IOException {
+		JFSFileInfo dir = null;
+		boolean last;
+
+		do {
+			DataInputStream data = readFrame(in);
+			if (data.readBoolean())
+				return null;
+			String path = data.readUTF();
+			if (dir == null)
+				dir = new JFSFileInfo(root.getRootPath(), root
+						.getRelativePath()
+						+ path);
+			last = data.readBoolean();
+			int n = data.readInt();
+			for (int i = 0; i < n; i++) {
+				JFSFileInfo entry = JFSFileInfo.readEntry(data, dir,
+						File.separatorChar);
+				entries.put(entry.getName(), entry);
+				byte[] digest = new byte[data.readUnsignedByte()];
+				data.readFully(digest);
+				if (digest.length > 0)
+					digests.put(entry.getName(), digest);
+			}
+		} while (!last);
+
+		return dir;
+	}
+
+	/**
+	 * Writes a page of the differences of a directory to its manifest. A
+	 * difference frame contains whether it is the last page of the directory,
+	 * whether the directory exists on server side, the separator of the
+	 * server, the number of entries, and the entries themselves. Every entry
+	 * starts with its state; missing entries are written by their names,
+	 * all other entries by their attributes on server side.
+	 * 
+	 * @param out
+	 *            The stream to write to.
+	 * @param exists
+	 *            Determines whether the directory exists on server side.
+	 * @param entries
+	 *            The differing entries of the page.
+	 * @param states
+	 *            The states of the entries; that is, {@link #DIFF_MISSING},
+	 *            {@link #DIFF_CHANGED}, or {@link #DIFF_EXTRA}.
+	 * @param last
+	 *            Determines whether this is the last page of the directory.
+	 * @throws IOException
+	 *             Thrown in case of IO problems.
+	 */
+	static void writeDiff(OutputStream out, boolean exists,
+			List<JFSFileInfo> entries, List<Byte> states, boolean last)
+			throws IOException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(buf);
+		data.writeInt(0);
+		data.writeBoolean(last);
+		data.writeBoolean(exists);
+		data.writeChar(File.separatorChar);
+		data.writeInt(entries.size());
+		for (int i = 0; i < entries.size(); i++) {
+			byte state = states.get(i);
+			data.writeByte(state);
+			if (state == DIFF_MISSING) {
+				data.writeUTF(entries.get(i).getName());
+			} else {
+				entries.get(i).writeEntry(data);
+			}
+		}
+		writeFrame(out, buf.toByteArray(), 0);
+	}
+
+	/**
+	 * Reads all pages of the differences of the next directory to its
+	 * manifest.
+	 * 
+	 * @param in
+	 *            The stream to read from.
+	 * @param dir
+	 *            The directory on client side.
+	 * @param entries
+	 *            The map to put the differing entries to by their names.
+	 *            Missing entries are put as null values.
+	 * @return The separator of the server or zero, if the directory does not
+	 *         exist on server side.
+	 * @throws IOException
+	 *             Thrown in case of IO problems or if a frame is invalid.
+	 */
+	static char readDiff(InputStream in, JFSFileInfo dir,
+			Map<String, JFSFileInfo> entries) throws IOException {
+		boolean last;
+		boolean exists;
+		char separator;
+
+		do {
+			DataInputStream data = readFrame(in);
+			last = data.readBoolean();
+			exists = data.readBoolean();
+			separator = data.readChar();
+			int n = data.readInt();
+			for (int i = 0; i < n; i++) {
+				if (data.readByte() == DIFF_MISSING) {
+					entries.put(data.readUTF(), null);
+				} else {
+					JFSFileInfo entry = JFSFileInfo.readEntry(data, dir,
+							separator);
+					entries.put(entry.getName(), entry);
+				}
+			}
+		} while (!last);
+
+		return exists ? separator : 0;
+	}
+
+	/**
+	 * Writes the commands of a batch. A batch frame contains the number of
+	 * commands and every command followed by its file information object.
+	 * 
+	 * @param out
+	 *            The stream to write to.
+	 * @param commands
+	 *            The commands to perform.
+	 * @param infos
+	 *            The file information objects of the commands.
+	 * @throws IOException
+	 *             Thrown in case of IO problems.
+	 */
+	static void writeBatch(OutputStream out, List<Byte> commands,
+			List<JFSFileInfo> infos) throws IOException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(buf);
+		data.writeInt(0);
+		data.writeInt(commands.size());
+		for (int i = 0; i < commands.size(); i++) {
+			data.writeByte(commands.get(i));
+			infos.get(i).write(data);
+		}
+		writeFrame(out, buf.toByteArray(), 0);
+	}
+
+	/**
+	 * Reads the commands of a batch. Only {@link JFSTransmission#CMD_PUT_INFO},
+	 * {@link JFSTransmission#CMD_MKDIR}, and
+	 * {@link JFSTransmission#CMD_DELETE} are accepted.
+	 * 
+	 * @param in
+	 *            The stream to read from.
+	 * @param commands
+	 *            The list to add the commands to.
+	 * @param infos
+	 *            The list to add the file information objects to.
+	 * @throws IOException
+	 *             Thrown in case of IO problems or if the frame is invalid.
+	 */
+	static void readBatch(InputStream in, List<Byte> commands,
+			List<JFSFileInfo> infos) throws IOException {
+		DataInputStream data = readFrame(in);
+		int n = data.readInt();
+
+		for (int i = 0; i < n; i++) {
+			byte command = data.readByte();
+			if (command != JFSTransmission.CMD_PUT_INFO
+					&& command != JFSTransmission.CMD_MKDIR
+					&& command != JFSTransmission.CMD_DELETE)
+				throw new IOException("Invalid command: " + command);
+			commands.add(command);
+			infos.add(JFSFileInfo.read(data));
+		}
+	}
+
+	/**
+	 * Writes the replies to all commands of a batch in a single frame.
+	 * 
+	 * @param out
+	 *            The stream to write to.
+	 * @param replies
+	 *            The replies in the sequence of the commands.
+	 * @throws IOException
+	 *             Thrown in case of IO problems.
+	 */
+	static void writeResults(OutputStream out, List<Object> replies)
+			throws IOException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(buf);
+		data.writeInt(0);
+		data.writeInt(replies.size());
+		for (Object reply : replies)
+			encodeReply(data, reply);
+		writeFrame(out, buf.toByteArray(), 0);
+	}
+
+	/**
+	 * Reads the replies to all commands of a batch.
+	 * 
+	 * @param in
+	 *            The stream to read from.
+	 * @return The replies in the sequence of the commands.
+	 * @throws IOException
+	 *             Thrown in case of IO problems or if the frame is invalid.
+	 */
+	static Object[] readResults(InputStream in) throws IOException {
+		DataInputStream data = readFrame(in);
+		Object[] replies = new Object[data.readInt()];
+		for (int i = 0; i < replies.length; i++)
+			replies[i] = decodeReply(data);
+
+		return replies;
+	}
+
+	/**
+	 * Writes an optional file information object.
+	 * 
+	 * @param data
+	 *            The output to write to.
+	 * @param info
+	 *            The file information object or null.
+	 * @throws IOException
+	 *             Thrown in case of IO problems.
+	 */
+	private static void writeInfo(DataOutputStream data, JFSFileInfo info)
+			throws IOException {
+		data.writeBoolean(info != null);
+		if (info != null)
+			info.write(data);
+	}
+
+	/**
+	 * Reads an optional file information object.
+	 * 
+	 * @param data
+	 *            The input to read from.
+	 * @return The file information object or null.
+	 * @throws IOException
+	 *             Thrown in case of IO problems.
+	 */
+	private static JFSFileInfo readInfo(DataInputStream data)
+			throws IOException {
+		return data.readBoolean() ? JFSFileInfo.read(data) : null;
+	}
+
+	/**
+	 * Sets the length of the payload in the header of an encoded frame and
+	 * writes the whole frame at once.
+	 * 
+	 * @param out
+	 *            The stream to write to.
+	 * @param frame
+	 *            The encoded frame.
+	 * @param pos
+	 *            The position of the length within the frame.
+	 * @throws IOException
+	 *             Thrown in case of IO problems.
+	 */
+	private static void writeFrame(OutputStream out, byte[] frame, int pos)
+			throws IOException {
+		int length = frame.length - pos - 4;
+		if (length > FRAME_MAX)
+			throw new IOException("Frame too large: " + length);
+		frame[pos] = (byte) (length >>> 24);
+		frame[pos + 1] = (byte) (length >>> 16);
+		frame[pos + 2] = (byte) (length >>> 8);
+		frame[pos + 3] = (byte) length;
+		out.write(frame);
+		out.flush();
+	}
+
+	/**
+	 * Reads the payload of a frame completely.
+	 * 
+	 * @param in
+	 *            The stream to read from.
+	 * @return The input to decode the payload from.
+	 * @throws IOException
+	 *             Thrown in case of IO problems or if the frame is invalid.
+	 */
+	static DataInputStream readFrame(InputStream in)
+			throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		int length = data.readInt();
+		if (length < 0 || length > FRAME_MAX)
+			throw new IOException("Invalid frame length: " + length);
+		byte[] payload = new byte[length];
+		data.readFully(payload);
+
+		return new DataInputStream(new ByteArrayInputStream(payload));
+	}
+}
@@ -20,9 +20,11 @@
 package jfs.shell;
 
 import java.io.PrintStream;
+import java.util.Map;
 import java.util.Vector;
 
 import jfs.conf.JFSConfig;
+import jfs.conf.JFSConst;
 import jfs.conf.JFSDirectoryPair;
 import jfs.conf.JFSFilter;
 import jfs.conf.JFSLog;
@@ -78,10 +80,31 @@ public class JFSPrint {
 				+ config.getGranularity());
 		p.println("  " + t.get("profile.print.bufferSize") + " "
 				+ config.getBufferSize());
+		p.println("  " + t.get("profile.print.threads") + " "
+				+ config.getComparisonThreads());
+		String copyThreads = JFSConst.SCHEME_LOCAL + "="
+				+ config.getCopyThreads(JFSConst.SCHEME_LOCAL);
+		for (Map.Entry<String, Integer> e : config.getCopyThreads()
+				.entrySet()) {
+			if (!e.getKey().equals(JFSConst.SCHEME_LOCAL))
+				copyThreads += ", " + e.getKey() + "=" + e.getValue();
+		}
+		p.println("  " + t.get("profile.print.copyThreads") + " "
+				+ copyThreads);
+		p.println("  " + t.get("profile.print.deltaTransfer") + " "
+				+ config.isDeltaTransfer());
+		p.println("  " + t.get("profile.print.serverDiff") + " "
+				+ config.isServerDiff());
+		p.println("  " + t.get("profile.print.hashComparison") + " "
+				+ config.isHashComparison());
 		p.println("  " + t.get("profile.print.keepUserActions") + " "
 				+ config.isKeepUserActions());
+		p.println("  " + t.get("profile.print.moveDetection") + " "
+				+ config.isMoveDetection());
 		p.println("  " + t.get("profile.print.storeHistory") + " "
 				+ config.isStoreHistory());
+		p.println("  " + t.get("profile.print.scanCache") + " "
+				+ config.isUseScanCache());
 
 		// Print includes and excludes:
 		if (config.getIncludes().size() > 0) {
@@ -119,6 +142,16 @@ public class JFSPrint {
 				+ config.getServerPassPhrase());
 		p.println("  " + t.get("profile.print.server.timeout") + " "
 				+ config.getServerTimeout());
+		p.println("  " + t.get("profile.print.server.sessions") + " "
+				+ config.getServerSessions());
+		p.println("  " + t.get("profile.print.server.workers") + " "
+				+ config.getServerWorkers());
+		p.println("  " + t.get("profile.print.server.cache") + " "
+				+ config.getServerCache());
+		p.println("  " + t.get("profile.print.server.poolMin") + " "
+				+ config.getServerPoolMin());
+		p.println("  " + t.get("profile.print.server.poolMax") + " "
+				+ config.getServerPoolMax());
 		p.println("  " + t.get("profile.print.server.shutDown") + " "
 				+ config.getServerShutDown());
 
@@ -104,29 +104,39 @@ public class JFSProgressPrint implements JFSProgressObserver {
 			out.println();
 		}
 
-		// Ask for canceling the algorithm if 'return' is entered:
+		// Ask for canceling the algorithm if 'return' is entered. The
+		// algorithm is paused until the question is answered, so that no
+		// further progress is printed in between:
 		try {
 			if (din.ready()) {
-				// Skip first enter:
-				din.readLine();
-
-				// Read answer:
-				String input = "";
-				String yes = t.get("cmd.progress.cancel.yes");
-				String no = t.get("cmd.progress.cancel.no");
-
-				while (!input.equals(yes) && !input.equals(no)) {
-					out.println(t.get("cmd.progress.cancel"));
-					out.print(t.get("cmd.progress.cancel.input") + " ");
-					input = din.readLine().toLowerCase();
+				progress.pause();
+				try {
+					// Skip first enter:
+					din.readLine();
+
+					// Read answer:
+					String input = "";
+					String yes = t.get("cmd.progress.cancel.yes");
+					String no = t.get("cmd.progress.cancel.no");
+
+					while (input != null && !input.equals(yes)
+							&& !input.equals(no)) {
+						out.println(t.get("cmd.progress.cancel"));
+						out.print(t.get("cmd.progress.cancel.input") + " ");
+						input = din.readLine();
+						if (input != null)
+							input = input.toLowerCase();
+					}
+
+					if (yes.equals(input)) {
+						out.println(t.get("cmd.progress.cancel.request"));
+						out.println();
+						progress.cancel();
+					} else
+						out.println();
+				} finally {
+					progress.resume();
 				}
-
-				if (input.equals(yes)) {
-					out.println(t.get("cmd.progress.cancel.request"));
-					out.println();
-					progress.cancel();
-				} else
-					out.println();
 			}
 		} catch (IOException e) {
 			// Just continue...
@@ -37,10 +37,12 @@ import jfs.conf.JFSViewModes;
 import jfs.sync.JFSComparison;
 import jfs.sync.JFSCopyStatement;
 import jfs.sync.JFSDeleteStatement;
+import jfs.sync.JFSPipeline;
 import jfs.sync.JFSProgress;
 import jfs.sync.JFSSynchronization;
 import jfs.sync.JFSTable;
 import jfs.sync.JFSUserAuthentication;
+import jfs.sync.JFSWatcher;
 
 /**
  * The JFS shell performs a command line comparison and synchronization. First
@@ -127,8 +129,18 @@ public class JFSShell {
 	 *            This option has to be true, if comparison and synchronization
 	 *            should run in background. It has to be false, if a shell
 	 *            prompt should appear.
+	 * @param pipeline
+	 *            This option has to be true, if the synchronization should be
+	 *            performed during the comparison. It is only considered, if
+	 *            the quiet option is true.
+	 * @param watch
+	 *            This option has to be true, if the directories should be
+	 *            watched and synchronized continuously after the first
+	 *            synchronization. It is only considered, if the quiet option
+	 *            is true.
 	 */
-	public static void startShell(boolean quiet) {
+	public static void startShell(boolean quiet, boolean pipeline,
+			boolean watch) {
 		// Get translation object, configuration, output stream, and task:
 		JFSText t = JFSText.getInstance();
 		JFSConfig config = JFSConfig.getInstance();
@@ -152,10 +164,33 @@ public class JFSShell {
 			synchronization.getQuestion().setOracle(new JFSQuestionPrint());
 		}
 
-		p.println(t.get("cmd.startComp"));
-		p.println();
-		comparison.compare();
-		synchronization.computeSynchronizationLists();
+		if (quiet && pipeline) {
+			// Start comparison and synchronization at once:
+			p.println(t.get("cmd.startComp"));
+			p.println();
+			JFSPipeline.getInstance().start();
+			boolean compared = false;
+			try {
+				comparison.compare();
+				compared = true;
+			} finally {
+				// Skip the remaining statements of a failed comparison, but
+				// always stop the worker thread:
+				if (!compared)
+					JFSProgress.getInstance().cancel();
+				JFSPipeline.getInstance().end();
+			}
+
+			// Print all failed copy and delete statements:
+			p.println();
+			JFSPrint.printFailedCopyStatements(table.getFailedCopyStatements());
+			JFSPrint.printFailedDeleteStatements(table.getFailedDeleteStatements());
+		} else {
+			p.println(t.get("cmd.startComp"));
+			p.println();
+			comparison.compare();
+			synchronization.computeSynchronizationLists();
+		}
 
 		if (!quiet) {
 			// Start the JFileSync Shell:
@@ -248,10 +283,13 @@ public class JFSShell {
 				}
 			}
 
-		} else {
+		} else if (!pipeline) {
 			synchronize();
 		}
 
+		if (quiet && watch)
+			JFSWatcher.getInstance().watch();
+
 		p.println();
 		p.println(t.get("cmd.exit"));
 		p.println();
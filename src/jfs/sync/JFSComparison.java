@@ -19,10 +19,22 @@
 
 package jfs.sync;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import jfs.conf.JFSConfig;
 import jfs.conf.JFSDirectoryPair;
+import jfs.conf.JFSSyncMode;
+import jfs.conf.JFSSyncModes;
 import jfs.sync.JFSProgress.ProgressActivity;
 
 /**
@@ -36,6 +48,42 @@ public class JFSComparison {
 	/** Stores the only instance of the class. */
 	private static JFSComparison instance = null;
 
+	/**
+	 * The pool used to read directories ahead of the comparison. Null, if the
+	 * comparison is performed by a single thread.
+	 */
+	private ForkJoinPool pool = null;
+
+	/**
+	 * The pool used to compute digests of file contents during the
+	 * comparison. Null, if contents are not compared.
+	 */
+	private ExecutorService hashPool = null;
+
+	/** The elements, whose contents are compared. */
+	private final Vector<JFSElement> hashElements = new Vector<JFSElement>();
+
+	/** The pending computations of digests. */
+	private final Vector<Future<?>> hashTasks = new Vector<Future<?>>();
+
+	/**
+	 * The pipeline performing the synchronization during comparison. Null, if
+	 * the synchronization is performed after the comparison.
+	 */
+	private JFSPipeline pipeline = null;
+
+	/**
+	 * The directory element compared again, whose existing sub directories
+	 * are kept. Null, if all directories are compared.
+	 */
+	private JFSElement reuseParent = null;
+
+	/** The existing sub directories of the directory compared again. */
+	private final HashMap<String, JFSElement> reusable = new HashMap<String, JFSElement>();
+
+	/** The directory listing tasks not yet awaited by the comparison. */
+	private final Map<JFSFile, JFSListingTask> tasks = new ConcurrentHashMap<JFSFile, JFSListingTask>();
+
 	/**
 	 * Creates a new comparison object.
 	 */
@@ -54,6 +102,129 @@ public class JFSComparison {
 		return instance;
 	}
 
+	/**
+	 * Determines whether a file is part of the comparison according to the
+	 * include and exclude filters of the configuration.
+	 * 
+	 * @param file
+	 *            The file to check.
+	 * @return True if and only if the file has to be compared.
+	 */
+	static final boolean isIncluded(JFSFile file) {
+		// The listing was already filtered by the producer:
+		if (file.getFileProducer().isFiltered())
+			return true;
+
+		JFSConfig config = JFSConfig.getInstance();
+		if (!config.getIncludes().isEmpty() && !config.matchesIncludes(file))
+			return false;
+		if (!config.getExcludes().isEmpty() && config.matchesExcludes(file))
+			return false;
+
+		return true;
+	}
+
+	/**
+	 * Waits until the contents of a directory is read, if a corresponding
+	 * listing task was started before.
+	 * 
+	 * @param dir
+	 *            The directory to wait for. May be null.
+	 */
+	private final void awaitListing(JFSFile dir) {
+		if (dir != null) {
+			JFSListingTask task = tasks.remove(dir);
+			if (task != null)
+				task.join();
+		}
+	}
+
+	/**
+	 * Starts reading the contents of a directory and all contained
+	 * directories in the background, if the comparison is performed by more
+	 * than one thread.
+	 * 
+	 * @param dir
+	 *            The directory to read.
+	 */
+	private final void startListing(JFSFile dir) {
+		if (pool != null && JFSListingTask.isSupported(dir))
+			pool.execute(new JFSListingTask(dir, tasks));
+	}
+
+	/**
+	 * Starts computing the digests of the source and target file of an
+	 * element in the background, if their contents have to be compared.
+	 * 
+	 * @param element
+	 *            The element.
+	 * @return True, if the digests are computed.
+	 */
+	private final boolean startHashing(final JFSElement element) {
+		if (hashPool == null || !element.isContentsComparable()
+				|| !JFSHashCache.isSupported(element.getSrcFile())
+				|| !JFSHashCache.isSupported(element.getTgtFile()))
+			return false;
+
+		hashElements.add(element);
+		hashTasks.add(hashPool.submit(new Runnable() {
+			public void run() {
+				JFSHashCache cache = JFSHashCache.getInstance();
+				if (cache.getDigest(element.getSrcFile()) != null)
+					cache.getDigest(element.getTgtFile());
+			}
+		}));
+
+		return true;
+	}
+
+	/**
+	 * Waits until all digests are computed and revalidates the corresponding
+	 * elements. If the pipeline is used, the elements are handed to the
+	 * pipeline afterwards.
+	 */
+	private final void awaitHashing() {
+		for (Future<?> f : hashTasks) {
+			try {
+				f.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				// The element is revalidated without digests.
+			}
+		}
+
+		JFSSyncMode mode = JFSSyncModes.getInstance().getCurrentMode();
+		for (JFSElement element : hashElements) {
+			element.revalidate();
+			mode.computeAction(element);
+			if (pipeline != null)
+				pipeline.elementAdded(element);
+		}
+		if (!hashElements.isEmpty())
+			JFSTable.getInstance().recomputeView();
+
+		hashElements.clear();
+		hashTasks.clear();
+	}
+
+	/**
+	 * Concatenates two arrays of files.
+	 * 
+	 * @param files1
+	 *            The first array.
+	 * @param files2
+	 *            The second array.
+	 * @return The concatenated array.
+	 */
+	private static final JFSFile[] concat(JFSFile[] files1, JFSFile[] files2) {
+		JFSFile[] files = new JFSFile[files1.length + files2.length];
+		System.arraycopy(files1, 0, files, 0, files1.length);
+		System.arraycopy(files2, 0, files, files1.length, files2.length);
+
+		return files;
+	}
+
 	/**
 	 * Inserts an element to the comparison table and starts the comparison
 	 * algorithm recursively, if and only if the matched files are directories.
@@ -75,24 +246,36 @@ public class JFSComparison {
 		assert srcFile != null || tgtFile != null;
 
 		// Determine whether the comparison should be performed:
-		JFSConfig config = JFSConfig.getInstance();
-		if (!config.getIncludes().isEmpty()) {
-			if (srcFile != null && !config.matchesIncludes(srcFile))
-				return;
-			if (tgtFile != null && !config.matchesIncludes(tgtFile))
-				return;
-		}
-		if (!config.getExcludes().isEmpty()) {
-			if (srcFile != null && config.matchesExcludes(srcFile))
-				return;
-			if (tgtFile != null && config.matchesExcludes(tgtFile))
+		if (srcFile != null && !isIncluded(srcFile))
+			return;
+		if (tgtFile != null && !isIncluded(tgtFile))
+			return;
+
+		// Keep an existing sub directory of a directory compared again, if it
+		// exists on the same sides as before:
+		if (isDirectory && parent == reuseParent) {
+			JFSElement old = reusable.get((srcFile != null ? srcFile
+					: tgtFile).getName());
+			if (old != null && (old.getSrcFile() != null) == (srcFile != null)
+					&& (old.getTgtFile() != null) == (tgtFile != null)) {
+				parent.addChild(old);
 				return;
+			}
 		}
 
 		// Add an element to the comparison table:
-		JFSElement element = new JFSElement(srcFile, tgtFile, parent,
-				isDirectory);
-		JFSTable.getInstance().addElement(element);
+		// (The table is locked, because the element is also registered at
+		// its parent, which may be accessed by the pipeline concurrently.)
+		JFSTable table = JFSTable.getInstance();
+		JFSElement element;
+		synchronized (table) {
+			element = new JFSElement(srcFile, tgtFile, parent, isDirectory);
+			table.addElement(element);
+		}
+		// (Elements, whose digests are computed, are handed to the pipeline
+		// after the digests of their directory are known.)
+		if (!startHashing(element) && pipeline != null)
+			pipeline.elementAdded(element);
 
 		// Start algorithm recursivley, if the files are directories:
 		// (This is the case, if one of them is a directory!)
@@ -117,16 +300,17 @@ public class JFSComparison {
 			JFSElement parent, boolean isDirectory) {
 		assert srcFiles != null && tgtFiles != null;
 
-		// First, sort the input arrays:
-		HeapSort<JFSFile> h = new HeapSort<JFSFile>();
-		h.sort(srcFiles);
-		h.sort(tgtFiles);
+		// First, sort the input arrays and compare the cached names:
+		String[] srcNames = NameSort.sort(srcFiles, srcFiles.length > 0
+				&& srcFiles[0].getFileProducer().isSorted());
+		String[] tgtNames = NameSort.sort(tgtFiles, tgtFiles.length > 0
+				&& tgtFiles[0].getFileProducer().isSorted());
 
 		int srcIndex = 0;
 		int tgtIndex = 0;
 
 		while (srcIndex < srcFiles.length && tgtIndex < tgtFiles.length) {
-			int comp = srcFiles[srcIndex].compareTo(tgtFiles[tgtIndex]);
+			int comp = srcNames[srcIndex].compareTo(tgtNames[tgtIndex]);
 
 			if (comp == 0) {
 				// Case 1: We found two matching files:
@@ -191,6 +375,9 @@ public class JFSComparison {
 		JFSFile[] tgtDirectoryList = new JFSFile[0];
 		int weight = 0;
 
+		awaitListing(srcDir);
+		awaitListing(tgtDir);
+
 		if (srcDir != null) {
 			srcFileList = srcDir.getFileList();
 			srcDirectoryList = srcDir.getDirectoryList();
@@ -209,9 +396,19 @@ public class JFSComparison {
 				weight);
 		progress.fireUpdate();
 
+		if (pipeline != null) {
+			pipeline.directoryEntered(parent, concat(srcFileList,
+					srcDirectoryList), concat(tgtFileList, tgtDirectoryList));
+		}
+
 		compareFiles(srcFileList, tgtFileList, parent, false);
+		if (pipeline != null && hashPool != null)
+			awaitHashing();
 		compareFiles(srcDirectoryList, tgtDirectoryList, parent, true);
 
+		if (pipeline != null)
+			pipeline.directoryCompared(parent);
+
 		monitor.decrease();
 	}
 
@@ -234,35 +431,193 @@ public class JFSComparison {
 		progress.start();
 		monitor.increase(pairs.size(), 1);
 
-		// Start comparison:
-		JFSFileProducerManager.getInstance().resetProducers();
-		JFSTable table = JFSTable.getInstance();
-		table.clean();
-		for (JFSDirectoryPair pair : pairs) {
-			monitor.increase(2, 1);
-			monitor.setRootUriSrc(pair.getSrc());
-			monitor.setRootUriTgt(pair.getTgt());
-
-			// Create root element and add it to the table:
-			if (!progress.isCanceled()) {
-				JFSRootElement root = new JFSRootElement(pair);
-				JFSTable.getInstance().addRoot(root);
-
-				// Start comparison if root is active:
-				if (root.isActive()) {
-					compareDirectories(root.getSrcFile(), root.getTgtFile(),
-							root);
+		try {
+			// Create the pool to read directories concurrently, if more than
+			// one thread should be used:
+			int threads = JFSConfig.getInstance().getComparisonThreads();
+			if (threads > 1)
+				pool = new ForkJoinPool(threads);
+
+			// Create the pool to compute digests of file contents, if contents
+			// are compared:
+			if (JFSConfig.getInstance().isHashComparison()) {
+				JFSHashCache.getInstance().load();
+				hashPool = Executors.newFixedThreadPool(threads);
+			}
+
+			// Perform the synchronization during comparison, if the pipeline
+			// is started:
+			if (JFSPipeline.getInstance().isRunning())
+				pipeline = JFSPipeline.getInstance();
+
+			// Start comparison:
+			JFSFileProducerManager.getInstance().resetProducers();
+			JFSTable table = JFSTable.getInstance();
+			table.clean();
+			for (JFSDirectoryPair pair : pairs) {
+				monitor.increase(2, 1);
+				monitor.setRootUriSrc(pair.getSrc());
+				monitor.setRootUriTgt(pair.getTgt());
+
+				// Create root element and add it to the table:
+				if (!progress.isCanceled()) {
+					JFSRootElement root = new JFSRootElement(pair);
+					table.addRoot(root);
+					if (hashPool != null) {
+						JFSHashCache.getInstance().addRoot(root.getSrcFile());
+						JFSHashCache.getInstance().addRoot(root.getTgtFile());
+					}
+					if (pipeline != null)
+						pipeline.elementAdded(root);
+
+					// Start comparison if root is active:
+					if (root.isActive()) {
+						startListing(root.getSrcFile());
+						startListing(root.getTgtFile());
+						compareDirectories(root.getSrcFile(), root
+								.getTgtFile(), root);
+					}
 				}
+
+				monitor.decrease();
+				progress.fireUpdate();
+			}
+
+			// Wait for the digests of file contents:
+			if (hashPool != null) {
+				awaitHashing();
+				JFSHashCache.getInstance().store();
+			}
+		} finally {
+			// Stop computing digests and reading directories in the background:
+			if (hashPool != null) {
+				hashPool.shutdownNow();
+				hashPool = null;
+				hashElements.clear();
+				hashTasks.clear();
+			}
+			if (pool != null) {
+				pool.shutdownNow();
+				pool = null;
+			}
+			tasks.clear();
+			pipeline = null;
+
+			// End the progress computation:
+			progress.end();
+			monitor.decrease();
+			monitor.setRootUriSrc("");
+			monitor.setRootUriTgt("");
+		}
+	}
+
+	/**
+	 * Compares a single directory element again. Its files are compared again
+	 * and new sub directories are compared recursively; existing sub
+	 * directories and their contents are kept. If the directory does not
+	 * exist on the same sides as before, its parent is compared again.
+	 * 
+	 * @param element
+	 *            The directory element to compare.
+	 * @return False, if the root directories of the element do not exist any
+	 *         more and a complete comparison is needed.
+	 */
+	private final boolean compareAgain(JFSElement element) {
+		JFSRootElement root = element.getRoot();
+		JFSFile srcDir;
+		JFSFile tgtDir;
+
+		if (element.isRoot()) {
+			root.refresh();
+			srcDir = root.getSrcFile();
+			tgtDir = root.getTgtFile();
+			if (!srcDir.exists() || !tgtDir.exists())
+				return false;
+		} else {
+			String path = element.getRelativePath();
+			srcDir = root.getSrcProducer().getJfsFile(path);
+			tgtDir = root.getTgtProducer().getJfsFile(path);
+			if (!srcDir.exists() || !srcDir.isDirectory())
+				srcDir = null;
+			if (!tgtDir.exists() || !tgtDir.isDirectory())
+				tgtDir = null;
+			if ((srcDir != null) != (element.getSrcFile() != null)
+					|| (tgtDir != null) != (element.getTgtFile() != null))
+				return compareAgain(element.getParent());
+			element.setSrcFile(srcDir);
+			element.setTgtFile(tgtDir);
+		}
+
+		// Keep the existing sub directories and compare the contents of the
+		// directory:
+		reusable.clear();
+		if (element.getChildren() != null) {
+			for (JFSElement child : element.getChildren()) {
+				if (child.isDirectory())
+					reusable.put(child.getName(), child);
+			}
+		}
+		element.removeChildren();
+		reuseParent = element;
+		compareDirectories(srcDir, tgtDir, element);
+		reuseParent = null;
+		reusable.clear();
+
+		return true;
+	}
+
+	/**
+	 * Compares a set of directories again instead of all directory pairs; for
+	 * instance, after their contents have changed. Each directory is
+	 * identified by its root element and its relative path. The table is
+	 * recomputed afterwards.
+	 * 
+	 * @param directories
+	 *            The relative paths of the directories to compare for each
+	 *            root element.
+	 * @return False, if a root directory does not exist any more and a
+	 *         complete comparison is needed.
+	 */
+	public final boolean compare(
+			Map<JFSRootElement, ? extends Collection<String>> directories) {
+		JFSProgress progress = JFSProgress.getInstance();
+		progress.prepare(ProgressActivity.COMPARISON);
+		JFSComparisonMonitor monitor = JFSComparisonMonitor.getInstance();
+		monitor.clean();
+		progress.start();
+		monitor.increase(directories.size(), 1);
+
+		boolean success = true;
+		for (Map.Entry<JFSRootElement, ? extends Collection<String>> e : directories
+				.entrySet()) {
+			JFSRootElement root = e.getKey();
+			monitor.increase(2, 1);
+			monitor.setRootUriSrc(root.getSrcProducer().getUri());
+			monitor.setRootUriTgt(root.getTgtProducer().getUri());
+
+			// Compare parent directories first, because they may remove
+			// directories from the table:
+			TreeMap<String, String> paths = new TreeMap<String, String>();
+			for (String path : e.getValue())
+				paths.put(path, path);
+			JFSTable table = JFSTable.getInstance();
+			for (String path : paths.keySet()) {
+				if (success && !progress.isCanceled())
+					success = compareAgain(table.getTableDirectory(root,
+							path));
 			}
 
 			monitor.decrease();
 			progress.fireUpdate();
 		}
 
-		// End the progress computation:
+		JFSTable.getInstance().recomputeTable();
+
 		progress.end();
 		monitor.decrease();
 		monitor.setRootUriSrc("");
 		monitor.setRootUriTgt("");
+
+		return success;
 	}
-}
\ No newline at end of file
+}
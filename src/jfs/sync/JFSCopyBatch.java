@@ -0,0 +1,71 @@
+/*
+ * JFileSync
+ * Copyright (C) 2002-2007, Jens Heidrich
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA, 02110-1301, USA
+ */
+
+
+package jfs.sync;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Copies several small files to target files of the same file producer at
+ * once; that is, the contents and attributes of all files are transfered as
+ * a single stream and the target reports the results for all files at the
+ * end. This avoids a round trip per file for targets with a high latency.
+ * The files of a batch are added one after another by starting a file,
+ * writing its contents, and ending it.
+ * 
+ * @see JFSFileProducer#createCopyBatch()
+ * @author Jens Heidrich
+ * @version $Id$
+ */
+public abstract class JFSCopyBatch {
+
+	/**
+	 * Starts the transfer of a file. The attributes of the target file were
+	 * prepared on the basis of the source file before.
+	 * 
+	 * @param tgtFile
+	 *            The target file.
+	 * @return The output stream for the contents of the file.
+	 * @throws IOException
+	 *             If the batch cannot be transfered.
+	 */
+	protected abstract OutputStream start(JFSFile tgtFile) throws IOException;
+
+	/**
+	 * Ends the transfer of the current file.
+	 * 
+	 * @param success
+	 *            True if and only if all contents were written.
+	 * @throws IOException
+	 *             If the batch cannot be transfered.
+	 */
+	protected abstract void end(boolean success) throws IOException;
+
+	/**
+	 * Finishes the batch and returns the results for all started files.
+	 * 
+	 * @return True for every file in the sequence of starting them, if it
+	 *         was copied successfully.
+	 * @throws IOException
+	 *             If the batch cannot be transfered.
+	 */
+	protected abstract boolean[] finish() throws IOException;
+}
@@ -0,0 +1,321 @@
+/*
+ * JFileSync
+ * Copyright (C) 2002-2007, Jens Heidrich
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA, 02110-1301, USA
+ */
+
+
+package jfs.sync;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jfs.conf.JFSConfig;
+import jfs.conf.JFSConst;
+
+/**
+ * Performs a list of copy statements. The statements of directories are
+ * performed first in the sequence of the list on the calling thread, so that
+ * each directory exists before its contents are copied; consecutive
+ * directories of the same target file producer are created in batches, if
+ * the producer supports metadata batches. Afterwards, the
+ * statements of files are performed concurrently. The number of files copied
+ * at the same time is limited for each URI scheme of the involved file
+ * producers; if a statement involves two schemes, it has to obey both limits.
+ * Files, which are moved instead of being copied, are handled sequentially
+ * afterwards and small files are copied in batches before the remaining
+ * files, if the target's file producer supports batches. If the progress is
+ * canceled, no further statements are started.
+ * 
+ * @see JFSConfig#getCopyThreads(String)
+ * @author Jens Heidrich
+ * @version $Id$
+ */
+class JFSCopyExecutor {
+	/** The number of performed statements. */
+	private final AtomicInteger performed = new AtomicInteger(0);
+
+	/** The permits of all URI schemes. */
+	private final Map<String, Semaphore> permits = new HashMap<String, Semaphore>();
+
+	/** The metadata batches of all target file producers. */
+	private final Map<JFSFileProducer, JFSMetadataBatch> batches = new HashMap<JFSFileProducer, JFSMetadataBatch>();
+
+	/**
+	 * Returns the URI schemes involved in a copy statement in a fixed order,
+	 * so that permits are always acquired in the same order.
+	 * 
+	 * @param cs
+	 *            The copy statement.
+	 * @return The URI schemes.
+	 */
+	private static final TreeSet<String> getSchemes(JFSCopyStatement cs) {
+		TreeSet<String> schemes = new TreeSet<String>();
+		schemes.add(cs.getSrc().getFileProducer().getScheme());
+		schemes.add(cs.getTgt().getFileProducer().getScheme());
+
+		return schemes;
+	}
+
+	/**
+	 * Returns the number of files, which may be copied concurrently by a copy
+	 * statement.
+	 * 
+	 * @param cs
+	 *            The copy statement.
+	 * @return The number of threads.
+	 */
+	private static final int getThreads(JFSCopyStatement cs) {
+		JFSConfig config = JFSConfig.getInstance();
+		int threads = Integer.MAX_VALUE;
+		for (String scheme : getSchemes(cs))
+			threads = Math.min(threads, config.getCopyThreads(scheme));
+
+		return threads;
+	}
+
+	/**
+	 * Performs a single copy statement and updates the progress.
+	 * 
+	 * @param cs
+	 *            The copy statement.
+	 */
+	private final void copy(JFSCopyStatement cs) {
+		JFSSynchronization.getInstance().copy(cs);
+		JFSCopyMonitor.getInstance().setFilesCopied(performed.incrementAndGet());
+		JFSProgress.getInstance().fireUpdate();
+	}
+
+	/**
+	 * Performs copy statements of small files in batches for all target file
+	 * producers supporting batches. Every batch is bounded by the number of
+	 * files and bytes.
+	 * 
+	 * @param files
+	 *            The copy statements of files. The statements performed in
+	 *            batches are removed.
+	 */
+	private final void copyBatches(Vector<JFSCopyStatement> files) {
+		// Group small files by target file producer:
+		Map<JFSFileProducer, Vector<JFSCopyStatement>> batches = new LinkedHashMap<JFSFileProducer, Vector<JFSCopyStatement>>();
+		Vector<JFSCopyStatement> others = new Vector<JFSCopyStatement>();
+		for (JFSCopyStatement cs : files) {
+			JFSFileProducer producer = cs.getTgt().getFileProducer();
+			if (cs.getSrc().getLength() <= JFSConst.BATCH_FILE_SIZE) {
+				if (!batches.containsKey(producer))
+					batches.put(producer,
+							producer.createCopyBatch() != null ? new Vector<JFSCopyStatement>()
+									: null);
+				Vector<JFSCopyStatement> batch = batches.get(producer);
+				if (batch != null) {
+					batch.add(cs);
+					continue;
+				}
+			}
+			others.add(cs);
+		}
+		files.clear();
+		files.addAll(others);
+
+		// Perform the batches of every file producer:
+		for (Map.Entry<JFSFileProducer, Vector<JFSCopyStatement>> e : batches
+				.entrySet()) {
+			if (e.getValue() == null)
+				continue;
+			Vector<JFSCopyStatement> batch = new Vector<JFSCopyStatement>();
+			long bytes = 0;
+			for (JFSCopyStatement cs : e.getValue()) {
+				if (batch.size() == JFSConst.BATCH_FILES
+						|| bytes + cs.getSrc().getLength() > JFSConst.BATCH_SIZE) {
+					copy(batch, e.getKey());
+					batch.clear();
+					bytes = 0;
+				}
+				batch.add(cs);
+				bytes += cs.getSrc().getLength();
+			}
+			copy(batch, e.getKey());
+		}
+	}
+
+	/**
+	 * Performs copy statements as a single batch and updates the progress.
+	 * 
+	 * @param batch
+	 *            The copy statements.
+	 * @param producer
+	 *            The file producer of all targets.
+	 */
+	private final void copy(Vector<JFSCopyStatement> batch,
+			JFSFileProducer producer) {
+		if (batch.isEmpty() || JFSProgress.getInstance().isCanceled())
+			return;
+		JFSSynchronization.getInstance().copy(batch,
+				producer.createCopyBatch());
+		JFSCopyMonitor.getInstance().setFilesCopied(
+				performed.addAndGet(batch.size()));
+		JFSProgress.getInstance().fireUpdate();
+	}
+
+	/**
+	 * Performs copy statements of directories as a single metadata batch and
+	 * updates the progress.
+	 * 
+	 * @param dirs
+	 *            The copy statements of directories.
+	 * @param batch
+	 *            The metadata batch of all targets.
+	 */
+	private final void copy(Vector<JFSCopyStatement> dirs,
+			JFSMetadataBatch batch) {
+		if (dirs.isEmpty() || JFSProgress.getInstance().isCanceled())
+			return;
+		JFSSynchronization.getInstance().copy(dirs, batch);
+		JFSCopyMonitor.getInstance().setFilesCopied(
+				performed.addAndGet(dirs.size()));
+		JFSProgress.getInstance().fireUpdate();
+	}
+
+	/**
+	 * Performs a copy statement as soon as the permits of all involved URI
+	 * schemes are available.
+	 * 
+	 * @param cs
+	 *            The copy statement.
+	 * @throws InterruptedException
+	 *             If the thread is interrupted while waiting for permits.
+	 */
+	private final void copyWithPermits(JFSCopyStatement cs)
+			throws InterruptedException {
+		Vector<Semaphore> acquired = new Vector<Semaphore>();
+		try {
+			for (String scheme : getSchemes(cs)) {
+				Semaphore s = permits.get(scheme);
+				s.acquire();
+				acquired.add(s);
+			}
+			if (!JFSProgress.getInstance().isCanceled())
+				copy(cs);
+		} finally {
+			for (Semaphore s : acquired)
+				s.release();
+		}
+	}
+
+	/**
+	 * Performs all copy statements.
+	 * 
+	 * @param copyStatements
+	 *            The copy statements to perform.
+	 */
+	final void perform(Vector<JFSCopyStatement> copyStatements) {
+		JFSProgress progress = JFSProgress.getInstance();
+		JFSConfig config = JFSConfig.getInstance();
+
+		// Copy all directories top down, separate the moves from the files
+		// to copy, and determine the number of threads:
+		Vector<JFSCopyStatement> files = new Vector<JFSCopyStatement>();
+		Vector<JFSCopyStatement> moves = new Vector<JFSCopyStatement>();
+		Vector<JFSCopyStatement> dirs = new Vector<JFSCopyStatement>();
+		JFSMetadataBatch batch = null;
+		int threads = 1;
+		for (JFSCopyStatement cs : copyStatements) {
+			if (progress.isCanceled())
+				return;
+			if (cs.getSrc().isDirectory()) {
+				// Create the pending directories, if the batch is full or the
+				// target file producer changes:
+				JFSMetadataBatch b = JFSSynchronization.getMetadataBatch(
+						batches, cs.getTgt().getFileProducer());
+				if (b != batch || dirs.size() == JFSConst.BATCH_OPERATIONS) {
+					copy(dirs, batch);
+					dirs.clear();
+					batch = b;
+				}
+
+				if (batch != null) {
+					dirs.add(cs);
+				} else {
+					copy(cs);
+				}
+			} else if (JFSSynchronization.isMove(cs)) {
+				moves.add(cs);
+			} else {
+				files.add(cs);
+				threads = Math.max(threads, getThreads(cs));
+				for (String scheme : getSchemes(cs)) {
+					if (!permits.containsKey(scheme))
+						permits.put(scheme, new Semaphore(config
+								.getCopyThreads(scheme)));
+				}
+			}
+		}
+		copy(dirs, batch);
+
+		// Move files sequentially:
+		for (JFSCopyStatement cs : moves) {
+			if (progress.isCanceled())
+				return;
+			copy(cs);
+		}
+
+		// Copy small files in batches, if supported:
+		copyBatches(files);
+
+		// Copy all files sequentially, if only one thread may be used:
+		if (threads == 1) {
+			for (JFSCopyStatement cs : files) {
+				if (progress.isCanceled())
+					return;
+				copy(cs);
+			}
+			return;
+		}
+
+		// Copy the files concurrently otherwise:
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		for (final JFSCopyStatement cs : files) {
+			pool.execute(new Runnable() {
+				public void run() {
+					if (JFSProgress.getInstance().isCanceled())
+						return;
+					try {
+						copyWithPermits(cs);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+		}
+		pool.shutdown();
+		try {
+			while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+				// Wait for all running statements.
+			}
+		} catch (InterruptedException e) {
+			pool.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -19,10 +19,19 @@
 
 package jfs.sync;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Monitors the detailed state of the currently performed copy operations.
+ * Monitors the detailed state of the currently performed copy operations. If
+ * several files are copied concurrently, the bytes transfered by all running
+ * file transfers are considered; the current file is the one started last.
+ * The counters are updated without locking, because they are updated after
+ * every transfered buffer and read by the observers of the progress.
  * 
  * @author Jens Heidrich
  * @version $Id: JFSCopyMonitor.java,v 1.2 2007/02/26 18:49:09 heidrich Exp $
@@ -36,25 +45,34 @@ public class JFSCopyMonitor {
 	private int filesToCopy = 0;
 
 	/** The number of files copied. */
-	private int filesCopied = 0;
+	private volatile int filesCopied = 0;
 
 	/** The number of bytes to transfer for all file. */
 	private long bytesToTransfer = 0;
 
 	/** The number of bytes transfered for all file. */
-	private long bytesTransfered = 0;
+	private final AtomicLong bytesTransfered = new AtomicLong(0);
 
 	/** The number of bytes to transfer for the current file. */
-	private long bytesToTransferCurrentFile = 0;
+	private volatile long bytesToTransferCurrentFile = 0;
 
 	/** The number of bytes transfered for the current file. */
-	private long bytesTransferedCurrentFile = 0;
+	private final AtomicLong bytesTransferedCurrentFile = new AtomicLong(0);
 
 	/** The currently copied source file. */
-	private JFSFile currentSrc = null;
+	private volatile JFSFile currentSrc = null;
 
 	/** The currently copied target file. */
-	private JFSFile currentTgt = null;
+	private volatile JFSFile currentTgt = null;
+
+	/** The thread copying the current file. */
+	private volatile Thread currentThread = null;
+
+	/** The bytes transfered of all running file transfers by thread. */
+	private final Map<Thread, AtomicLong> transfers = new ConcurrentHashMap<Thread, AtomicLong>();
+
+	/** The source and target files of all running file transfers by thread. */
+	private final Map<Thread, JFSFile[]> files = new ConcurrentHashMap<Thread, JFSFile[]>();
 
 	/**
 	 * Creates a new synchronization object.
@@ -81,18 +99,26 @@ public class JFSCopyMonitor {
 		filesToCopy = 0;
 		filesCopied = 0;
 		bytesToTransfer = 0;
-		bytesTransfered = 0;
+		bytesTransfered.set(0);
 		bytesToTransferCurrentFile = 0;
-		bytesTransferedCurrentFile = 0;
+		bytesTransferedCurrentFile.set(0);
 		currentSrc = null;
 		currentTgt = null;
+		currentThread = null;
+		transfers.clear();
+		files.clear();
 	}
 
 	/**
-	 * @return Returns the ratio of bytes already transfered in percent.
+	 * @return Returns the ratio of bytes already transfered in percent,
+	 *         including the bytes of all running file transfers.
 	 */
 	public final int getRatio() {
-		return getRatio((float) bytesTransfered, (float) bytesToTransfer);
+		long bytes = bytesTransfered.get();
+		for (AtomicLong b : transfers.values())
+			bytes += b.get();
+
+		return getRatio((float) bytes, (float) bytesToTransfer);
 	}
 
 	/**
@@ -100,7 +126,7 @@ public class JFSCopyMonitor {
 	 *         file transfer in percent.
 	 */
 	public final int getCurrentFileRatio() {
-		return getRatio((float) bytesTransferedCurrentFile,
+		return getRatio((float) bytesTransferedCurrentFile.get(),
 				(float) bytesToTransferCurrentFile);
 	}
 
@@ -154,37 +180,67 @@ public class JFSCopyMonitor {
 	}
 
 	/**
-	 * Sets the bytes to transfer of the current file transfer.
-	 * 
-	 * @param bytesToTransferCurrentFile
-	 *            The bytes to transfer to set.
+	 * @return Returns the bytes transfered.
 	 */
-	final void setBytesToTransferCurrentFile(long bytesToTransferCurrentFile) {
-		this.bytesToTransferCurrentFile = bytesToTransferCurrentFile;
+	public final long getBytesTransfered() {
+		return bytesTransfered.get();
 	}
 
 	/**
-	 * @return Returns the bytes transfered.
+	 * Starts a file transfer performed by the current thread. The file becomes
+	 * the current file.
+	 * 
+	 * @param src
+	 *            The source file.
+	 * @param tgt
+	 *            The target file.
+	 * @param bytesToTransfer
+	 *            The bytes to transfer.
 	 */
-	public final long getBytesTransfered() {
-		return bytesTransfered;
+	final synchronized void startTransfer(JFSFile src, JFSFile tgt,
+			long bytesToTransfer) {
+		Thread t = Thread.currentThread();
+		transfers.put(t, new AtomicLong(0));
+		files.put(t, new JFSFile[] { src, tgt });
+		currentThread = t;
+		currentSrc = src;
+		currentTgt = tgt;
+		bytesToTransferCurrentFile = bytesToTransfer;
+		bytesTransferedCurrentFile.set(0);
 	}
 
 	/**
-	 * Sets the bytes transfered.
+	 * Ends the file transfer performed by the current thread.
 	 * 
-	 * @param bytesTransfered
-	 *            The bytes transfered to set.
+	 * @param bytes
+	 *            The bytes to add to the bytes transfered.
 	 */
-	final void setBytesTransfered(long bytesTransfered) {
-		this.bytesTransfered = bytesTransfered;
+	final synchronized void endTransfer(long bytes) {
+		Thread t = Thread.currentThread();
+		transfers.remove(t);
+		files.remove(t);
+		bytesTransfered.addAndGet(bytes);
+	}
+
+	/**
+	 * @return Returns the source and target files of all running file
+	 *         transfers.
+	 */
+	public final Collection<JFSFile> getRunningFiles() {
+		Collection<JFSFile> running = new ArrayList<JFSFile>();
+		for (JFSFile[] f : files.values()) {
+			running.add(f[0]);
+			running.add(f[1]);
+		}
+
+		return running;
 	}
 
 	/**
 	 * @return Returns the bytes transfered of the current file transfer.
 	 */
 	public final long getBytesTransferedCurrentFile() {
-		return bytesTransferedCurrentFile;
+		return bytesTransferedCurrentFile.get();
 	}
 
 	/**
@@ -194,7 +250,12 @@ public class JFSCopyMonitor {
 	 *            The bytes transfered to set.
 	 */
 	final void setBytesTransferedCurrentFile(long bytesTransferedCurrentFile) {
-		this.bytesTransferedCurrentFile = bytesTransferedCurrentFile;
+		Thread t = Thread.currentThread();
+		AtomicLong bytes = transfers.get(t);
+		if (bytes != null)
+			bytes.lazySet(bytesTransferedCurrentFile);
+		if (currentThread == null || currentThread == t)
+			this.bytesTransferedCurrentFile.lazySet(bytesTransferedCurrentFile);
 	}
 
 	/**
@@ -204,16 +265,6 @@ public class JFSCopyMonitor {
 		return currentSrc;
 	}
 
-	/**
-	 * Sets the current source.
-	 * 
-	 * @param currentSrc
-	 *            The current source to set.
-	 */
-	final void setCurrentSrc(JFSFile currentSrc) {
-		this.currentSrc = currentSrc;
-	}
-
 	/**
 	 * @return Returns the current target.
 	 */
@@ -221,16 +272,6 @@ public class JFSCopyMonitor {
 		return currentTgt;
 	}
 
-	/**
-	 * Sets the current target.
-	 * 
-	 * @param currentTgt
-	 *            The current target to set.
-	 */
-	final void setCurrentTgt(JFSFile currentTgt) {
-		this.currentTgt = currentTgt;
-	}
-
 	/**
 	 * @return Returns the currently handeled file (which equals the source
 	 *         file, if the source directory is not null and the target file
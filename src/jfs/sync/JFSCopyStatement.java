@@ -54,6 +54,12 @@ public class JFSCopyStatement {
 	 */
 	private boolean success = false;
 
+	/**
+	 * The delete statement of a file with the same contents on the target
+	 * side, which is moved to the target instead of copying the source.
+	 */
+	private JFSDeleteStatement moveStatement = null;
+
 	/**
 	 * Default constructor.
 	 * 
@@ -135,6 +141,30 @@ public class JFSCopyStatement {
 		this.success = success;
 	}
 
+	/**
+	 * Returns the delete statement of a file with the same contents on the
+	 * target side, which is moved to the target instead of copying the
+	 * source. The move is only performed, if the delete flag of the statement
+	 * is set as well.
+	 * 
+	 * @return The delete statement or null, if the source has to be copied.
+	 */
+	public final JFSDeleteStatement getMoveStatement() {
+		return moveStatement;
+	}
+
+	/**
+	 * Sets the delete statement of a file with the same contents on the
+	 * target side, which is moved to the target instead of copying the
+	 * source.
+	 * 
+	 * @param moveStatement
+	 *            The delete statement.
+	 */
+	public final void setMoveStatement(JFSDeleteStatement moveStatement) {
+		this.moveStatement = moveStatement;
+	}
+
 	/**
 	 * Returns the associated element of the comparison table.
 	 * 
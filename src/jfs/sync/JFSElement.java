@@ -159,11 +159,30 @@ public class JFSElement implements Comparable<JFSElement> {
 				&& srcFile.getLength() != tgtFile.getLength())
 			state = ElementState.LENGTH_INCONSISTENT;
 
+		// Compare the contents, if the files differ in their time stamps
+		// only and the digests of both files are already known:
+		if (isContentsComparable()
+				&& JFSHashCache.getInstance().isEqual(srcFile, tgtFile))
+			state = ElementState.EQUAL;
+
 		// Set action to NOP if isEqual is true:
 		if (state == ElementState.EQUAL)
 			action = SyncAction.NOP;
 	}
 
+	/**
+	 * Determines whether the contents of the source and target file have to
+	 * be compared; that is, if the hash comparison is enabled and both files
+	 * differ in their time stamps only.
+	 * 
+	 * @return True if and only if the contents have to be compared.
+	 */
+	final boolean isContentsComparable() {
+		return (state == ElementState.SRC_GT_TGT || state == ElementState.TGT_GT_SRC)
+				&& srcFile.getLength() == tgtFile.getLength()
+				&& JFSConfig.getInstance().isHashComparison();
+	}
+
 	/**
 	 * @return Returns the root element to which the element belongs to.
 	 */
@@ -239,6 +258,13 @@ public class JFSElement implements Comparable<JFSElement> {
 		children.add(child);
 	}
 
+	/**
+	 * Removes all children from the element.
+	 */
+	final void removeChildren() {
+		children = null;
+	}
+
 	/**
 	 * @return Computes whether source and target files are directories.
 	 */
@@ -0,0 +1,227 @@
+/*
+ * JFileSync
+ * Copyright (C) 2002-2007, Jens Heidrich
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA, 02110-1301, USA
+ */
+
+
+package jfs.sync;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * An ordered list of JFS elements, which supports removing an element and
+ * accessing an element by its index in logarithmic time. Elements are
+ * identified by reference (not by the equals method, which compares relative
+ * paths only). A removed element leaves an empty slot. The number of
+ * elements per range of slots is kept in a binary indexed tree, so that the
+ * slot of an index is found without closing the empty slots. Empty slots are
+ * closed all at once, when they make up half of the slots or when all
+ * elements are requested.
+ * 
+ * @see JFSTable
+ * @author Jens Heidrich
+ * @version $Id$
+ */
+class JFSElementList {
+	/** The elements in the right sequence including empty slots. */
+	private final ArrayList<JFSElement> elements = new ArrayList<JFSElement>();
+
+	/** The slot of every contained element. */
+	private final IdentityHashMap<JFSElement, Integer> slots = new IdentityHashMap<JFSElement, Integer>();
+
+	/** The number of empty slots. */
+	private int removed = 0;
+
+	/**
+	 * The binary indexed tree counting the elements per range of slots. The
+	 * entry at position i (starting with 1) counts the elements in the
+	 * slots from i - (i & -i) to i - 1.
+	 */
+	private int[] counts = new int[16];
+
+	/**
+	 * Removes all elements.
+	 */
+	final void clear() {
+		elements.clear();
+		slots.clear();
+		removed = 0;
+	}
+
+	/**
+	 * Returns the number of elements in the first slots.
+	 * 
+	 * @param n
+	 *            The number of slots.
+	 * @return The number of elements.
+	 */
+	private final int count(int n) {
+		int sum = 0;
+		for (int i = n; i > 0; i -= i & -i)
+			sum += counts[i];
+
+		return sum;
+	}
+
+	/**
+	 * Returns the slot of the element at a certain index.
+	 * 
+	 * @param index
+	 *            The index of the element.
+	 * @return The slot.
+	 */
+	private final int find(int index) {
+		int n = elements.size();
+		int pos = 0;
+		int rest = index + 1;
+		for (int step = Integer.highestOneBit(n); step > 0; step >>= 1) {
+			if (pos + step <= n && counts[pos + step] < rest) {
+				pos += step;
+				rest -= counts[pos];
+			}
+		}
+
+		return pos;
+	}
+
+	/**
+	 * Adds an element at the end of the list.
+	 * 
+	 * @param element
+	 *            The element to add.
+	 */
+	final void add(JFSElement element) {
+		int i = elements.size() + 1;
+		if (i >= counts.length)
+			counts = Arrays.copyOf(counts, 2 * counts.length);
+		counts[i] = 1 + count(i - 1) - count(i - (i & -i));
+
+		slots.put(element, elements.size());
+		elements.add(element);
+	}
+
+	/**
+	 * Removes an element from the list.
+	 * 
+	 * @param element
+	 *            The element to remove.
+	 * @return True, if the element was contained.
+	 */
+	final boolean remove(JFSElement element) {
+		Integer slot = slots.remove(element);
+		if (slot == null)
+			return false;
+
+		elements.set(slot, null);
+		removed++;
+		for (int i = slot + 1; i < elements.size() + 1; i += i & -i)
+			counts[i]--;
+
+		// Empty slots at the end are closed immediately, the counts of
+		// following slots are computed again when they are used:
+		int last = elements.size() - 1;
+		while (last >= 0 && elements.get(last) == null) {
+			elements.remove(last);
+			removed--;
+			last--;
+		}
+		if (removed > elements.size() / 2)
+			compact();
+
+		return true;
+	}
+
+	/**
+	 * Determines whether an element is contained.
+	 * 
+	 * @param element
+	 *            The element to check.
+	 * @return True, if the element is contained.
+	 */
+	final boolean contains(JFSElement element) {
+		return slots.containsKey(element);
+	}
+
+	/**
+	 * Returns the element at a certain index.
+	 * 
+	 * @param index
+	 *            The index of the element.
+	 * @return The element.
+	 */
+	final JFSElement get(int index) {
+		if (removed == 0)
+			return elements.get(index);
+		if (index < 0 || index >= size())
+			throw new IndexOutOfBoundsException("Index: " + index);
+
+		return elements.get(find(index));
+	}
+
+	/**
+	 * Returns the last element.
+	 * 
+	 * @return The last element or null, if the list is empty.
+	 */
+	final JFSElement last() {
+		return elements.isEmpty() ? null : elements.get(elements.size() - 1);
+	}
+
+	/**
+	 * @return Returns the number of elements.
+	 */
+	final int size() {
+		return elements.size() - removed;
+	}
+
+	/**
+	 * Returns all elements in the right sequence. The returned list must not
+	 * be changed.
+	 * 
+	 * @return The elements.
+	 */
+	final List<JFSElement> elements() {
+		compact();
+		return elements;
+	}
+
+	/**
+	 * Closes all empty slots.
+	 */
+	private final void compact() {
+		if (removed == 0)
+			return;
+
+		int j = 0;
+		for (int i = 0; i < elements.size(); i++) {
+			JFSElement element = elements.get(i);
+			if (element != null) {
+				elements.set(j, element);
+				slots.put(element, j);
+				j++;
+			}
+		}
+		elements.subList(j, elements.size()).clear();
+		removed = 0;
+
+		for (int i = 1; i <= j; i++)
+			counts[i] = i & -i;
+	}
+}
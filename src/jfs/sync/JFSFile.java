@@ -20,12 +20,16 @@
 package jfs.sync;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.channels.FileChannel;
 
 import jfs.conf.JFSConfig;
+import jfs.conf.JFSConst;
 import jfs.conf.JFSLog;
 import jfs.conf.JFSText;
 
@@ -58,6 +62,21 @@ public abstract class JFSFile implements Comparable<JFSFile> {
 		this.relativePath = JFSFormatter.replaceSeparatorChar(relativePath);
 	}
 
+	/**
+	 * Determines whether a file name belongs to a partial file kept for an
+	 * interrupted copy or to its checkpoint. Such files are not listed for
+	 * comparison.
+	 * 
+	 * @param name
+	 *            The name of the file.
+	 * @return True if and only if the name belongs to a partial file.
+	 */
+	public static final boolean isPartialFile(String name) {
+		return name.startsWith(".")
+				&& (name.endsWith(JFSConst.PARTIAL_FILE_SUFFIX) || name
+						.endsWith(JFSConst.CHECKPOINT_FILE_SUFFIX));
+	}
+
 	/**
 	 * Returns the corresponding file object if possible, null otherwise.
 	 * 
@@ -264,6 +283,32 @@ public abstract class JFSFile implements Comparable<JFSFile> {
 	 */
 	protected abstract InputStream getInputStream();
 
+	/**
+	 * Returns the input stream starting at a certain offset if the file is not
+	 * a directory and null if it is a directory or no stream could be
+	 * created. By default, the bytes before the offset are skipped.
+	 * 
+	 * @param offset
+	 *            The number of bytes to skip.
+	 * @return The input stream.
+	 */
+	protected InputStream getInputStream(long offset) {
+		InputStream in = getInputStream();
+
+		try {
+			while (in != null && offset > 0) {
+				long n = in.skip(offset);
+				if (n <= 0)
+					return null;
+				offset -= n;
+			}
+		} catch (IOException e) {
+			return null;
+		}
+
+		return in;
+	}
+
 	/**
 	 * Returns the output stream if the file is not a directory and null if it
 	 * is a directory or nor stream could be created.
@@ -284,6 +329,22 @@ public abstract class JFSFile implements Comparable<JFSFile> {
 	 */
 	protected abstract void closeOutputStream();
 
+	/**
+	 * Prepares the target of a copy statement for resuming an interrupted
+	 * copy. If the target keeps the contents transfered so far, the number of
+	 * bytes already transfered for the current version of the source file is
+	 * returned and the output stream starts at this offset. Such a target is
+	 * not deleted if the copy fails. By default, copies are not resumable.
+	 * 
+	 * @param srcFile
+	 *            The file to copy from.
+	 * @return The offset to resume the copy at or -1, if the copy is not
+	 *         resumable.
+	 */
+	protected long getResumeOffset(JFSFile srcFile) {
+		return -1;
+	}
+
 	/**
 	 * Performs operation before the copy statement on target side, for
 	 * instance, preparing setting of file attributes like last modified and can
@@ -343,10 +404,12 @@ public abstract class JFSFile implements Comparable<JFSFile> {
 	 *            The input stream of the source file.
 	 * @param out
 	 *            The output stream of the target file.
+	 * @param offset
+	 *            The number of bytes transfered by a previous copy.
 	 * @return True if and only if the file is not a directory and was
 	 *         successfully copied; false otherwise.
 	 */
-	private final boolean copy(InputStream in, OutputStream out) {
+	private final boolean copy(InputStream in, OutputStream out, long offset) {
 		JFSText t = JFSText.getInstance();
 		JFSProgress progress = JFSProgress.getInstance();
 		JFSCopyMonitor monitor = JFSCopyMonitor.getInstance();
@@ -359,14 +422,25 @@ public abstract class JFSFile implements Comparable<JFSFile> {
 			if ((in == null) || (out == null))
 				return false;
 
+			// Let the operating system transfer the contents between files:
+			if (in instanceof FileInputStream
+					&& out instanceof FileOutputStream)
+				return copy(((FileInputStream) in).getChannel(),
+						((FileOutputStream) out).getChannel(), offset);
+
 			byte[] buf = new byte[JFSConfig.getInstance().getBufferSize()];
 			long length = getLength();
-			long transferedBytes = 0;
+			long transferedBytes = offset;
 			int len;
 			int maxLen = JFSConfig.getInstance().getBufferSize();
 
-			if (length < maxLen)
-				maxLen = (int) length;
+			// Read ahead, if the contents don't fit into a single buffer:
+			if (length - transferedBytes > maxLen)
+				return copyAhead(in, out, offset);
+
+			if (length - transferedBytes < maxLen)
+				maxLen = (int) (length - transferedBytes);
+			monitor.setBytesTransferedCurrentFile(transferedBytes);
 
 			while (transferedBytes < length
 					&& (len = in.read(buf, 0, maxLen)) > 0
@@ -396,6 +470,92 @@ public abstract class JFSFile implements Comparable<JFSFile> {
 		}
 	}
 
+	/**
+	 * Writes the content of the JFS file to a new target file, while the
+	 * contents are read ahead on a separate thread; that is, reading the
+	 * source and writing the target overlap.
+	 * 
+	 * @param in
+	 *            The input stream of the source file.
+	 * @param out
+	 *            The output stream of the target file.
+	 * @param offset
+	 *            The number of bytes already transfered.
+	 * @return True if and only if the file was successfully copied; false
+	 *         otherwise.
+	 * @throws IOException
+	 *             If the contents cannot be transfered.
+	 * @see JFSReadAhead
+	 */
+	private final boolean copyAhead(InputStream in, OutputStream out,
+			long offset) throws IOException {
+		JFSProgress progress = JFSProgress.getInstance();
+		JFSCopyMonitor monitor = JFSCopyMonitor.getInstance();
+
+		long length = getLength();
+		long transferedBytes = offset;
+		monitor.setBytesTransferedCurrentFile(transferedBytes);
+
+		JFSReadAhead ahead = new JFSReadAhead(in, length - transferedBytes,
+				JFSConfig.getInstance().getBufferSize(),
+				JFSConst.READ_AHEAD_BUFFERS);
+		try {
+			JFSReadAhead.Buffer b;
+			while (!progress.isCanceled() && (b = ahead.take()) != null) {
+				out.write(b.data, 0, b.length);
+				transferedBytes += b.length;
+				ahead.release(b);
+
+				monitor.setBytesTransferedCurrentFile(transferedBytes);
+				progress.fireUpdate();
+			}
+		} finally {
+			ahead.close();
+		}
+
+		return transferedBytes == length;
+	}
+
+	/**
+	 * Writes the content of the JFS file to a new target file using file
+	 * channels; that is, the contents are not copied to user space, but
+	 * transfered by the operating system directly (e.g., in kernel on Linux).
+	 * The contents are transfered in chunks in order to update the progress.
+	 * 
+	 * @param in
+	 *            The channel of the source file.
+	 * @param out
+	 *            The channel of the target file.
+	 * @param offset
+	 *            The number of bytes transfered by a previous copy.
+	 * @return True if and only if the file was successfully copied; false
+	 *         otherwise.
+	 * @throws IOException
+	 *             If the contents cannot be transfered.
+	 */
+	private final boolean copy(FileChannel in, FileChannel out, long offset)
+			throws IOException {
+		JFSProgress progress = JFSProgress.getInstance();
+		JFSCopyMonitor monitor = JFSCopyMonitor.getInstance();
+
+		long length = getLength();
+		long transferedBytes = offset;
+		monitor.setBytesTransferedCurrentFile(transferedBytes);
+
+		while (transferedBytes < length && !progress.isCanceled()) {
+			long len = in.transferTo(transferedBytes, Math.min(
+					JFSConst.CHANNEL_CHUNK_SIZE, length - transferedBytes), out);
+			if (len <= 0)
+				break;
+			transferedBytes += len;
+
+			monitor.setBytesTransferedCurrentFile(transferedBytes);
+			progress.fireUpdate();
+		}
+
+		return transferedBytes == length;
+	}
+
 	/**
 	 * Writes the content of the JFSFile to a new target file. If this JFSFile
 	 * is a directory the target directory is made.
@@ -415,12 +575,17 @@ public abstract class JFSFile implements Comparable<JFSFile> {
 
 		boolean success = tgtFile.preCopyTgt(this);
 		success = success && preCopySrc(tgtFile);
+		long offset = -1;
 
 		if (isDirectory()) {
 			success = success && tgtFile.mkdir();
-		} else {
-			success = success
-					&& copy(getInputStream(), tgtFile.getOutputStream());
+		} else if (success) {
+			// Resume an interrupted copy, if the target kept the contents
+			// transfered so far:
+			offset = tgtFile.getResumeOffset(this);
+			long start = Math.max(offset, 0);
+			success = copy(getInputStream(start), tgtFile.getOutputStream(),
+					start);
 			closeInputStream();
 			tgtFile.closeOutputStream();
 		}
@@ -428,6 +593,115 @@ public abstract class JFSFile implements Comparable<JFSFile> {
 		success = success && tgtFile.postCopyTgt(this);
 		success = success && postCopySrc(tgtFile);
 
+		if (!success || (JFSProgress.getInstance().isCanceled())) {
+			// Keep the contents of resumable targets for the next run:
+			if (offset < 0)
+				tgtFile.delete();
+			success = false;
+		}
+
+		return success;
+	}
+
+	/**
+	 * Renames the file to a target file of the same file producer, which does
+	 * not exist yet. By default, files cannot be renamed.
+	 * 
+	 * @param tgtFile
+	 *            The target file.
+	 * @return True if and only if the file was renamed.
+	 */
+	protected boolean renameTo(JFSFile tgtFile) {
+		return false;
+	}
+
+	/**
+	 * Moves the JFS file to a target file of the same file producer instead
+	 * of copying its contents. The attributes of the target file are set as
+	 * if the file was copied.
+	 * 
+	 * @param tgtFile
+	 *            The Target File.
+	 * @return True if and only if the file is successfully moved; false
+	 *         otherwise.
+	 */
+	public final boolean move(JFSFile tgtFile) {
+		if (isDirectory() || !tgtFile.canWrite()
+				|| tgtFile.getFileProducer() != getFileProducer()) {
+			return false;
+		}
+
+		return tgtFile.preCopyTgt(this) && renameTo(tgtFile)
+				&& tgtFile.postCopyTgt(this);
+	}
+
+	/**
+	 * Writes the content of the JFS file to a target file as part of a copy
+	 * batch. The copy is finished by {@link #postCopy(JFSFile, boolean)},
+	 * after the batch reported the result.
+	 * 
+	 * @param tgtFile
+	 *            The target file.
+	 * @param batch
+	 *            The copy batch of the target's file producer.
+	 * @return True if and only if the file was added to the batch; false if
+	 *         the file cannot be copied at all.
+	 * @throws IOException
+	 *             If the batch cannot be transfered.
+	 */
+	final boolean copy(JFSFile tgtFile, JFSCopyBatch batch) throws IOException {
+		if (isDirectory() || !canRead() || !tgtFile.canWrite()
+				|| !tgtFile.preCopyTgt(this) || !preCopySrc(tgtFile)) {
+			return false;
+		}
+
+		OutputStream out = batch.start(tgtFile);
+		boolean success = copy(getInputStream(), out, 0);
+		closeInputStream();
+		batch.end(success);
+
+		return true;
+	}
+
+	/**
+	 * Creates the target directory of a JFS directory as part of a metadata
+	 * batch. The copy is finished by {@link #postCopy(JFSFile, boolean)},
+	 * after the batch reported the result.
+	 * 
+	 * @param tgtFile
+	 *            The target directory.
+	 * @param batch
+	 *            The metadata batch of the target's file producer.
+	 * @return True if and only if the directory was added to the batch; false
+	 *         if the directory cannot be copied at all.
+	 */
+	final boolean copy(JFSFile tgtFile, JFSMetadataBatch batch) {
+		if (!isDirectory() || !canRead() || !tgtFile.canWrite()
+				|| !tgtFile.preCopyTgt(this) || !preCopySrc(tgtFile)) {
+			return false;
+		}
+
+		batch.mkdir(tgtFile);
+
+		return true;
+	}
+
+	/**
+	 * Finishes the copy of the JFS file to a target file as part of a batch.
+	 * 
+	 * @param tgtFile
+	 *            The target file.
+	 * @param success
+	 *            The result reported by the batch.
+	 * @return True if and only if the file is successfully copied; false
+	 *         otherwise.
+	 * @see #copy(JFSFile, JFSCopyBatch)
+	 * @see #copy(JFSFile, JFSMetadataBatch)
+	 */
+	final boolean postCopy(JFSFile tgtFile, boolean success) {
+		success = success && tgtFile.postCopyTgt(this);
+		success = success && postCopySrc(tgtFile);
+
 		if (!success || (JFSProgress.getInstance().isCanceled())) {
 			tgtFile.delete();
 			success = false;
@@ -61,6 +61,20 @@ public abstract class JFSFileProducer {
 	 */
 	public abstract JFSFile getRootJfsFile();
 
+	/**
+	 * Returns the JFS file representation for the root path of the URI
+	 * assigned to the factory, whose structure is compared with the structure
+	 * of a reference file afterwards. Producers may use the reference in order
+	 * to read only the differences. By default, the reference is ignored.
+	 * 
+	 * @param reference
+	 *            The root file of the other side.
+	 * @return A JFS file object.
+	 */
+	public JFSFile getRootJfsFile(JFSFile reference) {
+		return getRootJfsFile();
+	}
+
 	/**
 	 * Creates a JFS file object out of an corresponding string that represents
 	 * a path to a file or directory. The path has to be relative to the root
@@ -108,6 +122,65 @@ public abstract class JFSFileProducer {
 		return rootPath;
 	}
 
+	/**
+	 * Determines whether the produced directory listings may omit files,
+	 * which are not included in the comparison. The default implementation
+	 * ignores the request and always lists all files.
+	 * 
+	 * @param filtered
+	 *            True, if excluded files may be omitted.
+	 * @see #isFiltered()
+	 */
+	public void setFiltered(boolean filtered) {
+	}
+
+	/**
+	 * Determines whether the produced directory listings contain only files,
+	 * which are included in the comparison; that is, the include and exclude
+	 * filters were already applied while reading the directories.
+	 * 
+	 * @return True, if excluded files are omitted.
+	 */
+	public boolean isFiltered() {
+		return false;
+	}
+
+	/**
+	 * Determines whether the produced directory listings are sorted by the
+	 * names of the contained files, so that the comparison does not have to
+	 * sort them again. The default implementation returns false.
+	 * 
+	 * @return True, if the listings are sorted.
+	 */
+	public boolean isSorted() {
+		return false;
+	}
+
+	/**
+	 * Creates a new batch in order to copy several small files to produced
+	 * files at once. The default implementation returns null; that is, every
+	 * file is copied separately.
+	 * 
+	 * @return The copy batch or null, if batches are not supported.
+	 * @see JFSCopyBatch
+	 */
+	public JFSCopyBatch createCopyBatch() {
+		return null;
+	}
+
+	/**
+	 * Creates a new batch in order to create directories, delete files, and
+	 * flush attributes of several produced files at once. The default
+	 * implementation returns null; that is, every operation is performed
+	 * separately.
+	 * 
+	 * @return The metadata batch or null, if batches are not supported.
+	 * @see JFSMetadataBatch
+	 */
+	public JFSMetadataBatch createMetadataBatch() {
+		return null;
+	}
+
 	/**
 	 * Extracts the path form the given URI string, like
 	 * 'ext://host:port/directory'. If an abstract path name is given instead of
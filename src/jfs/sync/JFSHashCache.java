@@ -0,0 +1,394 @@
+/*
+ * JFileSync
+ * Copyright (C) 2002-2007, Jens Heidrich
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA, 02110-1301, USA
+ */
+
+package jfs.sync;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jfs.conf.JFSConfig;
+import jfs.conf.JFSConst;
+import jfs.conf.JFSLog;
+import jfs.conf.JFSText;
+
+/**
+ * Computes and caches digests of the contents of local files. A digest is
+ * stored together with the length and the time of last modification of the
+ * file; if one of them changes, the digest is computed again. The cache is
+ * stored to the JFS configuration directory, so unchanged files are never
+ * read again.
+ * 
+ * @author Jens Heidrich
+ * @version $Id$
+ */
+public class JFSHashCache {
+
+	/** Stores the only instance of the class. */
+	private static JFSHashCache instance = null;
+
+	/** The version of the cache file format. */
+	private static final int VERSION = 1;
+
+	/** The file the cache is stored in and loaded from. */
+	private final File file = new File(JFSConst.HOME_DIR + File.separatorChar
+			+ JFSConst.HASH_CACHE_FILE);
+
+	/** The cached digests for each path. */
+	private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	/** Determines whether the cache was loaded. */
+	private boolean isLoaded = false;
+
+	/** Determines whether the cache was modified since it was loaded. */
+	private volatile boolean isModified = false;
+
+	/** The paths of the local root directories compared since the last store. */
+	private final Vector<String> roots = new Vector<String>();
+
+	/**
+	 * The digest of a single file.
+	 */
+	private static final class Entry {
+		/** The length of the file. */
+		final long length;
+
+		/** The time of last modification of the file. */
+		final long lastModified;
+
+		/** The digest of the contents. */
+		final byte[] digest;
+
+		/** Determines whether the digest was looked up since the last store. */
+		volatile boolean used = false;
+
+		/**
+		 * Creates a new entry.
+		 * 
+		 * @param length
+		 *            The length of the file.
+		 * @param lastModified
+		 *            The time of last modification of the file.
+		 * @param digest
+		 *            The digest of the contents.
+		 */
+		Entry(long length, long lastModified, byte[] digest) {
+			this.length = length;
+			this.lastModified = lastModified;
+			this.digest = digest;
+		}
+	}
+
+	/**
+	 * Creates a new cache object.
+	 */
+	private JFSHashCache() {
+	}
+
+	/**
+	 * Returns the reference of the only instance.
+	 * 
+	 * @return The only instance.
+	 */
+	public final static JFSHashCache getInstance() {
+		if (instance == null)
+			instance = new JFSHashCache();
+
+		return instance;
+	}
+
+	/**
+	 * Determines whether the contents of a file can be hashed; that is,
+	 * whether it is an existing local file.
+	 * 
+	 * @param file
+	 *            The file to check.
+	 * @return True if and only if the file can be hashed.
+	 */
+	static final boolean isSupported(JFSFile file) {
+		return file != null && file.exists() && !file.isDirectory()
+				&& file.getFileProducer().getScheme().equals(
+						JFSConst.SCHEME_LOCAL);
+	}
+
+	/**
+	 * Returns the cached digest of a file, if the file was not modified since
+	 * the digest was computed.
+	 * 
+	 * @param file
+	 *            The file.
+	 * @return The digest or null, if the digest has to be computed.
+	 */
+	private final byte[] getCachedDigest(JFSFile file) {
+		Entry e = entries.get(file.getPath());
+		if (e != null)
+			e.used = true;
+		if (e != null && e.length == file.getLength()
+				&& e.lastModified == file.getLastModified())
+			return e.digest;
+
+		return null;
+	}
+
+	/**
+	 * Returns the cached digest of a local file, if the file was not modified
+	 * since the digest was computed. In contrast to
+	 * {@link #getDigest(JFSFile)}, the file is never read.
+	 * 
+	 * @param file
+	 *            The file.
+	 * @return The digest or null, if no valid digest is cached.
+	 */
+	public final byte[] lookupDigest(JFSFile file) {
+		if (!isSupported(file))
+			return null;
+
+		return getCachedDigest(file);
+	}
+
+	/**
+	 * Returns the digest of a file. If no valid digest is cached, the
+	 * contents of the file are read and the digest is cached.
+	 * 
+	 * @param file
+	 *            The file.
+	 * @return The digest or null, if the file cannot be read.
+	 */
+	final byte[] getDigest(JFSFile file) {
+		byte[] digest = getCachedDigest(file);
+		if (digest != null)
+			return digest;
+
+		return computeDigest(file);
+	}
+
+	/**
+	 * Computes the digest of a file by reading its contents, even if a valid
+	 * digest is cached. The computed digest is cached.
+	 * 
+	 * @param file
+	 *            The file.
+	 * @return The digest or null, if the file cannot be read.
+	 */
+	final byte[] computeDigest(JFSFile file) {
+		byte[] digest;
+
+		try {
+			MessageDigest md = MessageDigest
+					.getInstance(JFSConst.HASH_ALGORITHM);
+			byte[] buf = new byte[JFSConfig.getInstance().getBufferSize()];
+			InputStream in = new FileInputStream(file.getFile());
+			try {
+				int len;
+				while ((len = in.read(buf)) > 0) {
+					if (JFSProgress.getInstance().isCanceled())
+						return null;
+					md.update(buf, 0, len);
+				}
+			} finally {
+				in.close();
+			}
+			digest = md.digest();
+		} catch (IOException e) {
+			return null;
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		}
+
+		Entry e = new Entry(file.getLength(), file.getLastModified(), digest);
+		e.used = true;
+		entries.put(file.getPath(), e);
+		isModified = true;
+
+		return digest;
+	}
+
+	/**
+	 * Determines whether the contents of two files are equal according to
+	 * their cached digests. No file is read.
+	 * 
+	 * @param srcFile
+	 *            The source file.
+	 * @param tgtFile
+	 *            The target file.
+	 * @return True if and only if digests of both files are cached and equal.
+	 */
+	final boolean isEqual(JFSFile srcFile, JFSFile tgtFile) {
+		if (!isSupported(srcFile) || !isSupported(tgtFile))
+			return false;
+
+		byte[] srcDigest = getCachedDigest(srcFile);
+		byte[] tgtDigest = getCachedDigest(tgtFile);
+
+		return srcDigest != null && tgtDigest != null
+				&& Arrays.equals(srcDigest, tgtDigest);
+	}
+
+	/**
+	 * Loads the cache, if it was not loaded before. If the file is missing or
+	 * inconsistent, the cache is empty.
+	 */
+	final void load() {
+		if (isLoaded)
+			return;
+		isLoaded = true;
+
+		if (!file.exists())
+			return;
+
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+			try {
+				if (in.readInt() != VERSION
+						|| !in.readUTF().equals(JFSConst.HASH_ALGORITHM))
+					return;
+
+				int size = in.readInt();
+				for (int i = 0; i < size; i++) {
+					String path = in.readUTF();
+					long length = in.readLong();
+					long lastModified = in.readLong();
+					byte[] digest = new byte[in.readInt()];
+					in.readFully(digest);
+					entries.put(path, new Entry(length, lastModified, digest));
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			entries.clear();
+		}
+	}
+
+	/**
+	 * Adds a root directory of a comparison. The digests of files below the
+	 * root directory, which are not looked up during the comparison, are
+	 * removed when the cache is stored.
+	 * 
+	 * @param root
+	 *            The root directory.
+	 */
+	final void addRoot(JFSFile root) {
+		if (root.getFileProducer().getScheme().equals(JFSConst.SCHEME_LOCAL))
+			roots.add(root.getPath() + File.separatorChar);
+	}
+
+	/**
+	 * Determines whether a path is located below one of the compared root
+	 * directories.
+	 * 
+	 * @param path
+	 *            The path to check.
+	 * @return True if and only if the path is located below a root.
+	 */
+	private final boolean isCompared(String path) {
+		for (String root : roots) {
+			if (path.startsWith(root))
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Stores the cache, if it was modified. Digests of files below the
+	 * compared root directories, which were not looked up during a complete
+	 * comparison, are removed; that is, digests of files, which do not exist
+	 * any more or are not compared by their contents any more. Other files are
+	 * not accessed.
+	 */
+	final void store() {
+		if (!JFSProgress.getInstance().isCanceled()) {
+			for (Map.Entry<String, Entry> me : entries.entrySet()) {
+				if (!me.getValue().used && isCompared(me.getKey())) {
+					entries.remove(me.getKey());
+					isModified = true;
+				}
+				me.getValue().used = false;
+			}
+		}
+		roots.clear();
+
+		if (!isModified)
+			return;
+		isModified = false;
+
+		File dir = new File(JFSConst.HOME_DIR);
+		File tmp = new File(file.getPath() + ".tmp");
+
+		try {
+			if (!dir.exists() && !dir.mkdir())
+				throw new IOException(dir.getPath());
+
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				out.writeInt(VERSION);
+				out.writeUTF(JFSConst.HASH_ALGORITHM);
+				out.writeInt(entries.size());
+				for (Map.Entry<String, Entry> me : entries.entrySet()) {
+					Entry e = me.getValue();
+					out.writeUTF(me.getKey());
+					out.writeLong(e.length);
+					out.writeLong(e.lastModified);
+					out.writeInt(e.digest.length);
+					out.write(e.digest);
+				}
+			} finally {
+				out.close();
+			}
+
+			if (file.exists() && !file.delete())
+				throw new IOException(file.getPath());
+			if (!tmp.renameTo(file))
+				throw new IOException(file.getPath());
+		} catch (IOException e) {
+			tmp.delete();
+			JFSLog.getErr().getStream().println(
+					JFSText.getInstance().get("error.io") + " '"
+							+ e.getMessage() + "'.");
+		}
+	}
+
+	/**
+	 * Deletes the cache file and all cached digests; that is, all digests are
+	 * computed again.
+	 */
+	public final void delete() {
+		entries.clear();
+		isModified = false;
+		if (file.exists() && !file.delete())
+			JFSLog.getErr().getStream().println(
+					JFSText.getInstance().get("error.io") + " '"
+							+ file.getPath() + "'.");
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * JFileSync
+ * Copyright (C) 2002-2007, Jens Heidrich
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA, 02110-1301, USA
+ */
+
+package jfs.sync;
+
+import java.util.Map;
+import java.util.concurrent.RecursiveAction;
+
+import jfs.conf.JFSConst;
+
+/**
+ * Reads the contents of a directory ahead of the comparison algorithm. After
+ * the listing of the directory is read, a new task is forked for every
+ * contained directory, so that sibling directories are read concurrently. The
+ * comparison algorithm waits for the task of a directory before it accesses
+ * the list of contained files; that is, the comparison table is still filled
+ * by a single thread in the same sequence.
+ *
+ * @see JFSComparison
+ * @author Jens Heidrich
+ * @version $Id$
+ */
+class JFSListingTask extends RecursiveAction {
+	/** The UID. */
+	private static final long serialVersionUID = 42L;
+
+	/** The directory to read. */
+	private final JFSFile dir;
+
+	/** All tasks not yet awaited by the comparison algorithm. */
+	private final Map<JFSFile, JFSListingTask> tasks;
+
+	/**
+	 * Creates a new task for a directory and registers it.
+	 *
+	 * @param dir
+	 *            The directory to read.
+	 * @param tasks
+	 *            All tasks not yet awaited by the comparison algorithm.
+	 */
+	JFSListingTask(JFSFile dir, Map<JFSFile, JFSListingTask> tasks) {
+		this.dir = dir;
+		this.tasks = tasks;
+		tasks.put(dir, this);
+	}
+
+	/**
+	 * Determines whether the contents of a directory may be read by a
+	 * separate thread. This is only the case for local and external files;
+	 * external directories are listed by the server one by one using
+	 * separate connections. The connections of virtual file systems must not
+	 * be shared between threads.
+	 *
+	 * @param dir
+	 *            The directory to check.
+	 * @return True if and only if the directory may be read ahead.
+	 */
+	static boolean isSupported(JFSFile dir) {
+		if (dir == null || !dir.isDirectory())
+			return false;
+
+		String scheme = dir.getFileProducer().getScheme();
+
+		return scheme.equals(JFSConst.SCHEME_LOCAL)
+				|| scheme.equals(JFSConst.SCHEME_EXTERNAL);
+	}
+
+	/**
+	 * @see java.util.concurrent.RecursiveAction#compute()
+	 */
+	protected void compute() {
+		if (JFSProgress.getInstance().isCanceled())
+			return;
+
+		// The listing is cached by the file object:
+		for (JFSFile f : dir.getList()) {
+			if (f.isDirectory() && JFSComparison.isIncluded(f)) {
+				new JFSListingTask(f, tasks).fork();
+			}
+		}
+	}
+}
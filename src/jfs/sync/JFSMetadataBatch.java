@@ -0,0 +1,85 @@
+/*
+ * JFileSync
+ * Copyright (C) 2002-2007, Jens Heidrich
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA, 02110-1301, USA
+ */
+
+
+package jfs.sync;
+
+import java.io.IOException;
+
+/**
+ * Performs several operations without contents on files of the same file
+ * producer at once; that is, directories are created, files deleted, and
+ * changed attributes flushed in a single request and the target reports the
+ * results for all operations at the end. This avoids a round trip per
+ * operation for targets with a high latency. The operations are performed in
+ * the sequence they were added.
+ * 
+ * @see JFSFileProducer#createMetadataBatch()
+ * @see JFSCopyBatch
+ * @author Jens Heidrich
+ * @version $Id$
+ */
+public abstract class JFSMetadataBatch {
+
+	/**
+	 * Adds the creation of a directory to the batch.
+	 * 
+	 * @param file
+	 *            The directory to create.
+	 * @see JFSFile#mkdir()
+	 */
+	public abstract void mkdir(JFSFile file);
+
+	/**
+	 * Adds the deletion of a file to the batch.
+	 * 
+	 * @param file
+	 *            The file to delete.
+	 * @see JFSFile#delete()
+	 */
+	public abstract void delete(JFSFile file);
+
+	/**
+	 * Adds flushing the changed attributes of a file to the batch.
+	 * 
+	 * @param file
+	 *            The file to flush.
+	 * @see JFSFile#flush()
+	 */
+	public abstract void flush(JFSFile file);
+
+	/**
+	 * Returns the number of operations added since the batch was finished
+	 * the last time.
+	 * 
+	 * @return The number of operations.
+	 */
+	public abstract int size();
+
+	/**
+	 * Performs all added operations and returns their results. The batch is
+	 * empty afterwards and may be used again.
+	 * 
+	 * @return True for every operation in the sequence of adding them, if it
+	 *         was performed successfully.
+	 * @throws IOException
+	 *             If the batch cannot be transfered.
+	 */
+	public abstract boolean[] finish() throws IOException;
+}
@@ -0,0 +1,351 @@
+/*
+ * JFileSync
+ * Copyright (C) 2002-2007, Jens Heidrich
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA, 02110-1301, USA
+ */
+
+package jfs.sync;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import jfs.conf.JFSConst;
+import jfs.sync.JFSProgress.ProgressActivity;
+
+/**
+ * Performs the synchronization while the comparison is still running. The
+ * comparison algorithm reports every element added to the table; the
+ * corresponding copy and delete statements are handed over to a worker
+ * thread, which performs them in the sequence they were reported. The table
+ * is filled in the same sequence as without pipeline.
+ * <p>
+ * Copy statements are performed top down (a directory is created before its
+ * contents are copied); delete statements of directories are deferred until
+ * the directory is compared completely (its contents are deleted first). If
+ * the names of a directory differ in case only (which matters for DOS and
+ * Windows operating systems; see
+ * {@link JFSSynchronization#synchronize()}), all statements of the directory
+ * and its sub directories are collected and performed when the directory is
+ * compared completely: first all delete statements, then all copy statements.
+ * 
+ * @author Jens Heidrich
+ * @version $Id$
+ */
+public class JFSPipeline {
+
+	/** Stores the only instance of the class. */
+	private static JFSPipeline instance = null;
+
+	/** Marks the end of the queue. */
+	private static final Object END = new Object();
+
+	/** The statements waiting for execution. */
+	private BlockingQueue<Object> queue = null;
+
+	/** The worker thread performing the statements. */
+	private Thread worker = null;
+
+	/** The deferred delete statements of directories. */
+	private final Map<JFSElement, Vector<JFSDeleteStatement>> deferred = new HashMap<JFSElement, Vector<JFSDeleteStatement>>();
+
+	/**
+	 * The directories, which names differ in case only. The statements of
+	 * these directories are collected until the outermost directory is
+	 * compared completely.
+	 */
+	private final Vector<JFSElement> conflicts = new Vector<JFSElement>();
+
+	/** The collected copy statements. */
+	private final Vector<JFSCopyStatement> copyBuffer = new Vector<JFSCopyStatement>();
+
+	/** The collected delete statements. */
+	private final Vector<JFSDeleteStatement> deleteBuffer = new Vector<JFSDeleteStatement>();
+
+	/** Determines whether all remaining questions are skipped. */
+	private boolean skipAll = false;
+
+	/** The number of performed statements. */
+	private volatile int performed = 0;
+
+	/**
+	 * Creates a new pipeline object.
+	 */
+	private JFSPipeline() {
+	}
+
+	/**
+	 * Returns the reference of the only instance.
+	 * 
+	 * @return The only instance.
+	 */
+	public final static JFSPipeline getInstance() {
+		if (instance == null)
+			instance = new JFSPipeline();
+
+		return instance;
+	}
+
+	/**
+	 * @return True if and only if the pipeline is started and not yet ended.
+	 */
+	public final boolean isRunning() {
+		return worker != null;
+	}
+
+	/**
+	 * Starts the worker thread. Has to be called before the comparison is
+	 * started. {@link #end()} has to be called afterwards, even if the
+	 * comparison fails.
+	 */
+	public final void start() {
+		deferred.clear();
+		conflicts.clear();
+		copyBuffer.clear();
+		deleteBuffer.clear();
+		skipAll = false;
+		performed = 0;
+		JFSCopyMonitor.getInstance().clean();
+		JFSDeleteMonitor.getInstance().clean();
+
+		queue = new ArrayBlockingQueue<Object>(JFSConst.PIPELINE_CAPACITY);
+		worker = new Thread("JFSPipeline") {
+			public void run() {
+				perform();
+			}
+		};
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Waits until all statements are performed after the comparison has
+	 * finished and finishes the synchronization afterwards.
+	 */
+	public final void end() {
+		JFSProgress progress = JFSProgress.getInstance();
+		JFSTable table = JFSTable.getInstance();
+
+		// Show the progress of the remaining statements. Preparing the
+		// progress resets the cancel flag, so it has to be checked first:
+		boolean canceled = progress.isCanceled();
+		if (!canceled) {
+			JFSCopyMonitor cm = JFSCopyMonitor.getInstance();
+			progress.prepare(ProgressActivity.SYNCHRONIZATION_COPY);
+			cm.setFilesToCopy(table.getCopyStatements().size()
+					+ table.getDeleteStatements().size());
+			long bytes = JFSCopyMonitor.getBytesToTransfer(table
+					.getCopyStatements());
+			cm.setBytesToTransfer(bytes + cm.getBytesTransfered());
+			progress.start();
+		}
+
+		put(END);
+		try {
+			worker.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		worker = null;
+		queue = null;
+
+		if (!canceled)
+			progress.end();
+
+		JFSSynchronization.getInstance().finish();
+	}
+
+	/**
+	 * Hands a statement over to the worker thread. Blocks if the queue is
+	 * full.
+	 * 
+	 * @param statement
+	 *            The statement to perform.
+	 */
+	private final void put(Object statement) {
+		try {
+			queue.put(statement);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Performs all statements of the queue until the end is reached. If the
+	 * progress is canceled, the remaining statements are skipped.
+	 */
+	private final void perform() {
+		JFSSynchronization sync = JFSSynchronization.getInstance();
+		JFSProgress progress = JFSProgress.getInstance();
+		JFSCopyMonitor cm = JFSCopyMonitor.getInstance();
+
+		try {
+			Object statement = queue.take();
+			while (statement != END) {
+				if (!progress.isCanceled()) {
+					if (statement instanceof JFSCopyStatement) {
+						sync.copy((JFSCopyStatement) statement);
+					} else {
+						sync.delete((JFSDeleteStatement) statement);
+					}
+					performed++;
+					cm.setFilesCopied(performed);
+					progress.fireUpdate();
+				}
+				statement = queue.take();
+			}
+		} catch (InterruptedException e) {
+			// Leave the worker thread.
+		}
+	}
+
+	/**
+	 * Hands a copy statement over to the worker thread or collects it, if
+	 * the names of a current directory differ in case only.
+	 * 
+	 * @param cs
+	 *            The copy statement.
+	 */
+	private final void schedule(JFSCopyStatement cs) {
+		if (conflicts.isEmpty()) {
+			put(cs);
+		} else {
+			copyBuffer.add(cs);
+		}
+	}
+
+	/**
+	 * Hands a delete statement over to the worker thread or collects it, if
+	 * the names of a current directory differ in case only.
+	 * 
+	 * @param ds
+	 *            The delete statement.
+	 */
+	private final void schedule(JFSDeleteStatement ds) {
+		if (conflicts.isEmpty()) {
+			put(ds);
+		} else {
+			deleteBuffer.add(ds);
+		}
+	}
+
+	/**
+	 * Computes the statements for an element just added to the table and
+	 * schedules them.
+	 * 
+	 * @param element
+	 *            The added element.
+	 */
+	final void elementAdded(JFSElement element) {
+		Vector<JFSCopyStatement> copyStatements = new Vector<JFSCopyStatement>(
+				1);
+		Vector<JFSDeleteStatement> deleteStatements = new Vector<JFSDeleteStatement>(
+				2);
+		skipAll = JFSSynchronization.getInstance().computeStatements(element,
+				copyStatements, deleteStatements, skipAll);
+
+		JFSTable table = JFSTable.getInstance();
+		table.getCopyStatements().addAll(copyStatements);
+		table.getDeleteStatements().addAll(deleteStatements);
+
+		for (JFSCopyStatement cs : copyStatements) {
+			schedule(cs);
+		}
+		if (element.isDirectory() && !deleteStatements.isEmpty()) {
+			deferred.put(element, deleteStatements);
+		} else {
+			for (JFSDeleteStatement ds : deleteStatements) {
+				schedule(ds);
+			}
+		}
+	}
+
+	/**
+	 * Checks the contents of a directory before it is compared. If names
+	 * differ in case only, the statements of the directory are collected.
+	 * 
+	 * @param element
+	 *            The directory element.
+	 * @param srcFiles
+	 *            The source files and directories of the directory.
+	 * @param tgtFiles
+	 *            The target files and directories of the directory.
+	 */
+	final void directoryEntered(JFSElement element, JFSFile[] srcFiles,
+			JFSFile[] tgtFiles) {
+		Map<String, JFSFile> names = new HashMap<String, JFSFile>();
+		Set<String> srcNames = new HashSet<String>();
+		boolean conflict = false;
+
+		for (int i = 0; i < srcFiles.length && !conflict; i++) {
+			String name = srcFiles[i].getName().toLowerCase();
+			conflict = names.put(name, srcFiles[i]) != null;
+			srcNames.add(name);
+		}
+
+		for (int i = 0; i < tgtFiles.length && !conflict; i++) {
+			String name = tgtFiles[i].getName().toLowerCase();
+			JFSFile src = names.get(name);
+			if (src == null) {
+				names.put(name, tgtFiles[i]);
+			} else if (!srcNames.remove(name)
+					|| !src.getName().equals(tgtFiles[i].getName())
+					|| src.isDirectory() != tgtFiles[i].isDirectory()) {
+				// The name exists twice on target side, differs in case, or
+				// denotes a file and a directory:
+				conflict = true;
+			}
+		}
+
+		if (conflict)
+			conflicts.add(element);
+	}
+
+	/**
+	 * Schedules the deferred statements of a directory after it was compared
+	 * completely. If the statements of the directory were collected, all
+	 * collected statements are scheduled.
+	 * 
+	 * @param element
+	 *            The directory element.
+	 */
+	final void directoryCompared(JFSElement element) {
+		Vector<JFSDeleteStatement> deleteStatements = deferred.remove(element);
+		if (deleteStatements != null) {
+			for (JFSDeleteStatement ds : deleteStatements) {
+				schedule(ds);
+			}
+		}
+
+		if (!conflicts.isEmpty() && conflicts.lastElement() == element) {
+			conflicts.remove(conflicts.size() - 1);
+			if (conflicts.isEmpty()) {
+				for (JFSDeleteStatement d : deleteBuffer) {
+					put(d);
+				}
+				for (JFSCopyStatement c : copyBuffer) {
+					put(c);
+				}
+				deleteBuffer.clear();
+				copyBuffer.clear();
+			}
+		}
+	}
+}
@@ -20,15 +20,27 @@
 package jfs.sync;
 
 import java.util.Vector;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import jfs.JFileSync;
 import jfs.conf.JFSConst;
+import jfs.conf.JFSLog;
 import jfs.conf.JFSSettings;
 import jfs.conf.JFSText;
 
 /**
  * Visits selected steps of the file comparison and synchronization algorithm in
- * order to compute the state of the progression.
+ * order to compute the state of the progression. While an activity is active,
+ * the algorithm only marks the state as updated; the observers are notified
+ * by a separate thread at a fixed rate, so that the algorithm never waits for
+ * the observers. Preparing, starting, and ending an activity is notified at
+ * once. Observers are notified one after another, but never while holding the
+ * monitor of the progress object. An observer interacting with the user may
+ * pause the algorithm at its next update.
  * 
  * @author Jens Heidrich
  * @version $Id: JFSProgress.java,v 1.24 2007/07/20 12:27:52 heidrich Exp $
@@ -61,10 +73,10 @@ public class JFSProgress {
 	private static JFSProgress instance = null;
 
 	/** The current activity */
-	private ProgressActivity activity = ProgressActivity.INITIALIZATION;
+	private volatile ProgressActivity activity = ProgressActivity.INITIALIZATION;
 
 	/** The current state */
-	private ProgressState state = ProgressState.ACTIVE;
+	private volatile ProgressState state = ProgressState.ACTIVE;
 
 	/** Duration to compute the table. */
 	private long duration = 0;
@@ -73,13 +85,38 @@ public class JFSProgress {
 	private long startTime = 0;
 
 	/** Determines whether the algorithm is canceled or not. */
-	private boolean isCanceled = false;
+	private volatile boolean isCanceled = false;
+
+	/** Determines whether the algorithm is paused or not. */
+	private volatile boolean isPaused = false;
+
+	/** Guards pausing and resuming the algorithm. */
+	private final Object pause = new Object();
+
+	/** Serializes the notifications of the observers. */
+	private final Object notifying = new Object();
 
 	/** Vector with all oberservers of the alogorithm's progress. */
 	private Vector<JFSProgressObserver> observers = new Vector<JFSProgressObserver>();
 
-	/** The time when the observers were updated last. */
-	private long updateTime = 0;
+	/**
+	 * Determines whether the state was updated since the observers were
+	 * notified.
+	 */
+	private volatile boolean isUpdated = false;
+
+	/** Notifies the observers while an activity is active. */
+	private static final ScheduledExecutorService notifier = Executors
+			.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "JFSProgress");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	/** The periodic notification of the observers. */
+	private ScheduledFuture<?> notification = null;
 
 	/**
 	 * Creates a new progress object.
@@ -106,11 +143,14 @@ public class JFSProgress {
 	 *            The type of activity to start.
 	 */
 	final void prepare(ProgressActivity activity) {
-		this.activity = activity;
-		this.state = ProgressState.PREPARATION;
-		isCanceled = false;
-		updateTime = 0;
-		duration = 0;
+		synchronized (this) {
+			stopNotification();
+			this.activity = activity;
+			this.state = ProgressState.PREPARATION;
+			isCanceled = false;
+			isUpdated = false;
+			duration = 0;
+		}
 		update();
 	}
 
@@ -118,17 +158,33 @@ public class JFSProgress {
 	 * Starts a progress computation.
 	 */
 	final void start() {
-		state = ProgressState.ACTIVE;
-		startTime = System.currentTimeMillis();
+		synchronized (this) {
+			state = ProgressState.ACTIVE;
+			startTime = System.currentTimeMillis();
+		}
 		update();
+
+		synchronized (this) {
+			if (notification == null) {
+				notification = notifier.scheduleAtFixedRate(new Runnable() {
+					public void run() {
+						notifyUpdate();
+					}
+				}, JFSConst.PROGRESS_UPDATE, JFSConst.PROGRESS_UPDATE,
+						TimeUnit.MILLISECONDS);
+			}
+		}
 	}
 
 	/**
 	 * Ends a progress computation.
 	 */
 	final void end() {
-		state = ProgressState.DONE;
-		duration = System.currentTimeMillis() - startTime;
+		synchronized (this) {
+			stopNotification();
+			state = ProgressState.DONE;
+			duration = System.currentTimeMillis() - startTime;
+		}
 		update();
 		if (JFSSettings.getInstance().isDebug()) {
 			System.out.println("..." + duration + "ms");
@@ -206,13 +262,10 @@ public class JFSProgress {
 			pm.cancelProducer(cm.getRootUriSrc());
 			pm.cancelProducer(cm.getRootUriTgt());
 		} else if (activity == ProgressActivity.SYNCHRONIZATION_COPY) {
+			// Files may be copied concurrently:
 			JFSCopyMonitor cm = JFSCopyMonitor.getInstance();
-			if (cm.getCurrentSrc() != null) {
-				JFSFileProducer producer = cm.getCurrentSrc().getFileProducer();
-				pm.cancelProducer(producer.getUri());
-			}
-			if (cm.getCurrentTgt() != null) {
-				JFSFileProducer producer = cm.getCurrentTgt().getFileProducer();
+			for (JFSFile f : cm.getRunningFiles()) {
+				JFSFileProducer producer = f.getFileProducer();
 				pm.cancelProducer(producer.getUri());
 			}
 		} else if (activity == ProgressActivity.SYNCHRONIZATION_DELETE) {
@@ -235,6 +288,27 @@ public class JFSProgress {
 		return isCanceled;
 	}
 
+	/**
+	 * Pauses the algorithm. The algorithm waits at its next update until it is
+	 * resumed; for instance, while an observer asks the user whether to cancel
+	 * the algorithm.
+	 */
+	public final void pause() {
+		synchronized (pause) {
+			isPaused = true;
+		}
+	}
+
+	/**
+	 * Resumes the paused algorithm.
+	 */
+	public final void resume() {
+		synchronized (pause) {
+			isPaused = false;
+			pause.notifyAll();
+		}
+	}
+
 	/**
 	 * Attaches an additional observer.
 	 * 
@@ -256,30 +330,76 @@ public class JFSProgress {
 	}
 
 	/**
-	 * Sends a message to all existing observers that the algorithm's state was
-	 * updated, if and only if a minimum time period between two subsequent
-	 * updates is gone.
+	 * Marks the algorithm's state as updated. The existing observers are
+	 * notified by a separate thread, when the next time period between two
+	 * subsequent notifications is gone. The method only blocks while the
+	 * algorithm is paused.
 	 */
 	final void fireUpdate() {
-		if ((System.currentTimeMillis() - updateTime) >= JFSConst.PROGRESS_UPDATE) {
-			updateTime = System.currentTimeMillis();
-			update();
+		// Avoid writing the flag after every buffer:
+		if (!isUpdated)
+			isUpdated = true;
+
+		if (isPaused) {
+			synchronized (pause) {
+				try {
+					while (isPaused)
+						pause.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Notifies all existing observers, if the state of the active activity
+	 * was updated since the last notification.
+	 */
+	private final void notifyUpdate() {
+		synchronized (notifying) {
+			if (state != ProgressState.ACTIVE || !isUpdated)
+				return;
+			isUpdated = false;
+
+			// Keep notifying the observers, even if one of them fails:
+			try {
+				update();
+			} catch (RuntimeException e) {
+				JFSLog.getErr().getStream().println(e);
+			}
+		}
+	}
+
+	/**
+	 * Stops the periodic notification of the observers.
+	 */
+	private final void stopNotification() {
+		if (notification != null) {
+			notification.cancel(false);
+			notification = null;
 		}
 	}
 
 	/**
 	 * Updates the current state of the algorithm for all existing observers.
+	 * The observers are called outside the monitor of the progress object, so
+	 * that an observer waiting for the user never blocks the algorithm's state
+	 * changes.
 	 */
 	private final void update() {
-		// Wait if debugging is enabled and output progress information:
-		if (JFSSettings.getInstance().isDebug()) {
-			JFileSync.busyWait(1000);
-			System.out.println(getActivity() + ", " + getState() + ", "
-					+ getCompletionRatio() + "%");
-		}
+		synchronized (notifying) {
+			// Wait if debugging is enabled and output progress information:
+			if (JFSSettings.getInstance().isDebug()) {
+				JFileSync.busyWait(1000);
+				System.out.println(getActivity() + ", " + getState() + ", "
+						+ getCompletionRatio() + "%");
+			}
 
-		for (JFSProgressObserver po : observers) {
-			po.update(this);
+			for (JFSProgressObserver po : observers
+					.toArray(new JFSProgressObserver[0])) {
+				po.update(this);
+			}
 		}
 	}
 
@@ -0,0 +1,211 @@
+/*
+ * JFileSync
+ * Copyright (C) 2002-2007, Jens Heidrich
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA, 02110-1301, USA
+ */
+
+
+package jfs.sync;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the contents of an input stream ahead on a separate thread. The
+ * contents are read into a fixed number of buffers, which are handed over to
+ * the calling thread and given back after their contents were written. So
+ * the source is read while the target is written, and a copy between two
+ * different devices takes about as long as the slower of both needs. The
+ * calling thread keeps writing the target, updating the progress, and
+ * checking for cancellation.
+ * 
+ * @author Jens Heidrich
+ * @version $Id$
+ */
+class JFSReadAhead {
+	/** The threads reading ahead. */
+	private static final ExecutorService readers = Executors
+			.newCachedThreadPool(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "JFSReadAhead");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	/** The time in milliseconds to wait for a free buffer at once. */
+	private static final long POLL_TIMEOUT = 100;
+
+	/** Marks the end of the contents. */
+	private static final Buffer END = new Buffer(0);
+
+	/**
+	 * A buffer and the number of bytes read into it.
+	 */
+	static final class Buffer {
+		/** The contents. */
+		final byte[] data;
+
+		/** The number of bytes read. */
+		int length = 0;
+
+		/**
+		 * Creates a new buffer.
+		 * 
+		 * @param size
+		 *            The size of the buffer.
+		 */
+		Buffer(int size) {
+			data = new byte[size];
+		}
+	}
+
+	/** The buffers, which may be filled. */
+	private final BlockingQueue<Buffer> free = new LinkedBlockingQueue<Buffer>();
+
+	/** The filled buffers in the sequence of reading. */
+	private final BlockingQueue<Buffer> filled = new LinkedBlockingQueue<Buffer>();
+
+	/** Determines whether reading has to be stopped. */
+	private volatile boolean stopped = false;
+
+	/** The exception thrown while reading. */
+	private volatile IOException exception = null;
+
+	/** The task reading the contents. */
+	private final Future<?> reader;
+
+	/**
+	 * Starts reading the contents of an input stream ahead.
+	 * 
+	 * @param in
+	 *            The input stream.
+	 * @param length
+	 *            The number of bytes to read at most.
+	 * @param bufferSize
+	 *            The size of each buffer.
+	 * @param buffers
+	 *            The number of buffers.
+	 */
+	JFSReadAhead(final InputStream in, final long length, int bufferSize,
+			int buffers) {
+		for (int i = 0; i < buffers; i++)
+			free.add(new Buffer(bufferSize));
+
+		reader = readers.submit(new Runnable() {
+			public void run() {
+				try {
+					read(in, length);
+				} catch (IOException e) {
+					exception = e;
+				} catch (RuntimeException e) {
+					exception = new IOException(e);
+				} catch (InterruptedException e) {
+					exception = new InterruptedIOException();
+				} finally {
+					filled.add(END);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Reads the contents into free buffers until the end of the stream or
+	 * the given length is reached, or reading is stopped.
+	 * 
+	 * @param in
+	 *            The input stream.
+	 * @param length
+	 *            The number of bytes to read at most.
+	 * @throws IOException
+	 *             If the stream cannot be read.
+	 * @throws InterruptedException
+	 *             If the thread is interrupted while waiting.
+	 */
+	private final void read(InputStream in, long length) throws IOException,
+			InterruptedException {
+		long remaining = length;
+
+		while (remaining > 0 && !stopped) {
+			Buffer b = free.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+			if (b == null)
+				continue;
+			b.length = in.read(b.data, 0, (int) Math.min(b.data.length,
+					remaining));
+			if (b.length <= 0)
+				return;
+			remaining -= b.length;
+			filled.add(b);
+		}
+	}
+
+	/**
+	 * Returns the next filled buffer and waits until it is available.
+	 * 
+	 * @return The buffer or null, if all contents were read.
+	 * @throws IOException
+	 *             If the stream cannot be read.
+	 */
+	final Buffer take() throws IOException {
+		try {
+			Buffer b = filled.take();
+			if (b != END)
+				return b;
+			filled.add(END);
+			if (exception != null)
+				throw exception;
+
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+
+	/**
+	 * Gives back a buffer after its contents were written.
+	 * 
+	 * @param b
+	 *            The buffer.
+	 */
+	final void release(Buffer b) {
+		free.add(b);
+	}
+
+	/**
+	 * Stops reading and waits until the reading thread does not access the
+	 * input stream any longer.
+	 */
+	final void close() {
+		stopped = true;
+		try {
+			reader.get();
+		} catch (ExecutionException e) {
+			// The exception is reported by the task itself.
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -58,10 +58,13 @@ public class JFSRootElement extends JFSElement {
 		JFSFileProducerManager pm = JFSFileProducerManager.getInstance();
 		srcProducer = pm.createProducer(pair.getSrc());
 		tgtProducer = pm.createProducer(pair.getTgt());
+		srcProducer.setFiltered(true);
+		tgtProducer.setFiltered(true);
 
-		// Extract root source and target:
+		// Extract root source and target. The target may be read relative to
+		// the source:
 		srcFile = srcProducer.getRootJfsFile();
-		tgtFile = tgtProducer.getRootJfsFile();
+		tgtFile = tgtProducer.getRootJfsFile(srcFile);
 
 		// Assert root characteristics:
 		assert srcFile != null && tgtFile != null;
@@ -128,6 +131,15 @@ public class JFSRootElement extends JFSElement {
 		pm.shutDownProducer(tgtProducer.getUri());
 	}
 
+	/**
+	 * Creates the root source and target files again, in order to read their
+	 * current contents.
+	 */
+	final void refresh() {
+		srcFile = srcProducer.getRootJfsFile();
+		tgtFile = tgtProducer.getRootJfsFile(srcFile);
+	}
+
 	/**
 	 * @see JFSElement#setSrcFile(JFSFile)
 	 */
@@ -19,11 +19,21 @@
 
 package jfs.sync;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
 
 import jfs.conf.JFSConfig;
+import jfs.conf.JFSConst;
 import jfs.conf.JFSHistoryManager;
+import jfs.conf.JFSLog;
 import jfs.conf.JFSSyncModes;
+import jfs.conf.JFSText;
 import jfs.conf.JFSSyncMode.SyncAction;
 import jfs.sync.JFSProgress.ProgressActivity;
 import jfs.sync.JFSQuestion.QuestionAnswer;
@@ -34,7 +44,9 @@ import jfs.sync.JFSQuestion.QuestionAnswer;
  * taken: (1) perform a comparison for each directory pair, (2) compute the
  * actions applied to the comparison table according to the chosen
  * synchronization mode, (3) compute the lists of copy and delete statements
- * from the actions, and finally (4) perform a synchronization.
+ * from the actions, and finally (4) perform a synchronization. Renamed and
+ * moved files are detected when the statements are computed, so that they
+ * are moved instead of being copied and deleted.
  * 
  * @author Jens Heidrich
  * @version $Id: JFSSynchronization.java,v 1.33 2007/06/05 16:09:41 heidrich Exp $
@@ -94,64 +106,466 @@ public class JFSSynchronization {
 		boolean skipAll = false;
 
 		// Go through table and compute actions:
-		JFSFileProducer srcProducer = null;
-		JFSFileProducer tgtProducer = null;
 		for (int i = 0; i < table.getTableSize(); i++) {
-			JFSElement element = table.getTableElement(i);
+			skipAll = computeStatements(table.getTableElement(i),
+					copyStatements, deleteStatements, skipAll);
+		}
+
+		// The list of delete statements has to be inverted, because the
+		// directories must be empty before they can be deleted:
+		invert(deleteStatements);
 
-			// Get producers for the current element:
-			srcProducer = element.getRoot().getSrcProducer();
-			tgtProducer = element.getRoot().getTgtProducer();
+		if (JFSConfig.getInstance().isMoveDetection())
+			detectMoves(copyStatements, deleteStatements);
+	}
 
-			// Check whether element and corresponding action is active:
-			if (!element.isActive())
+	/**
+	 * Detects renamed and moved files; that is, files which have to be copied
+	 * to a path not existing on the target side, while a file with the same
+	 * length and time of last modification has to be deleted on the target
+	 * side. Such a copy statement is assigned the delete statement, so that
+	 * the existing file is moved instead of transfering its contents again.
+	 * The digests of both files have to be equal as well; that is, only local
+	 * files are moved. If several files match, a file with the same name is
+	 * preferred.
+	 * 
+	 * @param copyStatements
+	 *            The computed copy statements.
+	 * @param deleteStatements
+	 *            The computed delete statements.
+	 */
+	private final void detectMoves(Vector<JFSCopyStatement> copyStatements,
+			Vector<JFSDeleteStatement> deleteStatements) {
+		// Group all deleted files by their length:
+		Map<Long, Vector<JFSDeleteStatement>> deleted = new HashMap<Long, Vector<JFSDeleteStatement>>();
+		for (JFSDeleteStatement ds : deleteStatements) {
+			JFSFile file = ds.getFile();
+			if (file.isDirectory() || file.getLength() == 0)
+				continue;
+			Vector<JFSDeleteStatement> v = deleted.get(file.getLength());
+			if (v == null) {
+				v = new Vector<JFSDeleteStatement>();
+				deleted.put(file.getLength(), v);
+			}
+			v.add(ds);
+		}
+		if (deleted.isEmpty())
+			return;
+
+		JFSHashCache cache = JFSHashCache.getInstance();
+		for (JFSCopyStatement cs : copyStatements) {
+			if (JFSProgress.getInstance().isCanceled())
+				return;
+
+			// The file must not exist on the target side yet:
+			JFSFile src = cs.getSrc();
+			JFSElement element = cs.getElement();
+			JFSFile existing = cs.isCopyFromSource() ? element.getTgtFile()
+					: element.getSrcFile();
+			Vector<JFSDeleteStatement> v = deleted.get(src.getLength());
+			if (src.isDirectory() || existing != null || v == null)
 				continue;
 
-			JFSFile srcFile = element.getSrcFile();
-			JFSFile tgtFile = element.getTgtFile();
-
-			// Ask the user first:
-			if (!skipAll
-					&& (element.getAction() == SyncAction.ASK_LENGTH_INCONSISTENT
-							|| element.getAction() == SyncAction.ASK_FILES_GT_HISTORY || element
-							.getAction() == SyncAction.ASK_FILES_NOT_IN_HISTORY)) {
-				QuestionAnswer a = question.answer(element);
-				if (a == QuestionAnswer.SKIP_ALL)
-					skipAll = true;
+			// The digest of the source is computed once for all candidates:
+			JFSDeleteStatement match = null;
+			byte[] digest = null;
+			for (JFSDeleteStatement ds : v) {
+				JFSFile file = ds.getFile();
+				if (!isMovable(src, file, cs.getTgt())
+						|| (match != null && !file.getName().equals(
+								src.getName())))
+					continue;
+				if (digest == null)
+					digest = cache.computeDigest(src);
+				if (digest == null)
+					break;
+				if (Arrays.equals(digest, cache.computeDigest(file)))
+					match = ds;
+			}
+			if (match != null) {
+				cs.setMoveStatement(match);
+				v.remove(match);
 			}
+		}
+	}
+
+	/**
+	 * Determines whether a deleted file is a candidate to be moved to the
+	 * target file instead of copying the source file. Equal lengths and time
+	 * stamps don't prove equal contents, so the digests of both files have to
+	 * be computed from their current contents afterwards; that is, both files
+	 * have to be local.
+	 * 
+	 * @param src
+	 *            The source file of the copy statement.
+	 * @param deleted
+	 *            The deleted file.
+	 * @param tgt
+	 *            The target file of the copy statement.
+	 * @return True if and only if the deleted file is a candidate.
+	 */
+	private static final boolean isMovable(JFSFile src, JFSFile deleted,
+			JFSFile tgt) {
+		if (deleted.getFileProducer() != tgt.getFileProducer()
+				|| JFSElement.compareToTime(src.getLastModified(), deleted
+						.getLastModified()) != 0)
+			return false;
+
+		return JFSHashCache.isSupported(src)
+				&& JFSHashCache.isSupported(deleted);
+	}
+
+	/**
+	 * Computes the copy and delete statements for a single JFS element
+	 * according to its action. If the action of the element is not determined
+	 * yet, the user is asked first.
+	 * 
+	 * @param element
+	 *            The element to compute the statements for.
+	 * @param copyStatements
+	 *            The list to add the computed copy statements to.
+	 * @param deleteStatements
+	 *            The list to add the computed delete statements to.
+	 * @param skipAll
+	 *            Determines whether all remaining questions are skipped.
+	 * @return True if and only if all remaining questions are skipped.
+	 */
+	final boolean computeStatements(JFSElement element,
+			Vector<JFSCopyStatement> copyStatements,
+			Vector<JFSDeleteStatement> deleteStatements, boolean skipAll) {
+		// Get producers for the current element:
+		JFSFileProducer srcProducer = element.getRoot().getSrcProducer();
+		JFSFileProducer tgtProducer = element.getRoot().getTgtProducer();
+
+		// Check whether element and corresponding action is active:
+		if (!element.isActive())
+			return skipAll;
+
+		JFSFile srcFile = element.getSrcFile();
+		JFSFile tgtFile = element.getTgtFile();
+
+		// Ask the user first:
+		if (!skipAll
+				&& (element.getAction() == SyncAction.ASK_LENGTH_INCONSISTENT
+						|| element.getAction() == SyncAction.ASK_FILES_GT_HISTORY || element
+						.getAction() == SyncAction.ASK_FILES_NOT_IN_HISTORY)) {
+			QuestionAnswer a = question.answer(element);
+			if (a == QuestionAnswer.SKIP_ALL)
+				skipAll = true;
+		}
+
+		// Case 1: Copy the file on source side to the target side:
+		if (element.getAction() == SyncAction.COPY_SRC) {
+			JFSFile newFile = tgtProducer.getJfsFile(srcFile
+					.getRelativePath());
+			copyStatements.add(new JFSCopyStatement(element, srcFile,
+					newFile));
+		}
+
+		// Case 2: Copy the file on target side to the source side:
+		if (element.getAction() == SyncAction.COPY_TGT) {
+			JFSFile newFile = srcProducer.getJfsFile(tgtFile
+					.getRelativePath());
+			copyStatements.add(new JFSCopyStatement(element, tgtFile,
+					newFile));
+		}
+
+		// Case 3: Delete the file on target side:
+		if (element.getAction() == SyncAction.DELETE_TGT
+				|| element.getAction() == SyncAction.DELETE_SRC_AND_TGT) {
+			deleteStatements.add(new JFSDeleteStatement(element, tgtFile));
+		}
+
+		// Case 4: Delete the file on source side:
+		if (element.getAction() == SyncAction.DELETE_SRC
+				|| element.getAction() == SyncAction.DELETE_SRC_AND_TGT) {
+			deleteStatements.add(new JFSDeleteStatement(element, srcFile));
+		}
 
-			// Case 1: Copy the file on source side to the target side:
-			if (element.getAction() == SyncAction.COPY_SRC) {
-				JFSFile newFile = tgtProducer.getJfsFile(srcFile
-						.getRelativePath());
-				copyStatements.add(new JFSCopyStatement(element, srcFile,
-						newFile));
+		return skipAll;
+	}
+
+	/**
+	 * Performs a single delete statement if the delete flag is set and the
+	 * statement was not performed successfully before. If the file was
+	 * deleted, the element is removed from the table.
+	 * 
+	 * @param ds
+	 *            The delete statement to perform.
+	 */
+	final void delete(JFSDeleteStatement ds) {
+		JFSDeleteMonitor dm = JFSDeleteMonitor.getInstance();
+		dm.setCurrentFile(ds.getFile());
+
+		// Delete only if the delete flag is set and the success flag is
+		// false:
+		if (ds.getDeleteFlag() && !ds.getSuccess())
+			setSuccess(ds, ds.getFile().delete());
+	}
+
+	/**
+	 * Performs several delete statements as a single batch. All files have
+	 * to belong to the file producer of the batch. The statements are
+	 * finished as soon as the producer reported the results of the whole
+	 * batch.
+	 * 
+	 * @param statements
+	 *            The delete statements to perform.
+	 * @param batch
+	 *            The metadata batch to use.
+	 * @see #delete(JFSDeleteStatement)
+	 */
+	final void delete(Vector<JFSDeleteStatement> statements,
+			JFSMetadataBatch batch) {
+		JFSDeleteMonitor dm = JFSDeleteMonitor.getInstance();
+		Vector<JFSDeleteStatement> started = new Vector<JFSDeleteStatement>();
+		boolean[] results = new boolean[0];
+
+		for (JFSDeleteStatement ds : statements) {
+			if (ds.getDeleteFlag() && !ds.getSuccess()) {
+				dm.setCurrentFile(ds.getFile());
+				batch.delete(ds.getFile());
+				started.add(ds);
 			}
+		}
+
+		try {
+			results = batch.finish();
+		} catch (IOException e) {
+			JFSLog.getErr().getStream().println(
+					JFSText.getInstance().get("error.external") + " " + e);
+		}
+
+		for (int i = 0; i < started.size(); i++)
+			setSuccess(started.get(i), i < results.length && results[i]);
+	}
+
+	/**
+	 * Sets the result of a performed delete statement. If the file was
+	 * deleted, the element is removed from the table.
+	 * 
+	 * @param ds
+	 *            The performed delete statement.
+	 * @param success
+	 *            True if and only if the file was deleted.
+	 */
+	private final void setSuccess(JFSDeleteStatement ds, boolean success) {
+		ds.setSuccess(success);
+
+		// Remove from table if action was successfully performed:
+		if (success) {
+			JFSElement element = ds.getElement();
+			element.setAction(SyncAction.NOP);
+			JFSTable.getInstance().removeElement(element);
+		}
+	}
 
-			// Case 2: Copy the file on target side to the source side:
-			if (element.getAction() == SyncAction.COPY_TGT) {
-				JFSFile newFile = srcProducer.getJfsFile(tgtFile
-						.getRelativePath());
-				copyStatements.add(new JFSCopyStatement(element, tgtFile,
-						newFile));
+	/**
+	 * Performs a single copy statement if the copy flag is set and the
+	 * statement was not performed successfully before. If the file was
+	 * copied, the element is revalidated and updated in the table. Several
+	 * statements may be performed concurrently, if they belong to different
+	 * elements.
+	 * 
+	 * @param cs
+	 *            The copy statement to perform.
+	 */
+	final void copy(JFSCopyStatement cs) {
+		copy(cs, true);
+	}
+
+	/**
+	 * Performs a single copy statement if the copy flag is set and the
+	 * statement was not performed successfully before.
+	 * 
+	 * @param cs
+	 *            The copy statement to perform.
+	 * @param count
+	 *            Determines whether the bytes of the file are added to the
+	 *            bytes transfered; false, if they were added before.
+	 */
+	private final void copy(JFSCopyStatement cs, boolean count) {
+		JFSCopyMonitor cm = JFSCopyMonitor.getInstance();
+
+		// Copy only if the copy flag is set and the success flag is false:
+		if (cs.getCopyFlag() && !cs.getSuccess()) {
+			long length = cs.getSrc().getLength();
+			cm.startTransfer(cs.getSrc(), cs.getTgt(), length);
+			try {
+				setSuccess(cs, move(cs) || cs.getSrc().copy(cs.getTgt()));
+			} finally {
+				cm.endTransfer(count ? length : 0);
 			}
+		}
+	}
 
-			// Case 3: Delete the file on target side:
-			if (element.getAction() == SyncAction.DELETE_TGT
-					|| element.getAction() == SyncAction.DELETE_SRC_AND_TGT) {
-				deleteStatements.add(new JFSDeleteStatement(element, tgtFile));
+	/**
+	 * Moves the file of the delete statement assigned to a copy statement to
+	 * the target, if both statements have to be performed. If the file was
+	 * moved, the element of the deleted file is removed from the table.
+	 * 
+	 * @param cs
+	 *            The copy statement to perform.
+	 * @return True if and only if the file was moved.
+	 * @see JFSCopyStatement#getMoveStatement()
+	 */
+	private final boolean move(JFSCopyStatement cs) {
+		JFSDeleteStatement ds = cs.getMoveStatement();
+		if (!isMove(cs) || ds.getSuccess() || !ds.getFile().move(cs.getTgt()))
+			return false;
+
+		ds.setSuccess(true);
+		JFSElement element = ds.getElement();
+		element.setAction(SyncAction.NOP);
+		JFSTable.getInstance().removeElement(element);
+
+		return true;
+	}
+
+	/**
+	 * Determines whether a copy statement is performed by moving the file of
+	 * its assigned delete statement.
+	 * 
+	 * @param cs
+	 *            The copy statement.
+	 * @return True if and only if the copy and the delete statement have to
+	 *         be performed.
+	 */
+	static final boolean isMove(JFSCopyStatement cs) {
+		JFSDeleteStatement ds = cs.getMoveStatement();
+		return ds != null && cs.getCopyFlag() && ds.getDeleteFlag();
+	}
+
+	/**
+	 * Performs several copy statements as a single batch. All targets have to
+	 * belong to the file producer of the batch. The statements are finished
+	 * as soon as the target reported the results of the whole batch. If the
+	 * batch cannot be transfered, the statements are performed one by one.
+	 * 
+	 * @param statements
+	 *            The copy statements to perform.
+	 * @param batch
+	 *            The copy batch to use.
+	 * @see #copy(JFSCopyStatement)
+	 */
+	final void copy(Vector<JFSCopyStatement> statements, JFSCopyBatch batch) {
+		JFSCopyMonitor cm = JFSCopyMonitor.getInstance();
+		Vector<JFSCopyStatement> started = new Vector<JFSCopyStatement>();
+		boolean[] results = new boolean[0];
+		int reported = 0;
+
+		try {
+			for (JFSCopyStatement cs : statements) {
+				if (JFSProgress.getInstance().isCanceled())
+					break;
+				if (cs.getCopyFlag() && !cs.getSuccess()) {
+					long length = cs.getSrc().getLength();
+					long counted = 0;
+					cm.startTransfer(cs.getSrc(), cs.getTgt(), length);
+					try {
+						if (cs.getSrc().copy(cs.getTgt(), batch))
+							started.add(cs);
+						counted = length;
+					} finally {
+						cm.endTransfer(counted);
+					}
+				}
+				reported++;
+			}
+			results = batch.finish();
+		} catch (IOException e) {
+			JFSLog.getErr().getStream().println(
+					JFSText.getInstance().get("error.external") + " " + e);
+
+			// Copy the files one by one instead; the bytes of the files
+			// already added to the batch were counted before:
+			for (int i = 0; i < statements.size(); i++) {
+				if (JFSProgress.getInstance().isCanceled())
+					break;
+				copy(statements.get(i), i >= reported);
 			}
 
-			// Case 4: Delete the file on source side:
-			if (element.getAction() == SyncAction.DELETE_SRC
-					|| element.getAction() == SyncAction.DELETE_SRC_AND_TGT) {
-				deleteStatements.add(new JFSDeleteStatement(element, srcFile));
+			return;
+		}
+
+		for (int i = 0; i < started.size(); i++) {
+			JFSCopyStatement cs = started.get(i);
+			boolean success = i < results.length && results[i];
+			setSuccess(cs, cs.getSrc().postCopy(cs.getTgt(), success));
+		}
+	}
+
+	/**
+	 * Performs the copy statements of several directories as a single batch;
+	 * that is, the target directories are created at once. All targets have
+	 * to belong to the file producer of the batch and parent directories have
+	 * to precede their contents.
+	 * 
+	 * @param statements
+	 *            The copy statements of directories to perform.
+	 * @param batch
+	 *            The metadata batch to use.
+	 * @see #copy(JFSCopyStatement)
+	 */
+	final void copy(Vector<JFSCopyStatement> statements,
+			JFSMetadataBatch batch) {
+		JFSCopyMonitor cm = JFSCopyMonitor.getInstance();
+		Vector<JFSCopyStatement> started = new Vector<JFSCopyStatement>();
+		boolean[] results = new boolean[0];
+
+		for (JFSCopyStatement cs : statements) {
+			if (cs.getCopyFlag() && !cs.getSuccess()) {
+				long length = cs.getSrc().getLength();
+				cm.startTransfer(cs.getSrc(), cs.getTgt(), length);
+				try {
+					if (cs.getSrc().copy(cs.getTgt(), batch))
+						started.add(cs);
+				} finally {
+					cm.endTransfer(length);
+				}
 			}
 		}
 
-		// The list of delete statements has to be inverted, because the
-		// directories must be empty before they can be deleted:
-		invert(deleteStatements);
+		try {
+			results = batch.finish();
+		} catch (IOException e) {
+			JFSLog.getErr().getStream().println(
+					JFSText.getInstance().get("error.external") + " " + e);
+		}
+
+		for (int i = 0; i < started.size(); i++) {
+			JFSCopyStatement cs = started.get(i);
+			boolean success = i < results.length && results[i];
+			setSuccess(cs, cs.getSrc().postCopy(cs.getTgt(), success));
+		}
+	}
+
+	/**
+	 * Sets the result of a performed copy statement. If the file was copied,
+	 * the element is revalidated and updated in the table.
+	 * 
+	 * @param cs
+	 *            The performed copy statement.
+	 * @param success
+	 *            True if and only if the file was copied.
+	 */
+	private final void setSuccess(JFSCopyStatement cs, boolean success) {
+		cs.setSuccess(success);
+
+		// Update table element if action was successfully performed:
+		if (success) {
+			JFSElement element = cs.getElement();
+			if (cs.isCopyFromSource()) {
+				element.setTgtFile(cs.getTgt());
+			} else {
+				element.setSrcFile(cs.getTgt());
+			}
+
+			// Revalidate element, compute action and update view:
+			element.revalidate();
+			JFSSyncModes.getInstance().getCurrentMode().computeAction(element);
+			JFSTable.getInstance().updateElement(cs.getElement());
+		}
 	}
 
 	/**
@@ -160,7 +574,6 @@ public class JFSSynchronization {
 	 */
 	public final void synchronize() {
 		JFSProgress progress = JFSProgress.getInstance();
-		JFSConfig config = JFSConfig.getInstance();
 		JFSTable table = JFSTable.getInstance();
 		Vector<JFSCopyStatement> copyStatements = table.getCopyStatements();
 		Vector<JFSDeleteStatement> deleteStatements = table
@@ -178,37 +591,20 @@ public class JFSSynchronization {
 		// don't distinguish between both file names, there wouldn't exist
 		// a file with one of names on the target side after the
 		// synchronization.)
-		JFSDeleteMonitor dm = JFSDeleteMonitor.getInstance();
-		progress.prepare(ProgressActivity.SYNCHRONIZATION_DELETE);
-		dm.clean();
-		dm.setFilesToDelete(deleteStatements.size());
-		progress.start();
-		boolean success;
-		int i = 0;
-
-		while (i < deleteStatements.size() && !progress.isCanceled()) {
-			JFSDeleteStatement ds = deleteStatements.elementAt(i);
-			dm.setCurrentFile(ds.getFile());
-
-			// Delete only if the delete flag is set and the success flag is
-			// false:
-			if (ds.getDeleteFlag() && !ds.getSuccess()) {
-				success = ds.getFile().delete();
-				ds.setSuccess(success);
-
-				// Remove from table if action was successfully performed:
-				if (success) {
-					JFSElement element = ds.getElement();
-					element.setAction(SyncAction.NOP);
-					table.removeElement(element);
-				}
+		// Files to be moved and their parent directories are deleted after
+		// the files are copied; if a move fails, the file is deleted after
+		// the source was copied:
+		Set<JFSElement> moved = Collections
+				.newSetFromMap(new IdentityHashMap<JFSElement, Boolean>());
+		for (JFSCopyStatement cs : copyStatements) {
+			if (isMove(cs)) {
+				JFSElement e = cs.getMoveStatement().getElement();
+				while (e != null && moved.add(e))
+					e = e.getParent();
 			}
-
-			i++;
-			dm.setFilesDeleted(i);
-			progress.fireUpdate();
 		}
-		progress.end();
+
+		delete(deleteStatements, moved, false);
 
 		// Handle all files to copy:
 		JFSCopyMonitor cm = JFSCopyMonitor.getInstance();
@@ -219,43 +615,104 @@ public class JFSSynchronization {
 				.setBytesToTransfer(JFSCopyMonitor
 						.getBytesToTransfer(copyStatements));
 		progress.start();
-		i = 0;
+		new JFSCopyExecutor().perform(copyStatements);
+		progress.end();
 
-		while (i < copyStatements.size() && !progress.isCanceled()) {
-			JFSCopyStatement cs = copyStatements.elementAt(i);
-			cm.setCurrentSrc(cs.getSrc());
-			cm.setCurrentTgt(cs.getTgt());
-			cm.setBytesTransferedCurrentFile(0);
+		// Handle the deferred files to delete:
+		if (!moved.isEmpty())
+			delete(deleteStatements, moved, true);
 
-			// Copy only if the copy flag is set and the success flag is false:
-			if (cs.getCopyFlag() && !cs.getSuccess()) {
-				cm.setBytesToTransferCurrentFile(cs.getSrc().getLength());
-				success = cs.getSrc().copy(cs.getTgt());
-				cs.setSuccess(success);
-
-				// Update table element if action was successfully performed:
-				if (success) {
-					JFSElement element = cs.getElement();
-					if (cs.isCopyFromSource()) {
-						element.setTgtFile(cs.getTgt());
-					} else {
-						element.setSrcFile(cs.getTgt());
-					}
+		finish();
+	}
+
+	/**
+	 * Performs either the delete statements of files to be moved or of all
+	 * other files. Consecutive statements of files belonging to the same file
+	 * producer are performed in batches, if the file producer supports
+	 * metadata batches; the sequence of the statements is kept.
+	 * 
+	 * @param deleteStatements
+	 *            All delete statements.
+	 * @param moved
+	 *            The elements of files to be moved and their parents.
+	 * @param deferred
+	 *            Determines whether the statements of the elements to be
+	 *            moved are performed.
+	 */
+	private final void delete(Vector<JFSDeleteStatement> deleteStatements,
+			Set<JFSElement> moved, boolean deferred) {
+		JFSProgress progress = JFSProgress.getInstance();
+		JFSDeleteMonitor dm = JFSDeleteMonitor.getInstance();
+		progress.prepare(ProgressActivity.SYNCHRONIZATION_DELETE);
+		dm.clean();
+		dm.setFilesToDelete(deleteStatements.size());
+		progress.start();
+
+		Map<JFSFileProducer, JFSMetadataBatch> batches = new HashMap<JFSFileProducer, JFSMetadataBatch>();
+		Vector<JFSDeleteStatement> pending = new Vector<JFSDeleteStatement>();
+		JFSMetadataBatch batch = null;
+		int i = 0;
 
-					// Revalidate element, compute action and update view:
-					element.revalidate();
-					JFSSyncModes.getInstance().getCurrentMode().computeAction(
-							element);
-					table.updateElement(cs.getElement());
+		while (i < deleteStatements.size() && !progress.isCanceled()) {
+			JFSDeleteStatement ds = deleteStatements.elementAt(i);
+			i++;
+
+			if (moved.contains(ds.getElement()) == deferred) {
+				// Perform the pending statements, if the batch is full or the
+				// file producer changes:
+				JFSMetadataBatch b = getMetadataBatch(batches, ds.getFile()
+						.getFileProducer());
+				if (b != batch || pending.size() == JFSConst.BATCH_OPERATIONS) {
+					if (!pending.isEmpty())
+						delete(pending, batch);
+					pending.clear();
+					batch = b;
+				}
+
+				if (batch != null) {
+					pending.add(ds);
+				} else {
+					delete(ds);
 				}
-				cm.setBytesTransfered(cm.getBytesTransfered()
-						+ cm.getBytesToTransferCurrentFile());
 			}
-			i++;
-			cm.setFilesCopied(i);
+
+			dm.setFilesDeleted(i - pending.size());
+			progress.fireUpdate();
+		}
+
+		if (!pending.isEmpty() && !progress.isCanceled()) {
+			delete(pending, batch);
+			dm.setFilesDeleted(i);
 			progress.fireUpdate();
 		}
 		progress.end();
+	}
+
+	/**
+	 * Returns the metadata batch of a file producer. Batches are created once
+	 * for every file producer and reused.
+	 * 
+	 * @param batches
+	 *            The batches created so far by file producer.
+	 * @param producer
+	 *            The file producer.
+	 * @return The batch or null, if the producer doesn't support batches.
+	 */
+	static final JFSMetadataBatch getMetadataBatch(
+			Map<JFSFileProducer, JFSMetadataBatch> batches,
+			JFSFileProducer producer) {
+		if (!batches.containsKey(producer))
+			batches.put(producer, producer.createMetadataBatch());
+
+		return batches.get(producer);
+	}
+
+	/**
+	 * Finishes a synchronization; that is, shuts down the file producers,
+	 * stores the histories, and updates the current view.
+	 */
+	final void finish() {
+		JFSTable table = JFSTable.getInstance();
 
 		// Shuts down file producers of previously created comparison
 		// objects:
@@ -266,7 +723,7 @@ public class JFSSynchronization {
 
 		// Store the history, even if the synchronization process was
 		// cancelled:
-		if (config.isStoreHistory()) {
+		if (JFSConfig.getInstance().isStoreHistory()) {
 			JFSHistoryManager.getInstance().updateHistories();
 		}
 
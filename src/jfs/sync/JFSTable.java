@@ -19,6 +19,12 @@
 
 package jfs.sync;
 
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
 
 import jfs.conf.JFSConfig;
@@ -52,10 +58,13 @@ public class JFSTable implements JFSConfigObserver {
 	private Vector<JFSRootElement> roots = new Vector<JFSRootElement>();
 
 	/** The table containing all compared elements in the right sequence. */
-	private Vector<JFSElement> table = new Vector<JFSElement>();
+	private JFSElementList table = new JFSElementList();
 
 	/** The current view on the table. */
-	private Vector<JFSElement> view = new Vector<JFSElement>();
+	private JFSElementList view = new JFSElementList();
+
+	/** The elements of the table by root element and relative path. */
+	private Map<JFSRootElement, Map<String, JFSElement>> paths = new IdentityHashMap<JFSRootElement, Map<String, JFSElement>>();
 
 	/** The list of copy statements. */
 	private Vector<JFSCopyStatement> copyStatements = new Vector<JFSCopyStatement>();
@@ -89,6 +98,7 @@ public class JFSTable implements JFSConfigObserver {
 	public final void clean() {
 		table.clear();
 		view.clear();
+		paths.clear();
 
 		copyStatements.clear();
 		deleteStatements.clear();
@@ -112,7 +122,7 @@ public class JFSTable implements JFSConfigObserver {
 	 *            The index to return.
 	 * @return The element for the index.
 	 */
-	public final JFSElement getTableElement(int index) {
+	public final synchronized JFSElement getTableElement(int index) {
 		return table.get(index);
 	}
 
@@ -123,10 +133,82 @@ public class JFSTable implements JFSConfigObserver {
 	 *            The index to return.
 	 * @return The element for the index.
 	 */
-	public final JFSElement getViewElement(int index) {
+	public final synchronized JFSElement getViewElement(int index) {
 		return view.get(index);
 	}
 
+	/**
+	 * Returns the JFS element of the overall table with a certain relative
+	 * path.
+	 * 
+	 * @param root
+	 *            The root element of the element to return.
+	 * @param relativePath
+	 *            The relative path of the element to return.
+	 * @return The element or null, if no such element is part of the table.
+	 */
+	public final synchronized JFSElement getTableElement(JFSRootElement root,
+			String relativePath) {
+		Map<String, JFSElement> elements = paths.get(root);
+		if (elements == null)
+			return null;
+
+		return elements.get(relativePath);
+	}
+
+	/**
+	 * Returns the directory element of the overall table with a certain
+	 * relative path. If the directory is not part of the table, the nearest
+	 * parent directory is returned.
+	 * 
+	 * @param root
+	 *            The root element of the directory to return.
+	 * @param relativePath
+	 *            The relative path of the directory to return.
+	 * @return The element.
+	 */
+	public final synchronized JFSElement getTableDirectory(
+			JFSRootElement root, String relativePath) {
+		String path = relativePath;
+		while (!path.isEmpty()) {
+			JFSElement element = getTableElement(root, path);
+			if (element != null && element.isDirectory())
+				return element;
+			path = path.substring(0, Math.max(path
+					.lastIndexOf(File.separatorChar), 0));
+		}
+
+		return root;
+	}
+
+	/**
+	 * Adds an element to the index of relative paths.
+	 * 
+	 * @param element
+	 *            The element to add.
+	 */
+	private final void addPath(JFSElement element) {
+		Map<String, JFSElement> elements = paths.get(element.getRoot());
+		if (elements == null) {
+			elements = new HashMap<String, JFSElement>();
+			paths.put(element.getRoot(), elements);
+		}
+		elements.put(element.getRelativePath(), element);
+	}
+
+	/**
+	 * Removes an element from the index of relative paths.
+	 * 
+	 * @param element
+	 *            The element to remove.
+	 */
+	private final void removePath(JFSElement element) {
+		Map<String, JFSElement> elements = paths.get(element.getRoot());
+		if (elements != null
+				&& elements.get(element.getRelativePath()) == element)
+			elements.remove(element.getRelativePath());
+	}
+
 	/**
 	 * @return Returns the number of JFS root elements.
 	 */
@@ -137,14 +219,14 @@ public class JFSTable implements JFSConfigObserver {
 	/**
 	 * @return Returns the size of the overall table.
 	 */
-	public final int getTableSize() {
+	public final synchronized int getTableSize() {
 		return table.size();
 	}
 
 	/**
 	 * @return Returns the size of the current view.
 	 */
-	public final int getViewSize() {
+	public final synchronized int getViewSize() {
 		return view.size();
 	}
 
@@ -161,7 +243,7 @@ public class JFSTable implements JFSConfigObserver {
 			return;
 
 		if (view.size() > 0 && !element.isDirectory()) {
-			JFSElement last = view.lastElement();
+			JFSElement last = view.last();
 			if (last.getParent() != element.getParent()
 					&& last != element.getParent()) {
 				view.add(element.getParent());
@@ -183,9 +265,10 @@ public class JFSTable implements JFSConfigObserver {
 	 * @param element
 	 *            The element to add.
 	 */
-	public final void addElement(JFSElement element) {
+	public final synchronized void addElement(JFSElement element) {
 		JFSSyncModes.getInstance().getCurrentMode().computeAction(element);
 		table.add(element);
+		addPath(element);
 		addElementToView(element);
 	}
 
@@ -237,8 +320,9 @@ public class JFSTable implements JFSConfigObserver {
 	 * @param element
 	 *            The element to remove.
 	 */
-	public final void removeElement(JFSElement element) {
-		table.remove(element);
+	public final synchronized void removeElement(JFSElement element) {
+		if (table.remove(element))
+			removePath(element);
 		removeElementFromView(element);
 	}
 
@@ -252,7 +336,7 @@ public class JFSTable implements JFSConfigObserver {
 	 * @param element
 	 *            The element to update.
 	 */
-	public final void updateElement(JFSElement element) {
+	public final synchronized void updateElement(JFSElement element) {
 		JFSViewMode mode = JFSViewModes.getInstance().getCurrentMode();
 		if (!mode.isViewed(element.getAction())) {
 			removeElementFromView(element);
@@ -301,12 +385,50 @@ public class JFSTable implements JFSConfigObserver {
 		return v;
 	}
 
+	/**
+	 * Adds an element and all its children to the table top down, if they
+	 * are part of a set of elements.
+	 * 
+	 * @param element
+	 *            The element to add.
+	 * @param elements
+	 *            The set of elements.
+	 */
+	private final void addTree(JFSElement element, Set<JFSElement> elements) {
+		if (elements.contains(element)) {
+			table.add(element);
+			addPath(element);
+		}
+		if (element.getChildren() != null) {
+			for (JFSElement child : element.getChildren())
+				addTree(child, elements);
+		}
+	}
+
+	/**
+	 * Re-computes the order of the table from the structure of the root
+	 * elements and their children and re-computes the current view
+	 * afterwards. Elements, which are not part of the structure any more, are
+	 * removed. This is needed if the children of elements were changed and
+	 * new elements were added to the table.
+	 */
+	public final synchronized void recomputeTable() {
+		Set<JFSElement> elements = Collections
+				.newSetFromMap(new IdentityHashMap<JFSElement, Boolean>());
+		elements.addAll(table.elements());
+		table.clear();
+		paths.clear();
+		for (JFSRootElement root : roots)
+			addTree(root, elements);
+		recomputeView();
+	}
+
 	/**
 	 * Re-computes the current view for all elements of the comparison table.
 	 */
-	public final void recomputeView() {
+	public final synchronized void recomputeView() {
 		view.clear();
-		for (JFSElement element : table) {
+		for (JFSElement element : table.elements()) {
 			element.setViewed(false);
 			addElementToView(element);
 		}
@@ -316,10 +438,10 @@ public class JFSTable implements JFSConfigObserver {
 	 * Re-computes all actions and the current view for all elements of the
 	 * comparison table.
 	 */
-	public final void recomputeActionsAndView() {
+	public final synchronized void recomputeActionsAndView() {
 		view.clear();
 		JFSSyncMode mode = JFSSyncModes.getInstance().getCurrentMode();
-		for (JFSElement element : table) {
+		for (JFSElement element : table.elements()) {
 			mode.computeAction(element);
 			element.setViewed(false);
 			addElementToView(element);
@@ -0,0 +1,377 @@
+/*
+ * JFileSync
+ * Copyright (C) 2002-2007, Jens Heidrich
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA, 02110-1301, USA
+ */
+
+package jfs.sync;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import jfs.conf.JFSConst;
+import jfs.conf.JFSLog;
+import jfs.conf.JFSText;
+
+/**
+ * Watches the local directories of the comparison table for changes and
+ * synchronizes them continuously. Change events are collected until no
+ * further event arrives for a short delay, but not longer than a maximum
+ * delay. Afterwards, only the directories affected by the events are compared
+ * again and synchronized. If events are lost, all directory pairs are
+ * compared again. The events caused by the synchronization itself are
+ * ignored, as long as the changed files still have the length and time stamp
+ * they had after the synchronization.
+ * 
+ * @see JFSComparison#compare(java.util.Map)
+ * @author Jens Heidrich
+ * @version $Id$
+ */
+public class JFSWatcher {
+
+	/** Stores the only instance of the class. */
+	private static JFSWatcher instance = null;
+
+	/** The service used to watch the directories. */
+	private WatchService service = null;
+
+	/** The watched directories for each key. */
+	private final HashMap<WatchKey, Directory> keys = new HashMap<WatchKey, Directory>();
+
+	/** The paths of all watched directories. */
+	private final HashSet<Path> paths = new HashSet<Path>();
+
+	/**
+	 * The states of all files changed by the last synchronization right after
+	 * the synchronization.
+	 */
+	private final HashMap<Path, State> written = new HashMap<Path, State>();
+
+	/**
+	 * The state of a file; that is, whether it exists, its type, its length,
+	 * and its time stamp.
+	 */
+	private static final class State {
+		/** The attributes of the file or null, if it does not exist. */
+		final BasicFileAttributes attributes;
+
+		/**
+		 * Reads the current state of a file.
+		 * 
+		 * @param path
+		 *            The path of the file.
+		 */
+		State(Path path) {
+			BasicFileAttributes a;
+			try {
+				a = Files.readAttributes(path, BasicFileAttributes.class);
+			} catch (IOException e) {
+				a = null;
+			}
+			attributes = a;
+		}
+
+		/**
+		 * Determines whether the file is unchanged compared to a previous
+		 * state. The contents of directories are not compared.
+		 * 
+		 * @param previous
+		 *            The previous state.
+		 * @return True if and only if the file is unchanged.
+		 */
+		boolean isUnchanged(State previous) {
+			BasicFileAttributes a = attributes;
+			BasicFileAttributes b = previous.attributes;
+			if (a == null || b == null)
+				return a == b;
+			if (a.isDirectory() || b.isDirectory())
+				return a.isDirectory() == b.isDirectory();
+
+			return a.size() == b.size()
+					&& a.lastModifiedTime().equals(b.lastModifiedTime());
+		}
+	}
+
+	/**
+	 * A watched directory, identified by its root element and its relative
+	 * path.
+	 */
+	private static final class Directory {
+		/** The root element. */
+		final JFSRootElement root;
+
+		/** The relative path. */
+		final String relativePath;
+
+		/**
+		 * Creates a new watched directory.
+		 * 
+		 * @param root
+		 *            The root element.
+		 * @param relativePath
+		 *            The relative path.
+		 */
+		Directory(JFSRootElement root, String relativePath) {
+			this.root = root;
+			this.relativePath = relativePath;
+		}
+	}
+
+	/**
+	 * Creates a new watcher object.
+	 */
+	private JFSWatcher() {
+	}
+
+	/**
+	 * Returns the reference of the only instance.
+	 * 
+	 * @return The only instance.
+	 */
+	public final static JFSWatcher getInstance() {
+		if (instance == null)
+			instance = new JFSWatcher();
+
+		return instance;
+	}
+
+	/**
+	 * Registers a directory of the table, if it exists locally and is not yet
+	 * watched.
+	 * 
+	 * @param root
+	 *            The root element of the directory.
+	 * @param file
+	 *            The directory file. May be null.
+	 * @throws IOException
+	 *             If the directory cannot be registered.
+	 */
+	private final void register(JFSRootElement root, JFSFile file)
+			throws IOException {
+		if (file == null || !file.exists()
+				|| !file.getFileProducer().getScheme().equals(
+						JFSConst.SCHEME_LOCAL))
+			return;
+
+		Path path = file.getFile().toPath();
+		if (paths.add(path)) {
+			WatchKey key = path.register(service, ENTRY_CREATE, ENTRY_DELETE,
+					ENTRY_MODIFY);
+			keys.put(key, new Directory(root, file.getRelativePath()));
+		}
+	}
+
+	/**
+	 * Registers all directories of the table, which are not yet watched.
+	 * 
+	 * @throws IOException
+	 *             If a directory cannot be registered.
+	 */
+	private final void registerAll() throws IOException {
+		JFSTable table = JFSTable.getInstance();
+		for (int i = 0; i < table.getTableSize(); i++) {
+			JFSElement element = table.getTableElement(i);
+			if (element.isDirectory() && element.getRoot().isActive()) {
+				register(element.getRoot(), element.getSrcFile());
+				register(element.getRoot(), element.getTgtFile());
+			}
+		}
+	}
+
+	/**
+	 * Cancels all watched directories.
+	 */
+	private final void cancelAll() {
+		for (WatchKey key : keys.keySet())
+			key.cancel();
+		keys.clear();
+		paths.clear();
+	}
+
+	/**
+	 * Adds the path of a local file to the files changed by the
+	 * synchronization. The state of the file is read after the
+	 * synchronization.
+	 * 
+	 * @param file
+	 *            The changed file. May be null.
+	 */
+	private final void addWritten(JFSFile file) {
+		if (file != null
+				&& file.getFileProducer().getScheme().equals(
+						JFSConst.SCHEME_LOCAL))
+			written.put(file.getFile().toPath(), null);
+	}
+
+	/**
+	 * Adds the directory of a key to the directories to compare again and
+	 * discards the pending events of the key. Events of the contents of
+	 * interrupted copies and events caused by the last synchronization don't
+	 * affect the directory.
+	 * 
+	 * @param key
+	 *            The signalled key.
+	 * @param directories
+	 *            The directories to compare for each root element.
+	 * @return False, if events were lost.
+	 */
+	private final boolean collect(WatchKey key,
+			HashMap<JFSRootElement, HashSet<String>> directories) {
+		boolean overflow = false;
+		boolean changed = false;
+		Path dir = (Path) key.watchable();
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == OVERFLOW) {
+				overflow = true;
+			} else {
+				Path name = (Path) event.context();
+				if (JFSFile.isPartialFile(name.toString()))
+					continue;
+
+				// Ignore the events of files not changed since the last
+				// synchronization changed them:
+				State state = written.get(dir.resolve(name));
+				if (state != null
+						&& new State(dir.resolve(name)).isUnchanged(state))
+					continue;
+			}
+			changed = true;
+		}
+
+		Directory d = keys.get(key);
+		if (!key.reset()) {
+			// The directory was deleted; the event of its parent directory
+			// handles the change:
+			keys.remove(key);
+			paths.remove(key.watchable());
+		}
+		if (d != null && changed) {
+			HashSet<String> set = directories.get(d.root);
+			if (set == null) {
+				set = new HashSet<String>();
+				directories.put(d.root, set);
+			}
+			set.add(d.relativePath);
+		}
+
+		return !overflow;
+	}
+
+	/**
+	 * Synchronizes the compared table and records the changed files, so that
+	 * the events caused by the synchronization are ignored.
+	 */
+	private final void synchronize() {
+		JFSSynchronization sync = JFSSynchronization.getInstance();
+		JFSTable table = JFSTable.getInstance();
+		sync.computeSynchronizationLists();
+
+		written.clear();
+		for (JFSCopyStatement cs : table.getCopyStatements())
+			addWritten(cs.getTgt());
+		for (JFSDeleteStatement ds : table.getDeleteStatements())
+			addWritten(ds.getFile());
+
+		sync.synchronize();
+		for (Path path : written.keySet())
+			written.put(path, new State(path));
+	}
+
+	/**
+	 * Compares and synchronizes all directory pairs.
+	 */
+	private final void synchronizeAll() {
+		JFSComparison.getInstance().compare();
+		synchronize();
+	}
+
+	/**
+	 * Watches the local directories of the current table and synchronizes
+	 * them after changes until the thread is interrupted. The table has to be
+	 * compared and synchronized before.
+	 */
+	public final void watch() {
+		JFSText t = JFSText.getInstance();
+		PrintStream p = JFSLog.getOut().getStream();
+
+		try {
+			service = FileSystems.getDefault().newWatchService();
+			try {
+				registerAll();
+
+				while (true) {
+					p.println();
+					p.println(t.get("cmd.watch"));
+
+					// Wait for the first change and collect events until no
+					// further event arrives within the delay or the maximum
+					// delay is reached:
+					HashMap<JFSRootElement, HashSet<String>> directories = new HashMap<JFSRootElement, HashSet<String>>();
+					boolean complete = true;
+					while (complete && directories.isEmpty())
+						complete = collect(service.take(), directories);
+					long deadline = System.currentTimeMillis()
+							+ JFSConst.WATCH_MAX_DELAY;
+					long delay = JFSConst.WATCH_DELAY;
+					WatchKey key;
+					while (delay > 0
+							&& (key = service.poll(delay,
+									TimeUnit.MILLISECONDS)) != null) {
+						complete = collect(key, directories) && complete;
+						delay = Math.min(JFSConst.WATCH_DELAY, deadline
+								- System.currentTimeMillis());
+					}
+
+					// Compare affected directories only and fall back to a
+					// complete comparison if events were lost:
+					p.println();
+					if (complete
+							&& JFSComparison.getInstance().compare(directories)) {
+						synchronize();
+					} else {
+						cancelAll();
+						synchronizeAll();
+					}
+					registerAll();
+				}
+			} finally {
+				cancelAll();
+				service.close();
+				service = null;
+			}
+		} catch (IOException e) {
+			JFSLog.getErr().getStream().println(
+					t.get("error.io") + " " + e.getMessage());
+		} catch (InterruptedException e) {
+			// Stop watching.
+		}
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * JFileSync
+ * Copyright (C) 2002-2007, Jens Heidrich
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA, 02110-1301, USA
+ */
+
+
+package jfs.sync;
+
+/**
+ * Sorts a list of files by their names. The names are read once and cached in
+ * an array, so that the files are compared on their keys instead of calling
+ * the file objects for each comparison. ATTENTION: We have to compare the
+ * strings of the file names (like the JFSFile object does) instead of using
+ * the order of the File object, because the predefined order differs between
+ * the File object und the String object. The sort is stable and takes linear
+ * time for lists, which are already sorted.
+ * 
+ * @author Jens Heidrich
+ * @version $Id$
+ */
+final class NameSort {
+	/** Lists up to this size are sorted by insertion sort. */
+	private static final int INSERTION_SORT_THRESHOLD = 16;
+
+	/**
+	 * Sorts an array of files by their names. If the files are expected to be
+	 * sorted already, the order is only verified in a single pass and the
+	 * array is left untouched, unless the verification fails (e.g., because
+	 * the listing was produced by an older server).
+	 * 
+	 * @param files
+	 *            The files to sort.
+	 * @param isSorted
+	 *            Determines whether the files are expected to be sorted
+	 *            already; for instance, because the file producer returns
+	 *            sorted listings.
+	 * @return The names of the files in sorted order.
+	 */
+	static String[] sort(JFSFile[] files, boolean isSorted) {
+		String[] names = new String[files.length];
+		for (int i = 0; i < files.length; i++)
+			names[i] = files[i].getName();
+
+		if (isSorted && isSorted(names))
+			return names;
+
+		int[] index = new int[names.length];
+		for (int i = 0; i < index.length; i++)
+			index[i] = i;
+		mergeSort(index, new int[index.length], names, 0, index.length);
+
+		// Apply the permutation to the files and their names:
+		JFSFile[] sortedFiles = new JFSFile[files.length];
+		String[] sortedNames = new String[names.length];
+		for (int i = 0; i < index.length; i++) {
+			sortedFiles[i] = files[index[i]];
+			sortedNames[i] = names[index[i]];
+		}
+		System.arraycopy(sortedFiles, 0, files, 0, files.length);
+
+		return sortedNames;
+	}
+
+	/**
+	 * Determines whether a list of names is sorted.
+	 * 
+	 * @param names
+	 *            The names to check.
+	 * @return True if and only if the names are sorted.
+	 */
+	private static boolean isSorted(String[] names) {
+		for (int i = 1; i < names.length; i++) {
+			if (names[i - 1].compareTo(names[i]) > 0)
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Sorts a region of an index permutation according to the referenced
+	 * names.
+	 * 
+	 * @param index
+	 *            The index permutation to sort.
+	 * @param buffer
+	 *            A buffer of the same size as the index permutation.
+	 * @param names
+	 *            The names referenced by the index permutation.
+	 * @param left
+	 *            The first index of the region (inclusive).
+	 * @param right
+	 *            The last index of the region (exclusive).
+	 */
+	private static void mergeSort(int[] index, int[] buffer, String[] names,
+			int left, int right) {
+		if (right - left <= INSERTION_SORT_THRESHOLD) {
+			for (int i = left + 1; i < right; i++) {
+				int current = index[i];
+				int j = i - 1;
+				while (j >= left
+						&& names[index[j]].compareTo(names[current]) > 0) {
+					index[j + 1] = index[j];
+					j--;
+				}
+				index[j + 1] = current;
+			}
+
+			return;
+		}
+
+		int middle = (left + right) >>> 1;
+		mergeSort(index, buffer, names, left, middle);
+		mergeSort(index, buffer, names, middle, right);
+
+		// Both halves are already in order:
+		if (names[index[middle - 1]].compareTo(names[index[middle]]) <= 0)
+			return;
+
+		System.arraycopy(index, left, buffer, left, right - left);
+		int i = left;
+		int j = middle;
+		int k = left;
+		while (i < middle && j < right) {
+			if (names[buffer[j]].compareTo(names[buffer[i]]) < 0) {
+				index[k++] = buffer[j++];
+			} else {
+				index[k++] = buffer[i++];
+			}
+		}
+		while (i < middle)
+			index[k++] = buffer[i++];
+		while (j < right)
+			index[k++] = buffer[j++];
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * JFileSync
+ * Copyright (C) 2002-2007, Jens Heidrich
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA, 02110-1301, USA
+ */
+
+
+package jfs.sync.external;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+
+import jfs.server.JFSFileInfo;
+import jfs.server.JFSServerAccess;
+import jfs.server.JFSTransmission;
+import jfs.sync.JFSCopyBatch;
+import jfs.sync.JFSFile;
+
+/**
+ * Transfers several small files to a JFS server within a single request. The
+ * files are written one after another to the socket as frames of a batch, and
+ * the server reports the results for all files when the batch is finished.
+ * 
+ * @see JFSTransmission#CMD_PUT_BATCH
+ * @author Jens Heidrich
+ * @version $Id$
+ */
+class JFSExternalCopyBatch extends JFSCopyBatch {
+	/** The server access object. */
+	private final JFSServerAccess access;
+
+	/** The root path of all files. */
+	private final String rootPath;
+
+	/** The stream to the server; created for the first file. */
+	private DataOutputStream out = null;
+
+	/** The information objects of all started files. */
+	private final ArrayList<JFSFileInfo> infos = new ArrayList<JFSFileInfo>();
+
+	/** The number of bytes not yet written for the current file. */
+	private long remaining = 0;
+
+	/**
+	 * Creates a new batch.
+	 * 
+	 * @param access
+	 *            The server access object.
+	 * @param rootPath
+	 *            The root path of all files.
+	 */
+	JFSExternalCopyBatch(JFSServerAccess access, String rootPath) {
+		this.access = access;
+		this.rootPath = rootPath;
+	}
+
+	/**
+	 * @see JFSCopyBatch#start(JFSFile)
+	 */
+	protected OutputStream start(JFSFile tgtFile) throws IOException {
+		if (out == null) {
+			OutputStream socketOut = access.putBatch(rootPath);
+			if (socketOut == null)
+				throw new IOException("Unable to start batch: " + rootPath);
+			out = new DataOutputStream(new BufferedOutputStream(socketOut));
+		}
+
+		JFSFileInfo info = ((JFSExternalFile) tgtFile).getInfo();
+		infos.add(info);
+		remaining = info.getLength();
+
+		out.writeByte(JFSTransmission.BATCH_FILE);
+		out.writeUTF(info.getRelativePath());
+		out.writeLong(info.getLength());
+		out.writeLong(info.getLastModified());
+		out.writeBoolean(!info.canWrite());
+		out.writeBoolean(info.canExecute());
+
+		// The contents must not exceed the announced length and the batch
+		// stream must stay open:
+		return new FilterOutputStream(out) {
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			public void write(byte[] b, int off, int len) throws IOException {
+				if (len > remaining)
+					throw new IOException("File length exceeded");
+				out.write(b, off, len);
+				remaining -= len;
+			}
+
+			public void close() {
+			}
+		};
+	}
+
+	/**
+	 * @see JFSCopyBatch#end(boolean)
+	 */
+	protected void end(boolean success) throws IOException {
+		// Fill up the frame, if the contents are incomplete:
+		if (remaining > 0) {
+			byte[] fill = new byte[(int) Math.min(remaining, 8192)];
+			while (remaining > 0) {
+				int len = (int) Math.min(remaining, fill.length);
+				out.write(fill, 0, len);
+				remaining -= len;
+			}
+			success = false;
+		}
+		out.writeBoolean(success);
+	}
+
+	/**
+	 * @see JFSCopyBatch#finish()
+	 */
+	protected boolean[] finish() throws IOException {
+		boolean[] results = new boolean[infos.size()];
+
+		if (out == null)
+			return results;
+
+		out.writeByte(JFSTransmission.BATCH_END);
+		out.flush();
+
+		JFSFileInfo[] serverInfos = access.getBatchResults();
+		if (serverInfos == null || serverInfos.length != results.length)
+			throw new IOException("Unable to finish batch: " + rootPath);
+
+		for (int i = 0; i < results.length; i++) {
+			JFSFileInfo info = infos.get(i);
+			JFSFileInfo serverInfo = serverInfos[i];
+			if (serverInfo != null) {
+				info.setName(serverInfo.getName());
+				info.setPath(serverInfo.getPath());
+				info.setRootPath(serverInfo.getRootPath());
+				info.setRelativePath(serverInfo.getRelativePath());
+				results[i] = true;
+			}
+		}
+
+		return results;
+	}
+}
@@ -20,10 +20,16 @@
 package jfs.sync.external;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
 import jfs.conf.JFSConfig;
+import jfs.conf.JFSConst;
+import jfs.conf.JFSLog;
+import jfs.conf.JFSText;
+import jfs.server.JFSDeltaOutputStream;
+import jfs.server.JFSDiffReader;
 import jfs.server.JFSFileInfo;
 import jfs.server.JFSServerAccess;
 import jfs.sync.JFSFile;
@@ -49,7 +55,22 @@ public class JFSExternalFile extends JFSFile {
 	private JFSServerAccess access = null;
 
 	/**
-	 * Creates a new external root file and reads the structure from server.
+	 * The reader of the differences to the reference file, if the server
+	 * compares the structures.
+	 */
+	private JFSDiffReader diff = null;
+
+	/** The stream transfering the differences of the current copy, if any. */
+	private JFSDeltaOutputStream delta = null;
+
+	/**
+	 * The offset to resume the current copy at or -1, if it is not resumable.
+	 */
+	private long resumeOffset = -1;
+
+	/**
+	 * Creates a new external root file and reads its contents from server.
+	 * The contents of contained directories are read on demand.
 	 * 
 	 * @param access
 	 *            The server access object to use.
@@ -61,7 +82,42 @@ public class JFSExternalFile extends JFSFile {
 		this.access = access;
 
 		// Get information object from server:
-		info = access.getInfo(new JFSFileInfo(fileProducer.getRootPath(), ""));
+		info = access.getList(new JFSFileInfo(fileProducer.getRootPath(), ""));
+
+		// Create dummy object with default values, if the server connection
+		// failed:
+		if (info == null)
+			info = new JFSFileInfo(fileProducer.getRootPath(), "");
+	}
+
+	/**
+	 * Creates a new external root file and lets the server compare its
+	 * contents with the structure of a reference file. Only the differing
+	 * entries are transfered; the remaining entries are taken from the
+	 * reference. The differences are read in the background; the contents of
+	 * a directory are available as soon as its differences are read.
+	 * 
+	 * @param access
+	 *            The server access object to use.
+	 * @param fileProducer
+	 *            The assigned file producer.
+	 * @param reference
+	 *            The root file of the other side.
+	 */
+	public JFSExternalFile(JFSServerAccess access,
+			JFSFileProducer fileProducer, JFSFile reference) {
+		super(fileProducer, "");
+		this.access = access;
+
+		// Get information object from server and list the root, if the
+		// server doesn't compare the structures:
+		JFSFileInfo root = new JFSFileInfo(fileProducer.getRootPath(), "");
+		diff = access.getDiff(root, reference);
+		if (diff != null) {
+			info = diff.getRoot();
+		} else {
+			info = access.getList(root);
+		}
 
 		// Create dummy object with default values, if the server connection
 		// failed:
@@ -104,6 +160,34 @@ public class JFSExternalFile extends JFSFile {
 		this.info = info;
 	}
 
+	/**
+	 * Creates an external file based on a previously read-in structure, whose
+	 * contents are compared with a reference by the server.
+	 * 
+	 * @param access
+	 *            The server access object to use.
+	 * @param fileProducer
+	 *            The assigned file producer.
+	 * @param info
+	 *            The previously read-in file information object.
+	 * @param diff
+	 *            The reader of the differences to the reference or null.
+	 */
+	private JFSExternalFile(JFSServerAccess access,
+			JFSFileProducer fileProducer, JFSFileInfo info, JFSDiffReader diff) {
+		this(access, fileProducer, info);
+		this.diff = diff;
+	}
+
+	/**
+	 * Returns the file information object transfered to the server.
+	 * 
+	 * @return The file information object.
+	 */
+	final JFSFileInfo getInfo() {
+		return info;
+	}
+
 	/**
 	 * @see JFSFile#canRead()
 	 */
@@ -132,11 +216,50 @@ public class JFSExternalFile extends JFSFile {
 		return access.getContents(info);
 	}
 
+	/**
+	 * @see JFSFile#getInputStream(long)
+	 */
+	protected InputStream getInputStream(long offset) {
+		return access.getContents(info, offset);
+	}
+
+	/**
+	 * Determines whether only the differences to the existing copy are
+	 * transfered for the current copy.
+	 * 
+	 * @return True if and only if delta transfer is used.
+	 */
+	private boolean isDeltaTransfer() {
+		return JFSConfig.getInstance().isDeltaTransfer()
+				&& info.getLength() >= JFSConst.DELTA_THRESHOLD;
+	}
+
 	/**
 	 * @see JFSFile#getOutputStream()
 	 */
 	protected OutputStream getOutputStream() {
-		return access.putContents(info);
+		// Transfer only the differences of large files to the existing copy:
+		delta = null;
+		if (isDeltaTransfer()) {
+			delta = access.putDelta(info);
+
+			return delta;
+		}
+
+		return access.putContents(info, Math.max(resumeOffset, 0));
+	}
+
+	/**
+	 * @see JFSFile#getResumeOffset(JFSFile)
+	 */
+	protected long getResumeOffset(JFSFile srcFile) {
+		// The length and last modified property are set by preCopyTgt:
+		resumeOffset = -1;
+		if (!isDeltaTransfer()
+				&& srcFile.getLength() >= JFSConst.RESUME_THRESHOLD)
+			resumeOffset = access.getResumeOffset(info);
+
+		return resumeOffset;
 	}
 
 	/**
@@ -158,7 +281,16 @@ public class JFSExternalFile extends JFSFile {
 		// output stream would close the socket. The generated file
 		// output stream on server side, will be closed automatically
 		// by the JFS server. The socket is closed after all operations
-		// are done.
+		// are done. A delta transfer has to be finished, however, in order
+		// to let the server reconstruct the file:
+		if (delta != null) {
+			try {
+				delta.close();
+			} catch (IOException e) {
+				JFSLog.getErr().getStream().println(
+						JFSText.getInstance().get("error.external") + " " + e);
+			}
+		}
 	}
 
 	/**
@@ -192,16 +324,32 @@ public class JFSExternalFile extends JFSFile {
 	/**
 	 * @see JFSFile#getList()
 	 */
-	public JFSFile[] getList() {
+	public synchronized JFSFile[] getList() {
 		if (list == null) {
-			JFSFileInfo[] files = info.getList();
+			// Wait for the differences of the directory, if the server
+			// compares the structures:
+			JFSFileInfo[] files;
+			if (diff != null) {
+				files = diff.getList(info);
+			} else {
+				files = info.getList();
+			}
+
+			// Read the contents of directories listed by their parent on
+			// demand. Servers not supporting directory listings transfer the
+			// whole structure with the root:
+			if (files == null && info.isDirectory()) {
+				JFSFileInfo dir = access.getList(info);
+				if (dir != null)
+					files = dir.getList();
+			}
 
 			if (files != null) {
 				list = new JFSExternalFile[files.length];
 
 				for (int i = 0; i < files.length; i++) {
 					list[i] = new JFSExternalFile(access, fileProducer,
-							files[i]);
+							files[i], diff);
 				}
 			} else {
 				list = new JFSExternalFile[0];
@@ -319,7 +467,7 @@ public class JFSExternalFile extends JFSFile {
 
 		access.releaseSocket();
 
-		return true;
+		return delta == null || delta.isSuccess();
 	}
 
 	/**
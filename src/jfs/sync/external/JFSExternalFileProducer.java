@@ -22,8 +22,10 @@ package jfs.sync.external;
 import jfs.conf.JFSConfig;
 import jfs.conf.JFSConst;
 import jfs.server.JFSServerAccess;
+import jfs.sync.JFSCopyBatch;
 import jfs.sync.JFSFile;
 import jfs.sync.JFSFileProducer;
+import jfs.sync.JFSMetadataBatch;
 
 /**
  * This class produces external JFS files to be handled by the algorithm.
@@ -58,6 +60,22 @@ public class JFSExternalFileProducer extends JFSFileProducer {
 		return new JFSExternalFile(a, this);
 	}
 
+	/**
+	 * If the server compares the structures, only the differences to the
+	 * reference are transfered.
+	 * 
+	 * @see JFSFileProducer#getRootJfsFile(JFSFile)
+	 * @see JFSConfig#isServerDiff()
+	 */
+	public JFSFile getRootJfsFile(JFSFile reference) {
+		if (!JFSConfig.getInstance().isServerDiff())
+			return getRootJfsFile();
+
+		JFSServerAccess a = JFSServerAccess.getInstance(host, port,
+				getRootPath());
+		return new JFSExternalFile(a, this, reference);
+	}
+
 	/**
 	 * @see JFSFileProducer#getJfsFile(String)
 	 */
@@ -67,6 +85,39 @@ public class JFSExternalFileProducer extends JFSFileProducer {
 		return new JFSExternalFile(a, this, path);
 	}
 
+	/**
+	 * Batches are only created, if the server supports them.
+	 * 
+	 * @see JFSFileProducer#createCopyBatch()
+	 * @see JFSServerAccess#isBatchSupported(String)
+	 */
+	public JFSCopyBatch createCopyBatch() {
+		JFSServerAccess a = JFSServerAccess.getInstance(host, port,
+				getRootPath());
+		if (!a.isBatchSupported(getRootPath()))
+			return null;
+
+		return new JFSExternalCopyBatch(a, getRootPath());
+	}
+
+	/**
+	 * @see JFSFileProducer#createMetadataBatch()
+	 */
+	public JFSMetadataBatch createMetadataBatch() {
+		JFSServerAccess a = JFSServerAccess.getInstance(host, port,
+				getRootPath());
+		return new JFSExternalMetadataBatch(a);
+	}
+
+	/**
+	 * The server sorts the listings before they are transfered.
+	 * 
+	 * @see JFSFileProducer#isSorted()
+	 */
+	public boolean isSorted() {
+		return true;
+	}
+
 	/**
 	 * Extracts the host and port part of a given path of the form
 	 * 'ext://host:port/directory'.
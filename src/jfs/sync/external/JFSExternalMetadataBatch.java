@@ -0,0 +1,113 @@
+/*
+ * JFileSync
+ * Copyright (C) 2002-2007, Jens Heidrich
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA, 02110-1301, USA
+ */
+
+
+package jfs.sync.external;
+
+import java.util.ArrayList;
+
+import jfs.server.JFSFileInfo;
+import jfs.server.JFSServerAccess;
+import jfs.server.JFSTransmission;
+import jfs.sync.JFSFile;
+import jfs.sync.JFSMetadataBatch;
+
+/**
+ * Sends several commands without contents to a JFS server within a single
+ * request. The commands are collected until the batch is finished and the
+ * server reports the results for all commands at once.
+ * 
+ * @see JFSTransmission#CMD_BATCH
+ * @author Jens Heidrich
+ * @version $Id$
+ */
+class JFSExternalMetadataBatch extends JFSMetadataBatch {
+	/** The server access object. */
+	private final JFSServerAccess access;
+
+	/** The collected commands. */
+	private final ArrayList<Byte> commands = new ArrayList<Byte>();
+
+	/** The information objects of the collected commands. */
+	private final ArrayList<JFSFileInfo> infos = new ArrayList<JFSFileInfo>();
+
+	/**
+	 * Creates a new batch.
+	 * 
+	 * @param access
+	 *            The server access object.
+	 */
+	JFSExternalMetadataBatch(JFSServerAccess access) {
+		this.access = access;
+	}
+
+	/**
+	 * Adds a command for an external file.
+	 * 
+	 * @param command
+	 *            The command.
+	 * @param file
+	 *            The external file.
+	 */
+	private void add(byte command, JFSFile file) {
+		commands.add(command);
+		infos.add(((JFSExternalFile) file).getInfo());
+	}
+
+	/**
+	 * @see JFSMetadataBatch#mkdir(JFSFile)
+	 */
+	public void mkdir(JFSFile file) {
+		add(JFSTransmission.CMD_MKDIR, file);
+	}
+
+	/**
+	 * @see JFSMetadataBatch#delete(JFSFile)
+	 */
+	public void delete(JFSFile file) {
+		add(JFSTransmission.CMD_DELETE, file);
+	}
+
+	/**
+	 * @see JFSMetadataBatch#flush(JFSFile)
+	 */
+	public void flush(JFSFile file) {
+		add(JFSTransmission.CMD_PUT_INFO, file);
+	}
+
+	/**
+	 * @see JFSMetadataBatch#size()
+	 */
+	public int size() {
+		return commands.size();
+	}
+
+	/**
+	 * @see JFSMetadataBatch#finish()
+	 */
+	public boolean[] finish() {
+		boolean[] results = new boolean[0];
+		if (!commands.isEmpty())
+			results = access.perform(commands, infos);
+		commands.clear();
+		infos.clear();
+
+		return results;
+	}
+}
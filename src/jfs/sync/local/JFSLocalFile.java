@@ -26,10 +26,19 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 
 import jfs.conf.JFSConfig;
+import jfs.conf.JFSConst;
 import jfs.conf.JFSLog;
 import jfs.conf.JFSText;
+import jfs.server.JFSPartialFile;
 import jfs.sync.JFSFile;
 import jfs.sync.JFSFileProducer;
 import jfs.sync.JFSProgress;
@@ -55,18 +64,28 @@ public class JFSLocalFile extends JFSFile {
 	/** Tells whether the file is a directory. */
 	private boolean isDirectory = false;
 
-	/** Tells whether we can execute the file. */
-	private boolean canExecute = false;
+	/**
+	 * Tells whether we can execute the file. Null, if not determined yet.
+	 */
+	private Boolean canExecute = null;
 
-	/** Tells whether we can read the file. */
-	private boolean canRead = true;
+	/** Tells whether we can read the file. Null, if not determined yet. */
+	private Boolean canRead = null;
 
-	/** Tells whether we can write to the file. */
-	private boolean canWrite = true;
+	/**
+	 * Tells whether we can write to the file. Null, if not determined yet.
+	 */
+	private Boolean canWrite = null;
 
 	/** Determines whether the file exists. */
 	private boolean exists = false;
 
+	/**
+	 * The attributes of the file, if it is a directory. Used to validate the
+	 * cached listing of the directory.
+	 */
+	private BasicFileAttributes attributes = null;
+
 	/** The length of the file. Zero for directories. */
 	private long length = 0;
 
@@ -85,6 +104,15 @@ public class JFSLocalFile extends JFSFile {
 	/** The last output stream opened for this file. */
 	private OutputStream out = null;
 
+	/** The partial file of the current copy, if it is resumable. */
+	private JFSPartialFile partial = null;
+
+	/** The offset to resume the current copy at. */
+	private long resumeOffset = 0;
+
+	/** The source file of the current copy, if it is resumable. */
+	private JFSFile resumeSrc = null;
+
 	/**
 	 * Creates a new local JFS file object.
 	 * 
@@ -99,17 +127,106 @@ public class JFSLocalFile extends JFSFile {
 		file = new File(fileProducer.getRootPath() + getRelativePath());
 		name = file.getName();
 		path = file.getPath();
-		isDirectory = file.isDirectory();
-		exists = file.exists();
-		if (exists) {
-			canRead = file.canRead();
-			canWrite = file.canWrite();
+		setAttributes(readAttributes(file));
+	}
+
+	/**
+	 * Creates a new local JFS file object from the attributes read while
+	 * listing the parent directory.
+	 * 
+	 * @param fileProducer
+	 *            The assigned file producer.
+	 * @param relativePath
+	 *            The relative path of the JFS file starting from the root JFS
+	 *            file.
+	 * @param file
+	 *            The corresponding file object.
+	 * @param attributes
+	 *            The attributes of the file or null, if the file does not
+	 *            exist.
+	 */
+	private JFSLocalFile(JFSFileProducer fileProducer, String relativePath,
+			File file, BasicFileAttributes attributes) {
+		super(fileProducer, relativePath);
+		this.file = file;
+		name = file.getName();
+		path = file.getPath();
+		setAttributes(attributes);
+	}
+
+	/**
+	 * Creates a new local JFS file object for an existing file from the
+	 * attributes stored in the listing of a previous scan.
+	 * 
+	 * @param fileProducer
+	 *            The assigned file producer.
+	 * @param relativePath
+	 *            The relative path of the JFS file starting from the root JFS
+	 *            file.
+	 * @param file
+	 *            The corresponding file object.
+	 * @param length
+	 *            The length of the file.
+	 * @param lastModified
+	 *            The time of last modification of the file.
+	 */
+	private JFSLocalFile(JFSFileProducer fileProducer, String relativePath,
+			File file, long length, long lastModified) {
+		super(fileProducer, relativePath);
+		this.file = file;
+		name = file.getName();
+		path = file.getPath();
+		exists = true;
+		this.length = length;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * Reads all basic attributes of a file at once; that is, with a single
+	 * file system access instead of one access per attribute.
+	 * 
+	 * @param file
+	 *            The file to read the attributes for.
+	 * @return The attributes or null, if the file does not exist or cannot be
+	 *         accessed.
+	 */
+	private static final BasicFileAttributes readAttributes(File file) {
+		try {
+			return Files.readAttributes(file.toPath(),
+					BasicFileAttributes.class);
+		} catch (IOException e) {
+			return null;
+		} catch (InvalidPathException e) {
+			return null;
 		}
-		if (!isDirectory) {
-			length = file.length();
-			lastModified = file.lastModified();
-			canExecute = file.canExecute();
+	}
+
+	/**
+	 * Sets the attributes of the file. The access rights are determined when
+	 * they are requested for the first time, because they are only needed
+	 * for files to synchronize.
+	 * 
+	 * @param attributes
+	 *            The attributes of the file or null, if the file does not
+	 *            exist.
+	 */
+	private final void setAttributes(BasicFileAttributes attributes) {
+		exists = attributes != null;
+		if (exists) {
+			isDirectory = attributes.isDirectory();
+			if (isDirectory) {
+				this.attributes = attributes;
+			} else {
+				length = attributes.size();
+				lastModified = attributes.lastModifiedTime().toMillis();
+			}
+		} else {
+			canRead = Boolean.TRUE;
+			canWrite = Boolean.TRUE;
+			canExecute = Boolean.FALSE;
 		}
+		if (isDirectory)
+			canExecute = Boolean.FALSE;
 	}
 
 	/**
@@ -144,6 +261,9 @@ public class JFSLocalFile extends JFSFile {
 	 * @see JFSFile#canRead()
 	 */
 	public final boolean canRead() {
+		if (canRead == null)
+			canRead = file.canRead();
+
 		return canRead;
 	}
 
@@ -151,6 +271,9 @@ public class JFSLocalFile extends JFSFile {
 	 * @see JFSFile#canWrite()
 	 */
 	public final boolean canWrite() {
+		if (canWrite == null)
+			canWrite = file.canWrite();
+
 		return canWrite;
 	}
 
@@ -158,6 +281,9 @@ public class JFSLocalFile extends JFSFile {
 	 * @see JFSFile#canWrite()
 	 */
 	public final boolean canExecute() {
+		if (canExecute == null)
+			canExecute = file.canExecute();
+
 		return canExecute;
 	}
 
@@ -175,22 +301,157 @@ public class JFSLocalFile extends JFSFile {
 		return lastModified;
 	}
 
+	/**
+	 * Returns the cached directory listings of the assigned file producer.
+	 * 
+	 * @return The cache or null, if no cache is used.
+	 */
+	private final JFSScanCache getScanCache() {
+		if (fileProducer instanceof JFSLocalFileProducer)
+			return ((JFSLocalFileProducer) fileProducer).getScanCache();
+
+		return null;
+	}
+
+	/**
+	 * Drops the cached listing of the parent directory, because the file is
+	 * modified.
+	 */
+	private final void invalidate() {
+		JFSScanCache cache = getScanCache();
+		if (cache != null) {
+			String relativePath = getRelativePath();
+			cache.invalidate(relativePath.substring(0, Math.max(relativePath
+					.lastIndexOf(File.separatorChar), 0)));
+		}
+	}
+
+	/**
+	 * Reads the names of all files contained in the directory with a single
+	 * stream.
+	 * 
+	 * @return The names of the contained files or null, if the directory
+	 *         cannot be read.
+	 */
+	private final String[] readNames() {
+		ArrayList<String> names = new ArrayList<String>();
+		try {
+			DirectoryStream<Path> stream = Files.newDirectoryStream(file
+					.toPath());
+			try {
+				for (Path p : stream)
+					names.add(p.getFileName().toString());
+			} finally {
+				stream.close();
+			}
+		} catch (IOException e) {
+			return null;
+		} catch (InvalidPathException e) {
+			return null;
+		} catch (DirectoryIteratorException e) {
+			return null;
+		}
+
+		return names.toArray(new String[names.size()]);
+	}
+
+	/**
+	 * Reads the attributes of all contained files. If the file producer
+	 * filters its listings, the include and exclude filters are applied
+	 * before the attributes are read; that is, files excluded by name are
+	 * never accessed and excluded directories are never entered. The
+	 * attributes of files stored in the listing of a previous scan are not
+	 * read again.
+	 * 
+	 * @param names
+	 *            The names of the contained files.
+	 * @param cached
+	 *            The listing of a previous scan the names are taken from or
+	 *            null, if the directory was read.
+	 * @param read
+	 *            Takes the attributes read for every name, if not null.
+	 * @return The contained files or null, if a cached listing is
+	 *         inconsistent; that is, one of the files does not exist any
+	 *         more.
+	 */
+	private final JFSFile[] readList(String[] names,
+			JFSScanCache.Entry cached, BasicFileAttributes[] read) {
+		JFSConfig config = null;
+		if (fileProducer.isFiltered())
+			config = JFSConfig.getInstance();
+
+		ArrayList<JFSFile> files = new ArrayList<JFSFile>(names.length);
+		for (int i = 0; i < names.length; i++) {
+			String n = names[i];
+			File f = new File(file, n);
+			String relativePath = getRelativePath() + File.separatorChar + n;
+
+			// Skip the contents of interrupted copies:
+			if (JFSFile.isPartialFile(n))
+				continue;
+
+			// Skip files excluded independently of their type:
+			if (config != null
+					&& !config.isIncluded(n, relativePath, f.getPath(), true)
+					&& !config.isIncluded(n, relativePath, f.getPath(), false))
+				continue;
+
+			// Take the attributes of unchanged files from the cached listing:
+			if (cached != null && cached.lengths[i] != JFSScanCache.UNKNOWN) {
+				if (config == null
+						|| config.isIncluded(n, relativePath, f.getPath(),
+								false))
+					files.add(new JFSLocalFile(fileProducer, relativePath, f,
+							cached.lengths[i], cached.times[i]));
+				continue;
+			}
+
+			BasicFileAttributes attributes = readAttributes(f);
+			if (attributes == null && cached != null)
+				return null;
+			if (read != null)
+				read[i] = attributes;
+			if (config != null
+					&& !config.isIncluded(n, relativePath, f.getPath(),
+							attributes != null && attributes.isDirectory()))
+				continue;
+			files.add(new JFSLocalFile(fileProducer, relativePath, f,
+					attributes));
+		}
+
+		return files.toArray(new JFSFile[files.size()]);
+	}
+
 	/**
 	 * @see JFSFile#getList()
 	 */
-	public final JFSFile[] getList() {
+	public final synchronized JFSFile[] getList() {
 		if (list == null) {
-			String[] files = file.list();
-
-			if (files != null) {
-				list = new JFSFile[files.length];
+			// Use the listing of the previous scan, if the directory was not
+			// modified, and fall back to reading the directory:
+			JFSScanCache cache = getScanCache();
+			if (cache != null && attributes != null) {
+				JFSScanCache.Entry e = cache.get(getRelativePath(),
+						attributes);
+				if (e != null)
+					list = readList(e.names, e, null);
+			}
+			if (list == null) {
+				String[] names = readNames();
+				if (names != null) {
+					BasicFileAttributes[] read = null;
+					if (cache != null && attributes != null)
+						read = new BasicFileAttributes[names.length];
+					list = readList(names, null, read);
+
+					// Cache all names, because the filters may change:
+					if (read != null)
+						cache.put(getRelativePath(), attributes, names, read);
+				}
+			}
 
-				for (int i = 0; i < files.length; i++)
-					list[i] = new JFSLocalFile(fileProducer, getRelativePath()
-							+ File.separatorChar + files[i]);
-			} else {
+			if (list == null)
 				list = new JFSLocalFile[0];
-			}
 		}
 
 		return list;
@@ -207,6 +468,7 @@ public class JFSLocalFile extends JFSFile {
 	 * @see JFSFile#mkdir()
 	 */
 	public final boolean mkdir() {
+		invalidate();
 		boolean success = file.mkdir();
 
 		if (success)
@@ -219,6 +481,7 @@ public class JFSLocalFile extends JFSFile {
 	 * @see JFSFile#setLastModified(long)
 	 */
 	public final boolean setLastModified(long time) {
+		invalidate();
 		boolean success = file.setLastModified(time);
 
 		if (success)
@@ -238,7 +501,7 @@ public class JFSLocalFile extends JFSFile {
 		boolean success = file.setReadOnly();
 
 		if (success)
-			canWrite = false;
+			canWrite = Boolean.FALSE;
 
 		return success;
 	}
@@ -254,7 +517,7 @@ public class JFSLocalFile extends JFSFile {
 		boolean success = file.setExecutable(true);
 
 		if (success)
-			canExecute = true;
+			canExecute = Boolean.TRUE;
 
 		return success;
 	}
@@ -263,7 +526,8 @@ public class JFSLocalFile extends JFSFile {
 	 * @see JFSFile#delete()
 	 */
 	public final boolean delete() {
-		return file.delete();
+		invalidate();
+		return JFSPartialFile.delete(file);
 	}
 
 	/**
@@ -278,14 +542,35 @@ public class JFSLocalFile extends JFSFile {
 		}
 	}
 
+	/**
+	 * @see JFSFile#getInputStream(long)
+	 */
+	protected InputStream getInputStream(long offset) {
+		getInputStream();
+
+		try {
+			if (in != null && offset > 0)
+				((FileInputStream) in).getChannel().position(offset);
+		} catch (IOException e) {
+			return null;
+		}
+
+		return in;
+	}
+
 	/**
 	 * @see JFSFile#getOutputStream()
 	 */
 	protected OutputStream getOutputStream() {
+		invalidate();
 		try {
-			out = new FileOutputStream(getPath());
+			if (partial != null) {
+				out = partial.getOutputStream(resumeOffset);
+			} else {
+				out = new FileOutputStream(getPath());
+			}
 			return out;
-		} catch (FileNotFoundException e) {
+		} catch (IOException e) {
 			return null;
 		}
 	}
@@ -318,6 +603,50 @@ public class JFSLocalFile extends JFSFile {
 		} catch (IOException e) {
 			JFSLog.getErr().getStream().println(t.get("error.io") + " " + e);
 		}
+
+		if (partial != null)
+			partial.checkpoint(resumeSrc.getLength(), resumeSrc
+					.getLastModified());
+	}
+
+	/**
+	 * @see JFSFile#getResumeOffset(JFSFile)
+	 */
+	protected long getResumeOffset(JFSFile srcFile) {
+		partial = null;
+		resumeSrc = null;
+		if (srcFile.getLength() < JFSConst.RESUME_THRESHOLD)
+			return -1;
+
+		partial = new JFSPartialFile(file);
+		resumeSrc = srcFile;
+		resumeOffset = partial.getOffset(srcFile.getLength(), srcFile
+				.getLastModified());
+
+		return resumeOffset;
+	}
+
+	/**
+	 * @see JFSFile#renameTo(JFSFile)
+	 */
+	protected boolean renameTo(JFSFile tgtFile) {
+		invalidate();
+		if (tgtFile instanceof JFSLocalFile)
+			((JFSLocalFile) tgtFile).invalidate();
+		try {
+			Files.move(file.toPath(), tgtFile.getFile().toPath());
+			exists = false;
+
+			return true;
+		} catch (IOException e) {
+			JFSLog.getErr().getStream().println(
+					JFSText.getInstance().get("error.io") + " '"
+							+ e.getMessage() + "'.");
+
+			return false;
+		} catch (InvalidPathException e) {
+			return false;
+		}
 	}
 
 	/**
@@ -342,6 +671,13 @@ public class JFSLocalFile extends JFSFile {
 
 		// Set last modified and read-only only when file is no directory:
 		if (!JFSProgress.getInstance().isCanceled() && !srcFile.isDirectory()) {
+			// Replace the target by the completely transfered partial file:
+			if (partial != null) {
+				JFSPartialFile p = partial;
+				partial = null;
+				if (!p.complete(srcFile.getLength()))
+					return false;
+			}
 			exists = true;
 			length = srcFile.getLength();
 			success = success && setLastModified(srcFile.getLastModified());
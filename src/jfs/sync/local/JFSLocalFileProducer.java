@@ -19,6 +19,7 @@
 
 package jfs.sync.local;
 
+import jfs.conf.JFSConfig;
 import jfs.conf.JFSConst;
 import jfs.sync.JFSFile;
 import jfs.sync.JFSFileProducer;
@@ -31,11 +32,46 @@ import jfs.sync.JFSFileProducer;
  *          Exp $
  */
 public class JFSLocalFileProducer extends JFSFileProducer {
+	/** The cached directory listings. Null, if no cache is used. */
+	private JFSScanCache cache = null;
+
+	/** Determines whether excluded files may be omitted from listings. */
+	private boolean filtered = false;
+
 	/**
 	 * @see JFSFileProducer#JFSFileProducer(String, String)
 	 */
 	public JFSLocalFileProducer(String uri) {
 		super(JFSConst.SCHEME_LOCAL, uri);
+		if (JFSConfig.getInstance().isUseScanCache())
+			cache = new JFSScanCache(getRootPath());
+	}
+
+	/**
+	 * Returns the cached directory listings.
+	 * 
+	 * @return The cache or null, if no cache is used.
+	 */
+	final JFSScanCache getScanCache() {
+		return cache;
+	}
+
+	/**
+	 * @see JFSFileProducer#setFiltered(boolean)
+	 */
+	public final void setFiltered(boolean filtered) {
+		this.filtered = filtered;
+	}
+
+	/**
+	 * Path filters are not applied while reading directories, because they
+	 * may exclude a file on one side only; that is, the file would be
+	 * treated as missing on this side instead of being excluded at all.
+	 * 
+	 * @see JFSFileProducer#isFiltered()
+	 */
+	public final boolean isFiltered() {
+		return filtered && !JFSConfig.getInstance().hasPathFilters();
 	}
 
 	/**
@@ -19,6 +19,8 @@
 
 package jfs.sync.local;
 
+import java.util.HashMap;
+
 import jfs.sync.JFSFileProducer;
 import jfs.sync.JFSFileProducerFactory;
 
@@ -30,23 +32,32 @@ import jfs.sync.JFSFileProducerFactory;
  *          heidrich Exp $
  */
 public class JFSLocalFileProducerFactory extends JFSFileProducerFactory {
+	/** The map of file producers. */
+	private HashMap<String, JFSLocalFileProducer> producers = new HashMap<String, JFSLocalFileProducer>();
+
 	/**
 	 * @see JFSFileProducerFactory#resetProducers()
 	 */
 	public final void resetProducers() {
+		producers.clear();
 	}
 
 	/**
 	 * @see JFSFileProducerFactory#createProducer(String)
 	 */
 	public final JFSFileProducer createProducer(String uri) {
-		return new JFSLocalFileProducer(uri);
+		JFSLocalFileProducer p = new JFSLocalFileProducer(uri);
+		producers.put(uri, p);
+		return p;
 	}
 
 	/**
 	 * @see JFSFileProducerFactory#shutDownProducer(String)
 	 */
 	public final void shutDownProducer(String uri) {
+		JFSLocalFileProducer p = producers.remove(uri);
+		if (p != null && p.getScanCache() != null)
+			p.getScanCache().store();
 	}
 
 	/**
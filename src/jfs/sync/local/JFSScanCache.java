@@ -0,0 +1,339 @@
+/*
+ * JFileSync
+ * Copyright (C) 2002-2007, Jens Heidrich
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA, 02110-1301, USA
+ */
+
+package jfs.sync.local;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jfs.conf.JFSConst;
+import jfs.conf.JFSLog;
+import jfs.conf.JFSText;
+
+/**
+ * Caches the listings of the directories of a local root directory between
+ * two comparisons. The listing of a directory is stored together with its
+ * time stamp and file key as well as the length and time stamp of every
+ * contained file. As long as the time stamp and file key of the directory
+ * are unchanged, no files were added, removed, or renamed within the
+ * directory, so neither the directory nor the contained files are read
+ * again; only contained directories are accessed in order to validate their
+ * own listings. Changing the contents of a file in place does not change
+ * the time stamp of its directory, so such changes made outside JFileSync
+ * are not detected until the cache is cleared. Changes made by JFileSync
+ * itself drop the listing of the affected directory.
+ * 
+ * @author Jens Heidrich
+ * @version $Id$
+ */
+public class JFSScanCache {
+
+	/** The version of the cache file format. */
+	private static final int VERSION = 2;
+
+	/** Marks a contained file, whose attributes have to be read again. */
+	static final long UNKNOWN = -1;
+
+	/** The root path the cache is created for. */
+	private final String rootPath;
+
+	/** The file the cache is stored in and loaded from. */
+	private final File file;
+
+	/** The time the cache was created; that is, the scan was started. */
+	private final long created;
+
+	/** The listings loaded from file. */
+	private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	/** The listings read during the current scan. */
+	private final Map<String, Entry> snapshot = new ConcurrentHashMap<String, Entry>();
+
+	/**
+	 * The listing of a single directory.
+	 */
+	static final class Entry {
+		/** The time stamp of the directory. */
+		long lastModified;
+
+		/** The identity of the directory. */
+		String key;
+
+		/** The names of all contained files and directories. */
+		String[] names;
+
+		/**
+		 * The lengths of all contained files; {@link JFSScanCache#UNKNOWN}
+		 * for directories and files, whose attributes have to be read.
+		 */
+		long[] lengths;
+
+		/** The time stamps of all contained files. */
+		long[] times;
+	}
+
+	/**
+	 * Creates a new cache for a root path and loads the listings of the
+	 * previous scan.
+	 * 
+	 * @param rootPath
+	 *            The root path.
+	 */
+	JFSScanCache(String rootPath) {
+		this.rootPath = rootPath;
+		file = new File(JFSConst.HOME_DIR + File.separatorChar
+				+ JFSConst.SCAN_CACHE_FILE_PREFIX + getDigest(rootPath)
+				+ ".dat");
+		created = System.currentTimeMillis();
+		load();
+	}
+
+	/**
+	 * Returns the SHA-1 digest of a root path as hexadecimal string, which
+	 * is used to name the cache file of the root path.
+	 * 
+	 * @param rootPath
+	 *            The root path.
+	 * @return The digest.
+	 */
+	private static final String getDigest(String rootPath) {
+		byte[] digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1").digest(
+					rootPath.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform supports SHA-1; the root path is stored in
+			// the file, so that a collision only results in a full scan:
+			return Integer.toHexString(rootPath.hashCode());
+		}
+
+		StringBuilder s = new StringBuilder(2 * digest.length);
+		for (byte b : digest)
+			s.append(String.format("%02x", b & 0xff));
+
+		return s.toString();
+	}
+
+	/**
+	 * Returns the identity of a directory, like the inode on Unix systems.
+	 * 
+	 * @param attributes
+	 *            The attributes of the directory.
+	 * @return The identity or an empty string, if not supported.
+	 */
+	private static final String getKey(BasicFileAttributes attributes) {
+		Object key = attributes.fileKey();
+		if (key != null) {
+			return key.toString();
+		} else {
+			return "";
+		}
+	}
+
+	/**
+	 * Returns the cached listing of a directory, if the directory was not
+	 * modified since the previous scan. The listing is kept for the next
+	 * scan.
+	 * 
+	 * @param relativePath
+	 *            The relative path of the directory.
+	 * @param attributes
+	 *            The current attributes of the directory.
+	 * @return The listing or null, if the directory has to be read.
+	 */
+	final Entry get(String relativePath, BasicFileAttributes attributes) {
+		Entry e = entries.get(relativePath);
+		if (e != null
+				&& e.lastModified == attributes.lastModifiedTime().toMillis()
+				&& e.key.equals(getKey(attributes))) {
+			snapshot.put(relativePath, e);
+			return e;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Puts the listing of a directory to the cache. The listing is ignored,
+	 * if the directory was modified just before the scan was started, because
+	 * later modifications may not change its time stamp. For the same
+	 * reason, the attributes of files modified just before the scan are read
+	 * again during the next scan.
+	 * 
+	 * @param relativePath
+	 *            The relative path of the directory.
+	 * @param attributes
+	 *            The attributes of the directory.
+	 * @param names
+	 *            The names of all contained files and directories.
+	 * @param children
+	 *            The attributes of the contained files and directories; an
+	 *            element is null, if the attributes were not read.
+	 */
+	final void put(String relativePath, BasicFileAttributes attributes,
+			String[] names, BasicFileAttributes[] children) {
+		long limit = created - JFSConst.SCAN_CACHE_GRANULARITY;
+		long lastModified = attributes.lastModifiedTime().toMillis();
+		if (lastModified < limit) {
+			Entry e = new Entry();
+			e.lastModified = lastModified;
+			e.key = getKey(attributes);
+			e.names = names;
+			e.lengths = new long[names.length];
+			e.times = new long[names.length];
+			for (int i = 0; i < names.length; i++) {
+				BasicFileAttributes a = children[i];
+				e.lengths[i] = UNKNOWN;
+				if (a != null && !a.isDirectory()
+						&& a.lastModifiedTime().toMillis() < limit) {
+					e.lengths[i] = a.size();
+					e.times[i] = a.lastModifiedTime().toMillis();
+				}
+			}
+			snapshot.put(relativePath, e);
+		}
+	}
+
+	/**
+	 * Drops the listing of a directory, because its contents were modified.
+	 * 
+	 * @param relativePath
+	 *            The relative path of the directory.
+	 */
+	final void invalidate(String relativePath) {
+		entries.remove(relativePath);
+		snapshot.remove(relativePath);
+	}
+
+	/**
+	 * Loads the listings of the previous scan. If the file is missing or
+	 * inconsistent, the cache is empty; that is, all directories are read.
+	 */
+	private final void load() {
+		if (!file.exists())
+			return;
+
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+			try {
+				if (in.readInt() != VERSION || !in.readUTF().equals(rootPath))
+					return;
+
+				int size = in.readInt();
+				for (int i = 0; i < size; i++) {
+					String relativePath = in.readUTF();
+					Entry e = new Entry();
+					e.lastModified = in.readLong();
+					e.key = in.readUTF();
+					e.names = new String[in.readInt()];
+					e.lengths = new long[e.names.length];
+					e.times = new long[e.names.length];
+					for (int j = 0; j < e.names.length; j++) {
+						e.names[j] = in.readUTF();
+						e.lengths[j] = in.readLong();
+						e.times[j] = in.readLong();
+					}
+					entries.put(relativePath, e);
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			entries.clear();
+		}
+	}
+
+	/**
+	 * Stores the listings read during the current scan. The listings of the
+	 * previous scan are replaced.
+	 */
+	final void store() {
+		File dir = new File(JFSConst.HOME_DIR);
+		File tmp = new File(file.getPath() + ".tmp");
+
+		try {
+			if (!dir.exists() && !dir.mkdir())
+				throw new IOException(dir.getPath());
+
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				out.writeInt(VERSION);
+				out.writeUTF(rootPath);
+				out.writeInt(snapshot.size());
+				for (Map.Entry<String, Entry> me : snapshot.entrySet()) {
+					Entry e = me.getValue();
+					out.writeUTF(me.getKey());
+					out.writeLong(e.lastModified);
+					out.writeUTF(e.key);
+					out.writeInt(e.names.length);
+					for (int i = 0; i < e.names.length; i++) {
+						out.writeUTF(e.names[i]);
+						out.writeLong(e.lengths[i]);
+						out.writeLong(e.times[i]);
+					}
+				}
+			} finally {
+				out.close();
+			}
+
+			if (file.exists() && !file.delete())
+				throw new IOException(file.getPath());
+			if (!tmp.renameTo(file))
+				throw new IOException(file.getPath());
+		} catch (IOException e) {
+			tmp.delete();
+			JFSLog.getErr().getStream().println(
+					JFSText.getInstance().get("error.io") + " '"
+							+ e.getMessage() + "'.");
+		}
+	}
+
+	/**
+	 * Deletes all scan cache files from the JFS configuration directory; that
+	 * is, all directories are read again during the next comparison.
+	 */
+	public final static void deleteAll() {
+		File[] files = new File(JFSConst.HOME_DIR).listFiles();
+		if (files == null)
+			return;
+
+		for (File f : files) {
+			if (f.getName().startsWith(JFSConst.SCAN_CACHE_FILE_PREFIX)) {
+				if (!f.delete())
+					JFSLog.getErr().getStream().println(
+							JFSText.getInstance().get("error.io") + " '"
+									+ f.getPath() + "'.");
+			}
+		}
+	}
+}
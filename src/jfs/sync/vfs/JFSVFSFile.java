@@ -297,7 +297,7 @@ public class JFSVFSFile extends JFSFile {
 	/**
 	 * @see JFSFile#getList()
 	 */
-	public JFSFile[] getList() {
+	public synchronized JFSFile[] getList() {
 		if (file == null) {
 			return new JFSVFSFile[0];
 		}
@@ -0,0 +1,190 @@
+/*
+ * JFileSync
+ * Copyright (C) 2002-2007, Jens Heidrich
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA, 02110-1301, USA
+ */
+
+
+package jfs.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.Socket;
+
+import jfs.conf.JFSConfig;
+
+/**
+ * Measures the number of requests per second a JFS server handles on the
+ * loopback interface, using serialized transmission objects on the one hand
+ * and the binary protocol on the other hand. A server is started on a
+ * temporary base directory; the requests alternately get information about a
+ * file, create and delete a directory, and check whether the socket is alive.
+ * Usage: ProtocolBenchmark [number of requests] [port]
+ * 
+ * @author Jens Heidrich
+ * @version $Id$
+ */
+public class ProtocolBenchmark {
+	/**
+	 * Runs the benchmark.
+	 * 
+	 * @param args
+	 *            The number of requests per protocol and the server port.
+	 * @throws Exception
+	 *             Thrown in case of problems.
+	 */
+	public static void main(String[] args) throws Exception {
+		int requests = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : 55299;
+
+		// Discard the log of the server:
+		PrintStream result = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			public void write(int b) {
+			}
+
+			public void write(byte[] b, int off, int len) {
+			}
+		}));
+
+		File base = File.createTempFile("jfs", ".bench");
+		base.delete();
+		base.mkdir();
+		new File(base, "file").createNewFile();
+
+		JFSConfig config = JFSConfig.getInstance();
+		config.setServerBase(base.getPath());
+		config.setServerPort(port);
+		JFSServer server = JFSServerFactory.getInstance().getServer();
+		server.start();
+		Thread.sleep(500);
+
+		// Warm up both protocols before measuring:
+		run(port, false, requests / 10);
+		run(port, true, requests / 10);
+
+		long serialized = run(port, false, requests);
+		long binary = run(port, true, requests);
+		result.println("Serialized objects: " + requests + " requests in "
+				+ serialized / 1000000 + " ms, " + rate(requests, serialized)
+				+ " requests/s");
+		result.println("Binary protocol:    " + requests + " requests in "
+				+ binary / 1000000 + " ms, " + rate(requests, binary)
+				+ " requests/s");
+
+		server.stopServer();
+		new File(base, "file").delete();
+		base.delete();
+		System.exit(0);
+	}
+
+	/**
+	 * Sends a number of requests over a new connection.
+	 * 
+	 * @param port
+	 *            The server port.
+	 * @param binary
+	 *            Determines whether the binary protocol is used.
+	 * @param requests
+	 *            The number of requests.
+	 * @return The elapsed time in nanoseconds.
+	 * @throws Exception
+	 *             Thrown in case of problems.
+	 */
+	private static long run(int port, boolean binary, int requests)
+			throws Exception {
+		Socket socket = new Socket("localhost", port);
+		long start = System.nanoTime();
+
+		if (binary) {
+			// Negotiate the binary protocol:
+			if (!(request(socket, false, new JFSTransmission(
+					JFSTransmission.CMD_IS_ALIVE, JFSWireProtocol.VERSION)) instanceof Integer))
+				throw new IOException("Binary protocol not supported");
+		}
+
+		for (int i = 0; i < requests; i++) {
+			JFSTransmission t;
+			switch (i % 4) {
+			case 0:
+				t = new JFSTransmission(JFSTransmission.CMD_GET_INFO,
+						new JFSFileInfo("", "file"));
+				break;
+			case 1:
+				t = new JFSTransmission(JFSTransmission.CMD_MKDIR,
+						new JFSFileInfo("", "dir"));
+				break;
+			case 2:
+				t = new JFSTransmission(JFSTransmission.CMD_DELETE,
+						new JFSFileInfo("", "dir"));
+				break;
+			default:
+				t = new JFSTransmission(JFSTransmission.CMD_IS_ALIVE);
+			}
+			request(socket, binary, t);
+		}
+		long time = System.nanoTime() - start;
+		socket.close();
+
+		return time;
+	}
+
+	/**
+	 * Sends a single request and reads the reply.
+	 * 
+	 * @param socket
+	 *            The socket to use.
+	 * @param binary
+	 *            Determines whether the binary protocol is used.
+	 * @param t
+	 *            The transmission to send.
+	 * @return The reply.
+	 * @throws Exception
+	 *             Thrown in case of problems.
+	 */
+	private static Object request(Socket socket, boolean binary,
+			JFSTransmission t) throws Exception {
+		if (binary) {
+			JFSWireProtocol.writeRequest(socket.getOutputStream(), t);
+
+			return JFSWireProtocol.readReply(socket.getInputStream());
+		}
+
+		ObjectOutputStream oo = new ObjectOutputStream(socket
+				.getOutputStream());
+		oo.writeObject(t);
+		ObjectInputStream oi = new ObjectInputStream(socket.getInputStream());
+
+		return oi.readObject();
+	}
+
+	/**
+	 * Computes the number of requests per second.
+	 * 
+	 * @param requests
+	 *            The number of requests.
+	 * @param nanos
+	 *            The elapsed time in nanoseconds.
+	 * @return The rate.
+	 */
+	private static long rate(int requests, long nanos) {
+		return nanos > 0 ? requests * 1000000000L / nanos : 0;
+	}
+}
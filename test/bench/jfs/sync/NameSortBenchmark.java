@@ -0,0 +1,164 @@
+/*
+ * JFileSync
+ * Copyright (C) 2002-2007, Jens Heidrich
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA, 02110-1301, USA
+ */
+
+
+package jfs.sync;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import jfs.sync.local.JFSLocalFileProducer;
+
+/**
+ * Measures the time needed to sort the listing of a large flat directory with
+ * the heap sort formerly used by the comparison and with the name sort used
+ * now. The directory is created in the temporary directory of the system and
+ * deleted afterwards. Usage: NameSortBenchmark [number of files] [rounds]
+ * 
+ * @author Jens Heidrich
+ * @version $Id$
+ */
+public class NameSortBenchmark {
+	/**
+	 * Sorts an array with the recursive heap sort formerly used by the
+	 * comparison, which calls the compareTo method of the file objects.
+	 * 
+	 * @param c
+	 *            The array to sort.
+	 */
+	private static void heapSort(JFSFile[] c) {
+		int left = (c.length / 2) + 1;
+		int right = c.length;
+
+		while (left > 1) {
+			left--;
+			heapify(c, left, right);
+		}
+
+		while (right > 1) {
+			JFSFile temp = c[right - 1];
+			c[right - 1] = c[left - 1];
+			c[left - 1] = temp;
+			right--;
+			heapify(c, left, right);
+		}
+	}
+
+	/**
+	 * Heapfies the array within a certain region.
+	 * 
+	 * @param c
+	 *            The array.
+	 * @param left
+	 *            The left side of the region.
+	 * @param right
+	 *            The right side of the region.
+	 */
+	private static void heapify(JFSFile[] c, int left, int right) {
+		int k = 2 * left;
+
+		if (k > right)
+			return;
+
+		if ((k + 1) > right) {
+			if (c[k - 1].compareTo(c[left - 1]) > 0) {
+				JFSFile temp = c[k - 1];
+				c[k - 1] = c[left - 1];
+				c[left - 1] = temp;
+			}
+
+			return;
+		}
+
+		if (c[k - 1].compareTo(c[k]) < 0)
+			k++;
+
+		if (c[left - 1].compareTo(c[k - 1]) < 0) {
+			JFSFile temp = c[k - 1];
+			c[k - 1] = c[left - 1];
+			c[left - 1] = temp;
+			heapify(c, k, right);
+		}
+	}
+
+	/**
+	 * Runs the benchmark.
+	 * 
+	 * @param args
+	 *            The number of files and the number of rounds.
+	 * @throws IOException
+	 *             If the test directory cannot be created.
+	 */
+	public static void main(String[] args) throws IOException {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		File dir = File.createTempFile("jfs-bench", "");
+		dir.delete();
+		dir.mkdir();
+		try {
+			System.out.println("Creating " + size + " files in '" + dir
+					+ "'...");
+			for (int i = 0; i < size; i++)
+				new File(dir, "file"
+						+ Integer.toString((int) ((long) i * 7919 % size), 36)
+						+ ".txt").createNewFile();
+
+			JFSFile root = new JFSLocalFileProducer(dir.getPath())
+					.getRootJfsFile();
+			List<JFSFile> list = Arrays.asList(root.getList());
+			Random random = new Random(42);
+
+			for (int r = 0; r < rounds; r++) {
+				Collections.shuffle(list, random);
+				JFSFile[] shuffled = list.toArray(new JFSFile[size]);
+
+				JFSFile[] files = shuffled.clone();
+				long start = System.nanoTime();
+				heapSort(files);
+				long heap = System.nanoTime() - start;
+
+				files = shuffled.clone();
+				start = System.nanoTime();
+				NameSort.sort(files, false);
+				long name = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				NameSort.sort(files, true);
+				long sorted = System.nanoTime() - start;
+
+				System.out.println("Round " + (r + 1) + ": heap sort "
+						+ heap / 1000000 + " ms, name sort " + name
+						/ 1000000 + " ms, sorted listing " + sorted
+						/ 1000000 + " ms");
+			}
+		} finally {
+			File[] files = dir.listFiles();
+			if (files != null) {
+				for (File f : files)
+					f.delete();
+			}
+			dir.delete();
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * JFileSync
+ * Copyright (C) 2002-2007, Jens Heidrich
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA, 02110-1301, USA
+ */
+
+
+package jfs.sync;
+
+import jfs.sync.JFSProgress.ProgressActivity;
+
+/**
+ * Measures how long the algorithm is blocked by updating the progress, while
+ * a slow observer is attached (e.g., a console or a graphical view). A copy
+ * loop is simulated, which updates the progress after every buffer. Usage:
+ * ProgressBenchmark [number of buffers] [observer delay (ms)]
+ * 
+ * @author Jens Heidrich
+ * @version $Id$
+ */
+public class ProgressBenchmark {
+	/**
+	 * Runs the benchmark.
+	 * 
+	 * @param args
+	 *            The number of buffers and the delay of the observer.
+	 */
+	public static void main(String[] args) {
+		int buffers = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+		final long delay = args.length > 1 ? Long.parseLong(args[1]) : 50;
+
+		JFSProgress progress = JFSProgress.getInstance();
+		final int[] updates = new int[1];
+		progress.attach(new JFSProgressObserver() {
+			public void update(JFSProgress progress) {
+				updates[0]++;
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+
+		JFSCopyMonitor monitor = JFSCopyMonitor.getInstance();
+		byte[] src = new byte[4096];
+		byte[] tgt = new byte[4096];
+		long blocked = 0;
+		long maxBlocked = 0;
+
+		progress.prepare(ProgressActivity.SYNCHRONIZATION_COPY);
+		monitor.clean();
+		monitor.setBytesToTransfer((long) buffers * src.length);
+		progress.start();
+		long start = System.nanoTime();
+		monitor.startTransfer(null, null, (long) buffers * src.length);
+		for (int i = 0; i < buffers; i++) {
+			System.arraycopy(src, 0, tgt, 0, src.length);
+			monitor.setBytesTransferedCurrentFile((long) (i + 1)
+					* src.length);
+			long t = System.nanoTime();
+			progress.fireUpdate();
+			t = System.nanoTime() - t;
+			blocked += t;
+			maxBlocked = Math.max(maxBlocked, t);
+		}
+		monitor.endTransfer((long) buffers * src.length);
+		long total = System.nanoTime() - start;
+		progress.end();
+
+		System.out.println("Copying " + buffers + " buffers (observer "
+				+ delay + " ms): total " + total / 1000000 + " ms, blocked "
+				+ blocked / 1000000 + " ms, longest update " + maxBlocked
+				/ 1000 + " us, " + updates[0] + " notifications");
+	}
+}
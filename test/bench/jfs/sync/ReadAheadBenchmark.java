@@ -0,0 +1,159 @@
+/*
+ * JFileSync
+ * Copyright (C) 2002-2007, Jens Heidrich
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA, 02110-1301, USA
+ */
+
+
+package jfs.sync;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Measures the time needed to copy contents between two slow devices, which
+ * are simulated by streams waiting a fixed time for every buffer. The contents
+ * are copied by alternately reading and writing, as formerly done by JFS
+ * files, and by reading ahead on a separate thread. Usage:
+ * ReadAheadBenchmark [number of buffers] [read delay (ms)] [write delay (ms)]
+ * 
+ * @author Jens Heidrich
+ * @version $Id$
+ */
+public class ReadAheadBenchmark {
+	/** The size of a buffer. */
+	private static final int BUFFER_SIZE = 65536;
+
+	/**
+	 * Waits for the given time.
+	 * 
+	 * @param ms
+	 *            The time in milliseconds.
+	 */
+	private static void delay(long ms) {
+		try {
+			Thread.sleep(ms);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Simulates a slow source device.
+	 */
+	private static class SlowInputStream extends InputStream {
+		/** The remaining bytes. */
+		private long remaining;
+
+		/** The delay per read. */
+		private final long delay;
+
+		/**
+		 * Creates a new stream.
+		 * 
+		 * @param length
+		 *            The number of bytes.
+		 * @param delay
+		 *            The delay per read in milliseconds.
+		 */
+		SlowInputStream(long length, long delay) {
+			this.remaining = length;
+			this.delay = delay;
+		}
+
+		public int read() {
+			throw new UnsupportedOperationException();
+		}
+
+		public int read(byte[] b, int off, int len) {
+			if (remaining == 0)
+				return -1;
+			delay(delay);
+			len = (int) Math.min(len, remaining);
+			remaining -= len;
+			return len;
+		}
+	}
+
+	/**
+	 * Simulates a slow target device.
+	 */
+	private static class SlowOutputStream extends OutputStream {
+		/** The delay per write. */
+		private final long delay;
+
+		/**
+		 * Creates a new stream.
+		 * 
+		 * @param delay
+		 *            The delay per write in milliseconds.
+		 */
+		SlowOutputStream(long delay) {
+			this.delay = delay;
+		}
+
+		public void write(int b) {
+			throw new UnsupportedOperationException();
+		}
+
+		public void write(byte[] b, int off, int len) {
+			delay(delay);
+		}
+	}
+
+	/**
+	 * Runs the benchmark.
+	 * 
+	 * @param args
+	 *            The number of buffers and the delays of both devices.
+	 * @throws IOException
+	 *             If the contents cannot be copied.
+	 */
+	public static void main(String[] args) throws IOException {
+		int buffers = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		long readDelay = args.length > 1 ? Long.parseLong(args[1]) : 10;
+		long writeDelay = args.length > 2 ? Long.parseLong(args[2]) : 10;
+		long length = (long) buffers * BUFFER_SIZE;
+
+		// Alternately read and write:
+		InputStream in = new SlowInputStream(length, readDelay);
+		OutputStream out = new SlowOutputStream(writeDelay);
+		byte[] buf = new byte[BUFFER_SIZE];
+		long start = System.nanoTime();
+		int len;
+		while ((len = in.read(buf, 0, buf.length)) > 0)
+			out.write(buf, 0, len);
+		long alternating = System.nanoTime() - start;
+
+		// Read ahead:
+		in = new SlowInputStream(length, readDelay);
+		start = System.nanoTime();
+		JFSReadAhead ahead = new JFSReadAhead(in, length, BUFFER_SIZE, 4);
+		JFSReadAhead.Buffer b;
+		while ((b = ahead.take()) != null) {
+			out.write(b.data, 0, b.length);
+			ahead.release(b);
+		}
+		ahead.close();
+		long readAhead = System.nanoTime() - start;
+
+		System.out.println("Copying " + buffers + " buffers (read " + readDelay
+				+ " ms, write " + writeDelay + " ms): alternating "
+				+ alternating / 1000000 + " ms, read ahead " + readAhead
+				/ 1000000 + " ms");
+	}
+}